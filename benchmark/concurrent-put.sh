@@ -0,0 +1,33 @@
+#!/bin/bash
+# Small file PUT throughput and latency against a running file storage server, at increasing concurrency levels
+# usage: concurrent-put.sh [base url] [file size in KB] [requests per level] [concurrency levels]
+# i.e. concurrent-put.sh http://localhost:8080/api/v1/files 4 4000 "1 2 4 8 16"
+# PUTs of distinct files only contend on the server's file lock table and index updates, so the
+# throughput should keep growing with the concurrency level up to the number of cores
+
+BASE_URL=${1:-http://localhost:8080/api/v1/files}
+SIZE_KB=${2:-4}
+REQUESTS=${3:-4000}
+LEVELS=${4:-"1 2 4 8 16"}
+
+LOCAL_FILE=$(mktemp)
+LATENCIES=$(mktemp)
+trap "rm -f $LOCAL_FILE $LATENCIES" EXIT
+head -c $((SIZE_KB * 1024)) /dev/urandom > $LOCAL_FILE
+
+echo "$(nproc) cores, $REQUESTS PUTs of $SIZE_KB KB per concurrency level"
+for CONCURRENCY in $LEVELS; do
+    RUN=bench-put-$CONCURRENCY-$$
+    
+    # a single curl process running the PUTs in parallel, so the client doesn't dominate the measurement
+    START=$(date +%s%N)
+    curl -s --no-progress-meter -Z --parallel-max $CONCURRENCY -o /dev/null -w "%{time_total}\n" -X PUT \
+            -H "Content-Type: application/octet-stream" --data-binary @$LOCAL_FILE "$BASE_URL/$RUN-[1-$REQUESTS].bin" > $LATENCIES
+    END=$(date +%s%N)
+    
+    ELAPSED_MS=$(( (END - START) / 1000000 ))
+    LATENCY_STATS=$(sort -n $LATENCIES | awk '{ l[NR] = $1 * 1000; sum += l[NR] } END { printf "avg %.1f ms, p99 %.1f ms", sum / NR, l[int(NR * 0.99)] }')
+    echo "concurrency $CONCURRENCY: $ELAPSED_MS ms, $(( REQUESTS * 1000 / (ELAPSED_MS + 1) )) PUTs/s, latency $LATENCY_STATS"
+    
+    curl -s --no-progress-meter -Z --parallel-max $CONCURRENCY -o /dev/null -X DELETE "$BASE_URL/$RUN-[1-$REQUESTS].bin"
+done
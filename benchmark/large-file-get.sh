@@ -0,0 +1,30 @@
+#!/bin/bash
+# Large file GET load against a running file storage server
+# usage: large-file-get.sh [base url] [file size in MB] [requests] [concurrency]
+# i.e. compare runs with filestorage.read.zerocopy / filestorage.read.sendfile on and off
+
+BASE_URL=${1:-http://localhost:8080/api/v1/files}
+SIZE_MB=${2:-64}
+REQUESTS=${3:-40}
+CONCURRENCY=${4:-4}
+
+FILE_NAME=benchmark-${SIZE_MB}mb.bin
+LOCAL_FILE=$(mktemp)
+trap "rm -f $LOCAL_FILE" EXIT
+
+head -c $((SIZE_MB * 1000000)) /dev/urandom > $LOCAL_FILE
+curl -s -X PUT -H "Content-Type: application/octet-stream" --data-binary @$LOCAL_FILE $BASE_URL/$FILE_NAME > /dev/null
+
+# warm up
+for i in $(seq 1 $CONCURRENCY); do
+    curl -s $BASE_URL/$FILE_NAME -o /dev/null
+done
+
+START=$(date +%s%N)
+seq $REQUESTS | xargs -P $CONCURRENCY -I{} curl -s $BASE_URL/$FILE_NAME -o /dev/null
+END=$(date +%s%N)
+
+ELAPSED_MS=$(( (END - START) / 1000000 ))
+echo "$REQUESTS GETs of $SIZE_MB MB, $CONCURRENCY concurrent: $ELAPSED_MS ms, $(( REQUESTS * SIZE_MB * 1000 / (ELAPSED_MS + 1) )) MB/s"
+
+curl -s -X DELETE $BASE_URL/$FILE_NAME > /dev/null
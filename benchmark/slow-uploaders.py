@@ -0,0 +1,102 @@
+#!/usr/bin/env python3
+# Many concurrent slow uploaders against a running file storage server, measuring the latency of the GETs issued meanwhile
+# usage: slow-uploaders.py [base url] [uploaders] [upload seconds] [chunk bytes] [connects per second]
+# i.e. slow-uploaders.py http://localhost:8080/api/v1/files 10000 20 64 1000
+# each uploader sends a PUT trickling one chunk per second for the given duration. With the default Tomcat worker pool,
+# every slow upload holds a worker thread for its whole duration, so the other requests queue behind them. With virtual
+# threads (spring.threads.virtual.enabled=true) they are meant to only hold a virtual thread, which requires Java 24 or
+# later for Tomcat's blocking reads not to pin their carrier threads. With non-blocking transfers
+# (filestorage.async.io.enabled=true) an upload only holds a thread while its data is ready
+# the server's max connections (server.tomcat.max-connections, 8192 by default) and the open files limits of both
+# processes must allow for the number of uploaders
+
+import asyncio
+import os
+import sys
+import time
+from urllib.parse import urlparse
+
+BASE_URL = sys.argv[1] if len(sys.argv) > 1 else "http://localhost:8080/api/v1/files"
+UPLOADERS = int(sys.argv[2]) if len(sys.argv) > 2 else 10000
+UPLOAD_SECONDS = int(sys.argv[3]) if len(sys.argv) > 3 else 20
+CHUNK_BYTES = int(sys.argv[4]) if len(sys.argv) > 4 else 64
+CONNECTS_PER_SECOND = int(sys.argv[5]) if len(sys.argv) > 5 else 1000
+
+PROBE_INTERVAL = 0.5
+PROBE_TIMEOUT = 60
+
+url = urlparse(BASE_URL)
+host, port, path = url.hostname, url.port or 80, url.path.rstrip("/")
+run = "bench-slow-%d" % os.getpid()
+
+stats = {"connected": 0, "created": 0, "failed": 0}
+probe_latencies = []
+probe_failures = 0
+
+
+async def read_status(reader):
+    status_line = await reader.readline()
+    return int(status_line.split()[1]) if status_line else 0
+
+
+async def uploader(i):
+    chunk = b"x" * CHUNK_BYTES
+    try:
+        reader, writer = await asyncio.open_connection(host, port)
+        stats["connected"] += 1
+        writer.write(("PUT %s/%s-%d.bin HTTP/1.1\r\nHost: %s\r\nContent-Type: application/octet-stream\r\n"
+                      "Content-Length: %d\r\nConnection: close\r\n\r\n"
+                      % (path, run, i, host, CHUNK_BYTES * UPLOAD_SECONDS)).encode())
+        for second in range(UPLOAD_SECONDS):
+            writer.write(chunk)
+            await writer.drain()
+            if second < UPLOAD_SECONDS - 1:
+                await asyncio.sleep(1)
+        status = await read_status(reader)
+        stats["created" if status == 201 else "failed"] += 1
+        writer.close()
+    except (OSError, IndexError, ValueError):
+        stats["failed"] += 1
+
+
+async def probe():
+    global probe_failures
+    start = time.monotonic()
+    try:
+        reader, writer = await asyncio.wait_for(asyncio.open_connection(host, port), PROBE_TIMEOUT)
+        writer.write(("GET %s/size HTTP/1.1\r\nHost: %s\r\nConnection: close\r\n\r\n" % (path, host)).encode())
+        status = await asyncio.wait_for(read_status(reader), PROBE_TIMEOUT)
+        writer.close()
+        if status == 200:
+            probe_latencies.append((time.monotonic() - start) * 1000)
+            return
+    except (OSError, asyncio.TimeoutError, IndexError, ValueError):
+        pass
+    probe_failures += 1
+
+
+async def main():
+    start = time.monotonic()
+    uploads = []
+    for i in range(UPLOADERS):
+        uploads.append(asyncio.ensure_future(uploader(i)))
+        if (i + 1) % max(1, CONNECTS_PER_SECOND // 10) == 0:
+            await asyncio.sleep(0.1)
+    ramp_seconds = time.monotonic() - start
+
+    # GETs issued while the uploads are trickling
+    probes = []
+    while not all(upload.done() for upload in uploads):
+        probes.append(asyncio.ensure_future(probe()))
+        await asyncio.sleep(PROBE_INTERVAL)
+    await asyncio.gather(*probes)
+    elapsed = time.monotonic() - start
+
+    latencies = sorted(probe_latencies) or [0]
+    print("%d uploaders of %d bytes over %d s, connected in %.1f s" % (UPLOADERS, CHUNK_BYTES * UPLOAD_SECONDS, UPLOAD_SECONDS, ramp_seconds))
+    print("uploads: %d connected, %d created, %d failed, all done after %.1f s" % (stats["connected"], stats["created"], stats["failed"], elapsed))
+    print("GETs meanwhile: %d ok, %d failed, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms"
+          % (len(probe_latencies), probe_failures, latencies[len(latencies) // 2], latencies[int(len(latencies) * 0.99)], latencies[-1]))
+
+
+asyncio.run(main())
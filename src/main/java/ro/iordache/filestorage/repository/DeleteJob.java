@@ -0,0 +1,112 @@
+package ro.iordache.filestorage.repository;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bulk delete job. Its files are gone for readers as soon as the job is started, their unlinking from the
+ * file system being done in the background
+ */
+public class DeleteJob {
+    
+    public enum Status {
+        /**
+         * Some of the deleted files are still to be unlinked
+         */
+        RUNNING,
+        
+        /**
+         * All the deleted files are unlinked, or were replaced by new files meanwhile
+         */
+        COMPLETED
+    }
+    
+    private String id;
+    
+    private long started;
+    
+    private volatile long completed;
+    
+    private long deletedFiles;
+    
+    private AtomicLong unlinkedFiles = new AtomicLong();
+    
+    private AtomicLong failedFiles = new AtomicLong();
+    
+    private AtomicInteger pendingChunks = new AtomicInteger();
+    
+    public DeleteJob(String id, long started) {
+        this.id = id;
+        this.started = started;
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public long getStarted() {
+        return started;
+    }
+    
+    /**
+     * Gets the time the job completed at
+     * 
+     * @return the completion time, 0 while running
+     */
+    public long getCompleted() {
+        return completed;
+    }
+    
+    public Status getStatus() {
+        return completed > 0 ? Status.COMPLETED : Status.RUNNING;
+    }
+    
+    /**
+     * Gets the number of files deleted by the job, not counting the missing ones
+     * 
+     * @return the number of deleted files
+     */
+    public long getDeletedFiles() {
+        return deletedFiles;
+    }
+    
+    public long getUnlinkedFiles() {
+        return unlinkedFiles.get();
+    }
+    
+    public long getFailedFiles() {
+        return failedFiles.get();
+    }
+    
+    /**
+     * Starts unlinking the deleted files, in chunks
+     * 
+     * @param deletedFiles - the number of deleted files
+     * @param chunks - the number of chunks the files are unlinked in
+     */
+    public void startUnlinking(long deletedFiles, int chunks) {
+        this.deletedFiles = deletedFiles;
+        this.pendingChunks.set(chunks);
+        if (chunks == 0) {
+            completed = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Counts a chunk of files as unlinked
+     * 
+     * @param unlinked - the files of the chunk unlinked
+     * @param failed - the files of the chunk failing to unlink
+     * @return true if it was the job's last chunk
+     */
+    public boolean chunkUnlinked(long unlinked, long failed) {
+        unlinkedFiles.addAndGet(unlinked);
+        failedFiles.addAndGet(failed);
+        if (pendingChunks.decrementAndGet() > 0) {
+            return false;
+        }
+        
+        completed = System.currentTimeMillis();
+        return true;
+    }
+}
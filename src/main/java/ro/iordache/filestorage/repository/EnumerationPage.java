@@ -0,0 +1,31 @@
+package ro.iordache.filestorage.repository;
+
+import java.util.List;
+
+/**
+ * A page of file names matching an enumeration pattern
+ */
+public class EnumerationPage {
+    
+    private List<String> matchingItems;
+    
+    private String continuationToken;
+    
+    public EnumerationPage(List<String> matchingItems, String continuationToken) {
+        this.matchingItems = matchingItems;
+        this.continuationToken = continuationToken;
+    }
+    
+    public List<String> getMatchingItems() {
+        return this.matchingItems;
+    }
+    
+    /**
+     * Gets the opaque token to resume the enumeration right after this page
+     * 
+     * @return the continuation token, {@code null} if there are no more matching items
+     */
+    public String getContinuationToken() {
+        return this.continuationToken;
+    }
+}
@@ -2,6 +2,7 @@ package ro.iordache.filestorage.repository;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -10,6 +11,39 @@ import java.util.regex.Pattern;
  */
 public interface FileSystemStorageService {
     
+    /**
+     * Receives the file names matching an enumeration pattern, as they are found
+     */
+    public interface EnumerationVisitor {
+        
+        /**
+         * @param fileName - a matching file name, only valid during this call
+         * @throws IOException on errors handling the file name, stopping the enumeration
+         */
+        public void visit(CharSequence fileName) throws IOException;
+    }
+    
+    /**
+     * Stores many files in a row, the new file names being added to the index in batches instead of one by one
+     */
+    public interface BulkStore {
+        
+        /**
+         * Stores a file, as {@link FileSystemStorageService#storeFile(String, InputStream, long)} does
+         * 
+         * @param fileName - the file name
+         * @param contentsInputStream - an {@link InputStream} with the file's contents
+         * @param contentLength - the contents length, -1 if unknown
+         * @return - true if this is a new file or false otherwise
+         */
+        public boolean storeFile(String fileName, InputStream contentsInputStream, long contentLength) throws Exception;
+        
+        /**
+         * Adds the new files stored so far to the index, to be called once done storing files
+         */
+        public void close();
+    }
+    
     /**
      * Gets the total size of this store
      * 
@@ -27,6 +61,77 @@ public interface FileSystemStorageService {
      */
     public boolean storeFile(String fileName, InputStream contentsInputStream) throws Exception;
     
+    /**
+     * Stores a file in the server's storage, its contents length being known up front
+     * 
+     * @param fileName - the file name
+     * @param contentsInputStream - an {@link InputStream} with the file's contents
+     * @param contentLength - the contents length, i.e. from the Content-Length header, -1 if unknown
+     * @return - true if this is a new file or false otherwise
+     */
+    public boolean storeFile(String fileName, InputStream contentsInputStream, long contentLength) throws Exception;
+    
+    /**
+     * Starts staging an upload whose contents are written through an {@link java.nio.channels.AsynchronousFileChannel}
+     * as they arrive, so no thread waits for them
+     * 
+     * @param fileName - the file name
+     * @return the {@link StagedUpload}, to be committed or aborted once done
+     * @throws IOException on errors creating the staged file
+     * @throws UnsupportedOperationException if non-blocking transfers are disabled
+     */
+    public StagedUpload stageUpload(String fileName) throws IOException;
+    
+    /**
+     * Stores a file staged through {@link #stageUpload(String)}, the same way {@link #storeFile(String, InputStream, long)}
+     * stores it once its contents are copied
+     * 
+     * @param stagedUpload - the {@link StagedUpload}, with all its contents written
+     * @return - true if this is a new file or false otherwise
+     */
+    public boolean commitUpload(StagedUpload stagedUpload) throws Exception;
+    
+    /**
+     * Drops a staged upload, i.e. when the request failed
+     * 
+     * @param stagedUpload - the {@link StagedUpload}
+     */
+    public void abortUpload(StagedUpload stagedUpload);
+    
+    /**
+     * Starts storing many files in a row
+     * 
+     * @return a {@link BulkStore}, to be closed once done
+     */
+    public BulkStore startBulkStore();
+    
+    /**
+     * Starts deleting several files. The files are gone for readers and from the storage size and index once this
+     * returns, being unlinked from the file system in the background
+     * 
+     * @param fileNames - the names of the files to delete, missing files being ignored
+     * @return the started {@link DeleteJob}
+     * @throws IOException on errors recording the deleted files
+     */
+    public DeleteJob deleteFiles(Collection<String> fileNames) throws IOException;
+    
+    /**
+     * Starts deleting the files matching a regular expression, as {@link #deleteFiles(Collection)} does
+     * 
+     * @param regexPattern - the {@link Pattern} the file names must match
+     * @return the started {@link DeleteJob}
+     * @throws IOException on errors scanning the index or recording the deleted files
+     */
+    public DeleteJob deleteFiles(Pattern regexPattern) throws IOException;
+    
+    /**
+     * Gets a recently started delete job
+     * 
+     * @param jobId - the job id
+     * @return the {@link DeleteJob}, {@code null} if unknown
+     */
+    public DeleteJob getDeleteJob(String jobId);
+    
     /**
      * Deletes a file from the server's storage
      * 
@@ -46,6 +151,15 @@ public interface FileSystemStorageService {
      */
     public long getFileLastModified(String fileName) throws IOException;
     
+    /**
+     * Gets a stored file's size and last modified date, without opening the file
+     * 
+     * @param fileName - the file name
+     * @return the file's {@link StoredFileInfo}, {@code null} if the file is not found in this server's storage
+     * @throws IOException
+     */
+    public StoredFileInfo getFileInfo(String fileName) throws IOException;
+    
     /**
      * Returns a stored file's contents as an {@link InputStream}
      * 
@@ -56,6 +170,38 @@ public interface FileSystemStorageService {
      */
     public InputStream getFileContent(String fileName) throws IOException;
     
+    /**
+     * Returns the decoded contents of an opened file as an {@link InputStream}, its size being the file's
+     * {@link StoredFile#getContentSize()}
+     * 
+     * @param storedFile - the {@link StoredFile} opened by {@link #openStoredFile(String)}, closed with the returned stream
+     * @return an {@link InputStream} of the decoded file contents
+     * @throws IOException if the stored contents are not valid for their content coding
+     */
+    public InputStream getDecodedContent(StoredFile storedFile) throws IOException;
+    
+    /**
+     * Opens a stored file for reading through a {@link java.nio.channels.FileChannel}
+     * 
+     * @param fileName - the file name
+     * @return the opened {@link StoredFile}, to be closed by the caller, {@code null} if the file is not found
+     * in this server's storage
+     * @throws IOException
+     */
+    public StoredFile openStoredFile(String fileName) throws IOException;
+    
+    /**
+     * Opens a stored file for non-blocking transfers, through an {@link java.nio.channels.AsynchronousFileChannel}.
+     * Cached files are returned with their contents, as {@link #openStoredFile(String)} returns them
+     * 
+     * @param fileName - the file name
+     * @return the opened {@link StoredFile}, to be closed by the caller, {@code null} if the file is not found
+     * in this server's storage
+     * @throws IOException
+     * @throws UnsupportedOperationException if non-blocking transfers are disabled
+     */
+    public StoredFile openAsyncStoredFile(String fileName) throws IOException;
+    
     /**
      * Returns a list of file names matching a given pattern
      * 
@@ -66,4 +212,27 @@ public interface FileSystemStorageService {
      * @return a {@link List} of file names matching the pattern
      */
     public List<String> enumerate(Pattern regexPattern, long startIndex, long pageSize);
+    
+    /**
+     * Returns a page of file names matching a given pattern, resuming where a previous page stopped
+     * 
+     * @param regexPattern - a compiled {@link Pattern} representing the regex to be matched
+     * @param startIndex - starting index in the result set, only used if there's no continuation token
+     * @param continuationToken - continuation token returned with the previous page, can be {@code null}
+     * @param pageSize - max number of items per page
+     * 
+     * @return an {@link EnumerationPage} with the file names matching the pattern
+     * @throws IllegalArgumentException if the continuation token is invalid
+     */
+    public EnumerationPage enumerate(Pattern regexPattern, long startIndex, String continuationToken, long pageSize);
+    
+    /**
+     * Passes all the file names matching a given pattern to a visitor, without collecting them
+     * 
+     * @param regexPattern - a compiled {@link Pattern} representing the regex to be matched
+     * @param visitor - the {@link EnumerationVisitor} receiving the matching file names
+     * @return the number of matching file names
+     * @throws IOException on errors scanning the index or thrown by the visitor
+     */
+    public long enumerate(Pattern regexPattern, EnumerationVisitor visitor) throws IOException;
 }
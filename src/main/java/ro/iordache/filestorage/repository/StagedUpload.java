@@ -0,0 +1,97 @@
+package ro.iordache.filestorage.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+/**
+ * An upload being staged in a temporary file, written through an {@link AsynchronousFileChannel} as the contents arrive.
+ * Writes must not overlap, each one being started once the previous one completed. The staged file is stored
+ * through {@link FileSystemStorageService#commitUpload(StagedUpload)} or dropped through
+ * {@link FileSystemStorageService#abortUpload(StagedUpload)}
+ */
+public class StagedUpload {
+    
+    private String fileName;
+    
+    private Path tmpFile;
+    
+    private AsynchronousFileChannel channel;
+    
+    private MessageDigest contentDigest;
+    
+    private long position;
+    
+    public StagedUpload(String fileName, Path tmpFile, AsynchronousFileChannel channel, MessageDigest contentDigest) {
+        this.fileName = fileName;
+        this.tmpFile = tmpFile;
+        this.channel = channel;
+        this.contentDigest = contentDigest;
+    }
+    
+    public String getFileName() {
+        return this.fileName;
+    }
+    
+    public Path getTmpFile() {
+        return this.tmpFile;
+    }
+    
+    /**
+     * Gets the number of bytes staged so far
+     *
+     * @return the staged file size
+     */
+    public long getPosition() {
+        return this.position;
+    }
+    
+    /**
+     * Starts writing the next contents, digesting them right away. The handler is called on the storage's I/O threads
+     * once the whole buffer is written
+     *
+     * @param contents - the next contents, fully written before the handler is called
+     * @param attachment - the object passed to the handler
+     * @param handler - the {@link CompletionHandler} called with the number of bytes written
+     */
+    public <A> void write(ByteBuffer contents, final A attachment, final CompletionHandler<Integer, ? super A> handler) {
+        contentDigest.update(contents.duplicate());
+        final ByteBuffer remaining = contents;
+        final int length = contents.remaining();
+        channel.write(remaining, position, attachment, new CompletionHandler<Integer, A>() {
+            public void completed(Integer written, A attachment) {
+                position += written;
+                if (remaining.hasRemaining()) {
+                    channel.write(remaining, position, attachment, this);
+                } else {
+                    handler.completed(length, attachment);
+                }
+            }
+            
+            public void failed(Throwable exc, A attachment) {
+                handler.failed(exc, attachment);
+            }
+        });
+    }
+    
+    /**
+     * Gets the digest of the staged contents, to be called once all the contents are written
+     *
+     * @return the contents digest
+     */
+    public byte[] digest() {
+        return contentDigest.digest();
+    }
+    
+    /**
+     * Closes the staged file channel
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {}
+    }
+}
@@ -0,0 +1,133 @@
+package ro.iordache.filestorage.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * An opened stored file. The file contents stay readable through the channel even if the file is deleted meanwhile.
+ * Files served from the content cache have their contents in a buffer instead, with no channel nor path.
+ * Files opened for non-blocking transfers have an {@link AsynchronousFileChannel} instead of a {@link FileChannel}.
+ */
+public class StoredFile {
+    
+    private Path path;
+    
+    private FileChannel channel;
+    
+    private AsynchronousFileChannel asyncChannel;
+    
+    private ByteBuffer content;
+    
+    private long size;
+    
+    private long lastModified;
+    
+    private String contentEncoding;
+    
+    private long contentSize;
+    
+    /**
+     * @param path - the stored file path
+     * @param channel - the opened file channel
+     * @param size - the stored file size
+     * @param lastModified - the last modified date, in millis
+     * @param contentEncoding - the content coding the file is stored with, {@code null} if stored as is
+     * @param contentSize - the decoded contents size, the stored size for files stored as is
+     */
+    public StoredFile(Path path, FileChannel channel, long size, long lastModified, String contentEncoding, long contentSize) {
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.contentEncoding = contentEncoding;
+        this.contentSize = contentSize;
+    }
+    
+    /**
+     * Creates a file opened for non-blocking transfers, as {@link #StoredFile(Path, FileChannel, long, long, String, long)} does
+     */
+    public StoredFile(Path path, AsynchronousFileChannel asyncChannel, long size, long lastModified, String contentEncoding, long contentSize) {
+        this(path, (FileChannel) null, size, lastModified, contentEncoding, contentSize);
+        this.asyncChannel = asyncChannel;
+    }
+    
+    /**
+     * Creates a cached file, as {@link #StoredFile(Path, FileChannel, long, long, String, long)} does, its size being the content's
+     */
+    public StoredFile(ByteBuffer content, long lastModified, String contentEncoding, long contentSize) {
+        this.content = content;
+        this.size = content.remaining();
+        this.lastModified = lastModified;
+        this.contentEncoding = contentEncoding;
+        this.contentSize = contentSize;
+    }
+    
+    public Path getPath() {
+        return this.path;
+    }
+    
+    public FileChannel getChannel() {
+        return this.channel;
+    }
+    
+    /**
+     * Gets the channel of a file opened for non-blocking transfers
+     * 
+     * @return the asynchronous file channel, {@code null} if the file is read through its {@link FileChannel} or cached
+     */
+    public AsynchronousFileChannel getAsyncChannel() {
+        return this.asyncChannel;
+    }
+    
+    /**
+     * Gets the contents of a cached file
+     * 
+     * @return a view over the file contents, {@code null} if the file is read through its channel
+     */
+    public ByteBuffer getContent() {
+        return this.content == null ? null : this.content.duplicate();
+    }
+    
+    public long getSize() {
+        return this.size;
+    }
+    
+    public long getLastModified() {
+        return this.lastModified;
+    }
+    
+    /**
+     * Gets the content coding the file is stored with, its size and contents being the encoded ones
+     * 
+     * @return the content coding, i.e. "gzip", {@code null} if the file is stored as is
+     */
+    public String getContentEncoding() {
+        return this.contentEncoding;
+    }
+    
+    /**
+     * Gets the size of the decoded file contents
+     * 
+     * @return the decoded contents size, the stored size for files stored as is, -1 if unknown
+     */
+    public long getContentSize() {
+        return this.contentSize;
+    }
+    
+    /**
+     * Closes the file channel
+     */
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (asyncChannel != null) {
+                asyncChannel.close();
+            }
+        } catch (IOException e) {}
+    }
+}
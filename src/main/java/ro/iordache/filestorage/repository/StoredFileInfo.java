@@ -0,0 +1,86 @@
+package ro.iordache.filestorage.repository;
+
+/**
+ * A stored file's metadata, read with a single attribute lookup and without opening the file
+ */
+public class StoredFileInfo {
+    
+    private long size;
+    
+    private long lastModified;
+    
+    private String eTag;
+    
+    private String contentEncoding;
+    
+    private long storedSize;
+    
+    /**
+     * @param size - the uncompressed contents size
+     * @param lastModified - the last modified date, in millis
+     * @param eTag - the quoted entity tag, {@code null} if not known
+     * @param contentEncoding - the content coding the file is stored with, {@code null} if stored as is
+     * @param storedSize - the stored file size
+     */
+    public StoredFileInfo(long size, long lastModified, String eTag, String contentEncoding, long storedSize) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.eTag = eTag;
+        this.contentEncoding = contentEncoding;
+        this.storedSize = storedSize;
+    }
+    
+    /**
+     * Gets the size of the file's contents
+     * 
+     * @return the uncompressed contents size
+     */
+    public long getSize() {
+        return this.size;
+    }
+    
+    public long getLastModified() {
+        return this.lastModified;
+    }
+    
+    /**
+     * Gets the file's strong entity tag, derived from the digest of its contents
+     * 
+     * @return the quoted entity tag, {@code null} if the file has no content digest stored
+     */
+    public String getETag() {
+        return this.eTag;
+    }
+    
+    /**
+     * Gets the entity tag of the file's contents sent with a given content coding. Each coding gets its own
+     * strong entity tag, i.e. "3fa2...e1-gzip"
+     * 
+     * @param contentEncoding - the content coding the contents are sent with, {@code null} for the contents as is
+     * @return the quoted entity tag, {@code null} if the file has no content digest stored
+     */
+    public String getETag(String contentEncoding) {
+        if (this.eTag == null || contentEncoding == null) {
+            return this.eTag;
+        }
+        return this.eTag.substring(0, this.eTag.length() - 1) + "-" + contentEncoding + "\"";
+    }
+    
+    /**
+     * Gets the content coding the file is stored with
+     * 
+     * @return the content coding, i.e. "gzip", {@code null} if the file is stored as is
+     */
+    public String getContentEncoding() {
+        return this.contentEncoding;
+    }
+    
+    /**
+     * Gets the size of the file in the storage
+     * 
+     * @return the stored file size, compressed if the file is stored with a content coding
+     */
+    public long getStoredSize() {
+        return this.storedSize;
+    }
+}
@@ -2,26 +2,66 @@ package ro.iordache.filestorage.repository.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.util.FileCopyUtils;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import ro.iordache.filestorage.repository.DeleteJob;
+import ro.iordache.filestorage.repository.EnumerationPage;
 import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StagedUpload;
+import ro.iordache.filestorage.repository.StoredFile;
+import ro.iordache.filestorage.repository.StoredFileInfo;
+import ro.iordache.filestorage.repository.impl.cache.ByteBufferInputStream;
+import ro.iordache.filestorage.repository.impl.cache.CachedFileContent;
+import ro.iordache.filestorage.repository.impl.cache.FileContentCache;
+import ro.iordache.filestorage.repository.impl.compression.ContentCompression;
+import ro.iordache.filestorage.repository.impl.dedup.ContentBlobStore;
+import ro.iordache.filestorage.repository.impl.durability.DurabilityMode;
+import ro.iordache.filestorage.repository.impl.durability.FileSyncer;
 import ro.iordache.filestorage.repository.impl.index.StorageIndex;
+import ro.iordache.filestorage.repository.impl.tombstone.TombstoneTable;
+import ro.iordache.filestorage.repository.impl.upload.ChannelUploadWriter;
+import ro.iordache.filestorage.repository.impl.upload.DirectBufferPool;
 import ro.iordache.filestorage.repository.util.FileSystemStorageHelperImpl;
+import ro.iordache.filestorage.repository.util.StripedLockTable;
 
 /**
  * File system storage operations service implementation
@@ -34,8 +74,18 @@ public class FileSystemStorageServiceImpl implements FileSystemStorageService {
     // atomic long keeping track of the storage size
     private AtomicLong size;
     
-    // map used to sync certain file operations 
-    private ConcurrentHashMap<String, WeakReference<Object>> fileLocks;
+    /**
+     * max number of new files of a bulk store added to the index at once
+     */
+    private static final int BULK_INDEX_BATCH_SIZE = 1024;
+    
+    /**
+     * number of stripes of the file lock table, operations on files hashing to the same stripe being serialized
+     */
+    private static final int FILE_LOCK_STRIPES = 1024;
+    
+    // locks used to sync certain file operations
+    private StripedLockTable fileLocks;
     
     @Autowired
     private FileSystemStorageHelperImpl storageHelper;
@@ -43,16 +93,227 @@ public class FileSystemStorageServiceImpl implements FileSystemStorageService {
     @Autowired
     private StorageIndex storageIndex;
     
+    @Value("${filestorage.cache.memory.mb:0}")
+    private long contentCacheMemoryMB;
+    
+    @Value("${filestorage.cache.file.max.kb:64}")
+    private int contentCacheMaxFileKB;
+    
+    /**
+     * Off-heap cache of small file contents, null if disabled
+     */
+    private FileContentCache contentCache;
+    
+    @Value("${filestorage.dedup.enabled:false}")
+    private boolean dedupStorage;
+    
+    @Value("${filestorage.dedup.blobs.folder:blobs}")
+    private String dedupBlobsFolder;
+    
+    /**
+     * Content addressed store the stored files are linked to, null if deduplication is disabled
+     */
+    private ContentBlobStore blobStore;
+    
+    @Value("${filestorage.compression.enabled:false}")
+    private boolean compressedStorage;
+    
+    @Value("${filestorage.compression.min.size:1024}")
+    private int compressionMinSize;
+    
+    /**
+     * Compresses the compressible contents of the stored files, null if compression is disabled
+     */
+    private ContentCompression contentCompression;
+    
+    @Value("${filestorage.upload.buffer.kb:256}")
+    private int uploadBufferKB;
+    
+    @Value("${filestorage.upload.buffers.pooled:16}")
+    private int uploadPooledBuffers;
+    
+    @Value("${filestorage.upload.buffers.max:64}")
+    private int uploadMaxBuffers;
+    
+    /**
+     * Writes the uploaded contents stored as is, through pooled direct buffers
+     */
+    private ChannelUploadWriter uploadWriter;
+    
+    @Value("${filestorage.durability.mode:none}")
+    private String durabilityMode;
+    
+    @Value("${filestorage.durability.group.delay.ms:2}")
+    private long groupCommitDelayMillis;
+    
+    @Value("${filestorage.durability.group.batch.max:64}")
+    private int groupCommitMaxBatch;
+    
+    /**
+     * Fsyncs the stored files and their folders as configured by the durability mode
+     */
+    private FileSyncer fileSyncer;
+    
+    /**
+     * Number of files a bulk delete job unlinks per task, their folders being fsynced together
+     */
+    private static final int UNLINK_CHUNK_SIZE = 256;
+    
+    /**
+     * Number of recent bulk delete jobs whose status is kept
+     */
+    private static final int MAX_DELETE_JOBS = 1000;
+    
+    @Value("${filestorage.delete.unlink.threads:2}")
+    private int unlinkThreads;
+    
+    @Value("${filestorage.async.io.enabled:false}")
+    private boolean asyncIo;
+    
+    @Value("${filestorage.async.io.threads:4}")
+    private int asyncIoThreads;
+    
+    /**
+     * Runs the completion handlers of the asynchronous file channels of non-blocking transfers, null if disabled
+     */
+    private ExecutorService asyncIoExecutor;
+    
+    /**
+     * The files of bulk delete jobs still to be unlinked
+     */
+    private TombstoneTable tombstones;
+    
+    /**
+     * Unlinks the files of bulk delete jobs, bounding the I/O concurrency of the deletes to its threads
+     */
+    private ExecutorService unlinkExecutor;
+    
     public FileSystemStorageServiceImpl() {
         size = new AtomicLong();
         
-        fileLocks = new ConcurrentHashMap<String, WeakReference<Object>>();
+        fileLocks = new StripedLockTable(FILE_LOCK_STRIPES);
     }
     
     @PostConstruct
     public void init() {
-        long currentRepoSize = storageIndex.buildIndex(storageHelper.getStoragePath());
+        if (fileSyncer == null) {
+            fileSyncer = new FileSyncer(DurabilityMode.parse(durabilityMode), groupCommitDelayMillis, groupCommitMaxBatch);
+        }
+        
+        if (tombstones == null) {
+            // files of bulk deletes interrupted by a crash are unlinked before the index is loaded
+            tombstones = new TombstoneTable(storageHelper.getTempStoragePath(), MAX_DELETE_JOBS);
+            unlinkPendingTombstones();
+            
+            final AtomicInteger threadCount = new AtomicInteger();
+            unlinkExecutor = Executors.newFixedThreadPool(Math.max(unlinkThreads, 1), new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "unlink-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        if (asyncIo && asyncIoExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            asyncIoExecutor = Executors.newFixedThreadPool(Math.max(asyncIoThreads, 1), new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "async-io-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        long currentRepoSize = storageIndex.loadIndex(storageHelper);
         size.set(currentRepoSize);
+        
+        if (uploadWriter == null) {
+            uploadWriter = new ChannelUploadWriter(new DirectBufferPool(uploadBufferKB * 1024, uploadPooledBuffers, uploadMaxBuffers));
+        }
+        
+        if (contentCacheMemoryMB > 0) {
+            contentCache = new FileContentCache(contentCacheMemoryMB * 1024 * 1024, contentCacheMaxFileKB * 1024);
+        }
+        
+        if (dedupStorage && blobStore == null) {
+            if (!ContentBlobStore.isSupported()) {
+                logger.warn("File links can't be counted on this file system, storing files without deduplication");
+            } else {
+                try {
+                    blobStore = new ContentBlobStore(Paths.get(dedupBlobsFolder));
+                } catch (IOException e) {
+                    logger.error("Could not create the blobs folder, storing files without deduplication!", e);
+                }
+            }
+        }
+        
+        if (compressedStorage && contentCompression == null) {
+            // compressed files are marked through extended attributes, which the storage must support
+            if (!isCompressedContentMarkSupported()) {
+                logger.warn("Extended attributes not supported by the storage file system, storing files without compression");
+            } else {
+                contentCompression = new ContentCompression(compressionMinSize, uploadWriter);
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (unlinkExecutor != null) {
+            // the queued unlinks are finished, the files of jobs still running otherwise being unlinked on the next startup
+            unlinkExecutor.shutdown();
+            try {
+                unlinkExecutor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        if (asyncIoExecutor != null) {
+            asyncIoExecutor.shutdown();
+        }
+        
+        if (fileSyncer != null) {
+            fileSyncer.close();
+        }
+        
+        if (blobStore != null) {
+            blobStore.close();
+        }
+    }
+    
+    private boolean isCompressedContentMarkSupported() {
+        try {
+            Path probeFile = Files.createTempFile(storageHelper.getTempStoragePath(), null, ".tmp");
+            try {
+                return storageHelper.writeCompressedContentSize(probeFile, 0);
+            } finally {
+                Files.delete(probeFile);
+            }
+        } catch (IOException e) {
+            logger.error("Could not probe the extended attributes support of the storage file system!", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Deletes the deduplicated contents no longer linked to any stored file
+     */
+    @Scheduled(fixedDelayString = "${filestorage.dedup.gc.interval:300000}")
+    public void collectGarbage() {
+        if (blobStore == null) {
+            return;
+        }
+        
+        try {
+            long startCollection = System.currentTimeMillis();
+            long deletedBlobs = blobStore.collectGarbage();
+            logger.debug("Deleted {} unreferenced blobs in {} seconds", deletedBlobs, (float)(System.currentTimeMillis() - startCollection)/1000);
+        } catch (IOException e) {
+            logger.error("Error collecting unreferenced blobs!", e);
+        }
     }
     
     public long getSize() {
@@ -79,6 +340,46 @@ public class FileSystemStorageServiceImpl implements FileSystemStorageService {
         
         return results;
     }
+    
+    /**
+     * Searches the stored file names for a given {@link Pattern}, resuming from a continuation token
+     * 
+     * @param regexPattern - the {@link Pattern} to match
+     * @param startIndex - starting index of the result set, only used if there's no continuation token
+     * @param continuationToken - continuation token returned with the previous page, can be {@code null}
+     * @param pageSize - max number of items returned
+     * @return an {@link EnumerationPage} with the file names matching the pattern and the token of the next page
+     * 
+     */
+    public EnumerationPage enumerate(Pattern regexPattern, long startIndex, String continuationToken, long pageSize) {
+        logger.debug("Scanning file repository for pattern {}", regexPattern.toString());
+        long startScan = System.currentTimeMillis();
+        
+        EnumerationPage results = storageIndex.scanRepoIndex(regexPattern, startIndex, continuationToken, pageSize);
+        
+        logger.debug("Scanning file repository for pattern {} took {} seconds", regexPattern.toString(), (float)(System.currentTimeMillis() - startScan)/1000);
+        
+        return results;
+    }
+    
+    /**
+     * Streams the stored file names matching a given {@link Pattern} to a visitor
+     * 
+     * @param regexPattern - the {@link Pattern} to match
+     * @param visitor - the {@link EnumerationVisitor} receiving the matching file names
+     * @return the number of matching file names
+     * @throws IOException on errors scanning the index or thrown by the visitor
+     */
+    public long enumerate(Pattern regexPattern, EnumerationVisitor visitor) throws IOException {
+        logger.debug("Streaming file repository matches for pattern {}", regexPattern.toString());
+        long startScan = System.currentTimeMillis();
+        
+        long matches = storageIndex.scanRepoIndex(regexPattern, visitor);
+        
+        logger.debug("Streaming {} file repository matches for pattern {} took {} seconds", matches, regexPattern.toString(), (float)(System.currentTimeMillis() - startScan)/1000);
+        
+        return matches;
+    }
 
     /**
      * Stores a file in the storage
@@ -90,8 +391,71 @@ public class FileSystemStorageServiceImpl implements FileSystemStorageService {
      * @throws method will re-throw any exception that occurs while attempting to store the file
      */
     public boolean storeFile(String fileName, InputStream contentsInputStream) throws Exception {
-        Path destinationFile = storageHelper.getStorageFile(fileName);
-        boolean isNew = false;
+        return storeFile(fileName, contentsInputStream, -1);
+    }
+    
+    /**
+     * Stores a file in the storage. The contents are staged in a temporary file on the storage's file system,
+     * then renamed in place.
+     * 
+     * @param fileName - the name of the file 
+     * @param contentsInputStream - an {@link InputStream} with the file contents
+     * @param contentLength - the contents length, -1 if unknown
+     * 
+     * @return a boolean flag indicating if the stored file is a new file or not
+     * @throws method will re-throw any exception that occurs while attempting to store the file
+     */
+    public boolean storeFile(String fileName, InputStream contentsInputStream, long contentLength) throws Exception {
+        return storeFile(fileName, contentsInputStream, null);
+    }
+    
+    public BulkStore startBulkStore() {
+        return new BulkStore() {
+            private List<String> newFiles = new ArrayList<String>();
+            
+            public boolean storeFile(String fileName, InputStream contentsInputStream, long contentLength) throws Exception {
+                boolean isNew = FileSystemStorageServiceImpl.this.storeFile(fileName, contentsInputStream, newFiles);
+                if (newFiles.size() >= BULK_INDEX_BATCH_SIZE) {
+                    flushNewFiles(newFiles);
+                }
+                return isNew;
+            }
+            
+            public void close() {
+                flushNewFiles(newFiles);
+            }
+        };
+    }
+    
+    /**
+     * Adds a batch of new files to the index, skipping those deleted since they were stored
+     */
+    private void flushNewFiles(List<String> newFiles) {
+        List<String> storedFiles = new ArrayList<String>(newFiles.size());
+        for (String fileName : newFiles) {
+            Lock fileLock = fileLocks.getLock(fileName);
+            fileLock.lock();
+            try {
+                if (storageHelper.findFile(fileName) != null && !tombstones.isTombstoned(fileName)) {
+                    storedFiles.add(fileName);
+                }
+            } finally {
+                fileLock.unlock();
+            }
+        }
+        
+        storageIndex.addToIndex(storedFiles);
+        newFiles.clear();
+        
+        syncIndexJournal(storedFiles.size());
+    }
+    
+    /**
+     * Stores a file, the new file name being either added to the index right away or collected in a batch
+     * 
+     * @param newFiles - the batch of new file names to be added to the index, {@code null} to add the file right away
+     */
+    private boolean storeFile(String fileName, InputStream contentsInputStream, List<String> newFiles) throws Exception {
         logger.debug("Storing file {} in the internal storage", fileName);
 
         Path tmpFile = null;
@@ -99,46 +463,181 @@ public class FileSystemStorageServiceImpl implements FileSystemStorageService {
             // store the contents in a temporary file
             tmpFile = Files.createTempFile(storageHelper.getTempStoragePath(), null, ".tmp");
             
-            FileCopyUtils.copy(contentsInputStream, 
-                    Files.newOutputStream(tmpFile));
+            // digest the contents as they're copied, the digest being kept with the file as its entity tag
+            MessageDigest contentDigest = MessageDigest.getInstance(FileSystemStorageHelperImpl.CONTENT_DIGEST_ALGORITHM);
+            InputStream digestedContents = new DigestInputStream(contentsInputStream, contentDigest);
+            long compressedContentSize = -1;
+            if (contentCompression != null) {
+                compressedContentSize = contentCompression.copy(digestedContents, tmpFile);
+            } else {
+                uploadWriter.write(digestedContents, tmpFile);
+            }
+            
+            return commitStagedFile(fileName, tmpFile, contentDigest.digest(), compressedContentSize, newFiles);
+        } catch (Exception e) {
+            logger.error("Something went wrong while transferring the content input stream to destination file!", e);
+            
+            // cleanup the temp file if it's already there
+            if (tmpFile != null && Files.exists(tmpFile)) {
+                try {
+                    Files.delete(tmpFile);
+                } catch (IOException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            
+            // re-throw the exception, operation was not successful
+            throw e;
+        }
+    }
+    
+    /**
+     * Moves a staged file in place, once its contents are copied
+     * 
+     * @param tmpFile - the staged file in the staging folder, consumed by this call unless it fails
+     * @param digest - the digest of the uploaded contents
+     * @param compressedContentSize - the uncompressed contents size if the staged file is compressed, -1 otherwise
+     * @param newFiles - the batch of new file names to be added to the index, {@code null} to add the file right away
+     */
+    private boolean commitStagedFile(String fileName, Path tmpFile, byte[] digest, long compressedContentSize, List<String> newFiles) throws Exception {
+        boolean isNew = false;
+        
+        Path linkFile = null;
+        try {
+            // shard folders created for the file are new entries of their parent folders, to be fsynced as well
+            Set<Path> changedFolders = new LinkedHashSet<Path>();
+            Path folder = storageHelper.getStorageFile(fileName).getParent();
+            changedFolders.add(folder);
+            while (!Files.isDirectory(folder) && !folder.equals(storageHelper.getStoragePath())) {
+                folder = folder.getParent();
+                changedFolders.add(folder);
+            }
+            
+            Path destinationFile = storageHelper.prepareStorageFile(fileName);
+            
+            storageHelper.writeContentDigest(tmpFile, digest);
+            if (compressedContentSize >= 0) {
+                storageHelper.writeCompressedContentSize(tmpFile, compressedContentSize);
+            }
+            
+            // the data must be durable before the file is moved in place
+            fileSyncer.syncFile(tmpFile);
+            
+            if (blobStore != null) {
+                // the contents are stored once, the file being a link to them
+                linkFile = storageHelper.getTempStoragePath().resolve(tmpFile.getFileName() + ".link");
+                blobStore.link(tmpFile, toHex(digest), linkFile);
+                tmpFile = linkFile;
+                changedFolders.add(blobStore.getBlobPath(toHex(digest)).getParent());
+            }
             
             // lock operation for this particular file
-            Object fileLock = getOrCreateFileLock(fileName);
-            synchronized(fileLock) {
-                if (!Files.exists(destinationFile)) {
+            Lock fileLock = fileLocks.getLock(fileName);
+            fileLock.lock();
+            try {
+                // a file deleted by a bulk delete and not unlinked yet is replaced like a missing one
+                if (!Files.exists(destinationFile) || tombstones.revive(fileName)) {
                     isNew = true;
                 }
                 //atomically move the temporary file at it's right location in the storage
                 Files.move(tmpFile, destinationFile, StandardCopyOption.ATOMIC_MOVE);
                 
+                if (blobStore != null) {
+                    // renaming a link over another link to the same blob leaves both in place
+                    Files.deleteIfExists(tmpFile);
+                    
+                    // the blob's date is shared by all the files linked to it, the file keeps its own
+                    blobStore.setLastModified(fileName, Files.readAttributes(destinationFile, BasicFileAttributes.class),
+                            System.currentTimeMillis());
+                }
+                
+                if (contentCache != null) {
+                    contentCache.invalidate(fileName);
+                }
+                
                 if(isNew) {
                     // increment repo size
                     size.incrementAndGet();
                     
                     // update index, add new file
-                    storageIndex.addToIndex(fileName);
+                    if (newFiles == null) {
+                        storageIndex.addToIndex(fileName);
+                    } else {
+                        newFiles.add(fileName);
+                    }
                 }
+            } finally {
+                fileLock.unlock();
             }
             
+            // acknowledged once the move is durable, outside the file lock so that concurrent requests share group commits
+            fileSyncer.syncFolders(isNew && newFiles == null ? withIndexJournal(changedFolders) : changedFolders);
         } catch (Exception e) {
-            logger.error("Something went wrong while transferring the content input stream to destination file!", e);
-            
-            // cleanup the temp file if it's already there
-            if (tmpFile != null && Files.exists(tmpFile)) {
-                try {
-                    Files.delete(tmpFile);
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
+            // the staged file is cleaned up by the caller, a link to its blob being left here otherwise
+            if (linkFile != null) {
+                Files.deleteIfExists(linkFile);
             }
-            
-            // re-throw the exception, operation was not successful
             throw e;
         }
         
         return isNew;
     }
     
+    public StagedUpload stageUpload(String fileName) throws IOException {
+        if (asyncIoExecutor == null) {
+            throw new UnsupportedOperationException("Non-blocking transfers are disabled");
+        }
+        
+        MessageDigest contentDigest;
+        try {
+            contentDigest = MessageDigest.getInstance(FileSystemStorageHelperImpl.CONTENT_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Content digest algorithm not available", e);
+        }
+        
+        // the staged file's completion handlers run on the async I/O threads
+        Path tmpFile = Files.createTempFile(storageHelper.getTempStoragePath(), null, ".tmp");
+        try {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(tmpFile, Collections.singleton(StandardOpenOption.WRITE),
+                    asyncIoExecutor);
+            return new StagedUpload(fileName, tmpFile, channel, contentDigest);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+    }
+    
+    public boolean commitUpload(StagedUpload stagedUpload) throws Exception {
+        logger.debug("Storing staged file {} in the internal storage", stagedUpload.getFileName());
+        stagedUpload.close();
+        
+        Path tmpFile = stagedUpload.getTmpFile();
+        try {
+            byte[] digest = stagedUpload.digest();
+            
+            // the contents arrived in arbitrary chunks, so they are sniffed and compressed once staged
+            long compressedContentSize = -1;
+            if (contentCompression != null) {
+                compressedContentSize = contentCompression.compress(tmpFile);
+            }
+            
+            return commitStagedFile(stagedUpload.getFileName(), tmpFile, digest, compressedContentSize, null);
+        } catch (Exception e) {
+            logger.error("Something went wrong while storing staged file {}!", stagedUpload.getFileName(), e);
+            Files.deleteIfExists(tmpFile);
+            throw e;
+        }
+    }
+    
+    public void abortUpload(StagedUpload stagedUpload) {
+        stagedUpload.close();
+        try {
+            Files.deleteIfExists(stagedUpload.getTmpFile());
+        } catch (IOException e) {
+            logger.error("Error deleting staged file {}!", stagedUpload.getTmpFile(), e);
+        }
+    }
+    
     public boolean deleteFile(String fileName) throws IOException {
         logger.debug("Deleting file {} from the internal storage", fileName);
         Path resolvedFileToDelete = storageHelper.findFile(fileName);
@@ -149,62 +648,480 @@ public class FileSystemStorageServiceImpl implements FileSystemStorageService {
         }
         
         // lock operation for this particular file
-        Object fileLock = getOrCreateFileLock(fileName);
-        synchronized(fileLock) {
+        Lock fileLock = fileLocks.getLock(fileName);
+        fileLock.lock();
+        try {
+            if (tombstones.isTombstoned(fileName)) {
+                logger.debug("[DELETE] File {} already deleted by a bulk delete", fileName);
+                return false;
+            }
+            
             Files.delete(resolvedFileToDelete);
             
+            if (blobStore != null) {
+                blobStore.removeLastModified(fileName);
+            }
+            
+            if (contentCache != null) {
+                contentCache.invalidate(fileName);
+            }
+            
             // update the store size and index
             size.decrementAndGet();
             storageIndex.removeFromIndex(fileName);
+        } finally {
+            fileLock.unlock();
         }
         
+        fileSyncer.syncFolders(withIndexJournal(Collections.singleton(resolvedFileToDelete.getParent())));
+        
         logger.debug("[DELETE] Deleting {} successful", fileName);
         return true;
     }
     
+    public DeleteJob deleteFiles(Collection<String> fileNames) throws IOException {
+        DeleteJob job = tombstones.createJob();
+        logger.debug("[BULK DELETE] Starting job {} for {} files", job.getId(), fileNames.size());
+        
+        // each file is tombstoned under its lock, gone for readers right away, its file key telling it apart from a new file later
+        Map<String, Object> tombstonedFiles = new LinkedHashMap<String, Object>();
+        for (String fileName : fileNames) {
+            Lock fileLock = fileLocks.getLock(fileName);
+            fileLock.lock();
+            try {
+                BasicFileAttributes attr;
+                try {
+                    attr = Files.readAttributes(storageHelper.getStorageFile(fileName), BasicFileAttributes.class);
+                } catch (NoSuchFileException nsfe) {
+                    continue;
+                }
+                
+                if (!attr.isRegularFile() || !tombstones.tombstone(fileName, job)) {
+                    continue;
+                }
+                
+                if (contentCache != null) {
+                    contentCache.invalidate(fileName);
+                }
+                size.decrementAndGet();
+                tombstonedFiles.put(fileName, attr.fileKey());
+            } finally {
+                fileLock.unlock();
+            }
+        }
+        
+        if (tombstonedFiles.isEmpty()) {
+            job.startUnlinking(0, 0);
+            return job;
+        }
+        
+        // recorded before the index forgets the files, so that a crash can't leave them unindexed on disk
+        try {
+            Path tombstonesFile = tombstones.writeTombstones(job, tombstonedFiles);
+            fileSyncer.syncFile(tombstonesFile);
+            fileSyncer.syncFolders(Collections.singleton(tombstonesFile.getParent()));
+        } catch (IOException e) {
+            logger.error("[BULK DELETE] Error recording the deleted files of job {}!", job.getId(), e);
+            for (String fileName : tombstonedFiles.keySet()) {
+                Lock fileLock = fileLocks.getLock(fileName);
+                fileLock.lock();
+                try {
+                    if (tombstones.release(fileName, job)) {
+                        size.incrementAndGet();
+                    }
+                } finally {
+                    fileLock.unlock();
+                }
+            }
+            throw e;
+        }
+        
+        List<String> deletedFiles = new ArrayList<String>(tombstonedFiles.keySet());
+        storageIndex.removeFromIndex(deletedFiles);
+        syncIndexJournal(deletedFiles.size());
+        
+        int chunks = (deletedFiles.size() + UNLINK_CHUNK_SIZE - 1) / UNLINK_CHUNK_SIZE;
+        job.startUnlinking(deletedFiles.size(), chunks);
+        for (int chunkStart = 0 ; chunkStart < deletedFiles.size() ; chunkStart += UNLINK_CHUNK_SIZE) {
+            final DeleteJob unlinkJob = job;
+            final List<String> chunk = deletedFiles.subList(chunkStart, Math.min(chunkStart + UNLINK_CHUNK_SIZE, deletedFiles.size()));
+            unlinkExecutor.execute(new Runnable() {
+                public void run() {
+                    unlinkTombstoned(unlinkJob, chunk);
+                }
+            });
+        }
+        
+        logger.debug("[BULK DELETE] Job {} deleted {} files, unlinking them in the background", job.getId(), deletedFiles.size());
+        return job;
+    }
+    
+    public DeleteJob deleteFiles(Pattern regexPattern) throws IOException {
+        // the matches are collected first, the index not being changed while scanned
+        final List<String> matchingFiles = new ArrayList<String>();
+        storageIndex.scanRepoIndex(regexPattern, new EnumerationVisitor() {
+            public void visit(CharSequence fileName) {
+                matchingFiles.add(fileName.toString());
+            }
+        });
+        
+        return deleteFiles(matchingFiles);
+    }
+    
+    public DeleteJob getDeleteJob(String jobId) {
+        return tombstones.getJob(jobId);
+    }
+    
+    /**
+     * Unlinks a chunk of a bulk delete job's files, skipping those replaced by new files since they were tombstoned.
+     * Their folders are fsynced once for the whole chunk. The job's tombstones file is dropped after its last chunk
+     */
+    private void unlinkTombstoned(DeleteJob job, List<String> fileNames) {
+        Set<Path> changedFolders = new LinkedHashSet<Path>();
+        long unlinked = 0;
+        long failed = 0;
+        for (String fileName : fileNames) {
+            Lock fileLock = fileLocks.getLock(fileName);
+            fileLock.lock();
+            try {
+                if (!tombstones.isTombstoned(fileName, job)) {
+                    continue;
+                }
+                
+                // released once unlinked, reads not taking the file lock must never see the tombstoned file again
+                Path file = storageHelper.getStorageFile(fileName);
+                try {
+                    Files.deleteIfExists(file);
+                    if (blobStore != null) {
+                        blobStore.removeLastModified(fileName);
+                    }
+                    changedFolders.add(file.getParent());
+                    unlinked++;
+                } catch (IOException e) {
+                    logger.error("[BULK DELETE] Error unlinking file {}!", fileName, e);
+                    failed++;
+                }
+                tombstones.release(fileName, job);
+            } finally {
+                fileLock.unlock();
+            }
+        }
+        
+        try {
+            fileSyncer.syncFolders(changedFolders);
+        } catch (IOException e) {
+            logger.error("[BULK DELETE] Error syncing the folders of {} unlinked files!", unlinked, e);
+        }
+        
+        if (job.chunkUnlinked(unlinked, failed)) {
+            try {
+                Files.deleteIfExists(tombstones.getTombstonesFile(job));
+            } catch (IOException e) {
+                logger.error("[BULK DELETE] Error deleting the tombstones file of job {}!", job.getId(), e);
+            }
+            logger.debug("[BULK DELETE] Job {} unlinked {} files", job.getId(), job.getUnlinkedFiles());
+        }
+    }
+    
+    /**
+     * Adds the index journal to the folders fsynced along with a change, so that the journaled index update is acknowledged with it
+     */
+    private Set<Path> withIndexJournal(Collection<Path> folders) {
+        Set<Path> syncedPaths = new LinkedHashSet<Path>(folders);
+        Path journalFile = storageIndex.getJournalFile();
+        if (journalFile != null) {
+            syncedPaths.add(journalFile);
+        }
+        return syncedPaths;
+    }
+    
+    /**
+     * Fsyncs the index journal after a batch of index updates
+     */
+    private void syncIndexJournal(int updatedFiles) {
+        Path journalFile = storageIndex.getJournalFile();
+        if (journalFile == null) {
+            return;
+        }
+        
+        try {
+            fileSyncer.syncFolders(Collections.singleton(journalFile));
+        } catch (IOException e) {
+            logger.error("Error syncing the index journal after updating {} files!", updatedFiles, e);
+        }
+    }
+    
+    /**
+     * Unlinks the files of the bulk delete jobs interrupted by a crash, unless they were replaced meanwhile
+     */
+    private void unlinkPendingTombstones() {
+        try {
+            for (TombstoneTable.PendingTombstones pendingTombstones : tombstones.readPendingTombstones()) {
+                long unlinked = 0;
+                for (String fileName : pendingTombstones.getFileNames()) {
+                    Path file = storageHelper.getStorageFile(fileName);
+                    try {
+                        BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+                        if (attr.isRegularFile() && pendingTombstones.isTombstoned(fileName, attr)) {
+                            Files.delete(file);
+                            unlinked++;
+                        }
+                    } catch (NoSuchFileException nsfe) {
+                        // unlinked before the crash
+                    }
+                }
+                
+                Files.delete(pendingTombstones.getTombstonesFile());
+                logger.info("Unlinked {} files of an interrupted bulk delete", unlinked);
+            }
+        } catch (IOException e) {
+            logger.error("Error unlinking the files of interrupted bulk deletes!", e);
+        }
+    }
+    
     public InputStream getFileContent(String fileName) throws IOException {
         logger.debug("Getting file contents for file {}", fileName);
         
-        Path resolvedFileToRead = storageHelper.findFile(fileName);
-        if (resolvedFileToRead == null) {
-            logger.debug("No file found with name {}", fileName);
+        StoredFile storedFile = openStoredFile(fileName);
+        if (storedFile == null) {
             return null;
         }
         
-        return Files.newInputStream(resolvedFileToRead);
+        return getDecodedContent(storedFile);
     }
     
-
-    public long getFileLastModified(String fileName) throws IOException {
-        long lastModified = -1;
-        Path file = storageHelper.findFile(fileName);
-        if (file != null) {
-            BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
-            lastModified = attr.lastModifiedTime().toMillis();
+    public InputStream getDecodedContent(StoredFile storedFile) throws IOException {
+        InputStream storedContents = storedFile.getContent() != null ? new ByteBufferInputStream(storedFile.getContent())
+                : Channels.newInputStream(storedFile.getChannel());
+        return ContentCompression.decode(storedContents, storedFile.getContentEncoding());
+    }
+    
+    public StoredFile openStoredFile(String fileName) throws IOException {
+        logger.debug("Opening file channel for file {}", fileName);
+        
+        CachedFileContent cachedContent = getCachedContent(fileName);
+        if (cachedContent != null) {
+            return new StoredFile(cachedContent.getContent(), cachedContent.getLastModified(), cachedContent.getContentEncoding(),
+                    cachedContent.getContentSize());
+        }
+        
+        return openFile(fileName);
+    }
+    
+    public StoredFile openAsyncStoredFile(String fileName) throws IOException {
+        if (asyncIoExecutor == null) {
+            throw new UnsupportedOperationException("Non-blocking transfers are disabled");
         }
+        logger.debug("Opening asynchronous file channel for file {}", fileName);
         
-        return lastModified;
+        CachedFileContent cachedContent = getCachedContent(fileName);
+        if (cachedContent != null) {
+            return new StoredFile(cachedContent.getContent(), cachedContent.getLastModified(), cachedContent.getContentEncoding(),
+                    cachedContent.getContentSize());
+        }
+        
+        return openFile(fileName, true);
     }
     
     /**
-     * Gets or creates an object to be used to synchronize operations on a file
+     * Opens a stored file's channel. The file is opened right away, a missing file being reported by the open itself.
+     * The file's attributes are read under its lock, together with the open, so that they belong to the opened file
+     * even if it's replaced meanwhile.
      * 
-     * @param fileName the file name
-     * @return an {@link Object} to be used in synchronizing operations on the given file name
+     * @param fileName - the file name
+     * @return the opened {@link StoredFile}, {@code null} if the file is not found
+     * @throws IOException on errors opening the file
      */
-    private synchronized Object getOrCreateFileLock(String fileName) {
-        WeakReference<Object> fileLockReference = fileLocks.get(fileName);
-        Object fileLock = null;
+    private StoredFile openFile(String fileName) throws IOException {
+        return openFile(fileName, false);
+    }
+    
+    /**
+     * Opens a stored file's channel, as {@link #openFile(String)} does
+     * 
+     * @param fileName - the file name
+     * @param async - true to open an {@link AsynchronousFileChannel}, false for a {@link FileChannel}
+     * @return the opened {@link StoredFile}, {@code null} if the file is not found
+     * @throws IOException on errors opening the file
+     */
+    private StoredFile openFile(String fileName, boolean async) throws IOException {
+        Path fileToRead = storageHelper.getStorageFile(fileName);
+        Channel fileChannel;
+        BasicFileAttributes attr;
+        long compressedContentSize;
+        
+        Lock fileLock = fileLocks.getLock(fileName);
+        fileLock.lock();
+        try {
+            if (tombstones.isTombstoned(fileName)) {
+                return null;
+            }
+            
+            try {
+                fileChannel = async
+                        ? AsynchronousFileChannel.open(fileToRead, Collections.singleton(StandardOpenOption.READ), asyncIoExecutor)
+                        : FileChannel.open(fileToRead, StandardOpenOption.READ);
+            } catch (NoSuchFileException nsfe) {
+                logger.debug("No file found with name {}", fileName);
+                return null;
+            }
+            
+            try {
+                attr = Files.readAttributes(fileToRead, BasicFileAttributes.class);
+                compressedContentSize = storageHelper.readCompressedContentSize(fileToRead);
+            } catch (IOException e) {
+                fileChannel.close();
+                if (e instanceof NoSuchFileException) {
+                    return null;
+                }
+                throw e;
+            }
+        } finally {
+            fileLock.unlock();
+        }
+        
+        if (!attr.isRegularFile()) {
+            fileChannel.close();
+            return null;
+        }
+        
+        String contentEncoding = compressedContentSize >= 0 ? ContentCompression.GZIP_ENCODING : null;
+        if (async) {
+            AsynchronousFileChannel asyncChannel = (AsynchronousFileChannel) fileChannel;
+            long storedSize = asyncChannel.size();
+            return new StoredFile(fileToRead, asyncChannel, storedSize, getLastModified(fileName, attr), contentEncoding,
+                    compressedContentSize >= 0 ? compressedContentSize : storedSize);
+        }
         
-        if (fileLockReference != null) {
-            fileLock = fileLockReference.get();
+        long storedSize = ((FileChannel) fileChannel).size();
+        return new StoredFile(fileToRead, (FileChannel) fileChannel, storedSize, getLastModified(fileName, attr), contentEncoding,
+                compressedContentSize >= 0 ? compressedContentSize : storedSize);
+    }
+    
+    public StoredFileInfo getFileInfo(String fileName) throws IOException {
+        if (tombstones.isTombstoned(fileName)) {
+            return null;
         }
         
-        if (fileLock == null) {
-            fileLock = new Object();
-            fileLocks.put(fileName, new WeakReference<Object>(fileLock));
+        // cached contents carry their metadata, no need to touch the file system
+        if (contentCache != null) {
+            CachedFileContent cachedContent = contentCache.peek(fileName);
+            if (cachedContent != null) {
+                return new StoredFileInfo(cachedContent.getContentSize(), cachedContent.getLastModified(), cachedContent.getETag(),
+                        cachedContent.getContentEncoding(), cachedContent.getSize());
+            }
         }
         
-        return fileLock;
+        try {
+            Path file = storageHelper.getStorageFile(fileName);
+            BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attr.isRegularFile()) {
+                return null;
+            }
+            
+            long compressedContentSize = storageHelper.readCompressedContentSize(file);
+            if (compressedContentSize >= 0) {
+                return new StoredFileInfo(compressedContentSize, getLastModified(fileName, attr), getETag(file),
+                        ContentCompression.GZIP_ENCODING, attr.size());
+            }
+            return new StoredFileInfo(attr.size(), getLastModified(fileName, attr), getETag(file), null, attr.size());
+        } catch (NoSuchFileException nsfe) {
+            logger.debug("No file found with name {}", fileName);
+            return null;
+        }
+    }
+
+    public long getFileLastModified(String fileName) throws IOException {
+        StoredFileInfo fileInfo = getFileInfo(fileName);
+        return fileInfo == null ? -1 : fileInfo.getLastModified();
+    }
+    
+    /**
+     * Gets a small file's contents from the content cache, loading them on a miss. Loads are done under the
+     * file's lock, so a load can't cache contents replaced or deleted meanwhile.
+     * 
+     * @param fileName - the file name
+     * @return the cached file contents, {@code null} if the cache is disabled, the file is not found or too large
+     * @throws IOException on errors reading the file
+     */
+    private CachedFileContent getCachedContent(String fileName) throws IOException {
+        if (contentCache == null) {
+            return null;
+        }
+        
+        return contentCache.get(fileName, new FileContentCache.ContentLoader() {
+            public CachedFileContent load(String fileName) throws IOException {
+                Lock fileLock = fileLocks.getLock(fileName);
+                fileLock.lock();
+                try {
+                    Path file = storageHelper.findFile(fileName);
+                    if (file == null || tombstones.isTombstoned(fileName)) {
+                        return null;
+                    }
+                    
+                    FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+                    try {
+                        long fileSize = fileChannel.size();
+                        if (!contentCache.isCacheable(fileSize)) {
+                            return null;
+                        }
+                        
+                        BasicFileAttributes attr = Files.readAttributes(file, BasicFileAttributes.class);
+                        ByteBuffer content = ByteBuffer.allocateDirect((int) fileSize);
+                        while (content.hasRemaining()) {
+                            if (fileChannel.read(content) < 0) {
+                                break;
+                            }
+                        }
+                        content.flip();
+                        
+                        long compressedContentSize = storageHelper.readCompressedContentSize(file);
+                        CachedFileContent cachedContent = compressedContentSize >= 0
+                                ? new CachedFileContent(content, getLastModified(fileName, attr), getETag(file), ContentCompression.GZIP_ENCODING, compressedContentSize)
+                                : new CachedFileContent(content, getLastModified(fileName, attr), getETag(file));
+                        contentCache.put(fileName, cachedContent);
+                        return cachedContent;
+                    } finally {
+                        fileChannel.close();
+                    }
+                } finally {
+                    fileLock.unlock();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Gets a stored file's last modified date. Deduplicated files share their blob's date, the blob store keeping their own
+     * 
+     * @param fileName - the file name
+     * @param attr - the stored file's attributes
+     * @return the last modified date, in millis
+     */
+    private long getLastModified(String fileName, BasicFileAttributes attr) {
+        return blobStore != null ? blobStore.getLastModified(fileName, attr) : attr.lastModifiedTime().toMillis();
+    }
+    
+    /**
+     * Gets a stored file's strong entity tag, the hex encoded digest of its contents
+     * 
+     * @param file - the stored file
+     * @return the quoted entity tag, {@code null} if the file has no content digest stored
+     */
+    private String getETag(Path file) {
+        byte[] digest = storageHelper.readContentDigest(file);
+        if (digest == null) {
+            return null;
+        }
+        
+        return '"' + toHex(digest) + '"';
+    }
+    
+    private static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte digestByte : digest) {
+            hex.append(Character.forDigit((digestByte >> 4) & 0xF, 16)).append(Character.forDigit(digestByte & 0xF, 16));
+        }
+        return hex.toString();
     }
 }
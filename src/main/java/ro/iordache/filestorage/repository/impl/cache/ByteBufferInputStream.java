@@ -0,0 +1,51 @@
+package ro.iordache.filestorage.repository.impl.cache;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link InputStream} reading the remaining bytes of a {@link ByteBuffer}
+ */
+public class ByteBufferInputStream extends InputStream {
+    
+    private ByteBuffer buffer;
+    
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+    
+    @Override
+    public int read() {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        
+        int readLength = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, readLength);
+        return readLength;
+    }
+    
+    @Override
+    public long skip(long count) {
+        int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+    
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,76 @@
+package ro.iordache.filestorage.repository.impl.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Contents of a small stored file, held off-heap in a direct {@link ByteBuffer}
+ */
+public class CachedFileContent {
+    
+    private ByteBuffer content;
+    
+    private long lastModified;
+    
+    private String eTag;
+    
+    private String contentEncoding;
+    
+    private long contentSize;
+    
+    public CachedFileContent(ByteBuffer content, long lastModified) {
+        this(content, lastModified, null);
+    }
+    
+    public CachedFileContent(ByteBuffer content, long lastModified, String eTag) {
+        this(content, lastModified, eTag, null, content.capacity());
+    }
+    
+    /**
+     * @param content - the stored file contents
+     * @param lastModified - the file's last modified date
+     * @param eTag - the file's entity tag, can be {@code null}
+     * @param contentEncoding - the content coding the file is stored with, {@code null} if stored as is
+     * @param contentSize - the size of the decoded contents
+     */
+    public CachedFileContent(ByteBuffer content, long lastModified, String eTag, String contentEncoding, long contentSize) {
+        this.content = content;
+        this.lastModified = lastModified;
+        this.eTag = eTag;
+        this.contentEncoding = contentEncoding;
+        this.contentSize = contentSize;
+    }
+    
+    /**
+     * Gets the file contents
+     * 
+     * @return a read only view over the contents, with its own position
+     */
+    public ByteBuffer getContent() {
+        return content.asReadOnlyBuffer();
+    }
+    
+    /**
+     * Gets the size of the stored contents, as held in memory
+     * 
+     * @return the stored contents size
+     */
+    public int getSize() {
+        return content.capacity();
+    }
+    
+    public long getLastModified() {
+        return this.lastModified;
+    }
+    
+    public String getETag() {
+        return this.eTag;
+    }
+    
+    public String getContentEncoding() {
+        return this.contentEncoding;
+    }
+    
+    public long getContentSize() {
+        return this.contentSize;
+    }
+}
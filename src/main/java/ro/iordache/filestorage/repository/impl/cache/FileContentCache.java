@@ -0,0 +1,225 @@
+package ro.iordache.filestorage.repository.impl.cache;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Memory bounded cache of small file contents, held off-heap.
+ *
+ * Eviction is frequency aware (generalized CLOCK): each hit raises an entry's frequency, up to {@link #MAX_FREQUENCY},
+ * and the eviction hand lowers the frequencies it sweeps over, evicting the first entry found at 0. Entries read
+ * only once are evicted first, while frequently read ones survive several sweeps.
+ *
+ * Concurrent misses for the same file share a single load.
+ */
+public class FileContentCache {
+    
+    private static final int MAX_FREQUENCY = 3;
+    
+    /**
+     * Loads a file's contents on a cache miss
+     */
+    public interface ContentLoader {
+        
+        /**
+         * @param fileName - the file name
+         * @return the file contents, {@code null} if the file is not found or not cacheable
+         * @throws IOException on errors reading the file
+         */
+        public CachedFileContent load(String fileName) throws IOException;
+    }
+    
+    private static class Entry {
+        
+        private String fileName;
+        
+        private CachedFileContent content;
+        
+        private volatile int frequency;
+        
+        private boolean removed;
+        
+        private Entry(String fileName, CachedFileContent content) {
+            this.fileName = fileName;
+            this.content = content;
+        }
+    }
+    
+    private long maxBytes;
+    
+    private int maxFileSize;
+    
+    private ConcurrentHashMap<String, Entry> entries;
+    
+    /**
+     * loads in progress, shared by the concurrent misses of a file
+     */
+    private ConcurrentHashMap<String, FutureTask<CachedFileContent>> loads;
+    
+    /**
+     * eviction order, guarded by this cache's monitor
+     */
+    private ArrayDeque<Entry> clock;
+    
+    private long usedBytes;
+    
+    /**
+     * @param maxBytes - memory budget for the cached contents
+     * @param maxFileSize - larger files are never cached
+     */
+    public FileContentCache(long maxBytes, int maxFileSize) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+        this.entries = new ConcurrentHashMap<String, Entry>();
+        this.loads = new ConcurrentHashMap<String, FutureTask<CachedFileContent>>();
+        this.clock = new ArrayDeque<Entry>();
+    }
+    
+    /**
+     * Gets a file's cached contents, loading them on a miss. Concurrent misses for the same file wait for
+     * a single load. The loader is expected to {@link #put} the loaded contents, so it can do that under the same
+     * lock used for {@link #invalidate}
+     * 
+     * @param fileName - the file name
+     * @param loader - the {@link ContentLoader} called on a miss
+     * @return the file contents, {@code null} if not found or not cacheable
+     * @throws IOException on errors loading the file
+     */
+    public CachedFileContent get(final String fileName, final ContentLoader loader) throws IOException {
+        Entry entry = entries.get(fileName);
+        if (entry != null) {
+            if (entry.frequency < MAX_FREQUENCY) {
+                entry.frequency++;
+            }
+            return entry.content;
+        }
+        
+        FutureTask<CachedFileContent> load = new FutureTask<CachedFileContent>(new Callable<CachedFileContent>() {
+            public CachedFileContent call() throws IOException {
+                return loader.load(fileName);
+            }
+        });
+        
+        FutureTask<CachedFileContent> runningLoad = loads.putIfAbsent(fileName, load);
+        if (runningLoad == null) {
+            runningLoad = load;
+            try {
+                load.run();
+            } finally {
+                loads.remove(fileName, load);
+            }
+        }
+        
+        try {
+            return runningLoad.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for file " + fileName + " to be loaded", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error loading file " + fileName, e.getCause());
+        }
+    }
+    
+    /**
+     * Gets a file's cached contents, without loading them on a miss nor counting as a hit
+     * 
+     * @param fileName - the file name
+     * @return the file contents, {@code null} if not cached
+     */
+    public CachedFileContent peek(String fileName) {
+        Entry entry = entries.get(fileName);
+        return entry == null ? null : entry.content;
+    }
+    
+    /**
+     * Checks if a file of a given size can be cached
+     * 
+     * @param fileSize - the file size
+     * @return true if the file is within the size threshold
+     */
+    public boolean isCacheable(long fileSize) {
+        return fileSize <= maxFileSize && fileSize <= maxBytes;
+    }
+    
+    /**
+     * Caches a file's contents, evicting other entries if the memory budget is exceeded
+     * 
+     * @param fileName - the file name
+     * @param content - the file contents
+     */
+    public synchronized void put(String fileName, CachedFileContent content) {
+        if (!isCacheable(content.getSize())) {
+            return;
+        }
+        
+        Entry entry = new Entry(fileName, content);
+        Entry replacedEntry = entries.put(fileName, entry);
+        if (replacedEntry != null) {
+            removeEntry(replacedEntry);
+        }
+        
+        clock.add(entry);
+        usedBytes += content.getSize();
+        
+        while (usedBytes > maxBytes) {
+            Entry candidate = clock.poll();
+            if (candidate.removed) {
+                continue;
+            }
+            
+            if (candidate.frequency > 0) {
+                candidate.frequency--;
+                clock.add(candidate);
+            } else {
+                entries.remove(candidate.fileName, candidate);
+                removeEntry(candidate);
+            }
+        }
+    }
+    
+    /**
+     * Drops a file's cached contents, a load in progress not being shared with later misses
+     * 
+     * @param fileName - the file name
+     */
+    public synchronized void invalidate(String fileName) {
+        loads.remove(fileName);
+        
+        Entry entry = entries.remove(fileName);
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+    
+    /**
+     * Gets the memory used by the cached contents
+     * 
+     * @return the cached contents size in bytes
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+    
+    private void removeEntry(Entry entry) {
+        entry.removed = true;
+        usedBytes -= entry.content.getSize();
+        
+        // removed entries are skipped by the eviction hand, only drop them when they pile up
+        if (clock.size() > 2 * entries.size() + 16) {
+            Iterator<Entry> clockIterator = clock.iterator();
+            while (clockIterator.hasNext()) {
+                if (clockIterator.next().removed) {
+                    clockIterator.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ro.iordache.filestorage.repository.impl.compression;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import ro.iordache.filestorage.repository.impl.upload.ChannelUploadWriter;
+import ro.iordache.filestorage.repository.impl.upload.DirectBufferPool;
+
+/**
+ * Stores compressible contents gzip compressed. Contents are found compressible by sniffing their first bytes:
+ * text (i.e. JSON, logs, CSV) is compressed, binary data (i.e. images, archives) is stored as is, as are contents
+ * smaller than a minimum size.
+ */
+public class ContentCompression {
+    
+    /**
+     * Content coding of the compressed files, as sent in Content-Encoding headers
+     */
+    public static final String GZIP_ENCODING = "gzip";
+    
+    /**
+     * Number of leading bytes sniffed to tell text from binary contents
+     */
+    public static final int SNIFF_SIZE = 8 * 1024;
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    /**
+     * Max number of direct buffers of the default writer, concurrent writes past it using heap buffers
+     */
+    private static final int MAX_BUFFERS = 16;
+    
+    private int minSize;
+    
+    private ChannelUploadWriter rawWriter;
+    
+    /**
+     * @param minSize - smaller contents are stored as is, capped to {@link #SNIFF_SIZE}
+     */
+    public ContentCompression(int minSize) {
+        this(minSize, new ChannelUploadWriter(new DirectBufferPool(BUFFER_SIZE, 1, MAX_BUFFERS)));
+    }
+    
+    /**
+     * @param minSize - smaller contents are stored as is, capped to {@link #SNIFF_SIZE}
+     * @param rawWriter - writes the contents stored as is
+     */
+    public ContentCompression(int minSize, ChannelUploadWriter rawWriter) {
+        this.minSize = Math.min(minSize, SNIFF_SIZE);
+        this.rawWriter = rawWriter;
+    }
+    
+    /**
+     * Copies contents to a file, compressing them if they are compressible. The contents stream is closed
+     * 
+     * @param contents - the contents {@link InputStream}
+     * @param file - the destination file
+     * @return the uncompressed contents size if the file was compressed, -1 if the contents were stored as is
+     * @throws IOException on errors reading the contents or writing the file
+     */
+    public long copy(InputStream contents, Path file) throws IOException {
+        BufferedInputStream bufferedContents = new BufferedInputStream(contents, SNIFF_SIZE);
+        try {
+            bufferedContents.mark(SNIFF_SIZE);
+            byte[] head = new byte[SNIFF_SIZE];
+            int headLength = 0;
+            int read;
+            while (headLength < SNIFF_SIZE && (read = bufferedContents.read(head, headLength, SNIFF_SIZE - headLength)) != -1) {
+                headLength += read;
+            }
+            bufferedContents.reset();
+            
+            if (headLength == 0 || headLength < minSize || !isText(head, headLength)) {
+                rawWriter.write(bufferedContents, file);
+                return -1;
+            }
+            
+            long contentSize = 0;
+            OutputStream compressedFile = new GZIPOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while ((read = bufferedContents.read(buffer)) != -1) {
+                    compressedFile.write(buffer, 0, read);
+                    contentSize += read;
+                }
+            } finally {
+                compressedFile.close();
+            }
+            return contentSize;
+        } finally {
+            bufferedContents.close();
+        }
+    }
+    
+    /**
+     * Compresses an already written file in place if its contents are compressible, i.e. a staged upload
+     * 
+     * @param file - the file
+     * @return the uncompressed contents size if the file was compressed, -1 if it was left as is
+     * @throws IOException on errors reading or replacing the file
+     */
+    public long compress(Path file) throws IOException {
+        byte[] head = new byte[SNIFF_SIZE];
+        int headLength = 0;
+        InputStream contents = Files.newInputStream(file);
+        try {
+            int read;
+            while (headLength < SNIFF_SIZE && (read = contents.read(head, headLength, SNIFF_SIZE - headLength)) != -1) {
+                headLength += read;
+            }
+            
+            if (headLength == 0 || headLength < minSize || !isText(head, headLength)) {
+                return -1;
+            }
+            
+            // the compressed contents replace the file once complete
+            Path compressedFile = file.resolveSibling(file.getFileName() + ".gz");
+            long contentSize = headLength;
+            try {
+                OutputStream compressedOutput = new GZIPOutputStream(Files.newOutputStream(compressedFile), BUFFER_SIZE);
+                try {
+                    compressedOutput.write(head, 0, headLength);
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    while ((read = contents.read(buffer)) != -1) {
+                        compressedOutput.write(buffer, 0, read);
+                        contentSize += read;
+                    }
+                } finally {
+                    compressedOutput.close();
+                }
+                Files.move(compressedFile, file, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(compressedFile);
+                throw e;
+            }
+            return contentSize;
+        } finally {
+            contents.close();
+        }
+    }
+    
+    /**
+     * Decodes the contents of a stored file
+     * 
+     * @param storedContents - the stored file contents
+     * @param contentEncoding - the content coding of the stored file, {@code null} if stored as is
+     * @return an {@link InputStream} with the decoded contents
+     * @throws IOException if the stored contents are not valid for their content coding
+     */
+    public static InputStream decode(InputStream storedContents, String contentEncoding) throws IOException {
+        if (!GZIP_ENCODING.equals(contentEncoding)) {
+            return storedContents;
+        }
+        
+        try {
+            return new GZIPInputStream(storedContents, BUFFER_SIZE);
+        } catch (IOException e) {
+            storedContents.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Checks if the sniffed bytes look like text: no NUL bytes and hardly any control characters,
+     * bytes above 0x7f being accepted as parts of UTF-8 sequences
+     */
+    static boolean isText(byte[] head, int length) {
+        int controlBytes = 0;
+        for (int i = 0 ; i < length ; i++) {
+            int headByte = head[i] & 0xff;
+            if (headByte == 0) {
+                return false;
+            }
+            
+            if (headByte < 0x20 && headByte != '\t' && headByte != '\n' && headByte != '\r' && headByte != '\f' && headByte != 0x1b) {
+                controlBytes++;
+            }
+        }
+        return controlBytes * 32 <= length;
+    }
+}
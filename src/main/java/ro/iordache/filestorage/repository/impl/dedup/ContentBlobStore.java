@@ -0,0 +1,197 @@
+package ro.iordache.filestorage.repository.impl.dedup;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ro.iordache.filestorage.repository.util.StripedLockTable;
+
+/**
+ * Content addressed store of file contents, each distinct content being stored once as a blob named after its digest,
+ * i.e. blobs/3f/3fa2...e1. Stored files are hard links to their content's blob, so reads are not affected at all.
+ *
+ * The blob's link count is its reference count: linking a stored file increments it, deleting one decrements it, both
+ * done by the file system. Blobs left with a single link are no longer referenced by any stored file and are deleted by
+ * {@link #collectGarbage()}. The blob folder must be on the same file system as the storage folder.
+ *
+ * Linked files share their blob's last modified date, so each file's own date is kept by a {@link LinkTimeTable},
+ * logged to a file of the blobs folder.
+ */
+public class ContentBlobStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ContentBlobStore.class);
+    
+    private static final int LOCK_STRIPES = 64;
+    
+    public static final String LINK_TIMES_FILE_NAME = "link.times";
+    
+    private Path blobsFolder;
+    
+    /**
+     * guards linking to a blob against its concurrent collection
+     */
+    private StripedLockTable blobLocks;
+    
+    private LinkTimeTable linkTimes;
+    
+    /**
+     * @param blobsFolder - the folder blobs are stored in, created if missing
+     * @throws IOException if the blobs folder can't be created, or its last modified dates log read
+     */
+    public ContentBlobStore(Path blobsFolder) throws IOException {
+        this.blobsFolder = blobsFolder;
+        this.blobLocks = new StripedLockTable(LOCK_STRIPES);
+        
+        Files.createDirectories(blobsFolder);
+        this.linkTimes = new LinkTimeTable(blobsFolder.resolve(LINK_TIMES_FILE_NAME));
+    }
+    
+    /**
+     * Checks if the file system supports the link counts the blob references are tracked with
+     * 
+     * @return true if link counts are available
+     */
+    public static boolean isSupported() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    }
+    
+    /**
+     * Links a new file to the blob with the given contents. If no such blob is stored yet, the contents file becomes the
+     * blob, otherwise it is deleted. The blob's last modified date is set to the current time, so it reflects the latest
+     * store of these contents: it's the date of the linked files whose own date is lost.
+     * 
+     * @param contentsFile - a file with the contents to be stored, consumed by this call
+     * @param digest - the hex encoded digest of the contents
+     * @param linkFile - the new link to the blob, in the same file system
+     * @throws IOException on errors moving the contents or creating the link
+     */
+    public void link(Path contentsFile, String digest, Path linkFile) throws IOException {
+        Path blob = getBlobPath(digest);
+        
+        Lock blobLock = blobLocks.getLock(digest);
+        blobLock.lock();
+        try {
+            if (Files.exists(blob)) {
+                logger.debug("Contents already stored in blob {}", digest);
+                Files.delete(contentsFile);
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(contentsFile, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            
+            Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+            Files.createLink(linkFile, blob);
+        } finally {
+            blobLock.unlock();
+        }
+    }
+    
+    /**
+     * Records the last modified date of a file linked to a blob, once moved in place under its lock
+     * 
+     * @param fileName - the stored file name
+     * @param attr - the linked file's attributes
+     * @param lastModified - the file's last modified date, in millis
+     */
+    public void setLastModified(String fileName, BasicFileAttributes attr, long lastModified) {
+        linkTimes.put(fileName, attr, lastModified);
+    }
+    
+    /**
+     * Gets the last modified date of a stored file, its own one rather than its blob's
+     * 
+     * @param fileName - the stored file name
+     * @param attr - the stored file's attributes
+     * @return the file's last modified date, in millis
+     */
+    public long getLastModified(String fileName, BasicFileAttributes attr) {
+        return linkTimes.getLastModified(fileName, attr);
+    }
+    
+    /**
+     * Drops the last modified date of a deleted file, under its lock
+     * 
+     * @param fileName - the stored file name
+     */
+    public void removeLastModified(String fileName) {
+        linkTimes.remove(fileName);
+    }
+    
+    /**
+     * Deletes the blobs not referenced by any stored file anymore, then compacts the last modified dates log
+     * 
+     * @return the number of deleted blobs
+     * @throws IOException on errors listing the blobs
+     */
+    public long collectGarbage() throws IOException {
+        final AtomicLong deletedBlobs = new AtomicLong();
+        
+        Files.walkFileTree(blobsFolder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path blob, BasicFileAttributes attrs) throws IOException {
+                // blobs are in the digest prefix folders, the blobs folder itself only holding the dates log
+                if (blob.getParent().equals(blobsFolder)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                String digest = blob.getFileName().toString();
+                Lock blobLock = blobLocks.getLock(digest);
+                blobLock.lock();
+                try {
+                    if (getReferenceCount(blob) == 0) {
+                        Files.delete(blob);
+                        deletedBlobs.incrementAndGet();
+                    }
+                } catch (NoSuchFileException nsfe) {
+                    // already gone
+                } finally {
+                    blobLock.unlock();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        
+        linkTimes.compact();
+        return deletedBlobs.get();
+    }
+    
+    /**
+     * Closes the last modified dates log
+     */
+    public void close() {
+        linkTimes.close();
+    }
+    
+    /**
+     * Gets the number of stored files linked to a blob
+     * 
+     * @param blob - the blob file
+     * @return the number of links to the blob, besides the blob itself
+     * @throws IOException on errors reading the blob's attributes
+     */
+    public int getReferenceCount(Path blob) throws IOException {
+        return ((Integer) Files.getAttribute(blob, "unix:nlink")).intValue() - 1;
+    }
+    
+    /**
+     * Gets the blob file holding the contents with a given digest
+     * 
+     * @param digest - the hex encoded contents digest
+     * @return the blob {@link Path}, not necessarily existing
+     */
+    public Path getBlobPath(String digest) {
+        return blobsFolder.resolve(digest.substring(0, 2)).resolve(digest);
+    }
+}
@@ -0,0 +1,233 @@
+package ro.iordache.filestorage.repository.impl.dedup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The last modified dates of the files linked to blobs. Files linked to the same blob share its inode and therefore
+ * its last modified date, so each file's own date is kept here, along with the file key (device and inode) of the
+ * file it was recorded for. A file replaced since by other means no longer matches its file key, its own last
+ * modified date being used again.
+ *
+ * Dates are appended to a log file, one line per change, replayed on startup and compacted from time to time.
+ * The log isn't fsynced: a file whose date is lost by a crash falls back to its blob's date, the one of the latest
+ * store of its contents, which is never older than the file itself.
+ */
+public class LinkTimeTable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(LinkTimeTable.class);
+    
+    /**
+     * A file's recorded last modified date
+     */
+    private static class LinkTime {
+        
+        private String fileKey;
+        
+        private long lastModified;
+        
+        private LinkTime(String fileKey, long lastModified) {
+            this.fileKey = fileKey;
+            this.lastModified = lastModified;
+        }
+    }
+    
+    private Path logFile;
+    
+    private ConcurrentHashMap<String, LinkTime> linkTimes;
+    
+    /**
+     * Guards the log writer, not a monitor as it's held during file writes by request threads which may be virtual ones
+     */
+    private Lock logLock;
+    
+    private BufferedWriter logWriter;
+    
+    /**
+     * number of lines in the log file, compacted once most of them are outdated
+     */
+    private long loggedChanges;
+    
+    /**
+     * @param logFile - the log file, replayed if it exists
+     * @throws IOException on errors reading or opening the log file
+     */
+    public LinkTimeTable(Path logFile) throws IOException {
+        this.logFile = logFile;
+        this.linkTimes = new ConcurrentHashMap<String, LinkTime>();
+        this.logLock = new ReentrantLock();
+        
+        replay();
+        logWriter = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+    
+    /**
+     * Records the last modified date of a file, to be called under the file's lock
+     *
+     * @param fileName - the file name
+     * @param attr - the file's attributes
+     * @param lastModified - the last modified date, in millis
+     */
+    public void put(String fileName, BasicFileAttributes attr, long lastModified) {
+        String fileKey = String.valueOf(attr.fileKey());
+        linkTimes.put(fileName, new LinkTime(fileKey, lastModified));
+        log(fileName + '\t' + lastModified + '\t' + fileKey);
+    }
+    
+    /**
+     * Drops the last modified date of a deleted file, to be called under the file's lock
+     *
+     * @param fileName - the file name
+     */
+    public void remove(String fileName) {
+        if (linkTimes.remove(fileName) != null) {
+            log(fileName);
+        }
+    }
+    
+    /**
+     * Gets the last modified date of a file
+     *
+     * @param fileName - the file name
+     * @param attr - the file's attributes
+     * @return the recorded last modified date, the file's own one if none was recorded for this file
+     */
+    public long getLastModified(String fileName, BasicFileAttributes attr) {
+        LinkTime linkTime = linkTimes.get(fileName);
+        if (linkTime != null && linkTime.fileKey.equals(String.valueOf(attr.fileKey()))) {
+            return linkTime.lastModified;
+        }
+        return attr.lastModifiedTime().toMillis();
+    }
+    
+    public int size() {
+        return linkTimes.size();
+    }
+    
+    /**
+     * Rewrites the log file with the current dates only, if most of its lines are outdated
+     *
+     * @throws IOException on errors rewriting the log file
+     */
+    public void compact() throws IOException {
+        logLock.lock();
+        try {
+            if (logWriter == null || loggedChanges <= 2L * linkTimes.size() + 1024) {
+                return;
+            }
+            
+            Path compactedFile = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+            BufferedWriter writer = Files.newBufferedWriter(compactedFile, StandardCharsets.UTF_8);
+            long compactedChanges = 0;
+            try {
+                for (Map.Entry<String, LinkTime> linkTime : linkTimes.entrySet()) {
+                    writer.write(linkTime.getKey() + '\t' + linkTime.getValue().lastModified + '\t' + linkTime.getValue().fileKey);
+                    writer.newLine();
+                    compactedChanges++;
+                }
+            } finally {
+                writer.close();
+            }
+            
+            // changes are logged under the lock, none can be lost between the copy and the move
+            logWriter.close();
+            Files.move(compactedFile, logFile, StandardCopyOption.ATOMIC_MOVE);
+            logWriter = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            logger.debug("Compacted {} logged last modified dates to {}", loggedChanges, compactedChanges);
+            loggedChanges = compactedChanges;
+        } finally {
+            logLock.unlock();
+        }
+    }
+    
+    /**
+     * Closes the log file
+     */
+    public void close() {
+        logLock.lock();
+        try {
+            if (logWriter != null) {
+                try {
+                    logWriter.close();
+                } catch (IOException e) {}
+                logWriter = null;
+            }
+        } finally {
+            logLock.unlock();
+        }
+    }
+    
+    private void log(String change) {
+        logLock.lock();
+        try {
+            if (logWriter == null) {
+                return;
+            }
+            
+            logWriter.write(change);
+            logWriter.newLine();
+            logWriter.flush();
+            loggedChanges++;
+        } catch (IOException e) {
+            // the file's blob date is used on the next start
+            logger.error("Error logging the last modified date of file {}!", change, e);
+        } finally {
+            logLock.unlock();
+        }
+    }
+    
+    /**
+     * Reads the log file, the last line of each file name winning. A line torn by a crash is skipped, or at worst
+     * drops the date of a file, which falls back to its blob's date
+     */
+    private void replay() throws IOException {
+        BufferedReader reader;
+        try {
+            reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException nsfe) {
+            return;
+        }
+        
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                loggedChanges++;
+                
+                String[] fields = line.split("\t");
+                if (fields.length == 1) {
+                    linkTimes.remove(fields[0]);
+                    continue;
+                }
+                
+                try {
+                    if (fields.length == 3) {
+                        linkTimes.put(fields[0], new LinkTime(fields[2], Long.parseLong(fields[1])));
+                        continue;
+                    }
+                } catch (NumberFormatException nfe) {
+                    // torn line
+                }
+                logger.warn("Skipping invalid last modified date line in {}", logFile);
+            }
+        } finally {
+            reader.close();
+        }
+        
+        logger.debug("Loaded {} last modified dates of linked files", linkTimes.size());
+    }
+}
@@ -0,0 +1,33 @@
+package ro.iordache.filestorage.repository.impl.durability;
+
+/**
+ * How durable PUTs and DELETEs are once acknowledged
+ */
+public enum DurabilityMode {
+    
+    /**
+     * Nothing is fsynced, acknowledged changes may be lost on power loss
+     */
+    NONE,
+    
+    /**
+     * Each request fsyncs the stored file and its folder before being acknowledged
+     */
+    FSYNC,
+    
+    /**
+     * Each request fsyncs the stored file, concurrent requests then sharing the fsync of their folders
+     */
+    GROUP;
+    
+    /**
+     * Parses a configured durability mode
+     * 
+     * @param mode - the mode name, case insensitive
+     * @return the {@link DurabilityMode}
+     * @throws IllegalArgumentException for unknown modes
+     */
+    public static DurabilityMode parse(String mode) {
+        return valueOf(mode.trim().toUpperCase());
+    }
+}
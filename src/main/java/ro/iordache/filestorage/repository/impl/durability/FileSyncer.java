@@ -0,0 +1,136 @@
+package ro.iordache.filestorage.repository.impl.durability;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes stored files and the changes to their folders (new names, renames, deletes) durable, as configured by a
+ * {@link DurabilityMode}.
+ *
+ * A stored file's data is fsynced by the thread that wrote it, before it's moved in place, so a crash can't leave a
+ * stored name pointing to unsynced data. The JDK has no syncfs, so that's one fsync per file in any mode. What the
+ * group commit mode shares is the fsync of the folders, each distinct folder of a batch of concurrent requests
+ * being fsynced once.
+ */
+public class FileSyncer {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FileSyncer.class);
+    
+    private DurabilityMode mode;
+    
+    private BlockingQueue<GroupCommitThread.SyncRequest> syncRequestsQueue;
+    
+    private GroupCommitThread groupCommitThread;
+    
+    /**
+     * set once closed, new group commit requests being rejected
+     */
+    private volatile boolean closed;
+    
+    /**
+     * @param mode - the durability mode
+     * @param groupMaxDelayMillis - max time a group commit waits for concurrent requests to join, from its first request
+     * @param groupMaxBatchSize - max number of requests in a group commit
+     */
+    public FileSyncer(DurabilityMode mode, long groupMaxDelayMillis, int groupMaxBatchSize) {
+        this.mode = mode;
+        
+        if (mode == DurabilityMode.GROUP) {
+            syncRequestsQueue = new LinkedBlockingQueue<GroupCommitThread.SyncRequest>();
+            groupCommitThread = new GroupCommitThread(syncRequestsQueue, groupMaxDelayMillis, groupMaxBatchSize);
+            groupCommitThread.start();
+        }
+    }
+    
+    public DurabilityMode getMode() {
+        return mode;
+    }
+    
+    /**
+     * Fsyncs a file's data and metadata, i.e. its extended attributes
+     * 
+     * @param file - the file
+     * @throws IOException on errors fsyncing the file
+     */
+    public void syncFile(Path file) throws IOException {
+        if (mode == DurabilityMode.NONE) {
+            return;
+        }
+        
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            fileChannel.force(true);
+        } finally {
+            fileChannel.close();
+        }
+    }
+    
+    /**
+     * Fsyncs folders, so that the changes to their entries survive a crash. In the group commit mode, returns once the
+     * batch the folders joined is committed. Files can be given too, i.e. the index journal, their data being fsynced
+     * 
+     * @param folders - the folders
+     * @throws IOException on errors fsyncing the folders, or in the group commit mode once closed
+     */
+    public void syncFolders(Collection<Path> folders) throws IOException {
+        if (mode == DurabilityMode.NONE) {
+            return;
+        }
+        
+        if (mode == DurabilityMode.FSYNC) {
+            for (Path folder : folders) {
+                syncFolder(folder);
+            }
+            return;
+        }
+        
+        if (closed) {
+            throw new IOException("File syncer closed");
+        }
+        
+        GroupCommitThread.SyncRequest syncRequest = new GroupCommitThread.SyncRequest(new LinkedHashSet<Path>(folders));
+        syncRequestsQueue.add(syncRequest);
+        if (closed && syncRequestsQueue.remove(syncRequest)) {
+            // closed meanwhile, the group commit thread may already be gone. Requests it took are completed by it
+            throw new IOException("File syncer closed");
+        }
+        syncRequest.await();
+    }
+    
+    /**
+     * Stops the group commit thread, failing the requests still waiting for it, later requests being rejected
+     */
+    public void close() {
+        closed = true;
+        if (groupCommitThread != null) {
+            groupCommitThread.interrupt();
+        }
+    }
+    
+    static void syncFolder(Path folder) throws IOException {
+        FileChannel folderChannel;
+        try {
+            folderChannel = FileChannel.open(folder, StandardOpenOption.READ);
+        } catch (AccessDeniedException e) {
+            // folders can't be opened on some platforms (i.e. Windows), their entries being durable with the files
+            logger.trace("Folder {} can't be fsynced", folder);
+            return;
+        }
+        
+        try {
+            folderChannel.force(true);
+        } finally {
+            folderChannel.close();
+        }
+    }
+}
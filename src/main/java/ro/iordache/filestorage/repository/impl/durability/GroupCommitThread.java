@@ -0,0 +1,150 @@
+package ro.iordache.filestorage.repository.impl.durability;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread fsyncing the folders of concurrent requests in batches. A batch is started by the first queued request and
+ * closed once it reaches the max batch size or the max delay elapses, each distinct folder of the batch being
+ * fsynced once. The requests of the batch are then released.
+ *
+ * The delay is only waited for while requests are actually concurrent, i.e. if the previous batch had several requests.
+ * A lone request is committed right away, the requests queued during its fsync making up the next batch.
+ *
+ * Once interrupted, the thread still commits the batch it was collecting, then fails the requests left in the queue.
+ */
+public class GroupCommitThread extends Thread {
+    
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitThread.class);
+    
+    /**
+     * Folders to be fsynced for a request, the request waiting for the batch it joined to be committed
+     */
+    public static class SyncRequest {
+        
+        private Set<Path> folders;
+        
+        private CountDownLatch committed;
+        
+        private IOException error;
+        
+        public SyncRequest(Set<Path> folders) {
+            this.folders = folders;
+            this.committed = new CountDownLatch(1);
+        }
+        
+        /**
+         * Waits for the request's batch to be committed
+         * 
+         * @throws IOException if the batch could not be fsynced
+         */
+        public void await() throws IOException {
+            try {
+                committed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the group commit", e);
+            }
+            
+            if (error != null) {
+                throw new IOException("Group commit failed", error);
+            }
+        }
+        
+        private void complete(IOException error) {
+            this.error = error;
+            committed.countDown();
+        }
+    }
+    
+    private BlockingQueue<SyncRequest> syncRequestsQueue;
+    
+    private long maxDelayMillis;
+    
+    private int maxBatchSize;
+    
+    public GroupCommitThread(BlockingQueue<SyncRequest> queue, long maxDelayMillis, int maxBatchSize) {
+        super("group-commit");
+        setDaemon(true);
+        
+        this.syncRequestsQueue = queue;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+    
+    public void run() {
+        try {
+            int lastBatchSize = 0;
+            boolean stopped = false;
+            SyncRequest syncRequest;
+            while (!stopped && (syncRequest = syncRequestsQueue.take()) != null) {
+                List<SyncRequest> batch = new ArrayList<SyncRequest>();
+                batch.add(syncRequest);
+                
+                // give the concurrent requests a chance to join the batch
+                long deadline = System.nanoTime() + (lastBatchSize > 1 ? TimeUnit.MILLISECONDS.toNanos(maxDelayMillis) : 0);
+                while (batch.size() < maxBatchSize) {
+                    syncRequestsQueue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    
+                    SyncRequest joining;
+                    try {
+                        joining = syncRequestsQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException ie) {
+                        // the requests already taken from the queue are only released by this batch
+                        stopped = true;
+                        break;
+                    }
+                    if (joining == null) {
+                        break;
+                    }
+                    batch.add(joining);
+                }
+                
+                Set<Path> folders = new LinkedHashSet<Path>();
+                for (SyncRequest batchRequest : batch) {
+                    folders.addAll(batchRequest.folders);
+                }
+                
+                IOException error = null;
+                try {
+                    for (Path folder : folders) {
+                        FileSyncer.syncFolder(folder);
+                    }
+                    logger.trace("Group committed {} requests, {} folders fsynced", batch.size(), folders.size());
+                } catch (IOException e) {
+                    logger.error("Error fsyncing the folders of {} requests!", batch.size(), e);
+                    error = e;
+                }
+                
+                for (SyncRequest batchRequest : batch) {
+                    batchRequest.complete(error);
+                }
+                lastBatchSize = batch.size();
+            }
+        } catch (InterruptedException ie) {
+            // nothing taken from the queue yet
+        }
+        logger.debug("Group commit thread stopped");
+        
+        // don't leave requests waiting forever
+        List<SyncRequest> pending = new ArrayList<SyncRequest>();
+        syncRequestsQueue.drainTo(pending);
+        for (SyncRequest pendingRequest : pending) {
+            pendingRequest.complete(new IOException("Group commit thread stopped"));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread to handle batch updates to FileInfoEntry index files, adding new file names and removing deleted ones.
+ *
+ * Adds and removes go through a single queue and are applied in the order they were queued, consecutive operations
+ * of the same kind being written to the index file at once. A remove can therefore never overtake the add of the
+ * same name. Adding a name already in the index is a no-op, so the last queued operation of a name always wins.
+ *
+ * A batch failing to be written still counts as applied, so that it doesn't hold back checkpoints forever, the index file
+ * being flagged as out of sync instead: its journal is then kept until the next start replays it.
+ */
+public class BatchIndexUpdaterThread extends Thread {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BatchIndexUpdaterThread.class);
+    
+    /**
+     * A queued index operation
+     */
+    public static class IndexUpdate {
+        
+        private byte operation;
+        
+        private String fileName;
+        
+        /**
+         * @param operation - {@link IndexJournal#OP_ADD} or {@link IndexJournal#OP_REMOVE}
+         * @param fileName - the file name
+         */
+        public IndexUpdate(byte operation, String fileName) {
+            this.operation = operation;
+            this.fileName = fileName;
+        }
+        
+        public byte getOperation() {
+            return operation;
+        }
+        
+        public String getFileName() {
+            return fileName;
+        }
+    }
+    
+    private BlockingQueue<IndexUpdate> updatesBlockingQueue;
+    
+    private String indexFileName;
+    
+    private IndexSlotAllocator slotAllocator;
+    
+    private IndexSlotTable slotTable;
+    
+    private AtomicLong pendingUpdates;
+    
+    private AtomicBoolean indexOutOfSync;
+    
+    /**
+     * @param queue - the queue of {@link IndexUpdate} to apply
+     * @param indexFileName - the index file name
+     * @param slotAllocator - the {@link IndexSlotAllocator} of the index file
+     * @param slotTable - the {@link IndexSlotTable} of the index file
+     * @param pendingUpdates - the number of queued updates, decremented as they're applied
+     * @param indexOutOfSync - set once a batch of updates failed to be written to the index file
+     */
+    public BatchIndexUpdaterThread(BlockingQueue<IndexUpdate> queue, String indexFileName,
+            IndexSlotAllocator slotAllocator, IndexSlotTable slotTable, AtomicLong pendingUpdates, AtomicBoolean indexOutOfSync) {
+        super("index-updater");
+        this.updatesBlockingQueue = queue;
+        
+        this.indexFileName = indexFileName;
+        this.slotAllocator = slotAllocator;
+        this.slotTable = slotTable;
+        this.pendingUpdates = pendingUpdates;
+        this.indexOutOfSync = indexOutOfSync;
+    }
+    
+    public void run(){
+        try {
+            IndexUpdate firstUpdate;
+            while((firstUpdate = updatesBlockingQueue.take()) != null) {
+                List<IndexUpdate> updates = new ArrayList<IndexUpdate>();
+                updates.add(firstUpdate);
+                updatesBlockingQueue.drainTo(updates);
+                
+                // apply the runs of consecutive adds or removes in queue order
+                int runStart = 0;
+                while (runStart < updates.size()) {
+                    byte operation = updates.get(runStart).getOperation();
+                    int runEnd = runStart + 1;
+                    while (runEnd < updates.size() && updates.get(runEnd).getOperation() == operation) {
+                        runEnd++;
+                    }
+                    
+                    List<String> fileNames = new ArrayList<String>(runEnd - runStart);
+                    for (int i = runStart ; i < runEnd ; i++) {
+                        fileNames.add(updates.get(i).getFileName());
+                    }
+                    
+                    try {
+                        if (operation == IndexJournal.OP_ADD) {
+                            addFiles(fileNames);
+                        } else {
+                            removeFiles(fileNames);
+                        }
+                    } catch (Exception e) {
+                        logger.error("Error batch updating index, {} updates left to the journal replay!", fileNames.size(), e);
+                        indexOutOfSync.set(true);
+                    } finally {
+                        pendingUpdates.addAndGet(-fileNames.size());
+                    }
+                    
+                    runStart = runEnd;
+                }
+            }
+        } catch (InterruptedException ie) {
+            logger.debug("Index updater thread stopped");
+        } catch (Exception e) {
+            logger.error("Async batching updates to index storage failed!", e);
+        }
+    }
+    
+    /**
+     * Writes new file names to the index file, reusing the empty slots left behind by deleted files
+     */
+    private void addFiles(List<String> fileNames) throws IOException {
+        logger.debug("Batch adding {} files to the index...", fileNames.size());
+        FileChannel indexFileChannel = FileChannel.open(Paths.get(indexFileName),
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int[] slots = null;
+        boolean written = false;
+        try {
+            // names already indexed, or added twice in a row, are only written once
+            IndexSlotTable.RecordMatcher recordMatcher = createRecordMatcher(indexFileChannel);
+            List<String> newFiles = new ArrayList<String>(fileNames.size());
+            Set<String> batchFiles = new HashSet<String>();
+            for (String fileName : fileNames) {
+                if (batchFiles.add(fileName) && slotTable.find(fileName, recordMatcher) < 0) {
+                    newFiles.add(fileName);
+                } else {
+                    logger.debug("File {} already in the index", fileName);
+                }
+            }
+            
+            // reuse empty slots left behind by deleted files, append the rest at the end of the index
+            slots = slotAllocator.allocate(newFiles.size());
+            
+            int runStart = 0;
+            while (runStart < slots.length) {
+                // coalesce adjacent slots into a single gathered write
+                int runEnd = runStart + 1;
+                while (runEnd < slots.length && slots[runEnd] == slots[runEnd - 1] + 1) {
+                    runEnd++;
+                }
+                
+                ByteBuffer[] entriesBuffers = new ByteBuffer[runEnd - runStart];
+                for (int i = runStart ; i < runEnd ; i++) {
+                    logger.trace("Adding file {} to index slot {}", newFiles.get(i), slots[i]);
+                    entriesBuffers[i - runStart] = ByteBuffer.wrap(new FileInfoIndexEntry(newFiles.get(i)).getBytes());
+                }
+                
+                indexFileChannel.position((long) slots[runStart] * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+                while (entriesBuffers[entriesBuffers.length - 1].hasRemaining()) {
+                    indexFileChannel.write(entriesBuffers);
+                }
+                
+                runStart = runEnd;
+            }
+            
+            indexFileChannel.force(false);
+            
+            // entries are on disk, make them available for deletes
+            for (int i = 0 ; i < slots.length ; i++) {
+                slotTable.put(newFiles.get(i), slots[i]);
+            }
+            written = true;
+        } finally {
+            indexFileChannel.close();
+            
+            if (!written && slots != null) {
+                // the slots' records are overwritten once reused
+                for (int slot : slots) {
+                    slotAllocator.release(slot);
+                }
+            }
+        }
+        
+        logger.debug("Batch adding {} files to the index successful!", fileNames.size());
+    }
+    
+    /**
+     * Erases deleted file names from the index file, their slots being reused by later adds
+     */
+    private void removeFiles(List<String> fileNames) throws IOException {
+        logger.debug("Batch removing {} files from the index...", fileNames.size());
+        FileChannel indexFileChannel = FileChannel.open(Paths.get(indexFileName),
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int[] slots = new int[fileNames.size()];
+        int slotsCount = 0;
+        try {
+            // look up the slots of the deleted files
+            IndexSlotTable.RecordMatcher recordMatcher = createRecordMatcher(indexFileChannel);
+            for (String deletedFile : fileNames) {
+                int slot = slotTable.remove(deletedFile, recordMatcher);
+                if (slot >= 0) {
+                    slots[slotsCount++] = slot;
+                } else {
+                    logger.debug("File {} not found in the index", deletedFile);
+                }
+            }
+            
+            // "erase" the entries, in file order
+            Arrays.sort(slots, 0, slotsCount);
+            ByteBuffer whiteSpaces = ByteBuffer.wrap(new FileInfoIndexEntry("").getBytes());
+            for (int i = 0 ; i < slotsCount ; i++) {
+                whiteSpaces.rewind();
+                indexFileChannel.write(whiteSpaces, (long) slots[i] * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+            }
+            
+            indexFileChannel.force(false);
+        } finally {
+            indexFileChannel.close();
+        }
+        
+        // the slots can now be reused for new files
+        for (int i = 0 ; i < slotsCount ; i++) {
+            slotAllocator.release(slots[i]);
+        }
+        
+        logger.debug("Batch removing {} files from the index done!", fileNames.size());
+    }
+    
+    /**
+     * Creates a {@link IndexSlotTable.RecordMatcher} confirming candidate slots by reading their records from the index file
+     */
+    private IndexSlotTable.RecordMatcher createRecordMatcher(final FileChannel indexFileChannel) {
+        final ByteBuffer recordBuffer = ByteBuffer.allocate(FileInfoIndexEntry.MAX_RECORD_LENGTH);
+        final IndexRecordCharSequence record = new IndexRecordCharSequence();
+        
+        return new IndexSlotTable.RecordMatcher() {
+            public boolean matches(int slot, String fileName) throws IOException {
+                recordBuffer.clear();
+                indexFileChannel.read(recordBuffer, (long) slot * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+                if (recordBuffer.hasRemaining()) {
+                    return false;
+                }
+                return fileName.contentEquals(record.reset(recordBuffer, 0));
+            }
+        };
+    }
+}
@@ -0,0 +1,239 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only journal of the index add / remove operations not yet known to be applied to the index file.
+ *
+ * Each journal record is laid out as: operation (1 byte), file name length (1 byte), file name bytes and
+ * a CRC32 checksum (4 bytes) of the previous fields. Replaying stops at the first record failing the checksum,
+ * which is what a write torn by a crash looks like.
+ */
+public class IndexJournal {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IndexJournal.class);
+    
+    public static final byte OP_ADD = 'A';
+    public static final byte OP_REMOVE = 'R';
+    
+    // operation + name length + crc
+    private static final int RECORD_OVERHEAD = 6;
+    
+    /**
+     * Receives the operations read from the journal
+     */
+    public interface JournalVisitor {
+        
+        /**
+         * @param operation - {@link IndexJournal#OP_ADD} or {@link IndexJournal#OP_REMOVE}
+         * @param fileName - the file name
+         */
+        public void visit(byte operation, String fileName);
+    }
+    
+    private Path journalFile;
+    
+    private FileChannel journalChannel;
+    
+    /**
+     * Guards the journal channel, not a monitor as it's held during file writes by request threads which may be virtual ones
+     */
+    private Lock channelLock;
+    
+    public IndexJournal(String journalFileName) {
+        this.journalFile = Paths.get(journalFileName);
+        this.channelLock = new ReentrantLock();
+    }
+    
+    /**
+     * Appends an operation to the journal
+     *
+     * @param operation - {@link #OP_ADD} or {@link #OP_REMOVE}
+     * @param fileName - the file name
+     * @throws IOException on errors writing the journal
+     */
+    public void append(byte operation, String fileName) throws IOException {
+        append(operation, Collections.singletonList(fileName));
+    }
+    
+    /**
+     * Appends the same operation on several files to the journal, with a single write
+     *
+     * @param operation - {@link #OP_ADD} or {@link #OP_REMOVE}
+     * @param fileNames - the file names
+     * @throws IOException on errors writing the journal
+     */
+    public void append(byte operation, Collection<String> fileNames) throws IOException {
+        List<byte[]> namesBytes = new ArrayList<byte[]>(fileNames.size());
+        int recordsLength = 0;
+        for (String fileName : fileNames) {
+            byte[] nameBytes = fileName.getBytes(StandardCharsets.UTF_8);
+            namesBytes.add(nameBytes);
+            recordsLength += RECORD_OVERHEAD + nameBytes.length;
+        }
+        
+        ByteBuffer records = ByteBuffer.allocate(recordsLength);
+        CRC32 crc = new CRC32();
+        for (byte[] nameBytes : namesBytes) {
+            int recordStart = records.position();
+            records.put(operation);
+            records.put((byte) nameBytes.length);
+            records.put(nameBytes);
+            
+            crc.reset();
+            crc.update(records.array(), recordStart, records.position() - recordStart);
+            records.putInt((int) crc.getValue());
+        }
+        records.flip();
+        
+        channelLock.lock();
+        try {
+            FileChannel channel = getChannel();
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+    
+    /**
+     * Reads all the valid operations in the journal, in the order they were appended
+     *
+     * @param visitor - the {@link JournalVisitor} receiving the operations
+     * @return the number of operations read
+     * @throws IOException on errors reading the journal
+     */
+    public long replay(JournalVisitor visitor) throws IOException {
+        channelLock.lock();
+        try {
+            return doReplay(visitor);
+        } finally {
+            channelLock.unlock();
+        }
+    }
+    
+    private long doReplay(JournalVisitor visitor) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return 0;
+        }
+        
+        long operations = 0;
+        byte[] recordBytes = new byte[RECORD_OVERHEAD + 255];
+        CRC32 crc = new CRC32();
+        long recordStart = 0;
+        
+        DataInputStream journalStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile), 64 * 1024));
+        try {
+            while (true) {
+                int operation = journalStream.read();
+                if (operation < 0) {
+                    break;
+                }
+                
+                int nameLength;
+                int storedCrc;
+                try {
+                    nameLength = journalStream.readUnsignedByte();
+                    journalStream.readFully(recordBytes, 2, nameLength);
+                    storedCrc = journalStream.readInt();
+                } catch (EOFException eofe) {
+                    logger.warn("Index journal ends with a partial record, ignoring it");
+                    break;
+                }
+                
+                recordBytes[0] = (byte) operation;
+                recordBytes[1] = (byte) nameLength;
+                crc.reset();
+                crc.update(recordBytes, 0, 2 + nameLength);
+                if ((int) crc.getValue() != storedCrc || (operation != OP_ADD && operation != OP_REMOVE)) {
+                    logger.warn("Index journal record at offset {} is corrupt, ignoring the rest of the journal", recordStart);
+                    break;
+                }
+                
+                visitor.visit((byte) operation, new String(recordBytes, 2, nameLength, StandardCharsets.UTF_8));
+                operations++;
+                recordStart += RECORD_OVERHEAD + nameLength;
+            }
+        } finally {
+            journalStream.close();
+        }
+        
+        return operations;
+    }
+    
+    /**
+     * Drops all the operations in the journal
+     *
+     * @throws IOException on errors truncating the journal
+     */
+    public void truncate() throws IOException {
+        channelLock.lock();
+        try {
+            getChannel().truncate(0);
+            journalChannel.force(true);
+        } finally {
+            channelLock.unlock();
+        }
+    }
+    
+    /**
+     * Gets the journal size
+     *
+     * @return the journal size in bytes
+     * @throws IOException on errors accessing the journal
+     */
+    public long size() throws IOException {
+        channelLock.lock();
+        try {
+            return getChannel().size();
+        } finally {
+            channelLock.unlock();
+        }
+    }
+    
+    /**
+     * Closes the journal, a later append will reopen it
+     */
+    public void close() {
+        channelLock.lock();
+        try {
+            if (journalChannel != null) {
+                try {
+                    journalChannel.close();
+                } catch (IOException e) {}
+                journalChannel = null;
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+    
+    private FileChannel getChannel() throws IOException {
+        if (journalChannel == null) {
+            journalChannel = FileChannel.open(journalFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return journalChannel;
+    }
+}
@@ -0,0 +1,86 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.util.regex.Pattern;
+
+/**
+ * Helper for analyzing enumeration regex patterns before scanning the index
+ */
+public class IndexPatternHelper {
+
+    /**
+     * Regex meta characters that end a literal prefix
+     */
+    private static final String META_CHARACTERS = "[](){}.*+?^$|";
+
+    /**
+     * Quantifiers that make the preceding literal optional
+     */
+    private static final String OPTIONAL_QUANTIFIERS = "?*{";
+
+    /**
+     * Extracts the literal prefix every full match of the given pattern must start with.
+     * Patterns with alternations, case insensitive or comment flags are considered to have no prefix.
+     *
+     * @param regexPattern - the compiled {@link Pattern}
+     * @return the literal prefix, an empty string if none could be determined
+     */
+    public static String getLiteralPrefix(Pattern regexPattern) {
+        int flags = regexPattern.flags();
+        String regex = regexPattern.pattern();
+
+        if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) {
+            return "";
+        }
+
+        if ((flags & Pattern.LITERAL) != 0) {
+            return regex;
+        }
+
+        // any alternation may change the prefix, don't bother analyzing it
+        if (regex.indexOf('|') >= 0) {
+            return "";
+        }
+
+        StringBuilder prefix = new StringBuilder();
+        int position = regex.startsWith("^") ? 1 : 0;
+
+        while (position < regex.length()) {
+            char current = regex.charAt(position);
+            char literal;
+            int next;
+
+            if (current == '\\') {
+                // escaped non alphanumeric characters are literals, everything else is a character class or a construct
+                if (position + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(position + 1))) {
+                    break;
+                }
+                literal = regex.charAt(position + 1);
+                next = position + 2;
+            } else if (META_CHARACTERS.indexOf(current) >= 0) {
+                break;
+            } else {
+                literal = current;
+                next = position + 1;
+            }
+
+            if (next < regex.length()) {
+                char following = regex.charAt(next);
+                if (OPTIONAL_QUANTIFIERS.indexOf(following) >= 0) {
+                    // literal may be missing from the match
+                    break;
+                }
+
+                if (following == '+') {
+                    // literal occurs at least once, but nothing after it is fixed
+                    prefix.append(literal);
+                    break;
+                }
+            }
+
+            prefix.append(literal);
+            position = next;
+        }
+
+        return prefix.toString();
+    }
+}
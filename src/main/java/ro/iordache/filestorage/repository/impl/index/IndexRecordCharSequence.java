@@ -0,0 +1,76 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable {@link CharSequence} view over a single index record stored in a {@link ByteBuffer}.
+ * Allows matching file names in place, without copying the record bytes or decoding them into a {@link String}.
+ * 
+ * Index records only contain single byte characters (file names are validated against an ASCII pattern),
+ * so each byte maps directly to a char.
+ */
+public class IndexRecordCharSequence implements CharSequence {
+    
+    private ByteBuffer buffer;
+    
+    private int offset;
+    
+    private int length;
+    
+    /**
+     * Points this view at the record starting at a given offset in a buffer
+     * 
+     * @param buffer - the {@link ByteBuffer} holding index records
+     * @param offset - the record's absolute offset in the buffer
+     * @return this view, trimmed of the record's padding
+     */
+    public IndexRecordCharSequence reset(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+        
+        // skip the whitespace padding at the end of the record
+        int recordLength = FileInfoIndexEntry.MAX_RECORD_LENGTH;
+        while (recordLength > 0 && (buffer.get(offset + recordLength - 1) & 0xff) <= ' ') {
+            recordLength--;
+        }
+        this.length = recordLength;
+        
+        return this;
+    }
+    
+    /**
+     * Checks if the current record is an empty index slot
+     * 
+     * @return true if the record holds no file name
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+    
+    public int length() {
+        return length;
+    }
+    
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+        return (char) (buffer.get(offset + index) & 0xff);
+    }
+    
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+    
+    /**
+     * Materializes the current record as a {@link String}
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0 ; i < length ; i++) {
+            chars[i] = (char) (buffer.get(offset + i) & 0xff);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,105 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of the used and free record slots in the index file, so that new entries can be placed without
+ * scanning the index for empty records.
+ *
+ * Slots are record numbers, a slot's position in the index file being slot * {@link FileInfoIndexEntry#MAX_RECORD_LENGTH}
+ */
+public class IndexSlotAllocator {
+    
+    /**
+     * bitmap of the slots holding a file name
+     */
+    private BitSet usedSlots;
+    
+    /**
+     * total number of slots in the index file, used or free
+     */
+    private int slotCount;
+    
+    /**
+     * no free slot exists before this one
+     */
+    private int firstFreeSlot;
+    
+    public IndexSlotAllocator() {
+        reset(0);
+    }
+    
+    /**
+     * Resets the allocator for an index file holding a given number of contiguous records, starting at slot 0
+     *
+     * @param usedSlotCount - number of records in the index file
+     */
+    public synchronized void reset(int usedSlotCount) {
+        this.usedSlots = new BitSet(usedSlotCount);
+        this.usedSlots.set(0, usedSlotCount);
+        this.slotCount = usedSlotCount;
+        this.firstFreeSlot = usedSlotCount;
+    }
+    
+    /**
+     * Resets the allocator for an index file with a given layout
+     *
+     * @param usedSlots - bitmap of the index file slots holding a file name
+     * @param slotCount - total number of slots in the index file
+     */
+    public synchronized void reset(BitSet usedSlots, int slotCount) {
+        this.usedSlots = (BitSet) usedSlots.clone();
+        this.slotCount = slotCount;
+        this.firstFreeSlot = this.usedSlots.nextClearBit(0);
+    }
+    
+    /**
+     * Allocates slots for new index entries. Free slots are reused first, the remaining entries being appended
+     * at the end of the index file.
+     *
+     * @param count - the number of slots to allocate
+     * @return the allocated slots, in ascending order
+     */
+    public synchronized int[] allocate(int count) {
+        int[] slots = new int[count];
+        if (count == 0) {
+            return slots;
+        }
+        
+        int slot = firstFreeSlot;
+        for (int i = 0 ; i < count ; i++) {
+            slot = usedSlots.nextClearBit(slot);
+            usedSlots.set(slot);
+            slots[i] = slot;
+            
+            if (slot >= slotCount) {
+                slotCount = slot + 1;
+            }
+        }
+        firstFreeSlot = slot + 1;
+        
+        return slots;
+    }
+    
+    /**
+     * Marks a slot as free, so it can be reused by later allocations
+     *
+     * @param slot - the slot of a removed index entry
+     */
+    public synchronized void release(int slot) {
+        usedSlots.clear(slot);
+        
+        if (slot < firstFreeSlot) {
+            firstFreeSlot = slot;
+        }
+    }
+    
+    /**
+     * Gets the total number of slots in the index file
+     *
+     * @return number of used and free slots
+     */
+    public synchronized int getSlotCount() {
+        return slotCount;
+    }
+}
@@ -0,0 +1,179 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Maps file names to their record slots in the index file.
+ * 
+ * To keep the memory footprint small, names are not kept in memory: the table is an open addressing hash table
+ * made of two primitive arrays (name hash and slot), about 16 bytes per entry. Since different names can share
+ * a hash, candidate slots are confirmed against the record stored in the index file through a {@link RecordMatcher}.
+ */
+public class IndexSlotTable {
+    
+    /**
+     * Confirms that an index file slot holds a given file name
+     */
+    public interface RecordMatcher {
+        
+        /**
+         * @param slot - the index file slot
+         * @param fileName - the expected file name
+         * @return true if the record stored at the slot holds the file name
+         * @throws IOException on errors reading the index file
+         */
+        public boolean matches(int slot, String fileName) throws IOException;
+    }
+    
+    private static final int INITIAL_CAPACITY = 1024;
+    
+    // markers for cells not holding a slot
+    private static final int EMPTY = -1;
+    private static final int REMOVED = -2;
+    
+    private int[] hashes;
+    
+    private int[] slots;
+    
+    // number of entries
+    private int size;
+    
+    // number of entries plus removed markers
+    private int usedCells;
+    
+    public IndexSlotTable() {
+        clear();
+    }
+    
+    /**
+     * Removes all the entries in the table
+     */
+    public synchronized void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+    
+    /**
+     * Adds a file name to the table
+     * 
+     * @param fileName - the file name, a {@link CharSequence} so records can be added without materializing them
+     * @param slot - the slot holding the file name in the index file
+     */
+    public synchronized void put(CharSequence fileName, int slot) {
+        if ((usedCells + 1) * 2 > hashes.length) {
+            // grow when entries fill half of the table, otherwise just drop the removed markers
+            rehash(size * 4 > hashes.length ? hashes.length * 2 : hashes.length);
+        }
+        
+        int hash = hash(fileName);
+        int mask = hashes.length - 1;
+        int cell = hash & mask;
+        while (slots[cell] >= 0) {
+            cell = (cell + 1) & mask;
+        }
+        
+        if (slots[cell] == EMPTY) {
+            usedCells++;
+        }
+        hashes[cell] = hash;
+        slots[cell] = slot;
+        size++;
+    }
+    
+    /**
+     * Removes a file name from the table
+     * 
+     * @param fileName - the file name
+     * @param recordMatcher - the {@link RecordMatcher} confirming candidate slots
+     * @return the slot that held the file name in the index file, -1 if the name is not in the table
+     * @throws IOException on errors reading the index file
+     */
+    public synchronized int remove(String fileName, RecordMatcher recordMatcher) throws IOException {
+        int cell = findCell(fileName, recordMatcher);
+        if (cell < 0) {
+            return -1;
+        }
+        
+        int slot = slots[cell];
+        slots[cell] = REMOVED;
+        size--;
+        return slot;
+    }
+    
+    /**
+     * Looks up a file name in the table
+     * 
+     * @param fileName - the file name
+     * @param recordMatcher - the {@link RecordMatcher} confirming candidate slots
+     * @return the slot holding the file name in the index file, -1 if the name is not in the table
+     * @throws IOException on errors reading the index file
+     */
+    public synchronized int find(String fileName, RecordMatcher recordMatcher) throws IOException {
+        int cell = findCell(fileName, recordMatcher);
+        return cell < 0 ? -1 : slots[cell];
+    }
+    
+    /**
+     * Gets the number of file names in the table
+     * 
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return size;
+    }
+    
+    private int findCell(String fileName, RecordMatcher recordMatcher) throws IOException {
+        int hash = hash(fileName);
+        int mask = hashes.length - 1;
+        int cell = hash & mask;
+        
+        while (slots[cell] != EMPTY) {
+            if (slots[cell] >= 0 && hashes[cell] == hash && recordMatcher.matches(slots[cell], fileName)) {
+                return cell;
+            }
+            cell = (cell + 1) & mask;
+        }
+        
+        return -1;
+    }
+    
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+        usedCells = 0;
+    }
+    
+    private void rehash(int capacity) {
+        int[] oldHashes = hashes;
+        int[] oldSlots = slots;
+        allocate(capacity);
+        
+        int mask = capacity - 1;
+        for (int i = 0 ; i < oldSlots.length ; i++) {
+            if (oldSlots[i] >= 0) {
+                int cell = oldHashes[i] & mask;
+                while (slots[cell] != EMPTY) {
+                    cell = (cell + 1) & mask;
+                }
+                hashes[cell] = oldHashes[i];
+                slots[cell] = oldSlots[i];
+                size++;
+                usedCells++;
+            }
+        }
+    }
+    
+    /**
+     * FNV-1a hash of the file name, better spread than {@link String#hashCode()} for the low bits used as table cell
+     */
+    private static int hash(CharSequence fileName) {
+        int hash = 0x811c9dc5;
+        for (int i = 0 ; i < fileName.length() ; i++) {
+            hash ^= fileName.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+}
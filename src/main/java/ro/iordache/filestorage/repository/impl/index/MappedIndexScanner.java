@@ -0,0 +1,320 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ro.iordache.filestorage.repository.FileSystemStorageService.EnumerationVisitor;
+
+/**
+ * Scans the index file by memory mapping it and matching the records in place.
+ * Only the matching records are materialized as {@link String} objects.
+ *
+ * With a parallelism greater than 1, large index files are split in record aligned segments matched on a
+ * {@link ForkJoinPool}. Segments are submitted a few at a time and their matches merged in index order, the
+ * segments being matched stopping and the remaining ones never being submitted once the requested page is filled.
+ */
+public class MappedIndexScanner {
+    
+    /**
+     * Max size of a single mapped region, record aligned
+     */
+    private static final long MAX_MAPPED_REGION_SIZE = (Integer.MAX_VALUE / FileInfoIndexEntry.MAX_RECORD_LENGTH) * (long) FileInfoIndexEntry.MAX_RECORD_LENGTH;
+    
+    /**
+     * Min number of records in a parallel scan segment, smaller index files are scanned sequentially
+     */
+    static final int MIN_SEGMENT_RECORDS = 16 * 1024;
+    
+    /**
+     * Number of segments per pool thread, so that threads matching fewer names can pick up more segments
+     */
+    private static final int SEGMENTS_PER_THREAD = 4;
+    
+    private String indexFileName;
+    
+    private ForkJoinPool scanPool;
+    
+    public MappedIndexScanner(String indexFileName) {
+        this(indexFileName, 1);
+    }
+    
+    /**
+     * @param indexFileName - the index file name
+     * @param parallelism - number of threads matching index segments, 1 for sequential scans
+     */
+    public MappedIndexScanner(String indexFileName, int parallelism) {
+        this.indexFileName = indexFileName;
+        
+        if (parallelism > 1) {
+            this.scanPool = new ForkJoinPool(parallelism);
+        }
+    }
+    
+    /**
+     * Looks up a given regex {@link Pattern} in the index file
+     * 
+     * @param regexPattern the regex {@link Pattern}
+     * @param startIdx - starting index of the result set
+     * @param pageSize - max number of items in the result set
+     * @return - a {@link List} with matching entries
+     * @throws IOException on errors opening or mapping the index file
+     */
+    public List<String> scan(Pattern regexPattern, long startIdx, long pageSize) throws IOException {
+        List<String> hits = new ArrayList<String>();
+        scan(regexPattern, 0, startIdx, pageSize, hits);
+        return hits;
+    }
+    
+    /**
+     * Looks up a given regex {@link Pattern} in the index file, starting at a given record slot
+     * 
+     * @param regexPattern the regex {@link Pattern}
+     * @param fromSlot - the record slot to start scanning from
+     * @param skipMatches - number of matches to skip before collecting hits
+     * @param pageSize - max number of items to collect
+     * @param hits - the {@link List} collecting the matching entries
+     * @return the slot following the last collected match if the page was filled, -1 if the end of the index was reached
+     * @throws IOException on errors opening or mapping the index file
+     */
+    public long scan(Pattern regexPattern, long fromSlot, long skipMatches, long pageSize, List<String> hits) throws IOException {
+        // the index file is mapped on each scan, so that truncations done by an index rebuild are always observed
+        FileChannel indexFileChannel = FileChannel.open(Paths.get(indexFileName), StandardOpenOption.READ);
+        try {
+            // ignore a partially appended record at the end of the file
+            long indexSize = indexFileChannel.size() - indexFileChannel.size() % FileInfoIndexEntry.MAX_RECORD_LENGTH;
+            long recordCount = indexSize / FileInfoIndexEntry.MAX_RECORD_LENGTH - fromSlot;
+            
+            if (scanPool != null && recordCount > MIN_SEGMENT_RECORDS) {
+                return scanSegments(indexFileChannel, regexPattern, fromSlot, indexSize, skipMatches, pageSize, hits);
+            }
+            
+            IndexRecordCharSequence record = new IndexRecordCharSequence();
+            Matcher regexMatcher = regexPattern.matcher("");
+            long skipRecords = skipMatches;
+            
+            for (long regionStart = fromSlot * FileInfoIndexEntry.MAX_RECORD_LENGTH ; regionStart < indexSize ; regionStart += MAX_MAPPED_REGION_SIZE) {
+                long regionSize = Math.min(MAX_MAPPED_REGION_SIZE, indexSize - regionStart);
+                MappedByteBuffer region = indexFileChannel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+                
+                for (int offset = 0 ; offset < regionSize ; offset += FileInfoIndexEntry.MAX_RECORD_LENGTH) {
+                    if (record.reset(region, offset).isEmpty()) {
+                        continue;
+                    }
+                    
+                    if (regexMatcher.reset(record).matches()) {
+                        if (skipRecords > 0) {
+                            skipRecords--;
+                            continue;
+                        }
+                        
+                        hits.add(record.toString());
+                        if (hits.size() >= pageSize) {
+                            return (regionStart + offset) / FileInfoIndexEntry.MAX_RECORD_LENGTH + 1;
+                        }
+                    }
+                }
+            }
+        } finally {
+            indexFileChannel.close();
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Passes all the index file records matching a given regex {@link Pattern} to a visitor, in index order.
+     * The index file is scanned sequentially, so that matches are streamed as they are found
+     * 
+     * @param regexPattern the regex {@link Pattern}
+     * @param visitor - the {@link EnumerationVisitor} receiving the matching records
+     * @return the number of matching records
+     * @throws IOException on errors opening or mapping the index file, or thrown by the visitor
+     */
+    public long scan(Pattern regexPattern, EnumerationVisitor visitor) throws IOException {
+        FileChannel indexFileChannel = FileChannel.open(Paths.get(indexFileName), StandardOpenOption.READ);
+        try {
+            long indexSize = indexFileChannel.size() - indexFileChannel.size() % FileInfoIndexEntry.MAX_RECORD_LENGTH;
+            
+            IndexRecordCharSequence record = new IndexRecordCharSequence();
+            Matcher regexMatcher = regexPattern.matcher("");
+            long matches = 0;
+            
+            for (long regionStart = 0 ; regionStart < indexSize ; regionStart += MAX_MAPPED_REGION_SIZE) {
+                long regionSize = Math.min(MAX_MAPPED_REGION_SIZE, indexSize - regionStart);
+                MappedByteBuffer region = indexFileChannel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionSize);
+                
+                for (int offset = 0 ; offset < regionSize ; offset += FileInfoIndexEntry.MAX_RECORD_LENGTH) {
+                    if (!record.reset(region, offset).isEmpty() && regexMatcher.reset(record).matches()) {
+                        visitor.visit(record);
+                        matches++;
+                    }
+                }
+            }
+            return matches;
+        } finally {
+            indexFileChannel.close();
+        }
+    }
+    
+    /**
+     * Stops the segment scanning threads
+     */
+    public void close() {
+        if (scanPool != null) {
+            scanPool.shutdownNow();
+        }
+    }
+    
+    /**
+     * Splits the index file in segments matched in parallel, then merges the segment matches in index order
+     */
+    private long scanSegments(FileChannel indexFileChannel, Pattern regexPattern, long fromSlot, long indexSize,
+            long skipMatches, long pageSize, List<String> hits) throws IOException {
+        long endSlot = indexSize / FileInfoIndexEntry.MAX_RECORD_LENGTH;
+        long segmentRecords = Math.max(MIN_SEGMENT_RECORDS, (endSlot - fromSlot) / (scanPool.getParallelism() * SEGMENTS_PER_THREAD) + 1);
+        segmentRecords = Math.min(segmentRecords, MAX_MAPPED_REGION_SIZE / FileInfoIndexEntry.MAX_RECORD_LENGTH);
+        
+        AtomicBoolean pageFilled = new AtomicBoolean();
+        
+        // segments are submitted as the previous ones are merged, so that a filled page leaves no segment queued behind it
+        int maxPendingSegments = scanPool.getParallelism() * 2;
+        LinkedList<ForkJoinTask<SegmentMatches>> segmentTasks = new LinkedList<ForkJoinTask<SegmentMatches>>();
+        long nextSegmentStart = fromSlot;
+        
+        try {
+            IndexRecordCharSequence record = new IndexRecordCharSequence();
+            long skipRecords = skipMatches;
+            
+            while (true) {
+                while (segmentTasks.size() < maxPendingSegments && nextSegmentStart < endSlot) {
+                    MappedByteBuffer segment = indexFileChannel.map(FileChannel.MapMode.READ_ONLY,
+                            nextSegmentStart * FileInfoIndexEntry.MAX_RECORD_LENGTH,
+                            Math.min(segmentRecords, endSlot - nextSegmentStart) * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+                    
+                    // no segment ever needs to hold more matches than the ones left to skip plus the rest of the page
+                    long maxSegmentMatches = skipRecords + pageSize - hits.size();
+                    segmentTasks.add(scanPool.submit(new SegmentScanTask(segment, nextSegmentStart, regexPattern, maxSegmentMatches, pageFilled)));
+                    nextSegmentStart += segmentRecords;
+                }
+                
+                ForkJoinTask<SegmentMatches> segmentTask = segmentTasks.poll();
+                if (segmentTask == null) {
+                    break;
+                }
+                SegmentMatches segmentMatches = segmentTask.get();
+                
+                if (skipRecords >= segmentMatches.matchCount) {
+                    skipRecords -= segmentMatches.matchCount;
+                    continue;
+                }
+                
+                for (int i = (int) skipRecords ; i < segmentMatches.matchCount ; i++) {
+                    int recordIndex = segmentMatches.recordIndexes[i];
+                    hits.add(record.reset(segmentMatches.segment, recordIndex * FileInfoIndexEntry.MAX_RECORD_LENGTH).toString());
+                    
+                    if (hits.size() >= pageSize) {
+                        // short circuit the segments still being matched right away
+                        pageFilled.set(true);
+                        return segmentMatches.firstSlot + recordIndex + 1;
+                    }
+                }
+                skipRecords = 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning the index file", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error scanning the index file", e.getCause());
+        } finally {
+            pageFilled.set(true);
+            for (ForkJoinTask<SegmentMatches> segmentTask : segmentTasks) {
+                segmentTask.cancel(false);
+            }
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * Record indexes of the matches in an index segment
+     */
+    private static class SegmentMatches {
+        
+        private MappedByteBuffer segment;
+        
+        private long firstSlot;
+        
+        private int[] recordIndexes;
+        
+        private int matchCount;
+    }
+    
+    /**
+     * Matches the records of an index segment
+     */
+    private static class SegmentScanTask implements Callable<SegmentMatches> {
+        
+        private MappedByteBuffer segment;
+        
+        private long firstSlot;
+        
+        private Pattern regexPattern;
+        
+        private long maxMatches;
+        
+        private AtomicBoolean pageFilled;
+        
+        SegmentScanTask(MappedByteBuffer segment, long firstSlot, Pattern regexPattern, long maxMatches, AtomicBoolean pageFilled) {
+            this.segment = segment;
+            this.firstSlot = firstSlot;
+            this.regexPattern = regexPattern;
+            this.maxMatches = maxMatches;
+            this.pageFilled = pageFilled;
+        }
+        
+        public SegmentMatches call() {
+            SegmentMatches segmentMatches = new SegmentMatches();
+            segmentMatches.segment = segment;
+            segmentMatches.firstSlot = firstSlot;
+            segmentMatches.recordIndexes = new int[16];
+            
+            IndexRecordCharSequence record = new IndexRecordCharSequence();
+            Matcher regexMatcher = regexPattern.matcher("");
+            int records = segment.capacity() / FileInfoIndexEntry.MAX_RECORD_LENGTH;
+            
+            for (int recordIndex = 0 ; recordIndex < records && segmentMatches.matchCount < maxMatches ; recordIndex++) {
+                // the page was filled by the previous segments
+                if ((recordIndex & 1023) == 0 && pageFilled.get()) {
+                    break;
+                }
+                
+                if (record.reset(segment, recordIndex * FileInfoIndexEntry.MAX_RECORD_LENGTH).isEmpty()) {
+                    continue;
+                }
+                
+                if (regexMatcher.reset(record).matches()) {
+                    if (segmentMatches.matchCount == segmentMatches.recordIndexes.length) {
+                        segmentMatches.recordIndexes = Arrays.copyOf(segmentMatches.recordIndexes, segmentMatches.matchCount * 2);
+                    }
+                    segmentMatches.recordIndexes[segmentMatches.matchCount++] = recordIndex;
+                }
+            }
+            
+            return segmentMatches;
+        }
+    }
+}
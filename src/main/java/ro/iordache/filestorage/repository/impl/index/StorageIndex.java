@@ -3,22 +3,44 @@ package ro.iordache.filestorage.repository.impl.index;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PreDestroy;
+import ro.iordache.filestorage.repository.EnumerationPage;
+import ro.iordache.filestorage.repository.FileSystemStorageService.EnumerationVisitor;
+import ro.iordache.filestorage.repository.impl.durability.DurabilityMode;
+import ro.iordache.filestorage.repository.util.BoundedLRUCache;
+import ro.iordache.filestorage.repository.util.FileSystemStorageHelperImpl;
+
 /**
  * Handles storage index operations
  */
@@ -28,83 +50,224 @@ public class StorageIndex {
     
     public static final String STORAGE_INDEX_FILE_NAME = "storage.index";
     
+    public static final String STORAGE_INDEX_JOURNAL_FILE_NAME = STORAGE_INDEX_FILE_NAME + ".journal";
+    
+    public static final String STORAGE_INDEX_CLEAN_MARKER_FILE_NAME = STORAGE_INDEX_FILE_NAME + ".clean";
+    
+    /**
+     * Max time to wait for queued updates to reach the index file on shutdown
+     */
+    private static final long SHUTDOWN_DRAIN_TIMEOUT_MILLIS = 30000;
+    
+    // continuation token cursor types
+    private static final String SLOT_CURSOR_PREFIX = "s:";
+    private static final String NAME_CURSOR_PREFIX = "n:";
+    
+    /**
+     * Queue to batch the added and removed files to the index file, in the order they were journaled
+     */
+    private BlockingQueue<BatchIndexUpdaterThread.IndexUpdate> updatesBlockingQueue;
+    
     /**
-     * queue to batch newly added file updates to the index
+     * flag indicating that enumerations are served from memory, the index file only being used for persistence
      */
-    private BlockingQueue<String> newFilesBlockingQueue;
+    private boolean inMemoryIndex;
     
+    /**
+     * Sorted file names, only maintained in the in-memory index mode
+     */
+    private volatile NavigableSet<String> inMemoryFileNames;
+    
+    /**
+     * Memory mapped scanner for the index file
+     */
+    private MappedIndexScanner indexScanner;
+    
+    /**
+     * Tracks the free slots in the index file, shared by the index updater threads
+     */
+    private IndexSlotAllocator slotAllocator;
     
     /**
-     * Queue to batch removed files to the index file
+     * Maps file names to index file slots, shared by the index updater threads
      */
-    private BlockingQueue<String> deletedFilesBlockingQueue;
+    private IndexSlotTable slotTable;
     
-    public StorageIndex() {
-        newFilesBlockingQueue = new LinkedBlockingQueue<String>();
-        deletedFilesBlockingQueue = new LinkedBlockingQueue<String>();
+    /**
+     * flag indicating that the index file is reused across restarts, with a journal of the operations not yet applied to it
+     */
+    private boolean persistentIndex;
+    
+    private IndexJournal journal;
+    
+    /**
+     * flag indicating that the journal is fsynced along with the changes it records, so that it can be trusted after a crash
+     */
+    private boolean durableJournal;
+    
+    /**
+     * set once updates failed to be written to the index file, which then only matches its journal
+     */
+    private AtomicBoolean indexOutOfSync;
+    
+    /**
+     * Makes journal appends and journal checkpoints mutually exclusive, and keeps the queued updates in journal order.
+     * Not a monitor, as it's held during journal writes by request threads which may be virtual ones
+     */
+    private Lock journalLock;
+    
+    /**
+     * number of queued updates not yet durable in the index file
+     */
+    private AtomicLong pendingUpdates;
+    
+    /**
+     * bumped on every index change, cached enumeration pages of older generations are never used again
+     */
+    private AtomicLong generation;
+    
+    /**
+     * Enumeration pages keyed by index generation and query
+     */
+    private BoundedLRUCache<String, EnumerationPage> enumerationCache;
+    
+    private boolean enumerationCacheEnabled;
+    
+    private BatchIndexUpdaterThread indexUpdaterThread;
+    
+    public StorageIndex(@Value("${filestorage.index.inmemory:false}") boolean inMemoryIndex,
+            @Value("${filestorage.index.persistent:false}") boolean persistentIndex,
+            @Value("${filestorage.index.scan.parallelism:1}") int scanParallelism,
+            @Value("${filestorage.enum.cache.size:0}") int enumerationCacheSize,
+            @Value("${filestorage.durability.mode:none}") String durabilityMode) {
+        this.inMemoryIndex = inMemoryIndex;
+        this.persistentIndex = persistentIndex;
+        this.journal = new IndexJournal(STORAGE_INDEX_JOURNAL_FILE_NAME);
+        this.durableJournal = DurabilityMode.parse(durabilityMode) != DurabilityMode.NONE;
+        this.journalLock = new ReentrantLock();
+        this.pendingUpdates = new AtomicLong();
+        this.indexOutOfSync = new AtomicBoolean();
+        this.inMemoryFileNames = new ConcurrentSkipListSet<String>();
+        this.indexScanner = new MappedIndexScanner(STORAGE_INDEX_FILE_NAME,
+                scanParallelism > 0 ? scanParallelism : Runtime.getRuntime().availableProcessors());
+        this.slotAllocator = new IndexSlotAllocator();
+        this.slotTable = new IndexSlotTable();
+        this.generation = new AtomicLong();
+        this.enumerationCache = new BoundedLRUCache<String, EnumerationPage>(enumerationCacheSize);
+        this.enumerationCacheEnabled = enumerationCacheSize > 0;
         
-        logger.debug("Starting thread process to batch update new files to the index...");
-        (new BatchNewFilesIndexUpdaterThread(newFilesBlockingQueue, STORAGE_INDEX_FILE_NAME)).start();
+        updatesBlockingQueue = new LinkedBlockingQueue<BatchIndexUpdaterThread.IndexUpdate>();
+        
+        logger.debug("Starting thread process to batch update the index...");
+        indexUpdaterThread = new BatchIndexUpdaterThread(updatesBlockingQueue, STORAGE_INDEX_FILE_NAME, 
+                slotAllocator, slotTable, pendingUpdates, indexOutOfSync);
+        indexUpdaterThread.start();
+    }
+    
+    /**
+     * Loads the storage index. In the persistent index mode, the index file left by the previous run is reused and
+     * the journaled operations are replayed on top of it. The storage folder is only scanned if there's no usable index file:
+     * after a crash, the index file is only reused if its journal was fsynced with the changes it records.
+     * 
+     * @param storageHelper - the {@link FileSystemStorageHelperImpl} giving access to the stored files
+     * @return - number of indexed file entries
+     */
+    public long loadIndex(FileSystemStorageHelperImpl storageHelper) {
+        if (!persistentIndex) {
+            return buildIndex(storageHelper);
+        }
+        
+        logger.debug("Loading persisted storage index file");
+        long startIndexLoad = System.currentTimeMillis();
+        long numEntries;
+        
+        try {
+            numEntries = loadSnapshot();
+            if (numEntries < 0) {
+                logger.warn("Persisted storage index is missing, corrupt or not trusted, rebuilding it from the storage folder");
+                return buildIndex(storageHelper);
+            }
+            
+            numEntries += replayJournal();
+            generation.incrementAndGet();
+        } catch (IOException e) {
+            logger.error("Error loading persisted storage index, rebuilding it from the storage folder", e);
+            return buildIndex(storageHelper);
+        }
         
-        logger.debug("Starting thread process to batch update deleted files to the index...");
-        (new BatchDeletedFilesIndexUpdaterThread(deletedFilesBlockingQueue, STORAGE_INDEX_FILE_NAME)).start();
+        logger.debug("Loading storage index file done in {} seconds!", (float)(System.currentTimeMillis() - startIndexLoad)/1000);
+        return numEntries;
     }
     
     /**
      * Scans all files in the storage folder and adds the names to the index file for quicker scanning
      * 
-     * @param folder - the folder to scan
+     * @param storageHelper - the {@link FileSystemStorageHelperImpl} giving access to the stored files
      * @return - number of found file entries
      */
-    public long buildIndex(Path folder) {
+    public long buildIndex(FileSystemStorageHelperImpl storageHelper) {
         logger.debug("Building storage index file");
         long startIndexBuild = System.currentTimeMillis();
         long numEntries = 0;
         
-        DirectoryStream<Path> ds = null;
         FileChannel indexFileChannel = null;
+        final NavigableSet<String> fileNames = new ConcurrentSkipListSet<String>();
         
         try {
-            ds = Files.newDirectoryStream(folder);
-            
             indexFileChannel = FileChannel.open(Paths.get(STORAGE_INDEX_FILE_NAME), 
                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
-            ByteBuffer buf = ByteBuffer.allocate(10000 * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+            slotTable.clear();
+            final FileChannel indexChannel = indexFileChannel;
+            final ByteBuffer buf = ByteBuffer.allocate(10000 * FileInfoIndexEntry.MAX_RECORD_LENGTH);
             
-            for (Path filePath : ds) {
-                FileInfoIndexEntry indexEntry = new FileInfoIndexEntry(filePath.getFileName().toString());
-                byte[] indexEntryBytes = indexEntry.getBytes();
+            numEntries = storageHelper.scanStoredFiles(new FileSystemStorageHelperImpl.StoredFileVisitor() {
+                // records are written contiguously, the slot is the record number
+                private int slot = 0;
                 
-                if (buf.position() + indexEntryBytes.length > buf.capacity()) {
-                    buf.flip();
+                public void visit(String fileName) throws IOException {
+                    FileInfoIndexEntry indexEntry = new FileInfoIndexEntry(fileName);
+                    byte[] indexEntryBytes = indexEntry.getBytes();
+                    
+                    if (buf.position() + indexEntryBytes.length > buf.capacity()) {
+                        buf.flip();
+                        
+                        indexChannel.write(buf);
+                        buf.clear();
+                    }
+                    
+                    buf.put(indexEntryBytes);
                     
-                    indexFileChannel.write(buf);
-                    buf.clear();
+                    if (inMemoryIndex) {
+                        fileNames.add(fileName);
+                    }
+                    
+                    slotTable.put(fileName, slot++);
                 }
-                
-                buf.put(indexEntryBytes);
-                
-                numEntries++;
-            }
+            });
             
             if (buf.position() > 0) {
                 buf.flip();
                 indexFileChannel.write(buf);
             }
             
-            ds.close();
-            
             indexFileChannel.force(false);
             indexFileChannel.close();
+            
+            // all records were written contiguously, there are no free slots yet
+            slotAllocator.reset((int) numEntries);
+            
+            // swap the whole set so concurrent enumerations never see a partially built index
+            inMemoryFileNames = fileNames;
+            generation.incrementAndGet();
+            
+            if (persistentIndex) {
+                // the rebuilt index is complete, nothing left to replay
+                Files.deleteIfExists(Paths.get(STORAGE_INDEX_CLEAN_MARKER_FILE_NAME));
+                journal.truncate();
+            }
         } catch (IOException e) {
             logger.error("Error indexing repository storage!", e);
         } finally {
-            if (ds != null) {
-                try {
-                    ds.close();
-                } catch (IOException e) {}
-            }
-            
             if (indexFileChannel != null && indexFileChannel.isOpen()) {
                 try {
                     indexFileChannel.close();
@@ -117,13 +280,145 @@ public class StorageIndex {
     }
     
     public void removeFromIndex(String fileName) {
+        if (inMemoryIndex) {
+            inMemoryFileNames.remove(fileName);
+        }
+        
         // queue the filename to be (eventually) erased from the index
-        deletedFilesBlockingQueue.add(fileName);
+        queueUpdates(IndexJournal.OP_REMOVE, Collections.singletonList(fileName));
+        generation.incrementAndGet();
+    }
+    
+    /**
+     * Removes several deleted files from the index, journaling them with a single write
+     * 
+     * @param fileNames - the names of the deleted files
+     */
+    public void removeFromIndex(Collection<String> fileNames) {
+        if (fileNames.isEmpty()) {
+            return;
+        }
+        
+        if (inMemoryIndex) {
+            for (String fileName : fileNames) {
+                inMemoryFileNames.remove(fileName);
+            }
+        }
+        
+        // the updater thread drains the queue, erasing the batch from the index at once
+        queueUpdates(IndexJournal.OP_REMOVE, fileNames);
+        generation.incrementAndGet();
+    }
+    
+    /**
+     * Adds several new files to the index, journaling them with a single write
+     * 
+     * @param fileNames - the names of the new files
+     */
+    public void addToIndex(Collection<String> fileNames) {
+        if (fileNames.isEmpty()) {
+            return;
+        }
+        
+        if (inMemoryIndex) {
+            inMemoryFileNames.addAll(fileNames);
+        }
+        
+        // the updater thread drains the queue, writing the batch to the index at once
+        queueUpdates(IndexJournal.OP_ADD, fileNames);
+        generation.incrementAndGet();
     }
     
     public void addToIndex(String fileName) {
+        if (inMemoryIndex) {
+            inMemoryFileNames.add(fileName);
+        }
+        
         // queue the file name to be (eventually) written to the index
-        newFilesBlockingQueue.add(fileName);
+        queueUpdates(IndexJournal.OP_ADD, Collections.singletonList(fileName));
+        generation.incrementAndGet();
+    }
+    
+    /**
+     * Gets the index journal file, to be fsynced along with the changes it records
+     * 
+     * @return the journal {@link Path}, {@code null} if the index isn't persistent
+     */
+    public Path getJournalFile() {
+        return persistentIndex ? Paths.get(STORAGE_INDEX_JOURNAL_FILE_NAME) : null;
+    }
+    
+    /**
+     * Drops the journal once all the journaled operations are durable in the index file
+     */
+    @Scheduled(fixedDelayString = "${filestorage.index.checkpoint.interval:60000}")
+    public void checkpoint() {
+        if (!persistentIndex) {
+            return;
+        }
+        
+        if (indexOutOfSync.get()) {
+            logger.debug("Index file out of sync with its journal, keeping the journal for the next start");
+            return;
+        }
+        
+        journalLock.lock();
+        try {
+            try {
+                if (pendingUpdates.get() == 0 && journal.size() > 0) {
+                    logger.debug("All journaled index updates applied, truncating the index journal");
+                    journal.truncate();
+                }
+            } catch (IOException e) {
+                logger.error("Error checkpointing the index journal!", e);
+            }
+        } finally {
+            journalLock.unlock();
+        }
+    }
+    
+    /**
+     * Waits for the queued updates to reach the index file and stops the index updater thread.
+     * In the persistent index mode, a clean shutdown marker is then written, next to the index file
+     */
+    @PreDestroy
+    public void shutdown() {
+        logger.debug("Waiting for {} queued index updates...", pendingUpdates.get());
+        long deadline = System.currentTimeMillis() + SHUTDOWN_DRAIN_TIMEOUT_MILLIS;
+        while (pendingUpdates.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        
+        indexUpdaterThread.interrupt();
+        indexScanner.close();
+        
+        if (!persistentIndex) {
+            return;
+        }
+        
+        journalLock.lock();
+        try {
+            try {
+                if (indexOutOfSync.get()) {
+                    logger.warn("Index file out of sync with its journal, it will be replayed from the journal");
+                } else if (pendingUpdates.get() == 0) {
+                    writeCleanMarker();
+                    journal.truncate();
+                } else {
+                    logger.warn("{} index updates not applied on shutdown, they will be replayed from the journal", pendingUpdates.get());
+                }
+            } catch (IOException e) {
+                logger.error("Error writing the storage index clean shutdown marker!", e);
+            }
+            journal.close();
+        } finally {
+            journalLock.unlock();
+        }
     }
     
     /**
@@ -136,51 +431,402 @@ public class StorageIndex {
      * @return - a {@link List} with matching entries
      */
     public List<String> scanRepoIndex(Pattern regexPattern, long startIdx, long pageSize) {
+        return scanRepoIndex(regexPattern, startIdx, null, pageSize).getMatchingItems();
+    }
+    
+    /**
+     * Scans the index and looks up a given regex {@link Pattern}, resuming from a continuation token if given.
+     * The returned page carries the continuation token of the next page, encoding the index position where this page stopped:
+     * the index file slot following the last match, or the last matching name in the in-memory index mode.
+     * 
+     * @param regexPattern the regex {@link Pattern}
+     * @param startIdx - starting index of the result set, only used if there's no continuation token
+     * @param continuationToken - token returned with the previous page, can be {@code null}
+     * @param pageSize - max number of items in the result set
+     * @return - an {@link EnumerationPage} with matching entries
+     * @throws IllegalArgumentException if the continuation token is invalid
+     */
+    public EnumerationPage scanRepoIndex(Pattern regexPattern, long startIdx, String continuationToken, long pageSize) {
+        // read the generation before the pending updates count: an update missed by the scan either bumps the generation
+        // afterwards, or is still pending in the index file. Pages read from the index file are only cached without pending updates
+        String cacheKey = null;
+        if (enumerationCacheEnabled) {
+            long currentGeneration = generation.get();
+            if (inMemoryIndex || pendingUpdates.get() == 0) {
+                cacheKey = currentGeneration + ":" + startIdx + ":" + pageSize + ":" + continuationToken + ":" 
+                        + regexPattern.flags() + ":" + regexPattern.pattern();
+                
+                EnumerationPage cachedPage = enumerationCache.get(cacheKey);
+                if (cachedPage != null) {
+                    return cachedPage;
+                }
+            }
+        }
+        
+        EnumerationPage page;
+        try {
+            page = scanIndexPage(regexPattern, startIdx, continuationToken, pageSize);
+        } catch (IOException e) {
+            logger.error("Error scanning file repository for pattern!", e);
+            return new EnumerationPage(new ArrayList<String>(), null);
+        }
+        
+        if (cacheKey != null) {
+            enumerationCache.put(cacheKey, page);
+        }
+        return page;
+    }
+    
+    /**
+     * Scans the whole index for a given regex {@link Pattern}, passing the matches to a visitor as they are found.
+     * Matches are not cached nor collected, so memory use doesn't depend on the number of matches
+     * 
+     * @param regexPattern the regex {@link Pattern}
+     * @param visitor - the {@link EnumerationVisitor} receiving the matching file names
+     * @return - the number of matching file names
+     * @throws IOException on errors scanning the index file or thrown by the visitor
+     */
+    public long scanRepoIndex(Pattern regexPattern, EnumerationVisitor visitor) throws IOException {
+        if (!inMemoryIndex) {
+            return indexScanner.scan(regexPattern, visitor);
+        }
+        
+        String prefix = IndexPatternHelper.getLiteralPrefix(regexPattern);
+        NavigableSet<String> candidates = prefix.isEmpty() ? inMemoryFileNames : inMemoryFileNames.tailSet(prefix, true);
+        Matcher regexMatcher = regexPattern.matcher("");
+        
+        long matches = 0;
+        for (String fileName : candidates) {
+            if (!fileName.startsWith(prefix)) {
+                break;
+            }
+            
+            if (regexMatcher.reset(fileName).matches()) {
+                visitor.visit(fileName);
+                matches++;
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Scans the index for a page of names matching a given regex {@link Pattern}
+     */
+    private EnumerationPage scanIndexPage(Pattern regexPattern, long startIdx, String continuationToken, long pageSize) throws IOException {
+        String cursor = null;
+        if (continuationToken != null) {
+            cursor = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8);
+            startIdx = 0;
+        }
+        
         List<String> hits = new ArrayList<String>();
-        FileChannel indexFileChannel = null;
+        String nextCursor = null;
         
+        if (inMemoryIndex) {
+            String afterName = null;
+            if (cursor != null) {
+                if (!cursor.startsWith(NAME_CURSOR_PREFIX)) {
+                    throw new IllegalArgumentException("Invalid continuation token " + continuationToken);
+                }
+                afterName = cursor.substring(NAME_CURSOR_PREFIX.length());
+            }
+            
+            String lastName = scanInMemoryIndex(regexPattern, afterName, startIdx, pageSize, hits);
+            if (lastName != null) {
+                nextCursor = NAME_CURSOR_PREFIX + lastName;
+            }
+        } else {
+            long fromSlot = 0;
+            if (cursor != null) {
+                if (!cursor.startsWith(SLOT_CURSOR_PREFIX)) {
+                    throw new IllegalArgumentException("Invalid continuation token " + continuationToken);
+                }
+                fromSlot = Long.parseLong(cursor.substring(SLOT_CURSOR_PREFIX.length()));
+                if (fromSlot < 0) {
+                    throw new IllegalArgumentException("Invalid continuation token " + continuationToken);
+                }
+            }
+            
+            long nextSlot = indexScanner.scan(regexPattern, fromSlot, startIdx, pageSize, hits);
+            if (nextSlot >= 0) {
+                nextCursor = SLOT_CURSOR_PREFIX + nextSlot;
+            }
+        }
+        
+        String nextContinuationToken = null;
+        if (nextCursor != null) {
+            nextContinuationToken = Base64.getUrlEncoder().withoutPadding().encodeToString(nextCursor.getBytes(StandardCharsets.UTF_8));
+        }
+        return new EnumerationPage(Collections.unmodifiableList(hits), nextContinuationToken);
+    }
+    
+    /**
+     * Looks up a given regex {@link Pattern} in the in-memory sorted file names.
+     * If the pattern has a literal prefix, only the range of names starting with that prefix is visited
+     * 
+     * @param regexPattern the regex {@link Pattern}
+     * @param afterName - only names sorted after this one are visited, can be {@code null}
+     * @param startIdx - starting index of the result set
+     * @param pageSize - max number of items in the result set
+     * @param hits - the {@link List} collecting the matching entries
+     * @return - the last matching name if the page was filled, {@code null} if there are no more names to visit
+     */
+    private String scanInMemoryIndex(Pattern regexPattern, String afterName, long startIdx, long pageSize, List<String> hits) {
+        String prefix = IndexPatternHelper.getLiteralPrefix(regexPattern);
+        
+        // jump straight at the first name that can possibly match
+        NavigableSet<String> candidates = inMemoryFileNames;
+        if (afterName != null && afterName.compareTo(prefix) >= 0) {
+            candidates = candidates.tailSet(afterName, false);
+        } else if (!prefix.isEmpty()) {
+            candidates = candidates.tailSet(prefix, true);
+        }
+        Matcher regexMatcher = regexPattern.matcher("");
+        
+        long skipRecords = startIdx;
+        for (String fileName : candidates) {
+            if (!fileName.startsWith(prefix)) {
+                // sorted set, we're past the prefix range
+                break;
+            }
+            
+            if (regexMatcher.reset(fileName).matches()) {
+                if (skipRecords > 0) {
+                    skipRecords--;
+                    continue;
+                }
+                
+                hits.add(fileName);
+                if (hits.size() >= pageSize) {
+                    return fileName;
+                }
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Journals the same operation on several files with a single write and queues it for the index updater thread,
+     * counting it as pending until applied. Operations are queued in the order they are journaled
+     */
+    private void queueUpdates(byte operation, Collection<String> fileNames) {
+        journalLock.lock();
         try {
-            indexFileChannel = FileChannel.open(Paths.get(STORAGE_INDEX_FILE_NAME), StandardOpenOption.READ);
+            if (persistentIndex) {
+                try {
+                    journal.append(operation, fileNames);
+                } catch (IOException e) {
+                    logger.error("Error journaling index update for {} files!", fileNames.size(), e);
+                }
+            }
+            pendingUpdates.addAndGet(fileNames.size());
             
-            ByteBuffer buffer = ByteBuffer.allocate(5000 * FileInfoIndexEntry.MAX_RECORD_LENGTH);
-            long readBytes;
+            for (String fileName : fileNames) {
+                updatesBlockingQueue.add(new BatchIndexUpdaterThread.IndexUpdate(operation, fileName));
+            }
+        } finally {
+            journalLock.unlock();
+        }
+    }
+    
+    /**
+     * Loads the index file left by a previous run in the slot structures. Without a clean shutdown marker, the index file
+     * is only trusted along with an fsynced journal: a crash may have lost journaled operations otherwise, and an index
+     * file with no journal was left by a version not keeping one
+     * 
+     * @return the number of file names in the index file, -1 if the index file is missing, corrupt or not to be trusted
+     * @throws IOException on errors reading the index file
+     */
+    private long loadSnapshot() throws IOException {
+        Path indexFile = Paths.get(STORAGE_INDEX_FILE_NAME);
+        Path cleanMarkerFile = Paths.get(STORAGE_INDEX_CLEAN_MARKER_FILE_NAME);
+        if (!Files.exists(indexFile)) {
+            return -1;
+        }
+        
+        // the index file is about to change, the marker will no longer describe it
+        ByteBuffer cleanMarker = null;
+        if (Files.exists(cleanMarkerFile)) {
+            cleanMarker = ByteBuffer.wrap(Files.readAllBytes(cleanMarkerFile));
+            Files.delete(cleanMarkerFile);
+        } else if (!durableJournal || !Files.exists(Paths.get(STORAGE_INDEX_JOURNAL_FILE_NAME))) {
+            logger.warn("Storage index was not shut down cleanly and has no durable journal");
+            return -1;
+        }
+        
+        FileChannel indexFileChannel = FileChannel.open(indexFile, StandardOpenOption.READ);
+        try {
+            long indexSize = indexFileChannel.size();
+            if (indexSize % FileInfoIndexEntry.MAX_RECORD_LENGTH != 0 || indexSize / FileInfoIndexEntry.MAX_RECORD_LENGTH > Integer.MAX_VALUE) {
+                logger.warn("Invalid storage index size {}", indexSize);
+                return -1;
+            }
+            int slotCount = (int) (indexSize / FileInfoIndexEntry.MAX_RECORD_LENGTH);
             
-            long skipRecords = startIdx;
-            while ((readBytes = indexFileChannel.read(buffer)) >= 0) {
+            BitSet usedSlots = new BitSet(slotCount);
+            NavigableSet<String> fileNames = new ConcurrentSkipListSet<String>();
+            IndexRecordCharSequence record = new IndexRecordCharSequence();
+            CRC32 crc = new CRC32();
+            long numEntries = 0;
+            slotTable.clear();
+            
+            ByteBuffer buffer = ByteBuffer.allocate(10000 * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+            int slot = 0;
+            int readStart = 0;
+            while (slot < slotCount && indexFileChannel.read(buffer) >= 0) {
+                crc.update(buffer.array(), readStart, buffer.position() - readStart);
                 buffer.flip();
-                List<FileInfoIndexEntry> readEntries = FileInfoIndexEntry.fromByteArray(buffer);
                 
-                for (FileInfoIndexEntry fileInfoIndexEntry : readEntries) {
+                int readRecords = buffer.limit() / FileInfoIndexEntry.MAX_RECORD_LENGTH;
+                for (int i = 0 ; i < readRecords ; i++, slot++) {
+                    int offset = i * FileInfoIndexEntry.MAX_RECORD_LENGTH;
+                    if (!isValidRecord(buffer, offset)) {
+                        logger.warn("Invalid storage index record at slot {}", slot);
+                        return -1;
+                    }
                     
-                    if (fileInfoIndexEntry.getFileName().isEmpty()) {
+                    if (record.reset(buffer, offset).isEmpty()) {
                         continue;
                     }
                     
-                    Matcher regexMatcher = regexPattern.matcher(fileInfoIndexEntry.getFileName());
-                    if (regexMatcher.matches()) {
-                        if (skipRecords > 0) {
-                            skipRecords--;
-                            continue;
-                        } else {
-                            hits.add(fileInfoIndexEntry.getFileName());
-                            
-                            if (hits.size() >= pageSize) {
-                                return hits;
-                            }
-                        }
+                    usedSlots.set(slot);
+                    slotTable.put(record, slot);
+                    if (inMemoryIndex) {
+                        fileNames.add(record.toString());
                     }
+                    numEntries++;
                 }
+                
+                // keep a partially read record for the next read
+                buffer.position(readRecords * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+                buffer.compact();
+                readStart = buffer.position();
             }
-        } catch (IOException e) {
-            logger.error("Error scanning file repository for pattern!", e);
+            
+            if (cleanMarker != null && (cleanMarker.remaining() != 16 
+                    || cleanMarker.getLong() != slotCount || cleanMarker.getLong() != crc.getValue())) {
+                logger.warn("Storage index does not match its clean shutdown marker");
+                return -1;
+            }
+            
+            slotAllocator.reset(usedSlots, slotCount);
+            inMemoryFileNames = fileNames;
+            
+            logger.debug("Loaded {} entries from the persisted storage index, clean shutdown: {}", numEntries, cleanMarker != null);
+            return numEntries;
         } finally {
-            if (indexFileChannel != null) {
-                try {
-                    indexFileChannel.close();
-                } catch (Exception e) {}
+            indexFileChannel.close();
+        }
+    }
+    
+    /**
+     * Checks that an index record only holds printable ASCII characters, with no leading whitespace
+     */
+    private boolean isValidRecord(ByteBuffer buffer, int offset) {
+        boolean empty = buffer.get(offset) == ' ';
+        for (int i = 0 ; i < FileInfoIndexEntry.MAX_RECORD_LENGTH ; i++) {
+            int b = buffer.get(offset + i) & 0xff;
+            if (b < ' ' || b > '~' || (empty && b != ' ')) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Replays the journaled operations on top of the loaded index file. Operations already applied to the
+     * index file before the previous run stopped are skipped.
+     * 
+     * @return the change in the number of indexed files
+     * @throws IOException on errors reading the journal or the index file
+     */
+    private long replayJournal() throws IOException {
+        // only the last operation for each file name matters
+        final Map<String, Byte> lastOperations = new LinkedHashMap<String, Byte>();
+        long journaledOperations = journal.replay(new IndexJournal.JournalVisitor() {
+            public void visit(byte operation, String fileName) {
+                lastOperations.remove(fileName);
+                lastOperations.put(fileName, operation);
+            }
+        });
+        
+        final FileChannel indexFileChannel = FileChannel.open(Paths.get(STORAGE_INDEX_FILE_NAME), StandardOpenOption.READ);
+        final ByteBuffer recordBuffer = ByteBuffer.allocate(FileInfoIndexEntry.MAX_RECORD_LENGTH);
+        final IndexRecordCharSequence record = new IndexRecordCharSequence();
+        long entriesDelta = 0;
+        
+        try {
+            IndexSlotTable.RecordMatcher recordMatcher = new IndexSlotTable.RecordMatcher() {
+                public boolean matches(int slot, String fileName) throws IOException {
+                    recordBuffer.clear();
+                    indexFileChannel.read(recordBuffer, (long) slot * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+                    return !recordBuffer.hasRemaining() && fileName.contentEquals(record.reset(recordBuffer, 0));
+                }
+            };
+            
+            for (Map.Entry<String, Byte> lastOperation : lastOperations.entrySet()) {
+                String fileName = lastOperation.getKey();
+                boolean indexed = slotTable.find(fileName, recordMatcher) >= 0;
+                
+                // operations are already in the journal, only queue them for the updater thread
+                if (lastOperation.getValue() == IndexJournal.OP_ADD && !indexed) {
+                    if (inMemoryIndex) {
+                        inMemoryFileNames.add(fileName);
+                    }
+                    pendingUpdates.incrementAndGet();
+                    updatesBlockingQueue.add(new BatchIndexUpdaterThread.IndexUpdate(IndexJournal.OP_ADD, fileName));
+                    entriesDelta++;
+                } else if (lastOperation.getValue() == IndexJournal.OP_REMOVE && indexed) {
+                    if (inMemoryIndex) {
+                        inMemoryFileNames.remove(fileName);
+                    }
+                    pendingUpdates.incrementAndGet();
+                    updatesBlockingQueue.add(new BatchIndexUpdaterThread.IndexUpdate(IndexJournal.OP_REMOVE, fileName));
+                    entriesDelta--;
+                }
+            }
+        } finally {
+            indexFileChannel.close();
+        }
+        
+        logger.debug("Replayed {} journaled index operations, {} files changed", journaledOperations, entriesDelta);
+        return entriesDelta;
+    }
+    
+    /**
+     * Writes the clean shutdown marker: the index file slot count and CRC32 checksum
+     */
+    private void writeCleanMarker() throws IOException {
+        FileChannel indexFileChannel = FileChannel.open(Paths.get(STORAGE_INDEX_FILE_NAME), StandardOpenOption.READ);
+        CRC32 crc = new CRC32();
+        long slotCount;
+        try {
+            indexFileChannel.force(false);
+            slotCount = indexFileChannel.size() / FileInfoIndexEntry.MAX_RECORD_LENGTH;
+            
+            ByteBuffer buffer = ByteBuffer.allocate(10000 * FileInfoIndexEntry.MAX_RECORD_LENGTH);
+            while (indexFileChannel.read(buffer) >= 0) {
+                buffer.flip();
+                crc.update(buffer.array(), 0, buffer.limit());
+                buffer.clear();
             }
+        } finally {
+            indexFileChannel.close();
         }
         
-        return hits;
+        ByteBuffer cleanMarker = ByteBuffer.allocate(16);
+        cleanMarker.putLong(slotCount);
+        cleanMarker.putLong(crc.getValue());
+        cleanMarker.flip();
+        
+        FileChannel markerChannel = FileChannel.open(Paths.get(STORAGE_INDEX_CLEAN_MARKER_FILE_NAME), 
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try {
+            markerChannel.write(cleanMarker);
+            markerChannel.force(true);
+        } finally {
+            markerChannel.close();
+        }
     }
 }
@@ -0,0 +1,249 @@
+package ro.iordache.filestorage.repository.impl.tombstone;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ro.iordache.filestorage.repository.DeleteJob;
+import ro.iordache.filestorage.repository.util.BoundedLRUCache;
+
+/**
+ * The files deleted by bulk delete jobs and not unlinked yet. A tombstoned file is missing for readers while still
+ * on disk, until its job's unlinking gets to it or a new file replaces it.
+ * Each job's file names are also written to a tombstones file of the staging folder, along with the file keys
+ * (device and inode) of the tombstoned files, so that the files of jobs interrupted by a crash are unlinked on
+ * the next startup unless a new file replaced them meanwhile
+ */
+public class TombstoneTable {
+    
+    public static final String TOMBSTONES_FILE_SUFFIX = ".tombstones";
+    
+    /**
+     * Last line of complete tombstones files, never a valid file name
+     */
+    private static final String END_MARKER = ".";
+    
+    /**
+     * The tombstoned files of a job interrupted by a crash
+     */
+    public static class PendingTombstones {
+        
+        private Path tombstonesFile;
+        
+        private long tombstoned;
+        
+        private Map<String, String> fileKeys;
+        
+        private PendingTombstones(Path tombstonesFile, long tombstoned, Map<String, String> fileKeys) {
+            this.tombstonesFile = tombstonesFile;
+            this.tombstoned = tombstoned;
+            this.fileKeys = fileKeys;
+        }
+        
+        public Path getTombstonesFile() {
+            return tombstonesFile;
+        }
+        
+        public List<String> getFileNames() {
+            return new ArrayList<String>(fileKeys.keySet());
+        }
+        
+        /**
+         * Checks whether a file is still the tombstoned one. Without file keys, files modified since the job
+         * started are considered new files
+         * 
+         * @param fileName - the file name
+         * @param attr - the current file's attributes
+         * @return true if the file is to be unlinked
+         */
+        public boolean isTombstoned(String fileName, BasicFileAttributes attr) {
+            String fileKey = fileKeys.get(fileName);
+            if (fileKey != null) {
+                return fileKey.equals(String.valueOf(attr.fileKey()));
+            }
+            return attr.lastModifiedTime().toMillis() < tombstoned;
+        }
+    }
+    
+    private Path tombstonesFolder;
+    
+    private ConcurrentHashMap<String, DeleteJob> tombstones;
+    
+    private BoundedLRUCache<String, DeleteJob> jobs;
+    
+    /**
+     * @param tombstonesFolder - the folder the tombstones files are written to
+     * @param maxJobs - max number of jobs whose status is kept
+     */
+    public TombstoneTable(Path tombstonesFolder, int maxJobs) {
+        this.tombstonesFolder = tombstonesFolder;
+        this.tombstones = new ConcurrentHashMap<String, DeleteJob>();
+        this.jobs = new BoundedLRUCache<String, DeleteJob>(maxJobs);
+    }
+    
+    /**
+     * Starts a new delete job
+     * 
+     * @return the {@link DeleteJob}
+     */
+    public DeleteJob createJob() {
+        DeleteJob job = new DeleteJob(UUID.randomUUID().toString(), System.currentTimeMillis());
+        jobs.put(job.getId(), job);
+        return job;
+    }
+    
+    /**
+     * Gets a recent delete job
+     * 
+     * @param jobId - the job id
+     * @return the {@link DeleteJob}, {@code null} if unknown or evicted by newer jobs
+     */
+    public DeleteJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+    
+    public boolean isTombstoned(String fileName) {
+        return !tombstones.isEmpty() && tombstones.containsKey(fileName);
+    }
+    
+    /**
+     * Tombstones a file, to be called under the file's lock
+     * 
+     * @param fileName - the file name
+     * @param job - the {@link DeleteJob} deleting the file
+     * @return false if the file is already tombstoned by another job
+     */
+    public boolean tombstone(String fileName, DeleteJob job) {
+        return tombstones.putIfAbsent(fileName, job) == null;
+    }
+    
+    /**
+     * Drops the tombstone of a file replaced by a new file, to be called under the file's lock
+     * 
+     * @param fileName - the file name
+     * @return true if the file was tombstoned
+     */
+    public boolean revive(String fileName) {
+        return !tombstones.isEmpty() && tombstones.remove(fileName) != null;
+    }
+    
+    /**
+     * Checks whether a file is still tombstoned by a job, to be called under the file's lock
+     * 
+     * @param fileName - the file name
+     * @param job - the {@link DeleteJob} unlinking the file
+     * @return false if the file was replaced since the job tombstoned it, and is not to be unlinked
+     */
+    public boolean isTombstoned(String fileName, DeleteJob job) {
+        return tombstones.get(fileName) == job;
+    }
+    
+    /**
+     * Drops the tombstone of a file once unlinked, to be called under the file's lock
+     * 
+     * @param fileName - the file name
+     * @param job - the {@link DeleteJob} unlinking the file
+     * @return false if the file was replaced since the job tombstoned it
+     */
+    public boolean release(String fileName, DeleteJob job) {
+        return tombstones.remove(fileName, job);
+    }
+    
+    /**
+     * Writes the file names of a job to its tombstones file, one per line after the job's start time,
+     * each followed by a tab and the file's key if the file system has file keys. An end marker line
+     * tells complete files from the ones torn by a crash
+     * 
+     * @param job - the {@link DeleteJob}
+     * @param fileKeys - the tombstoned file names, with the keys of their files, {@code null} if not supported
+     * @return the tombstones file
+     * @throws IOException on errors writing the file
+     */
+    public Path writeTombstones(DeleteJob job, Map<String, Object> fileKeys) throws IOException {
+        Path tombstonesFile = getTombstonesFile(job);
+        BufferedWriter writer = Files.newBufferedWriter(tombstonesFile, StandardCharsets.UTF_8);
+        try {
+            writer.write(Long.toString(job.getStarted()));
+            writer.newLine();
+            for (Map.Entry<String, Object> fileKey : fileKeys.entrySet()) {
+                writer.write(fileKey.getKey());
+                if (fileKey.getValue() != null) {
+                    writer.write('\t');
+                    writer.write(fileKey.getValue().toString());
+                }
+                writer.newLine();
+            }
+            writer.write(END_MARKER);
+            writer.newLine();
+        } finally {
+            writer.close();
+        }
+        return tombstonesFile;
+    }
+    
+    public Path getTombstonesFile(DeleteJob job) {
+        return tombstonesFolder.resolve(job.getId() + TOMBSTONES_FILE_SUFFIX);
+    }
+    
+    /**
+     * Reads the tombstones files left by jobs interrupted by a crash
+     * 
+     * @return the {@link PendingTombstones} of each complete file, the torn ones being deleted
+     * @throws IOException on errors reading the tombstones files
+     */
+    public List<PendingTombstones> readPendingTombstones() throws IOException {
+        List<PendingTombstones> pendingTombstones = new ArrayList<PendingTombstones>();
+        
+        DirectoryStream<Path> tombstonesFiles = Files.newDirectoryStream(tombstonesFolder, "*" + TOMBSTONES_FILE_SUFFIX);
+        try {
+            for (Path tombstonesFile : tombstonesFiles) {
+                Map<String, String> fileKeys = new LinkedHashMap<String, String>();
+                long tombstoned = -1;
+                boolean complete = false;
+                BufferedReader reader = Files.newBufferedReader(tombstonesFile, StandardCharsets.UTF_8);
+                try {
+                    String line = reader.readLine();
+                    if (line != null) {
+                        tombstoned = Long.parseLong(line);
+                    }
+                    
+                    while (!complete && (line = reader.readLine()) != null) {
+                        int keyStart = line.indexOf('\t');
+                        complete = line.equals(END_MARKER);
+                        if (keyStart > 0) {
+                            fileKeys.put(line.substring(0, keyStart), line.substring(keyStart + 1));
+                        } else if (!complete && !line.isEmpty()) {
+                            fileKeys.put(line, null);
+                        }
+                    }
+                } catch (NumberFormatException nfe) {
+                    complete = false;
+                } finally {
+                    reader.close();
+                }
+                
+                if (!complete) {
+                    // torn by a crash while written, the job never started
+                    Files.delete(tombstonesFile);
+                    continue;
+                }
+                pendingTombstones.add(new PendingTombstones(tombstonesFile, tombstoned, fileKeys));
+            }
+        } finally {
+            tombstonesFiles.close();
+        }
+        
+        return pendingTombstones;
+    }
+}
@@ -0,0 +1,72 @@
+package ro.iordache.filestorage.repository.impl.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes uploaded contents to a file through its {@link FileChannel}. The contents are gathered in a pooled direct
+ * buffer and written a whole buffer at a time, instead of a small heap buffer per write call.
+ */
+public class ChannelUploadWriter {
+    
+    private DirectBufferPool bufferPool;
+    
+    /**
+     * @param bufferPool - the pool of the buffers the contents are gathered in
+     */
+    public ChannelUploadWriter(DirectBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+    
+    /**
+     * Writes contents to a file, replacing its previous contents. The contents stream is closed
+     * 
+     * @param contents - the contents {@link InputStream}
+     * @param file - the destination file
+     * @return the number of bytes written
+     * @throws IOException on errors reading the contents or writing the file
+     */
+    public long write(InputStream contents, Path file) throws IOException {
+        ReadableByteChannel contentsChannel = Channels.newChannel(contents);
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        ByteBuffer buffer = bufferPool.acquire();
+        try {
+            long written = 0;
+            boolean endOfContents = false;
+            while (!endOfContents) {
+                // fill the whole buffer before writing it
+                while (buffer.hasRemaining()) {
+                    if (contentsChannel.read(buffer) < 0) {
+                        endOfContents = true;
+                        break;
+                    }
+                }
+                
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    written += fileChannel.write(buffer, written);
+                }
+                buffer.clear();
+            }
+            
+            // drop what's left of previous contents
+            if (fileChannel.size() != written) {
+                fileChannel.truncate(written);
+            }
+            return written;
+        } finally {
+            bufferPool.release(buffer);
+            try {
+                fileChannel.close();
+            } finally {
+                contentsChannel.close();
+            }
+        }
+    }
+}
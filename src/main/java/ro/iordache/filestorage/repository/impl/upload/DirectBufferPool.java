@@ -0,0 +1,97 @@
+package ro.iordache.filestorage.repository.impl.upload;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of equally sized direct buffers, so that uploads don't allocate (and leave to the GC) a direct buffer each.
+ * Buffers are allocated on demand when the pool is empty, only up to the pool's capacity of them being kept for reuse.
+ * At most a max number of direct buffers are allocated at any time, heap buffers being handed out past it, so that
+ * many concurrent uploads can't exhaust the direct memory.
+ */
+public class DirectBufferPool {
+    
+    private int bufferSize;
+    
+    private int maxBuffers;
+    
+    private ArrayBlockingQueue<ByteBuffer> buffers;
+    
+    /**
+     * Number of direct buffers allocated and not dropped, whether handed out or pooled
+     */
+    private AtomicInteger allocatedBuffers = new AtomicInteger();
+    
+    /**
+     * @param bufferSize - size in bytes of the pooled buffers
+     * @param maxPooledBuffers - max number of buffers kept for reuse
+     * @param maxBuffers - max number of direct buffers allocated at any time
+     */
+    public DirectBufferPool(int bufferSize, int maxPooledBuffers, int maxBuffers) {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = Math.max(1, maxBuffers);
+        this.buffers = new ArrayBlockingQueue<ByteBuffer>(Math.max(1, Math.min(maxPooledBuffers, this.maxBuffers)));
+    }
+    
+    /**
+     * Takes a buffer from the pool, allocating a new one if the pool is empty. Once the max number of direct buffers
+     * are allocated, a heap buffer is allocated instead
+     * 
+     * @return a cleared buffer, to be given back through {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        
+        while (true) {
+            int allocated = allocatedBuffers.get();
+            if (allocated >= maxBuffers) {
+                return ByteBuffer.allocate(bufferSize);
+            }
+            if (allocatedBuffers.compareAndSet(allocated, allocated + 1)) {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+        }
+    }
+    
+    /**
+     * Gives a buffer back to the pool, dropping it if the pool is full or if it's a heap buffer
+     * 
+     * @param buffer - a buffer taken through {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        
+        buffer.clear();
+        if (!buffers.offer(buffer)) {
+            allocatedBuffers.decrementAndGet();
+        }
+    }
+    
+    public int getBufferSize() {
+        return bufferSize;
+    }
+    
+    /**
+     * Gets the number of buffers currently pooled
+     * 
+     * @return the number of buffers available for reuse
+     */
+    public int getPooledBuffers() {
+        return buffers.size();
+    }
+    
+    /**
+     * Gets the number of direct buffers currently allocated
+     * 
+     * @return the number of direct buffers handed out or pooled
+     */
+    public int getAllocatedBuffers() {
+        return allocatedBuffers.get();
+    }
+}
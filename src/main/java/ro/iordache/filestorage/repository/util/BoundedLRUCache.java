@@ -0,0 +1,58 @@
+package ro.iordache.filestorage.repository.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe cache holding at most a given number of entries, the least recently used entry being evicted first
+ *
+ * @param <K> - the key type
+ * @param <V> - the value type
+ */
+public class BoundedLRUCache<K, V> {
+    
+    private LinkedHashMap<K, V> entries;
+    
+    /**
+     * @param maxEntries - max number of cached entries, 0 disables the cache
+     */
+    public BoundedLRUCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+    
+    /**
+     * Gets a cached value
+     *
+     * @param key - the key
+     * @return the cached value, {@code null} if not cached
+     */
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+    
+    /**
+     * Caches a value, evicting the least recently used entry if the cache is full
+     *
+     * @param key - the key
+     * @param value - the value
+     */
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+    
+    /**
+     * Gets the number of cached entries
+     *
+     * @return the number of cached entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
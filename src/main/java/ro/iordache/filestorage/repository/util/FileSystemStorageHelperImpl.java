@@ -1,9 +1,25 @@
 package ro.iordache.filestorage.repository.util;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,24 +28,77 @@ import org.springframework.stereotype.Component;
 
 /**
  * Helper for File and Folder operations
+ *
+ * Files are either stored directly in the storage folder, or, if {@code filestorage.repo.layout.levels} is greater than 0,
+ * sharded in that many levels of sub folders named after the hex digits of the file name's CRC32 hash,
+ * i.e. storage/3f/a2/file.txt for 2 levels. Each level fans out to 256 sub folders.
+ *
+ * Uploads are staged in a dot folder of the storage folder ({@code filestorage.repo.temp.name}), which stored file names
+ * can't clash with. Being on the same file system as the stored files, staged files are moved in place with a rename.
  */
 @Component
 public class FileSystemStorageHelperImpl {
     
     private static final Logger logger = LoggerFactory.getLogger(FileSystemStorageHelperImpl.class);
     
+    /**
+     * Marker file in the storage folder holding the number of levels of the current layout
+     */
+    public static final String LAYOUT_MARKER_FILE_NAME = ".layout";
+    
+    /**
+     * Max number of sub folder levels, each level uses 2 out of the 8 hex digits of the hash
+     */
+    public static final int MAX_LAYOUT_LEVELS = 4;
+    
+    /**
+     * Algorithm of the content digests stored with the files
+     */
+    public static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+    
+    /**
+     * User defined extended attribute holding a stored file's content digest
+     */
+    private static final String CONTENT_DIGEST_ATTRIBUTE = "filestorage.sha256";
+    
+    private static final int CONTENT_DIGEST_LENGTH = 32;
+    
+    /**
+     * User defined extended attribute marking a file stored gzip compressed, holding its uncompressed size
+     */
+    private static final String GZIP_CONTENT_SIZE_ATTRIBUTE = "filestorage.gzip";
+    
+    /**
+     * Receives the names of the stored files
+     */
+    public interface StoredFileVisitor {
+        
+        /**
+         * @param fileName - the name of a stored file
+         * @throws IOException
+         */
+        public void visit(String fileName) throws IOException;
+    }
+    
     private String storageRepositoryFolder;
     
-    private String tempFolderName;
+    private String stagingFolderName;
+    
+    private int layoutLevels;
     
     public FileSystemStorageHelperImpl(@Value("${filestorage.repo.folder:storage}") String storageRepositoryFolder,
-            @Value("${filestorage.repo.temp.name:temp}") String tempFolderName) {
+            @Value("${filestorage.repo.temp.name:.temp}") String stagingFolderName,
+            @Value("${filestorage.repo.layout.levels:0}") int layoutLevels) {
         this.storageRepositoryFolder = storageRepositoryFolder;
-        this.tempFolderName = tempFolderName;
-
+        // dot names are skipped when listing the stored files
+        this.stagingFolderName = stagingFolderName.startsWith(".") ? stagingFolderName : "." + stagingFolderName;
+        this.layoutLevels = Math.max(0, Math.min(MAX_LAYOUT_LEVELS, layoutLevels));
+        
         try {
-            createFolder(tempFolderName);
             createFolder(storageRepositoryFolder);
+            createFolder(getTempStoragePath().toString());
+            
+            migrateLayout();
         } catch (IOException e) {
             logger.error("Could not create folders!", e);
         }
@@ -52,28 +121,144 @@ public class FileSystemStorageHelperImpl {
     }
     
     /**
-     * Gets the temporary folder {@link Path}
-     * @return the temporary folder {@link Path}
+     * Gets the temporary folder {@link Path}, in which uploads are staged
+     * @return the temporary folder {@link Path}, within the storage folder
      */
     public Path getTempStoragePath() {
-        return Paths.get(tempFolderName);
+        return Paths.get(storageRepositoryFolder, stagingFolderName);
     }
     
     /**
      * Gets the internal storage file associated with a given file name
-     * 
+     *
      * @param fileName - name of the file looked up in the storage
      * @return a {@link Path} object in the internal storage repository
      */
     public Path getStorageFile(String fileName) {
-        Path resolvedFile = Paths.get(storageRepositoryFolder, fileName);
+        if (layoutLevels == 0) {
+            return Paths.get(storageRepositoryFolder, fileName);
+        }
         
-        return resolvedFile;
+        return getShardFolder(fileName, layoutLevels).resolve(fileName);
+    }
+    
+    /**
+     * Gets the internal storage file associated with a given file name, creating its shard folders if needed
+     *
+     * @param fileName - name of the file to be written in the storage
+     * @return a {@link Path} object in the internal storage repository
+     * @throws IOException on errors creating the shard folders
+     */
+    public Path prepareStorageFile(String fileName) throws IOException {
+        Path storageFile = getStorageFile(fileName);
+        
+        if (layoutLevels > 0 && !Files.isDirectory(storageFile.getParent())) {
+            Files.createDirectories(storageFile.getParent());
+        }
+        
+        return storageFile;
+    }
+    
+    /**
+     * Stores a file's content digest in a user defined extended attribute of the file, so that it follows the file
+     * when moved. Nothing is stored on file systems without extended attributes support.
+     *
+     * @param file - the file
+     * @param digest - the digest of the file's contents
+     * @return true if the digest was stored
+     */
+    public boolean writeContentDigest(Path file, byte[] digest) {
+        UserDefinedFileAttributeView attributeView = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (attributeView == null) {
+            return false;
+        }
+        
+        try {
+            attributeView.write(CONTENT_DIGEST_ATTRIBUTE, ByteBuffer.wrap(digest));
+            return true;
+        } catch (IOException e) {
+            logger.debug("Could not store the content digest of file {}", file, e);
+            return false;
+        }
+    }
+    
+    /**
+     * Reads a file's content digest stored by {@link #writeContentDigest(Path, byte[])}
+     *
+     * @param file - the file
+     * @return the digest of the file's contents, {@code null} if the file has none stored
+     */
+    public byte[] readContentDigest(Path file) {
+        UserDefinedFileAttributeView attributeView = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (attributeView == null) {
+            return null;
+        }
+        
+        ByteBuffer digest = ByteBuffer.allocate(CONTENT_DIGEST_LENGTH);
+        try {
+            if (attributeView.read(CONTENT_DIGEST_ATTRIBUTE, digest) != CONTENT_DIGEST_LENGTH) {
+                return null;
+            }
+        } catch (IOException e) {
+            // missing attribute, i.e. files not stored through this server
+            return null;
+        }
+        
+        return digest.array();
+    }
+    
+    /**
+     * Marks a file as stored gzip compressed, storing its uncompressed size in a user defined extended attribute
+     *
+     * @param file - the compressed file
+     * @param contentSize - the uncompressed size of the file's contents
+     * @return true if the marker was stored, false if the file system doesn't support extended attributes
+     */
+    public boolean writeCompressedContentSize(Path file, long contentSize) {
+        UserDefinedFileAttributeView attributeView = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (attributeView == null) {
+            return false;
+        }
+        
+        ByteBuffer sizeBuffer = ByteBuffer.allocate(8);
+        sizeBuffer.putLong(0, contentSize);
+        try {
+            attributeView.write(GZIP_CONTENT_SIZE_ATTRIBUTE, sizeBuffer);
+            return true;
+        } catch (IOException e) {
+            logger.debug("Could not mark file {} as compressed", file, e);
+            return false;
+        }
+    }
+    
+    /**
+     * Reads the uncompressed size stored by {@link #writeCompressedContentSize(Path, long)}
+     *
+     * @param file - the file
+     * @return the uncompressed size of the file's contents, -1 if the file is not stored compressed
+     */
+    public long readCompressedContentSize(Path file) {
+        UserDefinedFileAttributeView attributeView = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (attributeView == null) {
+            return -1;
+        }
+        
+        ByteBuffer sizeBuffer = ByteBuffer.allocate(8);
+        try {
+            if (attributeView.read(GZIP_CONTENT_SIZE_ATTRIBUTE, sizeBuffer) != 8) {
+                return -1;
+            }
+        } catch (IOException e) {
+            // missing attribute, the file is not compressed
+            return -1;
+        }
+        
+        return sizeBuffer.getLong(0);
     }
     
     /**
      * Attempts to resolve a file in the storage with a given file name
-     * 
+     *
      * @param fileName the name of the file we want in the storage
      * @return an actual {@link Path} in this storage's repository folder, if found, null otherwise
      */
@@ -90,4 +275,195 @@ public class FileSystemStorageHelperImpl {
         logger.debug("Successfully resolved file with name {} in the storage folder {}", fileName, storageRepositoryFolder);
         return resolvedFile;
     }
+    
+    /**
+     * Lists the names of all the files in the storage. With a sharded layout, the top level shard folders are
+     * listed in parallel, the visitor still being called from the current thread only.
+     *
+     * @param visitor - the {@link StoredFileVisitor} receiving the file names
+     * @return the number of stored files
+     * @throws IOException on errors listing the storage folders
+     */
+    public long scanStoredFiles(StoredFileVisitor visitor) throws IOException {
+        Path storagePath = getStoragePath();
+        
+        if (layoutLevels == 0) {
+            long filesCount = 0;
+            DirectoryStream<Path> ds = Files.newDirectoryStream(storagePath);
+            try {
+                for (Path filePath : ds) {
+                    String fileName = filePath.getFileName().toString();
+                    if (!fileName.startsWith(".")) {
+                        visitor.visit(fileName);
+                        filesCount++;
+                    }
+                }
+            } finally {
+                ds.close();
+            }
+            return filesCount;
+        }
+        
+        List<Path> topLevelShards = listShards(storagePath);
+        ExecutorService scanExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<List<String>>> shardListings = new ArrayList<Future<List<String>>>();
+            for (final Path shard : topLevelShards) {
+                shardListings.add(scanExecutor.submit(new Callable<List<String>>() {
+                    public List<String> call() throws IOException {
+                        List<String> fileNames = new ArrayList<String>();
+                        listShardFiles(shard, layoutLevels - 1, fileNames);
+                        return fileNames;
+                    }
+                }));
+            }
+            
+            long filesCount = 0;
+            for (Future<List<String>> shardListing : shardListings) {
+                for (String fileName : shardListing.get()) {
+                    visitor.visit(fileName);
+                    filesCount++;
+                }
+            }
+            return filesCount;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning the storage folder", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error scanning the storage folder", e.getCause());
+        } finally {
+            scanExecutor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Lists the files of a shard folder, walking down the remaining shard levels
+     */
+    private void listShardFiles(Path folder, int remainingLevels, List<String> fileNames) throws IOException {
+        if (remainingLevels > 0) {
+            for (Path shard : listShards(folder)) {
+                listShardFiles(shard, remainingLevels - 1, fileNames);
+            }
+            return;
+        }
+        
+        DirectoryStream<Path> ds = Files.newDirectoryStream(folder);
+        try {
+            for (Path filePath : ds) {
+                String fileName = filePath.getFileName().toString();
+                if (!fileName.startsWith(".")) {
+                    fileNames.add(fileName);
+                }
+            }
+        } finally {
+            ds.close();
+        }
+    }
+    
+    /**
+     * Lists the shard sub folders of a folder, skipping anything else
+     */
+    private List<Path> listShards(Path folder) throws IOException {
+        List<Path> shards = new ArrayList<Path>();
+        DirectoryStream<Path> ds = Files.newDirectoryStream(folder);
+        try {
+            for (Path shard : ds) {
+                if (shard.getFileName().toString().length() == 2 && Files.isDirectory(shard)) {
+                    shards.add(shard);
+                }
+            }
+        } finally {
+            ds.close();
+        }
+        return shards;
+    }
+    
+    /**
+     * Gets the shard folder of a file name for a given number of levels
+     */
+    private Path getShardFolder(String fileName, int levels) {
+        CRC32 crc = new CRC32();
+        byte[] nameBytes = fileName.getBytes(StandardCharsets.UTF_8);
+        crc.update(nameBytes, 0, nameBytes.length);
+        String hash = String.format("%08x", crc.getValue());
+        
+        Path shardFolder = Paths.get(storageRepositoryFolder);
+        for (int level = 0 ; level < levels ; level++) {
+            shardFolder = shardFolder.resolve(hash.substring(level * 2, level * 2 + 2));
+        }
+        return shardFolder;
+    }
+    
+    /**
+     * Moves the stored files to their location in the configured layout, if the storage folder was
+     * created with a different layout (i.e. the flat layout, before sharding was configured)
+     */
+    private void migrateLayout() throws IOException {
+        final Path storagePath = getStoragePath();
+        Path layoutMarker = storagePath.resolve(LAYOUT_MARKER_FILE_NAME);
+        
+        int currentLevels = 0;
+        if (Files.exists(layoutMarker)) {
+            currentLevels = Integer.parseInt(new String(Files.readAllBytes(layoutMarker), StandardCharsets.UTF_8).trim());
+        }
+        
+        if (currentLevels == layoutLevels) {
+            return;
+        }
+        
+        logger.info("Migrating storage folder {} from {} to {} layout levels...", storageRepositoryFolder, currentLevels, layoutLevels);
+        long startMigration = System.currentTimeMillis();
+        
+        Files.walkFileTree(storagePath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                // i.e. the staging folder
+                if (!dir.equals(storagePath) && dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String fileName = file.getFileName().toString();
+                if (!attrs.isRegularFile() || fileName.startsWith(".")) {
+                    return FileVisitResult.CONTINUE;
+                }
+                
+                Path migratedFile = prepareStorageFile(fileName);
+                if (!migratedFile.equals(file)) {
+                    Files.move(file, migratedFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                // drop the folders emptied by the migration, the needed ones are created again on demand
+                if (!dir.equals(storagePath)) {
+                    DirectoryStream<Path> ds = Files.newDirectoryStream(dir);
+                    boolean empty;
+                    try {
+                        empty = !ds.iterator().hasNext();
+                    } finally {
+                        ds.close();
+                    }
+                    
+                    if (empty) {
+                        Files.delete(dir);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        
+        if (layoutLevels == 0) {
+            Files.deleteIfExists(layoutMarker);
+        } else {
+            Files.write(layoutMarker, String.valueOf(layoutLevels).getBytes(StandardCharsets.UTF_8));
+        }
+        
+        logger.info("Migrating storage folder layout done in {} seconds!", (float)(System.currentTimeMillis() - startMigration)/1000);
+    }
 }
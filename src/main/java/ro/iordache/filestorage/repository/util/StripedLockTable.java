@@ -0,0 +1,55 @@
+package ro.iordache.filestorage.repository.util;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed size table of locks, each key being guarded by the lock of the stripe it hashes to.
+ * Lookups are lock free and the table never grows, unrelated keys hashing to the same stripe sharing its lock.
+ * The locks are {@link ReentrantLock}s rather than monitors, so a virtual thread blocked on a lock, or doing
+ * blocking I/O while holding one, unmounts instead of pinning its carrier thread.
+ */
+public class StripedLockTable {
+    
+    private Lock[] locks;
+    
+    private int mask;
+    
+    /**
+     * @param minStripes - min number of stripes, rounded up to a power of two
+     */
+    public StripedLockTable(int minStripes) {
+        int stripes = 1;
+        while (stripes < minStripes && stripes < (1 << 30)) {
+            stripes <<= 1;
+        }
+        
+        this.locks = new Lock[stripes];
+        for (int i = 0 ; i < stripes ; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.mask = stripes - 1;
+    }
+    
+    /**
+     * Gets the lock guarding a key
+     * 
+     * @param key - the key
+     * @return the lock, always the same for equal keys
+     */
+    public Lock getLock(Object key) {
+        int hash = key.hashCode();
+        // spread the high bits, the stripe being picked by the low ones
+        hash ^= (hash >>> 16);
+        return locks[hash & mask];
+    }
+    
+    /**
+     * Gets the number of stripes
+     * 
+     * @return the number of locks in the table
+     */
+    public int getStripes() {
+        return locks.length;
+    }
+}
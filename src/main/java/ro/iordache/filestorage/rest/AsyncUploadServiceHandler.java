@@ -0,0 +1,35 @@
+package ro.iordache.filestorage.rest;
+
+import java.io.IOException;
+
+import ro.iordache.filestorage.repository.StagedUpload;
+
+/**
+ * Interface for PUTs whose request body is read without blocking, the contents being staged as they arrive
+ */
+public interface AsyncUploadServiceHandler {
+    
+    /**
+     * Starts staging the uploaded contents of a file
+     *
+     * @param fileAccessRequest - a {@link FileAccessRequest} containing the required file details
+     * @return the {@link StagedUpload} the contents are to be written to
+     * @throws IOException on errors creating the staged file
+     */
+    public StagedUpload startUpload(FileAccessRequest fileAccessRequest) throws IOException;
+    
+    /**
+     * Stores a file once all its contents are staged
+     *
+     * @param stagedUpload - the {@link StagedUpload}
+     * @return a {@link FileAccessResult} object, as {@link FileAccessServiceHandler#doAction(FileAccessRequest)} returns it for a PUT
+     */
+    public FileAccessResult completeUpload(StagedUpload stagedUpload);
+    
+    /**
+     * Drops the staged contents of a failed upload
+     *
+     * @param stagedUpload - the {@link StagedUpload}
+     */
+    public void abortUpload(StagedUpload stagedUpload);
+}
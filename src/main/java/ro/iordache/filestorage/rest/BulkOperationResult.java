@@ -0,0 +1,118 @@
+package ro.iordache.filestorage.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Bulk files operation result, with the outcome of each file
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkOperationResult extends RESTApiResult {
+    
+    /**
+     * Outcome of the operation on a single file
+     */
+    public enum FileStatus {
+        CREATED, UPDATED, INVALID_NAME, ERROR
+    }
+    
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class FileResult {
+        
+        private String fileName;
+        
+        private FileStatus status;
+        
+        private String message;
+        
+        public FileResult(String fileName, FileStatus status, String message) {
+            this.fileName = fileName;
+            this.status = status;
+            this.message = message;
+        }
+        
+        public String getFileName() {
+            return fileName;
+        }
+        
+        public FileStatus getStatus() {
+            return status;
+        }
+        
+        /**
+         * Error details, {@code null} if the operation succeeded
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+    
+    private int created;
+    private int updated;
+    private int failed;
+    private List<FileResult> results;
+    private String error;
+    
+    private BulkOperationResult() {
+        this.type = OK;
+        this.results = new ArrayList<FileResult>();
+    }
+    
+    public int getCreated() {
+        return created;
+    }
+    
+    public int getUpdated() {
+        return updated;
+    }
+    
+    public int getFailed() {
+        return failed;
+    }
+    
+    public List<FileResult> getResults() {
+        return results;
+    }
+    
+    /**
+     * Error stopping the whole operation, i.e. an invalid archive, {@code null} if all the files were handled
+     */
+    public String getError() {
+        return error;
+    }
+    
+    /**
+     * Records the outcome of a file
+     * 
+     * @param fileName - the file name
+     * @param status - the {@link FileStatus} of the file
+     * @param message - error details, {@code null} on success
+     */
+    public void addResult(String fileName, FileStatus status, String message) {
+        results.add(new FileResult(fileName, status, message));
+        if (status == FileStatus.CREATED) {
+            created++;
+        } else if (status == FileStatus.UPDATED) {
+            updated++;
+        } else {
+            failed++;
+        }
+    }
+    
+    /**
+     * Marks the operation as stopped before all the files were handled
+     * 
+     * @param type - the result type, i.e. {@link RESTApiResult#BAD_REQUEST}
+     * @param error - the error stopping the operation
+     */
+    public void stop(int type, String error) {
+        this.type = type;
+        this.error = error;
+    }
+    
+    public static final BulkOperationResult build() {
+        return new BulkOperationResult();
+    }
+}
@@ -0,0 +1,72 @@
+package ro.iordache.filestorage.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.regex.Pattern;
+
+import ro.iordache.filestorage.rest.archive.ArchiveFormat;
+
+/**
+ * Interface for the operations on many files at once
+ */
+public interface BulkServiceHandler {
+    
+    /**
+     * Stores the files of a tar archive, as they are streamed. Entries are stored the same way single file PUTs are,
+     * the new file names being added to the index in batches
+     * 
+     * @param archiveStream - the tar archive {@link InputStream}
+     * @return a {@link BulkOperationResult} with the outcome of each archive entry
+     */
+    public BulkOperationResult storeArchive(InputStream archiveStream);
+    
+    /**
+     * Writes the given files as an archive, streamed as the files are read. Missing files and invalid names are left out,
+     * each name being written once
+     * 
+     * @param fileNames - the names of the files to write
+     * @param format - the {@link ArchiveFormat}
+     * @param archiveStream - the {@link OutputStream} the archive is written to
+     * @return the number of files written
+     * @throws IOException on errors writing the archive, i.e. the client went away
+     */
+    public long writeBundle(Collection<String> fileNames, ArchiveFormat format, OutputStream archiveStream) throws IOException;
+    
+    /**
+     * Writes the files matching a regular expression as an archive, streamed as the index is scanned
+     * 
+     * @param regexPattern - the file names {@link Pattern}
+     * @param format - the {@link ArchiveFormat}
+     * @param archiveStream - the {@link OutputStream} the archive is written to
+     * @return the number of files written
+     * @throws IOException on errors writing the archive, i.e. the client went away
+     */
+    public long writeBundle(Pattern regexPattern, ArchiveFormat format, OutputStream archiveStream) throws IOException;
+    
+    /**
+     * Starts deleting the given files. The files are gone once this returns, their unlinking from the file system
+     * being tracked by the returned job
+     * 
+     * @param fileNames - the names of the files to delete, missing files and invalid names being ignored
+     * @return a {@link DeleteJobResult} with the started job
+     */
+    public DeleteJobResult deleteFiles(Collection<String> fileNames);
+    
+    /**
+     * Starts deleting the files matching a regular expression
+     * 
+     * @param regexPattern - the file names {@link Pattern}
+     * @return a {@link DeleteJobResult} with the started job
+     */
+    public DeleteJobResult deleteFiles(Pattern regexPattern);
+    
+    /**
+     * Gets the status of a bulk delete job
+     * 
+     * @param jobId - the job id
+     * @return a {@link DeleteJobResult} with the job status, NOT_FOUND for unknown jobs
+     */
+    public DeleteJobResult getDeleteJob(String jobId);
+}
@@ -0,0 +1,81 @@
+package ro.iordache.filestorage.rest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import ro.iordache.filestorage.repository.DeleteJob;
+
+/**
+ * Bulk delete job status result
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeleteJobResult extends RESTApiResult {
+    
+    private String jobId;
+    
+    private DeleteJob.Status status;
+    
+    private Long deletedFiles;
+    
+    private Long unlinkedFiles;
+    
+    private Long failedFiles;
+    
+    private Long started;
+    
+    private Long completed;
+    
+    private DeleteJobResult(int type, DeleteJob job) {
+        this.type = type;
+        if (job != null) {
+            this.jobId = job.getId();
+            this.status = job.getStatus();
+            this.deletedFiles = job.getDeletedFiles();
+            this.unlinkedFiles = job.getUnlinkedFiles();
+            this.failedFiles = job.getFailedFiles();
+            this.started = job.getStarted();
+            this.completed = job.getCompleted() > 0 ? job.getCompleted() : null;
+        }
+    }
+    
+    public String getJobId() {
+        return jobId;
+    }
+    
+    public DeleteJob.Status getStatus() {
+        return status;
+    }
+    
+    /**
+     * Gets the number of files deleted by the job, gone for readers since the job started
+     */
+    public Long getDeletedFiles() {
+        return deletedFiles;
+    }
+    
+    /**
+     * Gets the number of deleted files unlinked from the file system so far
+     */
+    public Long getUnlinkedFiles() {
+        return unlinkedFiles;
+    }
+    
+    public Long getFailedFiles() {
+        return failedFiles;
+    }
+    
+    public Long getStarted() {
+        return started;
+    }
+    
+    public Long getCompleted() {
+        return completed;
+    }
+    
+    public static final DeleteJobResult build(int type, DeleteJob job) {
+        return new DeleteJobResult(type, job);
+    }
+    
+    public static final DeleteJobResult build(int type) {
+        return new DeleteJobResult(type, null);
+    }
+}
@@ -10,12 +10,14 @@ public class EnumOperationResult extends RESTApiResult {
     private long startIndex;
     private int itemCount;
     private List<String> matchingItems;
+    private String continuationToken;
     
-    private EnumOperationResult(int type, long startIndex, List<String> matchingItems) {
+    private EnumOperationResult(int type, long startIndex, List<String> matchingItems, String continuationToken) {
         this.type = type;
         this.startIndex = startIndex;
         this.itemCount = matchingItems.size();
         this.matchingItems = matchingItems;
+        this.continuationToken = continuationToken;
     }
     
     public long getStartIndex() {
@@ -30,7 +32,18 @@ public class EnumOperationResult extends RESTApiResult {
         return this.matchingItems;
     }
     
+    /**
+     * Opaque token resuming the enumeration after this page, {@code null} on the last page
+     */
+    public String getContinuationToken() {
+        return this.continuationToken;
+    }
+    
     public static final EnumOperationResult build(int type, long startIndex, List<String> matchingItems) {
-        return new EnumOperationResult(type, startIndex, matchingItems);
+        return new EnumOperationResult(type, startIndex, matchingItems, null);
+    }
+    
+    public static final EnumOperationResult build(int type, long startIndex, List<String> matchingItems, String continuationToken) {
+        return new EnumOperationResult(type, startIndex, matchingItems, continuationToken);
     }
 }
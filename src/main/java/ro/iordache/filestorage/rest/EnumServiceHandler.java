@@ -1,5 +1,7 @@
 package ro.iordache.filestorage.rest;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.regex.Pattern;
 
 /**
@@ -23,4 +25,26 @@ public interface EnumServiceHandler {
      * @return an {@link EnumOperationResult} object containing the results
      */
     public EnumOperationResult enumerate(Pattern regexPattern, long startIndex, long pageSize);
-}
\ No newline at end of file
+    
+    /**
+     * Enumerates the files in the storage based on a pattern, resuming where a previous page stopped
+     * 
+     * @param regexPattern - a {@link Pattern} of the regex pattern to match file names
+     * @param startIndex - start index of the result set, only used if there's no continuation token
+     * @param continuationToken - continuation token of the previous page, can be {@code null}
+     * @param pageSize - max number of items in the results set
+     * @return an {@link EnumOperationResult} object containing the results and the continuation token of the next page
+     * @throws IllegalArgumentException if the continuation token is invalid
+     */
+    public EnumOperationResult enumerate(Pattern regexPattern, long startIndex, String continuationToken, long pageSize);
+    
+    /**
+     * Streams all the file names matching a pattern as newline delimited JSON strings, one per line
+     * 
+     * @param regexPattern - a {@link Pattern} of the regex pattern to match file names
+     * @param outputStream - the {@link OutputStream} the matches are written to
+     * @return the number of matching file names
+     * @throws IOException on errors scanning the storage or writing the matches, i.e. when the client disconnects
+     */
+    public long streamEnumeration(Pattern regexPattern, OutputStream outputStream) throws IOException;
+}
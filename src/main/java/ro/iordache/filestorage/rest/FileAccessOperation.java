@@ -5,6 +5,7 @@ package ro.iordache.filestorage.rest;
  */
 public enum FileAccessOperation {
     READ,
+    READ_METADATA,
     CREATE_UPDATE,
     DELETE;
 }
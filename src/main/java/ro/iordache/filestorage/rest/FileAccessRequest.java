@@ -12,11 +12,33 @@ public class FileAccessRequest {
     private InputStream inputStream;
     
     private long modifiedSince;
+    
+    private boolean rangeRequested;
+    
+    private String noneMatch;
+    
+    private String acceptEncoding;
+    
+    private long contentLength;
 
-    public FileAccessRequest (String fileName, InputStream is, long modifiedSince) {
+    /**
+     * @param fileName - the file name
+     * @param is - the request body, for PUTs
+     * @param modifiedSince - the If-Modified-Since date, -1 if not sent
+     * @param rangeRequested - true if a Range header was sent
+     * @param noneMatch - the If-None-Match header, {@code null} if not sent
+     * @param acceptEncoding - the Accept-Encoding header, {@code null} if not sent
+     * @param contentLength - the request body length, -1 if unknown
+     */
+    public FileAccessRequest (String fileName, InputStream is, long modifiedSince, boolean rangeRequested, String noneMatch,
+            String acceptEncoding, long contentLength) {
         this.fileName = fileName;
         this.inputStream = is;
         this.modifiedSince = modifiedSince;
+        this.rangeRequested = rangeRequested;
+        this.noneMatch = noneMatch;
+        this.acceptEncoding = acceptEncoding;
+        this.contentLength = contentLength;
     }
     
     public String getFileName() {
@@ -27,6 +49,24 @@ public class FileAccessRequest {
         return this.inputStream;
     }
     
+    /**
+     * Gets the length of the request body, from its Content-Length header
+     * 
+     * @return the request body length, -1 if unknown
+     */
+    public long getContentLength() {
+        return this.contentLength;
+    }
+    
+    /**
+     * Checks if only parts of the file were requested, through a Range header
+     * 
+     * @return true if the request has a Range header
+     */
+    public boolean isRangeRequested() {
+        return this.rangeRequested;
+    }
+    
     /**
      * Checks a given timestamp against the modified sice timestamp
      * 
@@ -40,4 +80,77 @@ public class FileAccessRequest {
         }
         return false;
     }
+    
+    /**
+     * Checks if the request is conditioned by entity tags, through an If-None-Match header. If so, the
+     * modified since timestamp is to be ignored.
+     * 
+     * @return true if the request has an If-None-Match header
+     */
+    public boolean isNoneMatchRequested() {
+        return this.noneMatch != null;
+    }
+    
+    /**
+     * Checks a given entity tag against the If-None-Match entity tags, using the weak comparison
+     * 
+     * @param eTag the current entity tag of the file, can be {@code null}
+     * @return true if the If-None-Match header is "*" or lists the given entity tag, false otherwise
+     */
+    public boolean checkNoneMatch(String eTag) {
+        if (this.noneMatch == null) {
+            return false;
+        }
+        
+        for (String requestETag : this.noneMatch.split(",")) {
+            requestETag = requestETag.trim();
+            if (requestETag.equals("*")) {
+                return true;
+            }
+            
+            if (requestETag.startsWith("W/")) {
+                requestETag = requestETag.substring(2);
+            }
+            
+            if (requestETag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Checks if the client accepts a given content coding, through its Accept-Encoding header. Codings listed
+     * with a zero quality value are not accepted, "*" accepting any coding not listed otherwise.
+     * 
+     * @param contentEncoding the content coding, i.e. "gzip"
+     * @return true if the content coding is accepted
+     */
+    public boolean acceptsEncoding(String contentEncoding) {
+        if (this.acceptEncoding == null) {
+            return false;
+        }
+        
+        Boolean anyAccepted = null;
+        for (String coding : this.acceptEncoding.split(",")) {
+            String[] codingParams = coding.split(";");
+            String codingName = codingParams[0].trim();
+            
+            boolean accepted = true;
+            for (int i = 1 ; i < codingParams.length ; i++) {
+                String param = codingParams[i].trim();
+                if (param.startsWith("q=") && param.substring(2).matches("0(\\.0{0,3})?")) {
+                    accepted = false;
+                }
+            }
+            
+            if (codingName.equalsIgnoreCase(contentEncoding)) {
+                return accepted;
+            }
+            if (codingName.equals("*")) {
+                anyAccepted = accepted;
+            }
+        }
+        return Boolean.TRUE.equals(anyAccepted);
+    }
 }
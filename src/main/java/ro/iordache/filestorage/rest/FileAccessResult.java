@@ -2,34 +2,130 @@ package ro.iordache.filestorage.rest;
 
 import org.springframework.core.io.InputStreamResource;
 
+import ro.iordache.filestorage.repository.StoredFile;
+import ro.iordache.filestorage.repository.StoredFileInfo;
+
 /**
  * File access operation result
  */
 public class FileAccessResult extends RESTApiResult {
     private InputStreamResource inputStreamResource;
     
+    private StoredFile storedFile;
+    
+    private StoredFileInfo fileInfo;
+    
+    private long contentLength;
+    
     private long lastModified;
     
-    private FileAccessResult(int type, InputStreamResource is, long lastModified) {
+    private String eTag;
+    
+    private String contentEncoding;
+    
+    private boolean varyEncoding;
+    
+    private FileAccessResult(int type, InputStreamResource is, long contentLength, StoredFile storedFile, StoredFileInfo fileInfo,
+            long lastModified, String eTag, String contentEncoding, boolean varyEncoding) {
         this.type = type;
         this.inputStreamResource = is;
+        this.contentLength = contentLength;
+        this.storedFile = storedFile;
+        this.fileInfo = fileInfo;
         this.lastModified = lastModified;
+        this.eTag = eTag;
+        this.contentEncoding = contentEncoding;
+        this.varyEncoding = varyEncoding;
     }
     
     public InputStreamResource getInputStream() {
         return this.inputStreamResource;
     }
     
+    /**
+     * Gets the length of the contents read from the stream
+     * 
+     * @return the contents length, -1 if unknown
+     */
+    public long getContentLength() {
+        return this.contentLength;
+    }
+    
+    /**
+     * Gets the opened file to be sent through zero copy transfers
+     */
+    public StoredFile getStoredFile() {
+        return this.storedFile;
+    }
+    
+    /**
+     * Gets the file metadata, for results with no file contents
+     */
+    public StoredFileInfo getFileInfo() {
+        return this.fileInfo;
+    }
+    
     public long getLastModified() {
         return this.lastModified;
     }
     
-    public static FileAccessResult build(int type, InputStreamResource is, long lastModified) {
-        return new FileAccessResult(type, is, lastModified);
+    /**
+     * Gets the file's entity tag
+     * 
+     * @return the quoted entity tag, {@code null} if not known
+     */
+    public String getETag() {
+        return this.eTag;
+    }
+    
+    /**
+     * Gets the content coding of the sent file contents
+     * 
+     * @return the content coding, {@code null} if the contents are sent as is
+     */
+    public String getContentEncoding() {
+        return this.contentEncoding;
+    }
+    
+    /**
+     * Checks if the sent file contents depend on the content codings accepted by the client
+     * 
+     * @return true if the file is stored with a content coding, which is sent or decoded depending on the client
+     */
+    public boolean isVaryEncoding() {
+        return this.varyEncoding;
+    }
+    
+    /**
+     * Builds a result sending file contents read from a stream, decoded ones if the result varies by content coding
+     */
+    public static FileAccessResult build(int type, InputStreamResource is, long contentLength, long lastModified, String eTag,
+            boolean varyEncoding) {
+        return new FileAccessResult(type, is, contentLength, null, null, lastModified, eTag, null, varyEncoding);
+    }
+    
+    /**
+     * Builds a result sending an opened file, with the content coding it's stored with
+     */
+    public static FileAccessResult build(int type, StoredFile storedFile, String eTag, boolean varyEncoding) {
+        return new FileAccessResult(type, null, -1, storedFile, null, storedFile.getLastModified(), eTag, storedFile.getContentEncoding(), varyEncoding);
+    }
+    
+    /**
+     * Builds a result sending a file's metadata only
+     */
+    public static FileAccessResult build(int type, StoredFileInfo fileInfo, String eTag, String contentEncoding, boolean varyEncoding) {
+        return new FileAccessResult(type, null, -1, null, fileInfo, fileInfo.getLastModified(), eTag, contentEncoding, varyEncoding);
+    }
+    
+    /**
+     * Builds a 304 Not Modified result, with the entity tag of the client's cached contents
+     */
+    public static FileAccessResult buildNotModified(String eTag, boolean varyEncoding) {
+        return new FileAccessResult(NOT_MODIFIED, null, -1, null, null, -1, eTag, null, varyEncoding);
     }
-
     
     public static FileAccessResult build(int type) {
-        return new FileAccessResult(type, null, -1);
+        return new FileAccessResult(type, null, -1, null, null, -1, null, null, false);
     }
 }
@@ -1,6 +1,8 @@
 package ro.iordache.filestorage.rest;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,6 +41,16 @@ public class FileRequestValidationHelper {
 
         long lastModifiedFromRequest = httpRequest.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
         
-        return new FileAccessRequest(fileName, httpRequest.getInputStream(), lastModifiedFromRequest);
+        boolean rangeRequested = httpRequest.getHeader(HttpHeaders.RANGE) != null;
+        
+        // several If-None-Match headers are the same as a single one listing all the entity tags
+        String noneMatch = null;
+        Enumeration<String> noneMatchHeaders = httpRequest.getHeaders(HttpHeaders.IF_NONE_MATCH);
+        if (noneMatchHeaders != null && noneMatchHeaders.hasMoreElements()) {
+            noneMatch = String.join(",", Collections.list(noneMatchHeaders));
+        }
+        
+        return new FileAccessRequest(fileName, httpRequest.getInputStream(), lastModifiedFromRequest, rangeRequested, noneMatch,
+                httpRequest.getHeader(HttpHeaders.ACCEPT_ENCODING), httpRequest.getContentLengthLong());
     }
 }
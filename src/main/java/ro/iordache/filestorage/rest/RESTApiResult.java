@@ -12,6 +12,7 @@ public abstract class RESTApiResult {
     public static final int CREATED = 2;
     public static final int INTERNAL_ERROR = 3;
     public static final int NOT_MODIFIED = 4;
+    public static final int BAD_REQUEST = 5;
     
     // type of this result
     @JsonIgnore
@@ -0,0 +1,51 @@
+package ro.iordache.filestorage.rest.archive;
+
+import java.io.OutputStream;
+
+/**
+ * The archive formats files can be downloaded as
+ */
+public enum ArchiveFormat {
+    
+    TAR("application/x-tar", "tar"),
+    
+    ZIP("application/zip", "zip");
+    
+    private String mediaType;
+    
+    private String extension;
+    
+    private ArchiveFormat(String mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+    
+    public String getMediaType() {
+        return mediaType;
+    }
+    
+    public String getExtension() {
+        return extension;
+    }
+    
+    /**
+     * Creates a writer of archives in this format
+     * 
+     * @param archiveStream - the stream the archive is written to
+     * @return the {@link ArchiveWriter}
+     */
+    public ArchiveWriter newWriter(OutputStream archiveStream) {
+        return this == ZIP ? new ZipArchiveWriter(archiveStream) : new TarArchiveWriter(archiveStream);
+    }
+    
+    /**
+     * Parses a requested archive format
+     * 
+     * @param format - the format name, case insensitive
+     * @return the {@link ArchiveFormat}
+     * @throws IllegalArgumentException for unknown formats
+     */
+    public static ArchiveFormat parse(String format) {
+        return valueOf(format.trim().toUpperCase());
+    }
+}
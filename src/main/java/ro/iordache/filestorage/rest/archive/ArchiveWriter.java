@@ -0,0 +1,35 @@
+package ro.iordache.filestorage.rest.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the entries of an archive to a stream, one entry at a time, with no buffering of the entries contents
+ */
+public interface ArchiveWriter {
+    
+    /**
+     * Starts a new file entry, the contents being written to the returned stream
+     * 
+     * @param name - the entry name
+     * @param size - the size of the entry contents
+     * @param lastModified - the last modified time of the entry, in millis
+     * @return the {@link OutputStream} the entry contents are written to, closing it leaves the archive stream open
+     * @throws IOException on errors writing to the archive stream
+     */
+    public OutputStream putEntry(String name, long size, long lastModified) throws IOException;
+    
+    /**
+     * Ends the current entry
+     * 
+     * @throws IOException on errors writing to the archive stream
+     */
+    public void closeEntry() throws IOException;
+    
+    /**
+     * Ends the archive, leaving the archive stream open
+     * 
+     * @throws IOException on errors writing to the archive stream
+     */
+    public void finish() throws IOException;
+}
@@ -0,0 +1,309 @@
+package ro.iordache.filestorage.rest.archive;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the entries of a tar (ustar, pax or GNU) archive as they are streamed, with no buffering besides one header.
+ * Only regular file entries are returned, long names and sizes from pax and GNU headers being applied to them.
+ */
+public class TarArchiveReader {
+    
+    public static final int BLOCK_SIZE = 512;
+    
+    /**
+     * A regular file entry of the archive
+     */
+    public static class Entry {
+        
+        private String name;
+        
+        private long size;
+        
+        private Entry(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public long getSize() {
+            return size;
+        }
+    }
+    
+    /**
+     * The contents of the current entry, closing it leaves the archive stream open
+     */
+    private class EntryInputStream extends InputStream {
+        
+        @Override
+        public int read() throws IOException {
+            if (entryRemaining <= 0) {
+                return -1;
+            }
+            
+            int read = archiveStream.read();
+            if (read < 0) {
+                throw new EOFException("Tar archive truncated");
+            }
+            entryRemaining--;
+            return read;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (entryRemaining <= 0) {
+                return -1;
+            }
+            
+            int read = archiveStream.read(b, off, (int) Math.min(len, entryRemaining));
+            if (read < 0) {
+                throw new EOFException("Tar archive truncated");
+            }
+            entryRemaining -= read;
+            return read;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+    
+    private InputStream archiveStream;
+    
+    private byte[] header;
+    
+    private long entryRemaining;
+    
+    private long entryPadding;
+    
+    private boolean ended;
+    
+    public TarArchiveReader(InputStream archiveStream) {
+        this.archiveStream = archiveStream;
+        this.header = new byte[BLOCK_SIZE];
+    }
+    
+    /**
+     * Moves to the next regular file entry, skipping what's left of the current one
+     * 
+     * @return the next {@link Entry}, {@code null} at the end of the archive
+     * @throws IOException on errors reading the archive or if it's not a valid tar archive
+     */
+    public Entry nextEntry() throws IOException {
+        String longName = null;
+        long longSize = -1;
+        
+        while (!ended) {
+            skipEntry();
+            
+            if (!readBlock(header)) {
+                // archives missing the end of archive blocks are accepted
+                ended = true;
+                break;
+            }
+            
+            if (isZeroBlock(header)) {
+                ended = true;
+                break;
+            }
+            
+            checkHeader();
+            
+            byte typeFlag = header[156];
+            long size = parseNumber(124, 12);
+            startEntry(size);
+            
+            if (typeFlag == 'x') {
+                // pax extended header, applying to the next entry
+                for (String record : new String(readEntryContents(), StandardCharsets.UTF_8).split("\n")) {
+                    int keyStart = record.indexOf(' ') + 1;
+                    int valueStart = record.indexOf('=', keyStart) + 1;
+                    if (keyStart <= 0 || valueStart <= 0) {
+                        continue;
+                    }
+                    
+                    String key = record.substring(keyStart, valueStart - 1);
+                    if (key.equals("path")) {
+                        longName = record.substring(valueStart);
+                    } else if (key.equals("size")) {
+                        longSize = parsePaxSize(record.substring(valueStart));
+                    }
+                }
+            } else if (typeFlag == 'L') {
+                // GNU long name of the next entry
+                longName = parseString(readEntryContents(), 0, (int) size);
+            } else if (typeFlag == '0' || typeFlag == 0 || typeFlag == '7') {
+                String name = longName != null ? longName : parseName();
+                if (longSize >= 0) {
+                    size = longSize;
+                    startEntry(size);
+                }
+                return new Entry(name, size);
+            } else {
+                // folders, links, devices, global pax headers...
+                longName = null;
+                longSize = -1;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Gets the contents of the current entry
+     * 
+     * @return an {@link InputStream} of the current entry's contents, only valid until the next entry
+     */
+    public InputStream getEntryStream() {
+        return new EntryInputStream();
+    }
+    
+    private long parsePaxSize(String value) throws IOException {
+        long paxSize;
+        try {
+            paxSize = Long.parseLong(value);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid tar extended header size " + value, nfe);
+        }
+        
+        if (paxSize < 0) {
+            throw new IOException("Invalid tar extended header size " + value);
+        }
+        return paxSize;
+    }
+    
+    private void startEntry(long size) {
+        entryRemaining = size;
+        entryPadding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+    }
+    
+    private void skipEntry() throws IOException {
+        long toSkip = entryRemaining + entryPadding;
+        while (toSkip > 0) {
+            long skipped = archiveStream.skip(toSkip);
+            if (skipped <= 0) {
+                if (archiveStream.read() < 0) {
+                    throw new EOFException("Tar archive truncated");
+                }
+                skipped = 1;
+            }
+            toSkip -= skipped;
+        }
+        entryRemaining = 0;
+        entryPadding = 0;
+    }
+    
+    private byte[] readEntryContents() throws IOException {
+        if (entryRemaining > 1024 * 1024) {
+            throw new IOException("Tar extended header too large");
+        }
+        
+        byte[] contents = new byte[(int) entryRemaining];
+        if (!readFully(contents, contents.length)) {
+            throw new EOFException("Tar archive truncated");
+        }
+        entryRemaining = 0;
+        return contents;
+    }
+    
+    private boolean readBlock(byte[] block) throws IOException {
+        return readFully(block, BLOCK_SIZE);
+    }
+    
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = archiveStream.read(buffer, offset, length - offset);
+            if (read < 0) {
+                if (offset == 0) {
+                    return false;
+                }
+                throw new EOFException("Tar archive truncated");
+            }
+            offset += read;
+        }
+        return true;
+    }
+    
+    private boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void checkHeader() throws IOException {
+        long checksum = 0;
+        for (int i = 0 ; i < BLOCK_SIZE ; i++) {
+            // the checksum field is summed as spaces
+            checksum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xFF);
+        }
+        
+        if (checksum != parseNumber(148, 8)) {
+            throw new IOException("Invalid tar header checksum");
+        }
+    }
+    
+    private String parseName() {
+        String name = parseString(header, 0, 100);
+        
+        // ustar names longer than 100 bytes are split in a prefix and a name
+        if (parseString(header, 257, 5).equals("ustar")) {
+            String prefix = parseString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+    
+    private long parseNumber(int offset, int length) throws IOException {
+        // base-256 encoded numbers, for sizes beyond the octal field's 8GB
+        if ((header[offset] & 0x80) != 0) {
+            // two's complement, negative numbers having the sign bit set
+            if ((header[offset] & 0x40) != 0) {
+                throw new IOException("Invalid negative tar header number");
+            }
+            
+            long value = header[offset] & 0x3F;
+            for (int i = offset + 1 ; i < offset + length ; i++) {
+                if (value > (Long.MAX_VALUE >> 8)) {
+                    throw new IOException("Tar header number too large");
+                }
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+        
+        String octal = parseString(header, offset, length).trim();
+        if (octal.isEmpty()) {
+            return 0;
+        }
+        
+        try {
+            long value = Long.parseLong(octal, 8);
+            if (value < 0) {
+                throw new IOException("Invalid tar header number " + octal);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid tar header number " + octal);
+        }
+    }
+    
+    private static String parseString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,158 @@
+package ro.iordache.filestorage.rest.archive;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a ustar archive as its entries are streamed, the entry sizes being known up front.
+ * Sizes beyond the octal field's 8GB are base-256 encoded, as GNU tar does.
+ */
+public class TarArchiveWriter implements ArchiveWriter {
+    
+    private static final int NAME_LENGTH = 100;
+    
+    private static final long MAX_OCTAL_SIZE = 077777777777L;
+    
+    /**
+     * The contents of the current entry, writes past the entry size being rejected
+     */
+    private class EntryOutputStream extends OutputStream {
+        
+        @Override
+        public void write(int b) throws IOException {
+            checkRemaining(1);
+            archiveStream.write(b);
+            entryRemaining--;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkRemaining(len);
+            archiveStream.write(b, off, len);
+            entryRemaining -= len;
+        }
+        
+        @Override
+        public void close() {
+        }
+        
+        private void checkRemaining(int length) throws IOException {
+            if (length > entryRemaining) {
+                throw new IOException("Tar entry contents larger than the entry size");
+            }
+        }
+    }
+    
+    private OutputStream archiveStream;
+    
+    private byte[] header;
+    
+    private long entryRemaining;
+    
+    private long entryPadding;
+    
+    private boolean inEntry;
+    
+    public TarArchiveWriter(OutputStream archiveStream) {
+        this.archiveStream = archiveStream;
+        this.header = new byte[TarArchiveReader.BLOCK_SIZE];
+    }
+    
+    public OutputStream putEntry(String name, long size, long lastModified) throws IOException {
+        if (inEntry) {
+            closeEntry();
+        }
+        
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > NAME_LENGTH) {
+            throw new IllegalArgumentException("Tar entry name too long: " + name);
+        }
+        
+        Arrays.fill(header, (byte) 0);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        putOctal(100, 8, 0644);
+        putOctal(108, 8, 0);
+        putOctal(116, 8, 0);
+        putSize(size);
+        putOctal(136, 12, Math.max(lastModified, 0) / 1000);
+        header[156] = '0';
+        putString(257, "ustar");
+        putString(263, "00");
+        
+        long checksum = 0;
+        for (int i = 0 ; i < header.length ; i++) {
+            // the checksum field is summed as spaces
+            checksum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xFF);
+        }
+        putOctal(148, 7, checksum);
+        header[155] = ' ';
+        
+        archiveStream.write(header);
+        
+        entryRemaining = size;
+        entryPadding = (TarArchiveReader.BLOCK_SIZE - size % TarArchiveReader.BLOCK_SIZE) % TarArchiveReader.BLOCK_SIZE;
+        inEntry = true;
+        return new EntryOutputStream();
+    }
+    
+    /**
+     * Ends the current entry. Entries whose contents are shorter than their size, i.e. files truncated since
+     * they were opened, are padded with zeros so that the archive stays readable
+     */
+    public void closeEntry() throws IOException {
+        if (!inEntry) {
+            return;
+        }
+        
+        byte[] zeros = new byte[TarArchiveReader.BLOCK_SIZE];
+        long toPad = entryRemaining + entryPadding;
+        while (toPad > 0) {
+            int padding = (int) Math.min(toPad, zeros.length);
+            archiveStream.write(zeros, 0, padding);
+            toPad -= padding;
+        }
+        entryRemaining = 0;
+        entryPadding = 0;
+        inEntry = false;
+    }
+    
+    public void finish() throws IOException {
+        closeEntry();
+        
+        // the end of archive is marked by two zero blocks
+        archiveStream.write(new byte[2 * TarArchiveReader.BLOCK_SIZE]);
+        archiveStream.flush();
+    }
+    
+    private void putSize(long size) {
+        if (size <= MAX_OCTAL_SIZE) {
+            putOctal(124, 12, size);
+            return;
+        }
+        
+        // base-256 encoded, flagged by the high bit of the first byte
+        long value = size;
+        for (int i = 124 + 11 ; i > 124 ; i--) {
+            header[i] = (byte) (value & 0xFF);
+            value >>>= 8;
+        }
+        header[124] = (byte) 0x80;
+    }
+    
+    private void putOctal(int offset, int length, long value) {
+        // zero padded octal digits, ending with a NUL
+        String octal = Long.toOctalString(value);
+        StringBuilder field = new StringBuilder();
+        for (int i = octal.length() ; i < length - 1 ; i++) {
+            field.append('0');
+        }
+        putString(offset, field.append(octal).toString());
+    }
+    
+    private void putString(int offset, String value) {
+        byte[] valueBytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(valueBytes, 0, header, offset, valueBytes.length);
+    }
+}
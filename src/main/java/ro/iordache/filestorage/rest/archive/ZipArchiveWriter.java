@@ -0,0 +1,55 @@
+package ro.iordache.filestorage.rest.archive;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a zip archive as its entries are streamed. Entries are deflated at the fastest level, stored entries needing
+ * their CRC before their contents, which would mean reading each file twice
+ */
+public class ZipArchiveWriter implements ArchiveWriter {
+    
+    private ZipOutputStream zipStream;
+    
+    /**
+     * The contents of the current entry, closing it leaves the archive stream open
+     */
+    private OutputStream entryStream;
+    
+    public ZipArchiveWriter(OutputStream archiveStream) {
+        this.zipStream = new ZipOutputStream(archiveStream);
+        this.zipStream.setLevel(Deflater.BEST_SPEED);
+        this.entryStream = new FilterOutputStream(zipStream) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+            
+            @Override
+            public void close() {
+            }
+        };
+    }
+    
+    public OutputStream putEntry(String name, long size, long lastModified) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if (lastModified > 0) {
+            entry.setTime(lastModified);
+        }
+        zipStream.putNextEntry(entry);
+        return entryStream;
+    }
+    
+    public void closeEntry() throws IOException {
+        zipStream.closeEntry();
+    }
+    
+    public void finish() throws IOException {
+        zipStream.finish();
+        zipStream.flush();
+    }
+}
@@ -0,0 +1,362 @@
+package ro.iordache.filestorage.rest.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import ro.iordache.filestorage.repository.DeleteJob;
+import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StoredFile;
+import ro.iordache.filestorage.repository.impl.cache.ByteBufferInputStream;
+import ro.iordache.filestorage.repository.impl.compression.ContentCompression;
+import ro.iordache.filestorage.rest.BulkOperationResult;
+import ro.iordache.filestorage.rest.BulkOperationResult.FileStatus;
+import ro.iordache.filestorage.rest.BulkServiceHandler;
+import ro.iordache.filestorage.rest.DeleteJobResult;
+import ro.iordache.filestorage.rest.FileRequestValidationHelper;
+import ro.iordache.filestorage.rest.RESTApiResult;
+import ro.iordache.filestorage.rest.archive.ArchiveFormat;
+import ro.iordache.filestorage.rest.archive.ArchiveWriter;
+import ro.iordache.filestorage.rest.archive.TarArchiveReader;
+
+/**
+ * Bulk files operations service implementation
+ */
+@Service
+public class BulkServiceHandlerImpl implements BulkServiceHandler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BulkServiceHandlerImpl.class);
+    
+    /**
+     * Size of the first chunk of a bundle entry read ahead, while the previous entry is written
+     */
+    static final int READ_AHEAD_SIZE = 64 * 1024;
+    
+    /**
+     * A bundle entry opened and read ahead, holding the file open until it's written
+     */
+    private static class BundleEntry {
+        
+        private String fileName;
+        
+        private StoredFile storedFile;
+        
+        private InputStream contents;
+        
+        private long size;
+        
+        private byte[] head;
+        
+        private int headLength;
+        
+        private void close() {
+            storedFile.close();
+        }
+    }
+    
+    /**
+     * Writes the entries of a bundle, each file being opened and read ahead by the prefetch threads
+     * while the previous one is written to the archive
+     */
+    private class BundleWriter {
+        
+        private ArchiveWriter archiveWriter;
+        
+        private Future<BundleEntry> pendingEntry;
+        
+        private byte[] copyBuffer = new byte[READ_AHEAD_SIZE];
+        
+        private long writtenEntries;
+        
+        private BundleWriter(ArchiveWriter archiveWriter) {
+            this.archiveWriter = archiveWriter;
+        }
+        
+        private void add(final String fileName) throws IOException {
+            if (!FileRequestValidationHelper.ALLOWED_FILENAME_FORMAT_PATTERN.matcher(fileName).matches()) {
+                logger.debug("Bundle - skipping invalid file name {}", fileName);
+                return;
+            }
+            
+            Future<BundleEntry> nextEntry = prefetchExecutor.submit(new Callable<BundleEntry>() {
+                public BundleEntry call() throws IOException {
+                    return openEntry(fileName);
+                }
+            });
+            
+            try {
+                writePendingEntry();
+            } catch (IOException ioe) {
+                discardEntry(nextEntry);
+                throw ioe;
+            }
+            pendingEntry = nextEntry;
+        }
+        
+        private long finish() throws IOException {
+            writePendingEntry();
+            archiveWriter.finish();
+            return writtenEntries;
+        }
+        
+        /**
+         * Closes the file read ahead, if any, once the bundle failed
+         */
+        private void abort() {
+            discardEntry(pendingEntry);
+            pendingEntry = null;
+        }
+        
+        private void writePendingEntry() throws IOException {
+            if (pendingEntry == null) {
+                return;
+            }
+            
+            BundleEntry entry = getEntry(pendingEntry);
+            pendingEntry = null;
+            if (entry == null) {
+                return;
+            }
+            
+            try {
+                OutputStream entryStream = archiveWriter.putEntry(entry.fileName, entry.size, entry.storedFile.getLastModified());
+                entryStream.write(entry.head, 0, entry.headLength);
+                
+                long remaining = entry.size - entry.headLength;
+                while (remaining > 0) {
+                    int read = entry.contents.read(copyBuffer, 0, (int) Math.min(copyBuffer.length, remaining));
+                    if (read < 0) {
+                        // truncated since it was opened, the archive writer pads the entry
+                        break;
+                    }
+                    entryStream.write(copyBuffer, 0, read);
+                    remaining -= read;
+                }
+                archiveWriter.closeEntry();
+                writtenEntries++;
+            } finally {
+                entry.close();
+            }
+        }
+    }
+    
+    @Autowired
+    private FileSystemStorageService storageService;
+    
+    @Value("${filestorage.bundle.prefetch.threads:4}")
+    private int prefetchThreads;
+    
+    private ExecutorService prefetchExecutor;
+    
+    @PostConstruct
+    public void init() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        prefetchExecutor = Executors.newFixedThreadPool(Math.max(prefetchThreads, 1), new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "bundle-prefetch-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+    
+    public BulkOperationResult storeArchive(InputStream archiveStream) {
+        long startUpload = System.currentTimeMillis();
+        BulkOperationResult result = BulkOperationResult.build();
+        TarArchiveReader archiveReader = new TarArchiveReader(archiveStream);
+        
+        FileSystemStorageService.BulkStore bulkStore = storageService.startBulkStore();
+        try {
+            TarArchiveReader.Entry entry;
+            while ((entry = archiveReader.nextEntry()) != null) {
+                String fileName = entry.getName();
+                if (!FileRequestValidationHelper.ALLOWED_FILENAME_FORMAT_PATTERN.matcher(fileName).matches()) {
+                    result.addResult(fileName, FileStatus.INVALID_NAME, "File Name format is invalid!");
+                    continue;
+                }
+                
+                try {
+                    boolean isNewFile = bulkStore.storeFile(fileName, archiveReader.getEntryStream(), entry.getSize());
+                    result.addResult(fileName, isNewFile ? FileStatus.CREATED : FileStatus.UPDATED, null);
+                } catch (Exception e) {
+                    // if the archive stream itself is broken, reading the next entry stops the upload
+                    logger.error("Bulk upload - Error storing file {}!", fileName, e);
+                    result.addResult(fileName, FileStatus.ERROR, "Error storing file!");
+                }
+            }
+        } catch (IOException ioe) {
+            logger.debug("Bulk upload - invalid or truncated archive", ioe);
+            result.stop(RESTApiResult.BAD_REQUEST, "Invalid or truncated tar archive: " + ioe.getMessage());
+        } finally {
+            bulkStore.close();
+        }
+        
+        logger.debug("Bulk upload of {} files took {} seconds", result.getResults().size(), (float)(System.currentTimeMillis() - startUpload)/1000);
+        return result;
+    }
+    
+    public long writeBundle(Collection<String> fileNames, ArchiveFormat format, OutputStream archiveStream) throws IOException {
+        BundleWriter bundleWriter = new BundleWriter(format.newWriter(archiveStream));
+        try {
+            for (String fileName : new LinkedHashSet<String>(fileNames)) {
+                bundleWriter.add(fileName);
+            }
+            return bundleWriter.finish();
+        } finally {
+            bundleWriter.abort();
+        }
+    }
+    
+    public long writeBundle(Pattern regexPattern, ArchiveFormat format, OutputStream archiveStream) throws IOException {
+        final BundleWriter bundleWriter = new BundleWriter(format.newWriter(archiveStream));
+        try {
+            storageService.enumerate(regexPattern, new FileSystemStorageService.EnumerationVisitor() {
+                public void visit(CharSequence fileName) throws IOException {
+                    bundleWriter.add(fileName.toString());
+                }
+            });
+            return bundleWriter.finish();
+        } finally {
+            bundleWriter.abort();
+        }
+    }
+    
+    public DeleteJobResult deleteFiles(Collection<String> fileNames) {
+        List<String> validFileNames = new ArrayList<String>(fileNames.size());
+        for (String fileName : fileNames) {
+            if (FileRequestValidationHelper.ALLOWED_FILENAME_FORMAT_PATTERN.matcher(fileName).matches()) {
+                validFileNames.add(fileName);
+            } else {
+                logger.debug("Bulk delete - skipping invalid file name {}", fileName);
+            }
+        }
+        
+        try {
+            DeleteJob job = storageService.deleteFiles(validFileNames);
+            return DeleteJobResult.build(DeleteJobResult.CREATED, job);
+        } catch (IOException e) {
+            logger.error("Bulk delete - Error starting the delete job!", e);
+            return DeleteJobResult.build(DeleteJobResult.INTERNAL_ERROR);
+        }
+    }
+    
+    public DeleteJobResult deleteFiles(Pattern regexPattern) {
+        try {
+            DeleteJob job = storageService.deleteFiles(regexPattern);
+            return DeleteJobResult.build(DeleteJobResult.CREATED, job);
+        } catch (IOException e) {
+            logger.error("Bulk delete - Error starting the delete job for pattern {}!", regexPattern, e);
+            return DeleteJobResult.build(DeleteJobResult.INTERNAL_ERROR);
+        }
+    }
+    
+    public DeleteJobResult getDeleteJob(String jobId) {
+        DeleteJob job = storageService.getDeleteJob(jobId);
+        if (job == null) {
+            return DeleteJobResult.build(DeleteJobResult.NOT_FOUND);
+        }
+        return DeleteJobResult.build(DeleteJobResult.OK, job);
+    }
+    
+    /**
+     * Opens a bundle file and reads its first chunk, on the prefetch threads
+     * 
+     * @param fileName - the file name
+     * @return the opened {@link BundleEntry}, {@code null} if the file is not found
+     * @throws IOException on errors opening or reading the file
+     */
+    private BundleEntry openEntry(String fileName) throws IOException {
+        StoredFile storedFile = storageService.openStoredFile(fileName);
+        if (storedFile == null) {
+            logger.debug("Bundle - skipping missing file {}", fileName);
+            return null;
+        }
+        
+        try {
+            if (storedFile.getContentSize() < 0) {
+                logger.warn("Bundle - skipping file {} of unknown size", fileName);
+                storedFile.close();
+                return null;
+            }
+            
+            // entries are written decoded, the archive sizes being the contents sizes
+            ByteBuffer content = storedFile.getContent();
+            InputStream storedContents = content != null ? new ByteBufferInputStream(content) : Channels.newInputStream(storedFile.getChannel());
+            
+            BundleEntry entry = new BundleEntry();
+            entry.fileName = fileName;
+            entry.storedFile = storedFile;
+            entry.contents = ContentCompression.decode(storedContents, storedFile.getContentEncoding());
+            entry.size = storedFile.getContentSize();
+            entry.head = new byte[(int) Math.min(entry.size, READ_AHEAD_SIZE)];
+            while (entry.headLength < entry.head.length) {
+                int read = entry.contents.read(entry.head, entry.headLength, entry.head.length - entry.headLength);
+                if (read < 0) {
+                    break;
+                }
+                entry.headLength += read;
+            }
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            storedFile.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Waits for a bundle entry to be opened. Files failing to open are logged and left out of the bundle
+     */
+    private BundleEntry getEntry(Future<BundleEntry> entryFuture) throws IOException {
+        try {
+            return entryFuture.get();
+        } catch (ExecutionException ee) {
+            logger.error("Bundle - Error reading file!", ee.getCause());
+            return null;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading a bundle file", ie);
+        }
+    }
+    
+    private void discardEntry(Future<BundleEntry> entryFuture) {
+        if (entryFuture == null) {
+            return;
+        }
+        
+        try {
+            BundleEntry entry = getEntry(entryFuture);
+            if (entry != null) {
+                entry.close();
+            }
+        } catch (IOException ioe) {
+            // interrupted, the entry is left to be garbage collected
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package ro.iordache.filestorage.rest.impl;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -8,6 +10,11 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import ro.iordache.filestorage.repository.EnumerationPage;
 import ro.iordache.filestorage.repository.FileSystemStorageService;
 import ro.iordache.filestorage.rest.EnumOperationResult;
 import ro.iordache.filestorage.rest.EnumServiceHandler;
@@ -24,6 +31,8 @@ public class EnumServiceHandlerImpl implements EnumServiceHandler {
 
     @Autowired
     private FileSystemStorageService storageService;
+    
+    private JsonFactory jsonFactory = new JsonFactory();
 
     public SizeOperationResult getRepositorySize() {
         return SizeOperationResult.build(RESTApiResult.OK, storageService.getSize());
@@ -38,4 +47,28 @@ public class EnumServiceHandlerImpl implements EnumServiceHandler {
         return enumResult;
     }
 
+    public EnumOperationResult enumerate(Pattern regexPattern, long startIndex, String continuationToken, long pageSize) {
+        EnumerationPage page = storageService.enumerate(regexPattern, startIndex, continuationToken, pageSize);
+        
+        return EnumOperationResult.build(RESTApiResult.OK, startIndex, page.getMatchingItems(), page.getContinuationToken());
+    }
+    
+    public long streamEnumeration(Pattern regexPattern, OutputStream outputStream) throws IOException {
+        // the generator buffers the output, so memory use doesn't depend on the number of matches
+        final JsonGenerator generator = jsonFactory.createGenerator(outputStream);
+        generator.setRootValueSeparator(new SerializedString("\n"));
+        
+        long matches = storageService.enumerate(regexPattern, new FileSystemStorageService.EnumerationVisitor() {
+            public void visit(CharSequence fileName) throws IOException {
+                generator.writeString(fileName.toString());
+            }
+        });
+        
+        if (matches > 0) {
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+        
+        return matches;
+    }
 }
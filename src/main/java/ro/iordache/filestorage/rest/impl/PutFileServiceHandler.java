@@ -1,21 +1,26 @@
 package ro.iordache.filestorage.rest.impl;
 
+import java.io.IOException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StagedUpload;
+import ro.iordache.filestorage.rest.AsyncUploadServiceHandler;
 import ro.iordache.filestorage.rest.FileAccessOperation;
 import ro.iordache.filestorage.rest.FileAccessRequest;
 import ro.iordache.filestorage.rest.FileAccessResult;
 import ro.iordache.filestorage.rest.FileAccessServiceHandler;
 
 /**
- * PUT REST service handler -- provides file creating and updating functionality
+ * PUT REST service handler -- provides file creating and updating functionality, the request body being either
+ * read as a stream or staged as it arrives
  */
 @Service
-public class PutFileServiceHandler implements FileAccessServiceHandler {
+public class PutFileServiceHandler implements FileAccessServiceHandler, AsyncUploadServiceHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(PutFileServiceHandler.class);
     
@@ -36,21 +41,42 @@ public class PutFileServiceHandler implements FileAccessServiceHandler {
         logger.debug("Handling PUT request for file {}", fileAccessRequest.getFileName());
         
         try {
-            FileAccessResult response;
-            boolean isNewFile = storageService.storeFile(fileAccessRequest.getFileName(), fileAccessRequest.getInputStream());
-            
-            if (isNewFile) {
-                response = FileAccessResult.build(FileAccessResult.CREATED);
-                logger.debug("PUT - creating new file {}", fileAccessRequest.getFileName());
-            } else {
-                response = FileAccessResult.build(FileAccessResult.OK);
-                logger.debug("PUT - destination file {} already exists, updating it", fileAccessRequest.getFileName());
-            }
-            
-            return response;
+            boolean isNewFile = storageService.storeFile(fileAccessRequest.getFileName(), fileAccessRequest.getInputStream(),
+                    fileAccessRequest.getContentLength());
+            return buildResult(fileAccessRequest.getFileName(), isNewFile);
         } catch (Exception e) {
             logger.error("PUT - Error storing file in the file system!", e);
             return FileAccessResult.build(FileAccessResult.INTERNAL_ERROR);
         }
     }
+    
+    public StagedUpload startUpload(FileAccessRequest fileAccessRequest) throws IOException {
+        logger.debug("Handling non-blocking PUT request for file {}", fileAccessRequest.getFileName());
+        return storageService.stageUpload(fileAccessRequest.getFileName());
+    }
+    
+    public FileAccessResult completeUpload(StagedUpload stagedUpload) {
+        try {
+            boolean isNewFile = storageService.commitUpload(stagedUpload);
+            return buildResult(stagedUpload.getFileName(), isNewFile);
+        } catch (Exception e) {
+            logger.error("PUT - Error storing staged file in the file system!", e);
+            return FileAccessResult.build(FileAccessResult.INTERNAL_ERROR);
+        }
+    }
+    
+    public void abortUpload(StagedUpload stagedUpload) {
+        logger.debug("PUT - upload of file {} failed, dropping its staged contents", stagedUpload.getFileName());
+        storageService.abortUpload(stagedUpload);
+    }
+    
+    private FileAccessResult buildResult(String fileName, boolean isNewFile) {
+        if (isNewFile) {
+            logger.debug("PUT - creating new file {}", fileName);
+            return FileAccessResult.build(FileAccessResult.CREATED);
+        }
+        
+        logger.debug("PUT - destination file {} already exists, updating it", fileName);
+        return FileAccessResult.build(FileAccessResult.OK);
+    }
 }
@@ -0,0 +1,65 @@
+package ro.iordache.filestorage.rest.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StoredFileInfo;
+import ro.iordache.filestorage.rest.FileAccessOperation;
+import ro.iordache.filestorage.rest.FileAccessRequest;
+import ro.iordache.filestorage.rest.FileAccessResult;
+import ro.iordache.filestorage.rest.FileAccessServiceHandler;
+
+/**
+ * Provides File metadata reading functionality, for HEAD requests. Files are never opened.
+ */
+@Service
+public class ReadFileMetadataServiceHandler implements FileAccessServiceHandler {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ReadFileMetadataServiceHandler.class);
+    
+    @Autowired
+    private FileSystemStorageService storageService;
+    
+    public FileAccessOperation getOperationType() {
+        return FileAccessOperation.READ_METADATA;
+    }
+    
+    /**
+     * Looks up the given file's size and last modified date in the file storage
+     * 
+     * @param fileAccessRequest - the {@link FileAccessRequest} for the file to be looked up
+     * @return a {@link FileAccessResult} object
+     */
+    public FileAccessResult doAction(FileAccessRequest fileAccessRequest) {
+        logger.debug("Handling HEAD request for file {}", fileAccessRequest.getFileName());
+        
+        try {
+            StoredFileInfo fileInfo = storageService.getFileInfo(fileAccessRequest.getFileName());
+            if (fileInfo == null) {
+                return FileAccessResult.build(FileAccessResult.NOT_FOUND);
+            }
+            
+            // the headers are those of a GET, the contents being sent as stored only if the client accepts their coding
+            boolean varyEncoding = fileInfo.getContentEncoding() != null;
+            String contentEncoding = varyEncoding && fileAccessRequest.acceptsEncoding(fileInfo.getContentEncoding())
+                    ? fileInfo.getContentEncoding() : null;
+            String eTag = fileInfo.getETag(contentEncoding);
+            
+            // entity tags take precedence over the modified since date
+            boolean notModified = fileAccessRequest.isNoneMatchRequested() ? fileAccessRequest.checkNoneMatch(eTag)
+                    : fileAccessRequest.checkNotModified(fileInfo.getLastModified());
+            if (notModified) {
+                // file not modified in the meantime
+                return FileAccessResult.buildNotModified(eTag, varyEncoding);
+            }
+            
+            return FileAccessResult.build(FileAccessResult.OK, fileInfo, eTag, contentEncoding, varyEncoding);
+        } catch (Exception e) {
+            logger.error("Error reading file metadata from the internal storage!", e);
+            return FileAccessResult.build(FileAccessResult.INTERNAL_ERROR);
+        }
+    }
+}
@@ -5,10 +5,13 @@ import java.io.InputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.stereotype.Service;
 
 import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StoredFile;
+import ro.iordache.filestorage.repository.StoredFileInfo;
 import ro.iordache.filestorage.rest.FileAccessOperation;
 import ro.iordache.filestorage.rest.FileAccessRequest;
 import ro.iordache.filestorage.rest.FileAccessResult;
@@ -25,12 +28,28 @@ public class ReadFileServiceHandler implements FileAccessServiceHandler {
     @Autowired
     private FileSystemStorageService storageService;
     
+    /**
+     * flag indicating that files are sent from an open {@link java.nio.channels.FileChannel} instead of an {@link InputStream}
+     */
+    @Value("${filestorage.read.zerocopy:false}")
+    private boolean zeroCopyReads;
+    
+    /**
+     * flag indicating that large files are opened for non-blocking transfers, through an asynchronous file channel
+     */
+    @Value("${filestorage.async.io.enabled:false}")
+    private boolean asyncReads;
+    
+    @Value("${filestorage.async.io.min.kb:256}")
+    private int asyncReadMinKB;
+    
     public FileAccessOperation getOperationType() {
         return FileAccessOperation.READ;
     }
     
     /**
-     * Looks up the given file in the file storage.
+     * Looks up the given file in the file storage. The file's metadata is checked first, the file being opened
+     * only if its contents are to be sent.
      * 
      * fileAccessRequest - the {@link FileAccessRequest} for the file to be fetched from the storage
      * @return a {@link FileAccessResult} object
@@ -39,21 +58,65 @@ public class ReadFileServiceHandler implements FileAccessServiceHandler {
         logger.debug("Handling READ request for file {}", fileAccessRequest.getFileName());
         
         try {
-            InputStream foundFileIS = storageService.getFileContent(fileAccessRequest.getFileName());
-            if (foundFileIS == null) {
+            StoredFileInfo fileInfo = storageService.getFileInfo(fileAccessRequest.getFileName());
+            if (fileInfo == null) {
                 return FileAccessResult.build(FileAccessResult.NOT_FOUND);
             }
-
-            long fileLastModified = storageService.getFileLastModified(fileAccessRequest.getFileName());
-            if (fileAccessRequest.checkNotModified(fileLastModified)) {
+            
+            // files stored compressed are sent as stored to clients accepting their coding, decoded for the others
+            boolean varyEncoding = fileInfo.getContentEncoding() != null;
+            String contentEncoding = varyEncoding && fileAccessRequest.acceptsEncoding(fileInfo.getContentEncoding())
+                    ? fileInfo.getContentEncoding() : null;
+            String eTag = fileInfo.getETag(contentEncoding);
+            
+            // entity tags take precedence over the modified since date
+            boolean notModified = fileAccessRequest.isNoneMatchRequested() ? fileAccessRequest.checkNoneMatch(eTag)
+                    : fileAccessRequest.checkNotModified(fileInfo.getLastModified());
+            if (notModified) {
                 // file not modified in the meantime
-                return FileAccessResult.build(FileAccessResult.NOT_MODIFIED, null, -1);
+                return FileAccessResult.buildNotModified(eTag, varyEncoding);
+            }
+            
+            boolean decode = varyEncoding && contentEncoding == null;
+            // whole large files are sent without blocking, ranges being few and small reads
+            boolean asyncRead = asyncReads && !decode && !fileAccessRequest.isRangeRequested()
+                    && fileInfo.getStoredSize() >= asyncReadMinKB * 1024L;
+            if (decode || zeroCopyReads || fileAccessRequest.isRangeRequested() || contentEncoding != null || asyncRead) {
+                StoredFile storedFile = asyncRead ? storageService.openAsyncStoredFile(fileAccessRequest.getFileName())
+                        : storageService.openStoredFile(fileAccessRequest.getFileName());
+                if (storedFile == null) {
+                    return FileAccessResult.build(FileAccessResult.NOT_FOUND);
+                }
+                
+                if (storedFile.getContentEncoding() == null || fileAccessRequest.acceptsEncoding(storedFile.getContentEncoding())) {
+                    return FileAccessResult.build(FileAccessResult.OK, storedFile, fileInfo.getETag(storedFile.getContentEncoding()),
+                            varyEncoding || storedFile.getContentEncoding() != null);
+                }
+                
+                if (storedFile.getAsyncChannel() != null) {
+                    // replaced by a compressed file since its metadata was read, decoded from a blocking channel
+                    storedFile.close();
+                    storedFile = storageService.openStoredFile(fileAccessRequest.getFileName());
+                    if (storedFile == null) {
+                        return FileAccessResult.build(FileAccessResult.NOT_FOUND);
+                    }
+                }
+                
+                // ranges of the decoded contents can't be read from positions of the file, they're sent whole
+                InputStreamResource decodedResource = new InputStreamResource(storageService.getDecodedContent(storedFile));
+                return FileAccessResult.build(FileAccessResult.OK, decodedResource, storedFile.getContentSize(),
+                        storedFile.getLastModified(), fileInfo.getETag(), true);
+            }
+            
+            InputStream foundFileIS = storageService.getFileContent(fileAccessRequest.getFileName());
+            if (foundFileIS == null) {
+                // deleted since its metadata was read
+                return FileAccessResult.build(FileAccessResult.NOT_FOUND);
             }
-
             
             InputStreamResource fileISResource = new InputStreamResource(foundFileIS);
-            logger.debug("File last modified: {}", fileLastModified);
-            return FileAccessResult.build(FileAccessResult.OK, fileISResource, fileLastModified);
+            logger.debug("File last modified: {}", fileInfo.getLastModified());
+            return FileAccessResult.build(FileAccessResult.OK, fileISResource, -1, fileInfo.getLastModified(), fileInfo.getETag(), false);
         } catch (Exception e) {
             logger.error("Error reading file from the internal storage!", e);
             return FileAccessResult.build(FileAccessResult.INTERNAL_ERROR);
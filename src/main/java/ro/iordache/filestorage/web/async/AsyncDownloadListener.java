@@ -0,0 +1,124 @@
+package ro.iordache.filestorage.web.async;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import ro.iordache.filestorage.repository.StoredFile;
+
+/**
+ * Writes a stored file to a GET response as the socket accepts data, reading it through its asynchronous file channel.
+ * The next read starts once the previous chunk was handed over to the socket, so no thread waits on the socket or on the disk.
+ * Only one of the container and the storage's I/O threads runs the listener at a time: the container calls
+ * {@link #onWritePossible()} once a write didn't complete, and reads are only started when no write is pending.
+ */
+public class AsyncDownloadListener implements WriteListener, CompletionHandler<Integer, Void> {
+    
+    private static final Logger logger = LoggerFactory.getLogger(AsyncDownloadListener.class);
+    
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private AsyncContext asyncContext;
+    
+    private ServletOutputStream outputStream;
+    
+    private StoredFile storedFile;
+    
+    private byte[] buffer;
+    
+    private ByteBuffer readBuffer;
+    
+    /**
+     * The file position up to which the contents were written to the response
+     */
+    private volatile long position;
+    
+    /**
+     * The number of read bytes waiting to be written to the response
+     */
+    private volatile int pendingLength;
+    
+    /**
+     * @param asyncContext - the started {@link AsyncContext} of the GET request
+     * @param storedFile - the {@link StoredFile} opened with an asynchronous channel, closed once the transfer ends
+     */
+    public AsyncDownloadListener(AsyncContext asyncContext, StoredFile storedFile) throws IOException {
+        this.asyncContext = asyncContext;
+        this.outputStream = asyncContext.getResponse().getOutputStream();
+        this.storedFile = storedFile;
+        this.buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(storedFile.getSize(), 1))];
+        this.readBuffer = ByteBuffer.wrap(buffer);
+    }
+    
+    public void onWritePossible() throws IOException {
+        writeNext();
+    }
+    
+    /**
+     * Writes the pending contents and starts reading the next ones while the socket accepts data
+     */
+    private void writeNext() {
+        try {
+            while (outputStream.isReady()) {
+                if (pendingLength > 0) {
+                    outputStream.write(buffer, 0, pendingLength);
+                    position += pendingLength;
+                    pendingLength = 0;
+                    continue;
+                }
+                
+                if (position >= storedFile.getSize()) {
+                    storedFile.close();
+                    asyncContext.complete();
+                    return;
+                }
+                
+                readBuffer.clear();
+                readBuffer.limit((int) Math.min(buffer.length, storedFile.getSize() - position));
+                storedFile.getAsyncChannel().read(readBuffer, position, null, this);
+                return;
+            }
+        } catch (IOException ioe) {
+            fail(ioe);
+        }
+    }
+    
+    /**
+     * Called on the storage's I/O threads once the next contents are read
+     */
+    public void completed(Integer read, Void attachment) {
+        if (read <= 0) {
+            // the channel stays readable even if the file is deleted, a shorter read means it was truncated
+            fail(new IOException("Unexpected end of stored file at position " + position));
+            return;
+        }
+        
+        pendingLength = read;
+        writeNext();
+    }
+    
+    public void failed(Throwable exc, Void attachment) {
+        fail(exc);
+    }
+    
+    public void onError(Throwable t) {
+        logger.debug("GET - non-blocking download stopped at position {}", position, t);
+        storedFile.close();
+    }
+    
+    private void fail(Throwable t) {
+        logger.debug("GET - non-blocking download failed at position {}", position, t);
+        storedFile.close();
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException ise) {
+            logger.debug("GET - async request already completed", ise);
+        }
+    }
+}
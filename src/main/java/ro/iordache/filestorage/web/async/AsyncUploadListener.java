@@ -0,0 +1,212 @@
+package ro.iordache.filestorage.web.async;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import ro.iordache.filestorage.repository.StagedUpload;
+import ro.iordache.filestorage.rest.AsyncUploadServiceHandler;
+import ro.iordache.filestorage.rest.FileAccessResult;
+
+/**
+ * Reads a PUT request body as its data arrives, staging each read through the upload's asynchronous file channel.
+ * The next read starts once the previous write completed, so no thread waits on the socket or on the disk.
+ * Once all the data is read and written the upload is committed and the async request completed. Committing moves
+ * and fsyncs the file, so it's dispatched to a container thread instead of blocking the storage's I/O threads.
+ */
+public class AsyncUploadListener implements ReadListener, CompletionHandler<Integer, Void> {
+    
+    private static final Logger logger = LoggerFactory.getLogger(AsyncUploadListener.class);
+    
+    /**
+     * Reads return at most the connector's socket buffer, kept small as thousands of uploads can be in flight at once
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    
+    private AsyncContext asyncContext;
+    
+    private ServletInputStream inputStream;
+    
+    private AsyncUploadServiceHandler uploadHandler;
+    
+    private StagedUpload stagedUpload;
+    
+    private URI location;
+    
+    private byte[] buffer;
+    
+    /**
+     * Upload state, guarded by this listener. Reads and writes are never run while holding the lock,
+     * the servlet container taking its own locks around them
+     */
+    private boolean writing;
+    
+    private boolean allDataRead;
+    
+    private boolean done;
+    
+    /**
+     * @param asyncContext - the started {@link AsyncContext} of the PUT request
+     * @param uploadHandler - the {@link AsyncUploadServiceHandler} committing or aborting the upload
+     * @param stagedUpload - the {@link StagedUpload} the request body is written to
+     * @param location - the file location, sent with 201 Created responses
+     */
+    public AsyncUploadListener(AsyncContext asyncContext, AsyncUploadServiceHandler uploadHandler, StagedUpload stagedUpload,
+            URI location) throws IOException {
+        this.asyncContext = asyncContext;
+        this.inputStream = asyncContext.getRequest().getInputStream();
+        this.uploadHandler = uploadHandler;
+        this.stagedUpload = stagedUpload;
+        this.location = location;
+        
+        // bodies shorter than the buffer get a buffer of their size
+        long contentLength = asyncContext.getRequest().getContentLengthLong();
+        this.buffer = new byte[contentLength >= 0 ? (int) Math.min(BUFFER_SIZE, Math.max(contentLength, 1)) : BUFFER_SIZE];
+    }
+    
+    public void onDataAvailable() throws IOException {
+        readNext();
+    }
+    
+    /**
+     * Reads the available data, starting to stage it. The container calls {@link #onDataAvailable()} again
+     * once more data arrives, or {@link #onAllDataRead()} at the end of the body
+     */
+    private void readNext() {
+        try {
+            while (inputStream.isReady()) {
+                int read = inputStream.read(buffer);
+                if (read < 0) {
+                    return;
+                }
+                
+                if (read > 0) {
+                    synchronized (this) {
+                        writing = true;
+                    }
+                    stagedUpload.write(ByteBuffer.wrap(buffer, 0, read), null, this);
+                    return;
+                }
+            }
+        } catch (IOException ioe) {
+            fail(ioe);
+        }
+    }
+    
+    /**
+     * Called on the storage's I/O threads once the last read data is staged
+     */
+    public void completed(Integer written, Void attachment) {
+        boolean commit;
+        synchronized (this) {
+            writing = false;
+            commit = allDataRead;
+        }
+        
+        if (commit) {
+            commit();
+        } else {
+            readNext();
+        }
+    }
+    
+    public void failed(Throwable exc, Void attachment) {
+        fail(exc);
+    }
+    
+    public void onAllDataRead() throws IOException {
+        synchronized (this) {
+            allDataRead = true;
+            if (writing) {
+                // committed once the last write completes
+                return;
+            }
+        }
+        
+        commit();
+    }
+    
+    public void onError(Throwable t) {
+        fail(t);
+    }
+    
+    private void commit() {
+        if (!finish()) {
+            return;
+        }
+        
+        try {
+            asyncContext.start(new Runnable() {
+                public void run() {
+                    completeUpload();
+                }
+            });
+        } catch (IllegalStateException ise) {
+            // the request was completed or timed out meanwhile
+            logger.debug("PUT - async request already completed", ise);
+            uploadHandler.abortUpload(stagedUpload);
+        }
+    }
+    
+    /**
+     * Stores the staged file and sends the response, on a container thread
+     */
+    private void completeUpload() {
+        FileAccessResult result = uploadHandler.completeUpload(stagedUpload);
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        switch (result.getType()) {
+        case FileAccessResult.CREATED:
+            response.setStatus(HttpStatus.CREATED.value());
+            response.setHeader(HttpHeaders.LOCATION, location.toString());
+            break;
+        case FileAccessResult.OK:
+            response.setStatus(HttpStatus.OK.value());
+            break;
+        default:
+            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            break;
+        }
+        
+        response.setContentLength(0);
+        asyncContext.complete();
+    }
+    
+    private void fail(Throwable t) {
+        if (!finish()) {
+            return;
+        }
+        
+        logger.debug("PUT - non-blocking upload of file {} failed", stagedUpload.getFileName(), t);
+        uploadHandler.abortUpload(stagedUpload);
+        try {
+            // the client most likely went away, otherwise it gets the error
+            ((HttpServletResponse) asyncContext.getResponse()).setStatus(HttpStatus.INTERNAL_SERVER_ERROR.value());
+            asyncContext.complete();
+        } catch (IllegalStateException ise) {
+            logger.debug("PUT - async request already completed", ise);
+        }
+    }
+    
+    /**
+     * Marks the upload as done, only the first commit or failure taking effect
+     *
+     * @return true if the upload wasn't already done
+     */
+    private synchronized boolean finish() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        return true;
+    }
+}
@@ -1,7 +1,10 @@
 package ro.iordache.filestorage.web.controller;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,22 +14,40 @@ import java.util.regex.PatternSyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import ro.iordache.filestorage.repository.StagedUpload;
+import ro.iordache.filestorage.repository.StoredFile;
+import ro.iordache.filestorage.repository.StoredFileInfo;
+import ro.iordache.filestorage.repository.util.BoundedLRUCache;
+import ro.iordache.filestorage.rest.AsyncUploadServiceHandler;
+import ro.iordache.filestorage.rest.BulkOperationResult;
+import ro.iordache.filestorage.rest.BulkServiceHandler;
+import ro.iordache.filestorage.rest.DeleteJobResult;
 import ro.iordache.filestorage.rest.EnumOperationResult;
 import ro.iordache.filestorage.rest.EnumServiceHandler;
 import ro.iordache.filestorage.rest.FileAccessOperation;
@@ -36,6 +57,11 @@ import ro.iordache.filestorage.rest.FileAccessServiceHandler;
 import ro.iordache.filestorage.rest.FileRequestValidationHelper;
 import ro.iordache.filestorage.rest.FileRequestValidationHelper.FileNameFormatException;
 import ro.iordache.filestorage.rest.SizeOperationResult;
+import ro.iordache.filestorage.rest.archive.ArchiveFormat;
+import ro.iordache.filestorage.web.async.AsyncDownloadListener;
+import ro.iordache.filestorage.web.async.AsyncUploadListener;
+import ro.iordache.filestorage.web.converter.StoredFileHttpMessageConverter;
+import ro.iordache.filestorage.web.converter.StoredFileRanges;
 
 /**
  * REST API controller for the file storage server operations
@@ -44,19 +70,60 @@ import ro.iordache.filestorage.rest.SizeOperationResult;
 @RequestMapping("/api/v1/files")
 public class RestFileStorageController {
     
-    private static final SimpleDateFormat MODIFIED_DATE_FORMAT = new SimpleDateFormat("MM/dd/yyyy KK:mm:ss a Z");
-    
     private static final Logger logger = LoggerFactory.getLogger(RestFileStorageController.class);
     
     private static final int MAX_PAGE_SIZE = 1000;
     
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    
+    private static final String TAR_MEDIA_TYPE = "application/x-tar";
+    
+    private static final int MAX_BULK_NAMES = 10000;
+    
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    
+    // Tomcat request attributes handing a file over to the connector's sendfile support
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    
+    /**
+     * Smaller files are transferred from the already open file channel, sendfile setup costs more than it saves
+     */
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+    
     @Autowired
     private EnumServiceHandler enumService;
     
+    @Autowired
+    private BulkServiceHandler bulkService;
+    
     private Map<FileAccessOperation, FileAccessServiceHandler> fileAccessOpsHandlers;
     
+    /**
+     * Compiled enumeration regex patterns
+     */
+    private BoundedLRUCache<String, Pattern> patternCache;
+    
+    /**
+     * flag indicating that large files are sent by the connector through sendfile, when supported
+     */
+    private boolean sendfileReads;
+    
+    /**
+     * flag indicating that PUT bodies are read, and opened large files written, without blocking request threads
+     */
+    private boolean asyncTransfers;
+    
     @Autowired
-    public RestFileStorageController(List<FileAccessServiceHandler> handlerList) {
+    public RestFileStorageController(List<FileAccessServiceHandler> handlerList,
+            @Value("${filestorage.enum.cache.size:0}") int patternCacheSize,
+            @Value("${filestorage.read.sendfile:false}") boolean sendfileReads,
+            @Value("${filestorage.async.io.enabled:false}") boolean asyncTransfers) {
+        patternCache = new BoundedLRUCache<String, Pattern>(patternCacheSize);
+        this.sendfileReads = sendfileReads;
+        this.asyncTransfers = asyncTransfers;
         fileAccessOpsHandlers = new HashMap<FileAccessOperation, FileAccessServiceHandler>();
         
         for (FileAccessServiceHandler fileServiceHandler : handlerList) {
@@ -70,10 +137,12 @@ public class RestFileStorageController {
      * @param operation - the {@link FileAccessOperation} describing the file operation type
      * @param fileName - the file name to execute the operation on
      * @param request - the current {@link HttpServletRequest}
+     * @param response - the current {@link HttpServletResponse}, written to by non-blocking transfers
      * 
-     * @return a {@link ResponseEntity} result
+     * @return a {@link ResponseEntity} result, {@code null} if the response is sent by a non-blocking transfer
      */
-    private ResponseEntity handleFileOperation(FileAccessOperation operation, String fileName, HttpServletRequest request) {
+    private ResponseEntity handleFileOperation(FileAccessOperation operation, String fileName, HttpServletRequest request,
+            HttpServletResponse response) {
         try {
             
             // Validate the filename against allowed formats
@@ -95,14 +164,28 @@ public class RestFileStorageController {
                 restResponse = ResponseEntity.created(URI.create(request.getRequestURI())).build();
                 break;
             case FileAccessResult.OK:
-                if (fileAccessResult.getInputStream() != null) {
+                if (fileAccessResult.getStoredFile() != null) {
+                    restResponse = buildStoredFileResponse(fileAccessResult, request, response);
+                } else if (fileAccessResult.getFileInfo() != null) {
+                    restResponse = buildFileInfoResponse(fileAccessResult);
+                } else if (fileAccessResult.getInputStream() != null) {
                     
+                    // streamed contents, i.e. decoded ones, are sent whole with no Accept-Ranges, a Range header being ignored
                     BodyBuilder responseBuilder = ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM);
+                    if (fileAccessResult.getContentLength() >= 0) {
+                        responseBuilder.contentLength(fileAccessResult.getContentLength());
+                    }
                     if (fileAccessResult.getLastModified() > 0) {
                         responseBuilder.lastModified(fileAccessResult.getLastModified());
                     }
+                    if (fileAccessResult.getETag() != null) {
+                        responseBuilder.eTag(fileAccessResult.getETag());
+                    }
+                    if (fileAccessResult.isVaryEncoding()) {
+                        responseBuilder.varyBy(HttpHeaders.ACCEPT_ENCODING);
+                    }
                     restResponse = responseBuilder.body(fileAccessResult.getInputStream());
-
+                
                 } else {
                     restResponse = ResponseEntity.ok().build();
                 }
@@ -111,7 +194,14 @@ public class RestFileStorageController {
                 restResponse = ResponseEntity.notFound().build();
                 break;
             case FileAccessResult.NOT_MODIFIED:
-                restResponse = ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+                BodyBuilder notModifiedBuilder = ResponseEntity.status(HttpStatus.NOT_MODIFIED);
+                if (fileAccessResult.getETag() != null) {
+                    notModifiedBuilder.eTag(fileAccessResult.getETag());
+                }
+                if (fileAccessResult.isVaryEncoding()) {
+                    notModifiedBuilder.varyBy(HttpHeaders.ACCEPT_ENCODING);
+                }
+                restResponse = notModifiedBuilder.build();
                 break;
             default:
                 restResponse = ResponseEntity.internalServerError().build();
@@ -127,19 +217,439 @@ public class RestFileStorageController {
         }
     }
     
+    /**
+     * Builds the response for an opened stored file. Large files are handed over to the connector's sendfile support,
+     * the others being transferred from the opened file channel by the {@link StoredFileHttpMessageConverter}.
+     * Files stored compressed are sent as stored, with their Content-Encoding, ranges applying to the compressed bytes.
+     * Files opened for non-blocking transfers are written by an {@link AsyncDownloadListener} unless sent through sendfile
+     * 
+     * @param fileAccessResult - the {@link FileAccessResult} with the opened {@link StoredFile}
+     * @param request - the current {@link HttpServletRequest}
+     * @param response - the current {@link HttpServletResponse}
+     * @return a {@link ResponseEntity} result, {@code null} if the file is sent by a non-blocking transfer
+     */
+    private ResponseEntity buildStoredFileResponse(FileAccessResult fileAccessResult, HttpServletRequest request,
+            HttpServletResponse response) {
+        StoredFile storedFile = fileAccessResult.getStoredFile();
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && checkIfRange(storedFile, fileAccessResult.getETag(), request)) {
+            ResponseEntity rangeResponse = buildRangeResponse(fileAccessResult, rangeHeader, request);
+            if (rangeResponse != null) {
+                return rangeResponse;
+            }
+        }
+        
+        BodyBuilder responseBuilder = ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        addFileHeaders(responseBuilder, fileAccessResult);
+        
+        if (useSendfile(storedFile, storedFile.getSize(), request)) {
+            sendfile(storedFile, 0, storedFile.getSize(), request);
+            return responseBuilder.contentLength(storedFile.getSize()).build();
+        }
+        
+        if (storedFile.getAsyncChannel() != null) {
+            return startAsyncDownload(responseBuilder.contentLength(storedFile.getSize()).build(), storedFile, request, response);
+        }
+        
+        return responseBuilder.body(storedFile);
+    }
+    
+    /**
+     * Sends the headers of a response and starts writing its stored file as the socket accepts data
+     * 
+     * @param headersResponse - the body-less {@link ResponseEntity} holding the status and headers to send
+     * @param storedFile - the {@link StoredFile} opened for non-blocking transfers
+     * @param request - the current {@link HttpServletRequest}
+     * @param response - the current {@link HttpServletResponse}
+     * @return {@code null}, the response being sent by the {@link AsyncDownloadListener}
+     */
+    private ResponseEntity startAsyncDownload(ResponseEntity headersResponse, StoredFile storedFile, HttpServletRequest request,
+            HttpServletResponse response) {
+        response.setStatus(headersResponse.getStatusCode().value());
+        for (Map.Entry<String, List<String>> header : headersResponse.getHeaders().entrySet()) {
+            for (String value : header.getValue()) {
+                response.addHeader(header.getKey(), value);
+            }
+        }
+        
+        try {
+            AsyncContext asyncContext = request.startAsync();
+            // the transfer lasts as long as the client reads, the connector's timeouts apply to a stalled client
+            asyncContext.setTimeout(0);
+            response.getOutputStream().setWriteListener(new AsyncDownloadListener(asyncContext, storedFile));
+            return null;
+        } catch (IOException | IllegalStateException e) {
+            storedFile.close();
+            logger.error("GET - error starting non-blocking download!", e);
+            response.reset();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    /**
+     * Starts reading a PUT request body as its data arrives, staging it through an {@link AsyncUploadListener}
+     * which sends the response once the file is stored
+     * 
+     * @param uploadHandler - the {@link AsyncUploadServiceHandler} staging and storing the file
+     * @param fileName - the file name
+     * @param request - the current {@link HttpServletRequest}
+     * @return a {@link ResponseEntity} result, {@code null} once the upload started
+     */
+    private ResponseEntity startAsyncUpload(AsyncUploadServiceHandler uploadHandler, String fileName, HttpServletRequest request) {
+        StagedUpload stagedUpload = null;
+        try {
+            FileAccessRequest fileAccessRequest = FileRequestValidationHelper.validateRequest(fileName, request);
+            stagedUpload = uploadHandler.startUpload(fileAccessRequest);
+            
+            AsyncContext asyncContext = request.startAsync();
+            // the upload lasts as long as the client sends, the connector's timeouts apply to a stalled client
+            asyncContext.setTimeout(0);
+            request.getInputStream().setReadListener(new AsyncUploadListener(asyncContext, uploadHandler, stagedUpload,
+                    URI.create(request.getRequestURI())));
+            return null;
+        } catch (FileNameFormatException fnfe) {
+            return ResponseEntity.badRequest().body(fnfe.getMessage());
+        } catch (IOException | IllegalStateException e) {
+            if (stagedUpload != null) {
+                uploadHandler.abortUpload(stagedUpload);
+            }
+            logger.error("PUT - error starting non-blocking upload!", e);
+            return ResponseEntity.internalServerError().body(e.getMessage());
+        }
+    }
+    
+    /**
+     * Builds a body-less response with a stored file's headers, as a GET would send them. Byte ranges aren't
+     * advertised for files decoded for the client, their GETs being sent whole
+     * 
+     * @param fileAccessResult - the {@link FileAccessResult} with the {@link StoredFileInfo} of the file
+     * @return a {@link ResponseEntity} result
+     */
+    private ResponseEntity buildFileInfoResponse(FileAccessResult fileAccessResult) {
+        StoredFileInfo fileInfo = fileAccessResult.getFileInfo();
+        long contentLength = fileAccessResult.getContentEncoding() != null ? fileInfo.getStoredSize() : fileInfo.getSize();
+        
+        BodyBuilder responseBuilder = ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).contentLength(contentLength);
+        if (fileInfo.getContentEncoding() == null || fileAccessResult.getContentEncoding() != null) {
+            responseBuilder.header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        }
+        addFileHeaders(responseBuilder, fileAccessResult);
+        return responseBuilder.build();
+    }
+    
+    /**
+     * Adds the Last-Modified, ETag and content coding headers of a file
+     */
+    private void addFileHeaders(BodyBuilder responseBuilder, FileAccessResult fileAccessResult) {
+        if (fileAccessResult.getLastModified() > 0) {
+            responseBuilder.lastModified(fileAccessResult.getLastModified());
+        }
+        if (fileAccessResult.getETag() != null) {
+            responseBuilder.eTag(fileAccessResult.getETag());
+        }
+        if (fileAccessResult.getContentEncoding() != null) {
+            responseBuilder.header(HttpHeaders.CONTENT_ENCODING, fileAccessResult.getContentEncoding());
+        }
+        if (fileAccessResult.isVaryEncoding()) {
+            responseBuilder.varyBy(HttpHeaders.ACCEPT_ENCODING);
+        }
+    }
+    
+    /**
+     * Builds a 206 Partial Content response with the requested byte ranges of a stored file, a multipart/byteranges
+     * body being sent for multiple ranges. Unsatisfiable ranges get a 416 Range Not Satisfiable response.
+     * 
+     * @param fileAccessResult - the {@link FileAccessResult} with the opened {@link StoredFile}
+     * @param rangeHeader - the Range header value
+     * @param request - the current {@link HttpServletRequest}
+     * @return a {@link ResponseEntity} result, {@code null} if the Range header is to be ignored and the whole file sent
+     */
+    private ResponseEntity buildRangeResponse(FileAccessResult fileAccessResult, String rangeHeader, HttpServletRequest request) {
+        StoredFile storedFile = fileAccessResult.getStoredFile();
+        List<HttpRange> ranges;
+        try {
+            ranges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException iae) {
+            logger.debug("Ignoring invalid Range header {}", rangeHeader, iae);
+            return null;
+        }
+        
+        // drop the ranges starting past the end of the file
+        long fileSize = storedFile.getSize();
+        long[] rangeStarts = new long[ranges.size()];
+        long[] rangeEnds = new long[ranges.size()];
+        int satisfiableRanges = 0;
+        long rangesLength = 0;
+        for (HttpRange range : ranges) {
+            long rangeStart = range.getRangeStart(fileSize);
+            long rangeEnd = range.getRangeEnd(fileSize);
+            if (rangeStart < fileSize && rangeStart <= rangeEnd) {
+                rangeStarts[satisfiableRanges] = rangeStart;
+                rangeEnds[satisfiableRanges] = rangeEnd;
+                satisfiableRanges++;
+                rangesLength += rangeEnd - rangeStart + 1;
+            }
+        }
+        
+        if (satisfiableRanges == 0) {
+            storedFile.close();
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize).build();
+        }
+        
+        if (rangesLength > fileSize) {
+            // overlapping ranges asking for more than the whole file, just send the file
+            return null;
+        }
+        
+        BodyBuilder responseBuilder = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes");
+        addFileHeaders(responseBuilder, fileAccessResult);
+        
+        if (satisfiableRanges == 1) {
+            StoredFileRanges singleRange = new StoredFileRanges(storedFile, new long[] {rangeStarts[0]}, new long[] {rangeEnds[0]}, null);
+            responseBuilder.contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .header(HttpHeaders.CONTENT_RANGE, singleRange.getContentRange(0));
+            
+            if (useSendfile(storedFile, singleRange.getRangeLength(0), request)) {
+                sendfile(storedFile, rangeStarts[0], rangeEnds[0] + 1, request);
+                return responseBuilder.contentLength(singleRange.getRangeLength(0)).build();
+            }
+            return responseBuilder.body(singleRange);
+        }
+        
+        StoredFileRanges multipleRanges = new StoredFileRanges(storedFile, Arrays.copyOf(rangeStarts, satisfiableRanges),
+                Arrays.copyOf(rangeEnds, satisfiableRanges), MimeTypeUtils.generateMultipartBoundaryString());
+        return responseBuilder.contentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + multipleRanges.getBoundary()))
+                .body(multipleRanges);
+    }
+    
+    /**
+     * Checks the If-Range precondition, ranges being sent only if the file didn't change since the client's copy.
+     * An entity tag must strongly match the file's entity tag, an HTTP date must match its last modified date.
+     * 
+     * @param storedFile - the opened {@link StoredFile}
+     * @param eTag - the file's entity tag, can be {@code null}
+     * @param request - the current {@link HttpServletRequest}
+     * @return true if there's no If-Range header or the file matches it
+     */
+    private boolean checkIfRange(StoredFile storedFile, String eTag, HttpServletRequest request) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        
+        if (ifRange.startsWith("W/")) {
+            // weak entity tags never match for ranges
+            return false;
+        }
+        
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(eTag);
+        }
+        
+        try {
+            // HTTP dates have a one second resolution
+            return request.getDateHeader(HttpHeaders.IF_RANGE) == storedFile.getLastModified() / 1000 * 1000;
+        } catch (IllegalArgumentException iae) {
+            return false;
+        }
+    }
+    
+    private boolean useSendfile(StoredFile storedFile, long length, HttpServletRequest request) {
+        return sendfileReads && storedFile.getPath() != null && length >= SENDFILE_MIN_SIZE
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR));
+    }
+    
+    /**
+     * Hands a stored file's byte range over to the connector's sendfile support, closing the stored file.
+     * The connector reopens the file by its path once the headers are written.
+     */
+    private void sendfile(StoredFile storedFile, long start, long end, HttpServletRequest request) {
+        request.setAttribute(SENDFILE_FILENAME_ATTR, storedFile.getPath().toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START_ATTR, Long.valueOf(start));
+        request.setAttribute(SENDFILE_END_ATTR, Long.valueOf(end));
+        storedFile.close();
+    }
+    
     @GetMapping("/{fileNameWithExtension}")
-    public ResponseEntity getFile(@PathVariable String fileNameWithExtension, HttpServletRequest request) {
-        return handleFileOperation(FileAccessOperation.READ, fileNameWithExtension, request);
+    public ResponseEntity getFile(@PathVariable String fileNameWithExtension, HttpServletRequest request,
+            HttpServletResponse response) {
+        return handleFileOperation(FileAccessOperation.READ, fileNameWithExtension, request, response);
     }
-
+    
+    @RequestMapping(path = "/{fileNameWithExtension}", method = RequestMethod.HEAD)
+    public ResponseEntity headFile(@PathVariable String fileNameWithExtension, HttpServletRequest request) {
+        return handleFileOperation(FileAccessOperation.READ_METADATA, fileNameWithExtension, request, null);
+    }
+    
     @PutMapping("/{fileNameWithExtension}")
     public ResponseEntity putFile(@PathVariable String fileNameWithExtension, HttpServletRequest request) {
-        return handleFileOperation(FileAccessOperation.CREATE_UPDATE, fileNameWithExtension, request);
+        FileAccessServiceHandler putHandler = fileAccessOpsHandlers.get(FileAccessOperation.CREATE_UPDATE);
+        if (asyncTransfers && putHandler instanceof AsyncUploadServiceHandler) {
+            return startAsyncUpload((AsyncUploadServiceHandler) putHandler, fileNameWithExtension, request);
+        }
+        
+        return handleFileOperation(FileAccessOperation.CREATE_UPDATE, fileNameWithExtension, request, null);
     }
     
     @DeleteMapping("/{fileNameWithExtension}")
     public ResponseEntity deleteFile(@PathVariable String fileNameWithExtension, HttpServletRequest request) {
-        return handleFileOperation(FileAccessOperation.DELETE, fileNameWithExtension, request);
+        return handleFileOperation(FileAccessOperation.DELETE, fileNameWithExtension, request, null);
+    }
+    
+    /**
+     * Stores the files of a tar archive streamed in the request body
+     */
+    @PostMapping(path="/bulk", consumes = TAR_MEDIA_TYPE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity postBulk(HttpServletRequest request) {
+        try {
+            BulkOperationResult bulkOpResult = bulkService.storeArchive(request.getInputStream());
+            if (bulkOpResult.getType() == BulkOperationResult.BAD_REQUEST) {
+                return ResponseEntity.badRequest().body(JSON_MAPPER.writeValueAsString(bulkOpResult));
+            }
+            
+            return buildJSONResponse(bulkOpResult);
+        } catch (IOException e) {
+            logger.error("Error reading the bulk upload request!", e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    /**
+     * Starts deleting the files of a JSON array of names, their unlinking being tracked by a job
+     */
+    @PostMapping(path="/bulk/delete", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity postBulkDelete(@RequestBody List<String> fileNames) {
+        if (fileNames.size() > MAX_BULK_NAMES) {
+            return ResponseEntity.badRequest().body("At most " + MAX_BULK_NAMES + " file names can be deleted at once!");
+        }
+        
+        return buildDeleteJobResponse(bulkService.deleteFiles(fileNames));
+    }
+    
+    /**
+     * Starts deleting the files matching a regular expression, their unlinking being tracked by a job
+     */
+    @PostMapping(path="/bulk/delete/{regex}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity postBulkDeleteMatching(@PathVariable String regex) {
+        try {
+            return buildDeleteJobResponse(bulkService.deleteFiles(compilePattern(regex)));
+        } catch (PatternSyntaxException pse) {
+            logger.debug("Invalid regular expression pattern {}", regex, pse);
+            return ResponseEntity.badRequest().body("Invalid regular expression pattern!");
+        }
+    }
+    
+    @GetMapping(path="/jobs/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity getJob(@PathVariable String jobId) {
+        DeleteJobResult jobResult = bulkService.getDeleteJob(jobId);
+        if (jobResult.getType() == DeleteJobResult.NOT_FOUND) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        return buildJSONResponse(jobResult);
+    }
+    
+    /**
+     * Builds the 202 Accepted response of a started delete job, pointing to the job status resource
+     */
+    private ResponseEntity buildDeleteJobResponse(DeleteJobResult jobResult) {
+        if (jobResult.getType() != DeleteJobResult.CREATED) {
+            return ResponseEntity.internalServerError().build();
+        }
+        
+        try {
+            return ResponseEntity.accepted().location(URI.create("/api/v1/files/jobs/" + jobResult.getJobId()))
+                    .body(JSON_MAPPER.writeValueAsString(jobResult));
+        } catch (JsonProcessingException jspe) {
+            return ResponseEntity.internalServerError().body("Error serializing to JSON!");
+        }
+    }
+    
+    /**
+     * Streams the files matching a regular expression as a tar or zip archive
+     */
+    @GetMapping("/bundle/{regex}")
+    public ResponseEntity<StreamingResponseBody> getBundle(@PathVariable final String regex,
+            @RequestParam(defaultValue = "tar") String format) {
+        final Pattern regexPattern;
+        try {
+            regexPattern = compilePattern(regex);
+        } catch (PatternSyntaxException pse) {
+            logger.debug("Invalid regular expression pattern {}", regex, pse);
+            return buildTextResponse(HttpStatus.BAD_REQUEST, "Invalid regular expression pattern!");
+        }
+        
+        return buildBundleResponse(format, new BundleSource() {
+            public long writeBundle(ArchiveFormat archiveFormat, OutputStream outputStream) throws IOException {
+                return bulkService.writeBundle(regexPattern, archiveFormat, outputStream);
+            }
+        });
+    }
+    
+    /**
+     * Streams the files of a JSON array of names as a tar or zip archive
+     */
+    @PostMapping(path="/bundle", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> postBundle(@RequestBody final List<String> fileNames,
+            @RequestParam(defaultValue = "tar") String format) {
+        if (fileNames.size() > MAX_BULK_NAMES) {
+            return buildTextResponse(HttpStatus.BAD_REQUEST, "At most " + MAX_BULK_NAMES + " file names can be bundled!");
+        }
+        
+        return buildBundleResponse(format, new BundleSource() {
+            public long writeBundle(ArchiveFormat archiveFormat, OutputStream outputStream) throws IOException {
+                return bulkService.writeBundle(fileNames, archiveFormat, outputStream);
+            }
+        });
+    }
+    
+    /**
+     * Writes the files of a bundle request
+     */
+    private interface BundleSource {
+        
+        public long writeBundle(ArchiveFormat archiveFormat, OutputStream outputStream) throws IOException;
+    }
+    
+    /**
+     * Builds the response streaming a bundle archive, written as the files are read.
+     * The archive is sent chunked, its length being unknown until the last file is written
+     */
+    private ResponseEntity<StreamingResponseBody> buildBundleResponse(String format, final BundleSource bundleSource) {
+        final ArchiveFormat archiveFormat;
+        try {
+            archiveFormat = ArchiveFormat.parse(format);
+        } catch (IllegalArgumentException iae) {
+            return buildTextResponse(HttpStatus.BAD_REQUEST, "Invalid archive format, tar or zip expected!");
+        }
+        
+        StreamingResponseBody responseBody = new StreamingResponseBody() {
+            public void writeTo(OutputStream outputStream) throws IOException {
+                try {
+                    long startBundle = System.currentTimeMillis();
+                    long files = bundleSource.writeBundle(archiveFormat, outputStream);
+                    logger.debug("Bundle of {} files took {} seconds", files, (float)(System.currentTimeMillis() - startBundle)/1000);
+                } catch (IOException ioe) {
+                    // most likely the client went away, the bundle stops at the first failed write
+                    logger.debug("Bundle download stopped", ioe);
+                }
+            }
+        };
+        
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(archiveFormat.getMediaType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"bundle." + archiveFormat.getExtension() + "\"")
+                .body(responseBody);
+    }
+    
+    private ResponseEntity<StreamingResponseBody> buildTextResponse(HttpStatus status, final String message) {
+        return ResponseEntity.status(status).contentType(MediaType.TEXT_PLAIN).body(new StreamingResponseBody() {
+            public void writeTo(OutputStream outputStream) throws IOException {
+                outputStream.write(message.getBytes(StandardCharsets.UTF_8));
+            }
+        });
     }
     
     @GetMapping(path="/size", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -151,9 +661,10 @@ public class RestFileStorageController {
     
     @GetMapping(path="/enum/{regex}", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity getEnum(@PathVariable String regex, 
-            @RequestParam(defaultValue = "0") long startIndex, @RequestParam(defaultValue="1000") int pageSize) {
+            @RequestParam(defaultValue = "0") long startIndex, @RequestParam(defaultValue="1000") int pageSize,
+            @RequestParam(required = false) String continuationToken) {
         try {
-            Pattern regexPattern = Pattern.compile(regex);
+            Pattern regexPattern = compilePattern(regex);
             
             if (startIndex < 0) {
                 startIndex = 0;
@@ -163,20 +674,56 @@ public class RestFileStorageController {
                 pageSize = MAX_PAGE_SIZE;
             }
             
-            EnumOperationResult enumOpResult = enumService.enumerate(regexPattern, startIndex, pageSize);
+            EnumOperationResult enumOpResult = enumService.enumerate(regexPattern, startIndex, continuationToken, pageSize);
             
             return buildJSONResponse(enumOpResult);
         } catch (PatternSyntaxException pse) {
             logger.debug("Invalid regular expression pattern {}", regex, pse);
             return ResponseEntity.badRequest().body("Invalid regular expression pattern!");
+        } catch (IllegalArgumentException iae) {
+            logger.debug("Invalid continuation token {}", continuationToken, iae);
+            return ResponseEntity.badRequest().body("Invalid continuation token!");
         }
-
+    
+    }
+    
+    @GetMapping(path="/enum/{regex}/stream", produces = NDJSON_MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> getEnumStream(@PathVariable final String regex) {
+        final Pattern regexPattern;
+        try {
+            regexPattern = compilePattern(regex);
+        } catch (PatternSyntaxException pse) {
+            logger.debug("Invalid regular expression pattern {}", regex, pse);
+            return buildTextResponse(HttpStatus.BAD_REQUEST, "Invalid regular expression pattern!");
+        }
+        
+        // matches are written to the response as the index is scanned, with no page size limit
+        StreamingResponseBody responseBody = new StreamingResponseBody() {
+            public void writeTo(OutputStream outputStream) throws IOException {
+                try {
+                    enumService.streamEnumeration(regexPattern, outputStream);
+                } catch (IOException ioe) {
+                    // most likely the client went away, the scan stops at the first failed write
+                    logger.debug("Streaming enumeration for pattern {} stopped", regex, ioe);
+                }
+            }
+        };
+        
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_MEDIA_TYPE)).body(responseBody);
+    }
+    
+    private Pattern compilePattern(String regex) {
+        Pattern regexPattern = patternCache.get(regex);
+        if (regexPattern == null) {
+            regexPattern = Pattern.compile(regex);
+            patternCache.put(regex, regexPattern);
+        }
+        return regexPattern;
     }
     
     private ResponseEntity buildJSONResponse(Object result) {
         try {
-            ObjectMapper objMapper = new ObjectMapper();
-            return ResponseEntity.ok(objMapper.writeValueAsString(result));
+            return ResponseEntity.ok(JSON_MAPPER.writeValueAsString(result));
         } catch (JsonProcessingException jspe) {
             return ResponseEntity.internalServerError().body("Error serializing to JSON!");
         }
@@ -0,0 +1,84 @@
+package ro.iordache.filestorage.web.converter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.stereotype.Component;
+
+import ro.iordache.filestorage.repository.StoredFile;
+
+/**
+ * Writes a {@link StoredFile} to the response by transferring it from its {@link FileChannel},
+ * instead of copying it through an {@link java.io.InputStream}. The stored file is closed once written.
+ */
+@Component
+public class StoredFileHttpMessageConverter extends AbstractHttpMessageConverter<StoredFile> {
+    
+    public StoredFileHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+    
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return StoredFile.class.isAssignableFrom(clazz);
+    }
+    
+    @Override
+    protected MediaType getDefaultContentType(StoredFile storedFile) {
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+    
+    @Override
+    protected Long getContentLength(StoredFile storedFile, MediaType contentType) {
+        return storedFile.getSize();
+    }
+    
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+    
+    @Override
+    protected StoredFile readInternal(Class<? extends StoredFile> clazz, HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        throw new HttpMessageNotReadableException("Stored files can't be read from requests", inputMessage);
+    }
+    
+    @Override
+    protected void writeInternal(StoredFile storedFile, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        try {
+            FileChannel fileChannel = storedFile.getChannel();
+            WritableByteChannel responseChannel = Channels.newChannel(outputMessage.getBody());
+            
+            ByteBuffer content = storedFile.getContent();
+            if (content != null) {
+                while (content.hasRemaining()) {
+                    responseChannel.write(content);
+                }
+                return;
+            }
+            
+            long position = 0;
+            while (position < storedFile.getSize()) {
+                long transferred = fileChannel.transferTo(position, storedFile.getSize() - position, responseChannel);
+                if (transferred <= 0) {
+                    // file truncated since it was opened
+                    break;
+                }
+                position += transferred;
+            }
+        } finally {
+            storedFile.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ro.iordache.filestorage.web.converter;
+
+import java.nio.charset.StandardCharsets;
+
+import ro.iordache.filestorage.repository.StoredFile;
+
+/**
+ * Byte ranges of an opened stored file, sent as a 206 Partial Content response body.
+ * A single range is sent as is, multiple ranges as the parts of a multipart/byteranges body.
+ */
+public class StoredFileRanges {
+    
+    private StoredFile storedFile;
+    
+    private long[] rangeStarts;
+    
+    private long[] rangeEnds;
+    
+    private String boundary;
+    
+    /**
+     * @param storedFile - the opened {@link StoredFile}
+     * @param rangeStarts - first byte positions of the ranges
+     * @param rangeEnds - last byte positions of the ranges, inclusive
+     * @param boundary - the multipart boundary, {@code null} for a single range
+     */
+    public StoredFileRanges(StoredFile storedFile, long[] rangeStarts, long[] rangeEnds, String boundary) {
+        this.storedFile = storedFile;
+        this.rangeStarts = rangeStarts;
+        this.rangeEnds = rangeEnds;
+        this.boundary = boundary;
+    }
+    
+    public StoredFile getStoredFile() {
+        return this.storedFile;
+    }
+    
+    public int getRangeCount() {
+        return this.rangeStarts.length;
+    }
+    
+    public long getRangeStart(int range) {
+        return this.rangeStarts[range];
+    }
+    
+    public long getRangeLength(int range) {
+        return this.rangeEnds[range] - this.rangeStarts[range] + 1;
+    }
+    
+    public boolean isMultipart() {
+        return this.boundary != null;
+    }
+    
+    public String getBoundary() {
+        return this.boundary;
+    }
+    
+    /**
+     * Gets the Content-Range header value of a range
+     * 
+     * @param range - the range number
+     * @return i.e. "bytes 0-499/1234"
+     */
+    public String getContentRange(int range) {
+        return "bytes " + rangeStarts[range] + "-" + rangeEnds[range] + "/" + storedFile.getSize();
+    }
+    
+    /**
+     * Gets the delimiter and headers preceding a part of the multipart body
+     * 
+     * @param range - the range number
+     * @return the part header bytes
+     */
+    public byte[] getPartHeader(int range) {
+        String partHeader = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: " + getContentRange(range) + "\r\n"
+                + "\r\n";
+        return partHeader.getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Gets the delimiter closing the multipart body
+     * 
+     * @return the closing delimiter bytes
+     */
+    public byte[] getClosingDelimiter() {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    /**
+     * Gets the length of the response body
+     * 
+     * @return the body length in bytes
+     */
+    public long getContentLength() {
+        long contentLength = 0;
+        for (int range = 0 ; range < rangeStarts.length ; range++) {
+            contentLength += getRangeLength(range);
+            if (isMultipart()) {
+                contentLength += getPartHeader(range).length;
+            }
+        }
+        
+        if (isMultipart()) {
+            contentLength += getClosingDelimiter().length;
+        }
+        return contentLength;
+    }
+}
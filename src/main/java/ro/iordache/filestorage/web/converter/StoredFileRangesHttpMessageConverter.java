@@ -0,0 +1,101 @@
+package ro.iordache.filestorage.web.converter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes {@link StoredFileRanges} to the response, reading each range with positional {@link FileChannel} transfers,
+ * or from the contents buffer of cached files.
+ * The stored file is closed once written.
+ */
+@Component
+public class StoredFileRangesHttpMessageConverter extends AbstractHttpMessageConverter<StoredFileRanges> {
+    
+    public StoredFileRangesHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+    
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return StoredFileRanges.class.isAssignableFrom(clazz);
+    }
+    
+    @Override
+    protected MediaType getDefaultContentType(StoredFileRanges ranges) {
+        if (ranges.isMultipart()) {
+            return MediaType.parseMediaType("multipart/byteranges; boundary=" + ranges.getBoundary());
+        }
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+    
+    @Override
+    protected Long getContentLength(StoredFileRanges ranges, MediaType contentType) {
+        return ranges.getContentLength();
+    }
+    
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType) {
+        return false;
+    }
+    
+    @Override
+    protected StoredFileRanges readInternal(Class<? extends StoredFileRanges> clazz, HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        throw new HttpMessageNotReadableException("Stored file ranges can't be read from requests", inputMessage);
+    }
+    
+    @Override
+    protected void writeInternal(StoredFileRanges ranges, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        try {
+            FileChannel fileChannel = ranges.getStoredFile().getChannel();
+            OutputStream responseStream = outputMessage.getBody();
+            WritableByteChannel responseChannel = Channels.newChannel(responseStream);
+            
+            for (int range = 0 ; range < ranges.getRangeCount() ; range++) {
+                if (ranges.isMultipart()) {
+                    responseStream.write(ranges.getPartHeader(range));
+                }
+                
+                long position = ranges.getRangeStart(range);
+                long rangeEnd = position + ranges.getRangeLength(range);
+                
+                ByteBuffer content = ranges.getStoredFile().getContent();
+                if (content != null) {
+                    content.position((int) position);
+                    content.limit((int) rangeEnd);
+                    while (content.hasRemaining()) {
+                        responseChannel.write(content);
+                    }
+                    continue;
+                }
+                
+                while (position < rangeEnd) {
+                    long transferred = fileChannel.transferTo(position, rangeEnd - position, responseChannel);
+                    if (transferred <= 0) {
+                        throw new IOException("File truncated while sending range " + ranges.getContentRange(range));
+                    }
+                    position += transferred;
+                }
+            }
+            
+            if (ranges.isMultipart()) {
+                responseStream.write(ranges.getClosingDelimiter());
+            }
+        } finally {
+            ranges.getStoredFile().close();
+        }
+    }
+}
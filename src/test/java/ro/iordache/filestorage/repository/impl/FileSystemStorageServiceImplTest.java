@@ -3,15 +3,24 @@ package ro.iordache.filestorage.repository.impl;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.RandomStringUtils;
@@ -20,12 +29,24 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
 
+import ro.iordache.filestorage.repository.DeleteJob;
+import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StagedUpload;
+import ro.iordache.filestorage.repository.StoredFile;
+import ro.iordache.filestorage.repository.StoredFileInfo;
 import ro.iordache.filestorage.repository.impl.index.StorageIndex;
+import ro.iordache.filestorage.repository.impl.tombstone.TombstoneTable;
 import ro.iordache.filestorage.repository.util.FileSystemStorageHelperImpl;
 
 @RunWith(SpringRunner.class)
@@ -185,6 +206,286 @@ public class FileSystemStorageServiceImplTest {
                 verifyEnumDisjointedWithDelay(5, 100, originalEmptyFiles));
     }
     
+    @Test
+    public void testGetFileInfo() throws Exception {
+        String fileName = System.nanoTime() + ".file";
+        Assert.assertNull("Missing file should have no metadata!", fileStorageService.getFileInfo(fileName));
+        Assert.assertEquals("Missing file should have no last modified date!", -1, fileStorageService.getFileLastModified(fileName));
+        
+        byte[] fileContents = RandomStringUtils.randomAlphabetic(1500).getBytes(StandardCharsets.UTF_8);
+        fileStorageService.storeFile(fileName, new ByteArrayInputStream(fileContents));
+        createdFileList.add(fileName);
+        
+        StoredFileInfo fileInfo = fileStorageService.getFileInfo(fileName);
+        Assert.assertNotNull("Stored file should have metadata!", fileInfo);
+        Assert.assertEquals("Invalid file size!", fileContents.length, fileInfo.getSize());
+        Assert.assertEquals("Invalid file last modified date!", 
+                Files.getLastModifiedTime(storageHelper.getStorageFile(fileName)).toMillis(), fileInfo.getLastModified());
+        
+        // the entity tag is the digest of the contents, computed while storing the file
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(fileContents);
+        Assert.assertEquals("Invalid file entity tag!", String.format("\"%064x\"", new BigInteger(1, digest)), fileInfo.getETag());
+    }
+    
+    @Test
+    public void testCompressedStorage() throws Exception {
+        ReflectionTestUtils.setField(fileStorageService, "compressedStorage", true);
+        fileStorageService.init();
+        try {
+            String fileName = System.nanoTime() + ".csv";
+            StringBuilder csvLines = new StringBuilder();
+            for (int i = 0 ; i < 1000 ; i++) {
+                csvLines.append(i).append(",name").append(i).append(",value").append(i % 10).append('\n');
+            }
+            byte[] fileContents = csvLines.toString().getBytes(StandardCharsets.UTF_8);
+            fileStorageService.storeFile(fileName, new ByteArrayInputStream(fileContents));
+            createdFileList.add(fileName);
+            
+            StoredFileInfo fileInfo = fileStorageService.getFileInfo(fileName);
+            Assert.assertEquals("File should be stored compressed!", "gzip", fileInfo.getContentEncoding());
+            Assert.assertEquals("Invalid file size!", fileContents.length, fileInfo.getSize());
+            Assert.assertTrue("Stored file should be smaller!", fileInfo.getStoredSize() < fileContents.length);
+            
+            InputStream fileIS = fileStorageService.getFileContent(fileName);
+            try {
+                Assert.assertArrayEquals("Invalid decoded file contents!", fileContents, StreamUtils.copyToByteArray(fileIS));
+            } finally {
+                fileIS.close();
+            }
+            
+            StoredFile storedFile = fileStorageService.openStoredFile(fileName);
+            try {
+                Assert.assertEquals("Opened file should be compressed!", "gzip", storedFile.getContentEncoding());
+                Assert.assertEquals("Invalid opened file size!", fileInfo.getStoredSize(), storedFile.getSize());
+            } finally {
+                storedFile.close();
+            }
+        } finally {
+            ReflectionTestUtils.setField(fileStorageService, "compressedStorage", false);
+            ReflectionTestUtils.setField(fileStorageService, "contentCompression", null);
+        }
+    }
+    
+    @Test
+    public void testAsyncStoreRetrieve() throws Exception {
+        ReflectionTestUtils.setField(fileStorageService, "asyncIo", true);
+        fileStorageService.init();
+        try {
+            String fileName = System.nanoTime() + ".file";
+            byte[] fileContents = RandomStringUtils.randomAlphabetic(300 * 1024).getBytes(StandardCharsets.UTF_8);
+            
+            // staged in two consecutive writes, as a request body arrives
+            StagedUpload stagedUpload = fileStorageService.stageUpload(fileName);
+            int half = fileContents.length / 2;
+            writeStaged(stagedUpload, ByteBuffer.wrap(fileContents, 0, half));
+            writeStaged(stagedUpload, ByteBuffer.wrap(fileContents, half, fileContents.length - half));
+            Assert.assertEquals("Invalid staged size!", fileContents.length, stagedUpload.getPosition());
+            Assert.assertNull("Staged file should not be visible!", fileStorageService.getFileInfo(fileName));
+            
+            Assert.assertTrue("Staged file should be stored as new!", fileStorageService.commitUpload(stagedUpload));
+            createdFileList.add(fileName);
+            Assert.assertFalse("Staged file should be moved in place!", Files.exists(stagedUpload.getTmpFile()));
+            
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(fileContents);
+            Assert.assertEquals("Invalid file entity tag!", String.format("\"%064x\"", new BigInteger(1, digest)),
+                    fileStorageService.getFileInfo(fileName).getETag());
+            
+            StoredFile storedFile = fileStorageService.openAsyncStoredFile(fileName);
+            try {
+                Assert.assertNotNull("File should be opened asynchronously!", storedFile.getAsyncChannel());
+                Assert.assertEquals("Invalid opened file size!", fileContents.length, storedFile.getSize());
+                ByteBuffer readContents = ByteBuffer.allocate(fileContents.length);
+                while (readContents.hasRemaining()) {
+                    storedFile.getAsyncChannel().read(readContents, readContents.position()).get(5, TimeUnit.SECONDS);
+                }
+                Assert.assertArrayEquals("Invalid file contents!", fileContents, readContents.array());
+            } finally {
+                storedFile.close();
+            }
+            
+            // an aborted upload leaves nothing behind
+            StagedUpload abortedUpload = fileStorageService.stageUpload(fileName);
+            writeStaged(abortedUpload, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+            fileStorageService.abortUpload(abortedUpload);
+            Assert.assertFalse("Aborted upload should be dropped!", Files.exists(abortedUpload.getTmpFile()));
+            Assert.assertEquals("Aborted upload should not change the file!", fileContents.length,
+                    fileStorageService.getFileInfo(fileName).getSize());
+        } finally {
+            ExecutorService asyncIoExecutor = (ExecutorService) ReflectionTestUtils.getField(fileStorageService, "asyncIoExecutor");
+            asyncIoExecutor.shutdown();
+            ReflectionTestUtils.setField(fileStorageService, "asyncIoExecutor", null);
+            ReflectionTestUtils.setField(fileStorageService, "asyncIo", false);
+        }
+    }
+    
+    private void writeStaged(StagedUpload stagedUpload, ByteBuffer contents) throws InterruptedException {
+        final CountDownLatch writeLatch = new CountDownLatch(1);
+        final Throwable[] writeError = new Throwable[1];
+        stagedUpload.write(contents, null, new CompletionHandler<Integer, Void>() {
+            public void completed(Integer written, Void attachment) {
+                writeLatch.countDown();
+            }
+            
+            public void failed(Throwable exc, Void attachment) {
+                writeError[0] = exc;
+                writeLatch.countDown();
+            }
+        });
+        Assert.assertTrue("Staged write should complete!", writeLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertNull("Staged write should not fail!", writeError[0]);
+    }
+    
+    @Test
+    public void testBulkStore() throws Exception {
+        long currentSize = fileStorageService.getSize();
+        String bulkPrefix = "bulk" + System.nanoTime();
+        String deletedFile = bulkPrefix + "_1.file";
+        
+        FileSystemStorageService.BulkStore bulkStore = fileStorageService.startBulkStore();
+        try {
+            for (int i = 0 ; i < FILES_COUNT ; i++) {
+                String fileName = bulkPrefix + "_" + i + ".file";
+                byte[] fileContents = RandomStringUtils.randomAlphabetic(100).getBytes(StandardCharsets.UTF_8);
+                Assert.assertTrue("Bulk stored file should be new!", 
+                        bulkStore.storeFile(fileName, new ByteArrayInputStream(fileContents), fileContents.length));
+                createdFileList.add(fileName);
+            }
+            
+            // deleted before reaching the index
+            fileStorageService.deleteFile(deletedFile);
+        } finally {
+            bulkStore.close();
+        }
+        
+        Assert.assertEquals("Invalid repository size after bulk store!", currentSize + FILES_COUNT - 1, fileStorageService.getSize());
+        Mockito.verify(storageIndex, Mockito.never()).addToIndex(ArgumentMatchers.startsWith(bulkPrefix));
+        Mockito.verify(storageIndex).addToIndex(ArgumentMatchers.<String>anyCollection());
+        
+        // the index file is updated asynchronously
+        List<String> enumResult = null;
+        for (int i = 0 ; i < 5 ; i++) {
+            enumResult = fileStorageService.enumerate(Pattern.compile(bulkPrefix + ".*"), 0, 1000);
+            if (enumResult.size() == FILES_COUNT - 1) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        Assert.assertEquals("New files should be indexed!", FILES_COUNT - 1, enumResult.size());
+        Assert.assertFalse("Deleted file should not be indexed!", enumResult.contains(deletedFile));
+    }
+    
+    @Test
+    public void testDeleteFiles() throws Exception {
+        List<String> fileNames = new ArrayList<String>();
+        for (int i = 0 ; i < FILES_COUNT ; i++) {
+            String fileName = "bulk_delete" + System.nanoTime() + ".file";
+            fileStorageService.storeFile(fileName, new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)));
+            fileNames.add(fileName);
+            createdFileList.add(fileName);
+        }
+        long currentSize = fileStorageService.getSize();
+        
+        List<String> deletedFiles = new ArrayList<String>(fileNames.subList(0, FILES_COUNT / 2));
+        deletedFiles.add("missing" + System.nanoTime() + ".file");
+        DeleteJob job = fileStorageService.deleteFiles(deletedFiles);
+        
+        // gone for readers right away, missing files not being counted
+        Assert.assertEquals("Invalid number of deleted files!", FILES_COUNT / 2, job.getDeletedFiles());
+        Assert.assertEquals("Invalid repository size after bulk delete!", currentSize - FILES_COUNT / 2, fileStorageService.getSize());
+        Assert.assertNull("Deleted file should have no metadata!", fileStorageService.getFileInfo(fileNames.get(0)));
+        Assert.assertNull("Deleted file should not be readable!", fileStorageService.getFileContent(fileNames.get(0)));
+        Assert.assertFalse("Deleted file can't be deleted again!", fileStorageService.deleteFile(fileNames.get(0)));
+        Assert.assertSame("Job should be found by its id!", job, fileStorageService.getDeleteJob(job.getId()));
+        
+        waitForJob(job);
+        Assert.assertEquals("Invalid number of unlinked files!", FILES_COUNT / 2, job.getUnlinkedFiles());
+        for (int i = 0 ; i < FILES_COUNT ; i++) {
+            Assert.assertEquals("Only the deleted files should be unlinked!", i >= FILES_COUNT / 2, 
+                    Files.exists(storageHelper.getStorageFile(fileNames.get(i))));
+        }
+        Assert.assertFalse("Tombstones file should be dropped once the job completes!", Files.exists(
+                storageHelper.getTempStoragePath().resolve(job.getId() + TombstoneTable.TOMBSTONES_FILE_SUFFIX)));
+        Assert.assertTrue("Enumeration still contains removed files after 5 invocations!", 
+                verifyEnumDisjointedWithDelay(5, 100, deletedFiles));
+    }
+    
+    @Test
+    public void testDeleteFilesStoredAgain() throws Exception {
+        String fileName = "stored_again" + System.nanoTime() + ".file";
+        fileStorageService.storeFile(fileName, new ByteArrayInputStream("old".getBytes(StandardCharsets.UTF_8)));
+        createdFileList.add(fileName);
+        long currentSize = fileStorageService.getSize();
+        
+        // hold the unlinking until the file is stored again
+        ExecutorService unlinkExecutor = (ExecutorService) ReflectionTestUtils.getField(fileStorageService, "unlinkExecutor");
+        ExecutorService heldExecutor = Executors.newSingleThreadExecutor();
+        final CountDownLatch unlinkLatch = new CountDownLatch(1);
+        heldExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    unlinkLatch.await();
+                } catch (InterruptedException e) {}
+            }
+        });
+        ReflectionTestUtils.setField(fileStorageService, "unlinkExecutor", heldExecutor);
+        try {
+            DeleteJob job = fileStorageService.deleteFiles(Pattern.compile(Pattern.quote(fileName)));
+            Assert.assertEquals("Invalid number of deleted files!", 1, job.getDeletedFiles());
+            
+            Assert.assertTrue("Deleted file should be stored as new!", 
+                    fileStorageService.storeFile(fileName, new ByteArrayInputStream("new".getBytes(StandardCharsets.UTF_8))));
+            Assert.assertEquals("Invalid repository size!", currentSize, fileStorageService.getSize());
+            
+            unlinkLatch.countDown();
+            waitForJob(job);
+            Assert.assertEquals("Replaced file should not be unlinked!", 0, job.getUnlinkedFiles());
+            Assert.assertEquals("Invalid file contents!", "new", 
+                    StreamUtils.copyToString(fileStorageService.getFileContent(fileName), StandardCharsets.UTF_8));
+        } finally {
+            ReflectionTestUtils.setField(fileStorageService, "unlinkExecutor", unlinkExecutor);
+            heldExecutor.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDeleteFilesReleasedOnceUnlinked() throws Exception {
+        final String fileName = "unlink_release" + System.nanoTime() + ".file";
+        fileStorageService.storeFile(fileName, new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8)));
+        createdFileList.add(fileName);
+        
+        // reads not taking the file lock see the file again as soon as its tombstone is released
+        final AtomicBoolean releasedBeforeUnlink = new AtomicBoolean();
+        final AtomicBoolean visibleOnRelease = new AtomicBoolean();
+        TombstoneTable tombstones = (TombstoneTable) ReflectionTestUtils.getField(fileStorageService, "tombstones");
+        TombstoneTable spyTombstones = Mockito.spy(tombstones);
+        Mockito.doAnswer(new Answer<Boolean>() {
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                releasedBeforeUnlink.set(Files.exists(storageHelper.getStorageFile(fileName)));
+                Boolean released = (Boolean) invocation.callRealMethod();
+                visibleOnRelease.set(fileStorageService.getFileInfo(fileName) != null);
+                return released;
+            }
+        }).when(spyTombstones).release(ArgumentMatchers.eq(fileName), ArgumentMatchers.any(DeleteJob.class));
+        ReflectionTestUtils.setField(fileStorageService, "tombstones", spyTombstones);
+        try {
+            DeleteJob job = fileStorageService.deleteFiles(Collections.singletonList(fileName));
+            waitForJob(job);
+            
+            Mockito.verify(spyTombstones).release(ArgumentMatchers.eq(fileName), ArgumentMatchers.any(DeleteJob.class));
+            Assert.assertFalse("Tombstone should only be released once the file is unlinked!", releasedBeforeUnlink.get());
+            Assert.assertFalse("Deleted file should never be visible again!", visibleOnRelease.get());
+        } finally {
+            ReflectionTestUtils.setField(fileStorageService, "tombstones", tombstones);
+        }
+    }
+    
+    private void waitForJob(DeleteJob job) throws InterruptedException {
+        for (int i = 0 ; i < 50 && job.getStatus() != DeleteJob.Status.COMPLETED ; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("Delete job should be completed!", DeleteJob.Status.COMPLETED, job.getStatus());
+    }
+    
     private boolean verifyEnumDisjointedWithDelay(int maxInvocations, long delayBetweenCalls, List<String> listFiles) {
         List<String> enumResult;
         int invocationCount = 0;
@@ -0,0 +1,143 @@
+package ro.iordache.filestorage.repository.impl.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link FileContentCache} class
+ */
+public class FileContentCacheTest {
+    
+    private static CachedFileContent content(int size) {
+        return new CachedFileContent(ByteBuffer.allocateDirect(size), 0);
+    }
+    
+    /**
+     * Loader caching contents of a fixed size, counting its calls
+     */
+    private static class CountingLoader implements FileContentCache.ContentLoader {
+        
+        private FileContentCache cache;
+        
+        private int size;
+        
+        private AtomicInteger loads = new AtomicInteger();
+        
+        CountingLoader(FileContentCache cache, int size) {
+            this.cache = cache;
+            this.size = size;
+        }
+        
+        public CachedFileContent load(String fileName) throws IOException {
+            loads.incrementAndGet();
+            CachedFileContent loaded = content(size);
+            cache.put(fileName, loaded);
+            return loaded;
+        }
+    }
+    
+    @Test
+    public void testMemoryBudget() throws IOException {
+        FileContentCache cache = new FileContentCache(1000, 500);
+        CountingLoader loader = new CountingLoader(cache, 300);
+        
+        for (int i = 0 ; i < 10 ; i++) {
+            cache.get("file" + i, loader);
+            Assert.assertTrue("Memory budget exceeded!", cache.getUsedBytes() <= 1000);
+        }
+        Assert.assertEquals("Invalid cached size!", 900, cache.getUsedBytes());
+        
+        Assert.assertFalse("Files over the threshold should not be cacheable!", cache.isCacheable(501));
+        cache.put("large", content(501));
+        Assert.assertEquals("Large file should not be cached!", 900, cache.getUsedBytes());
+    }
+    
+    @Test
+    public void testFrequencyAwareEviction() throws IOException {
+        FileContentCache cache = new FileContentCache(1000, 500);
+        CountingLoader loader = new CountingLoader(cache, 250);
+        
+        // hot file, read several times
+        for (int i = 0 ; i < 4 ; i++) {
+            cache.get("hot", loader);
+        }
+        
+        // a scan of files read once, with the hot file still read every few files. The cache holds 4 files,
+        // so evicting in insertion order would drop the hot file at every 4th cold file
+        for (int i = 0 ; i < 20 ; i++) {
+            cache.get("cold" + i, loader);
+            
+            if (i % 3 == 2) {
+                int loads = loader.loads.get();
+                cache.get("hot", loader);
+                Assert.assertEquals("Hot file should survive a scan of files read once!", loads, loader.loads.get());
+            }
+        }
+    }
+    
+    @Test
+    public void testInvalidate() throws IOException {
+        FileContentCache cache = new FileContentCache(1000, 500);
+        CountingLoader loader = new CountingLoader(cache, 100);
+        
+        CachedFileContent first = cache.get("file", loader);
+        Assert.assertSame("Cached contents should be served!", first, cache.get("file", loader));
+        
+        cache.invalidate("file");
+        Assert.assertEquals("Invalidated contents should be released!", 0, cache.getUsedBytes());
+        Assert.assertNotSame("Invalidated contents should be loaded again!", first, cache.get("file", loader));
+        Assert.assertEquals("Invalid number of loads!", 2, loader.loads.get());
+    }
+    
+    @Test
+    public void testSingleLoadPerMiss() throws Exception {
+        final FileContentCache cache = new FileContentCache(1000, 500);
+        final CountDownLatch loadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLoad = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        
+        final FileContentCache.ContentLoader slowLoader = new FileContentCache.ContentLoader() {
+            public CachedFileContent load(String fileName) throws IOException {
+                loads.incrementAndGet();
+                loadStarted.countDown();
+                try {
+                    releaseLoad.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return content(10);
+            }
+        };
+        
+        Thread[] readers = new Thread[4];
+        final CachedFileContent[] results = new CachedFileContent[readers.length];
+        for (int i = 0 ; i < readers.length ; i++) {
+            final int reader = i;
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[reader] = cache.get("file", slowLoader);
+                    } catch (IOException e) {}
+                }
+            };
+            readers[i].start();
+        }
+        
+        loadStarted.await();
+        Thread.sleep(100);
+        releaseLoad.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        
+        Assert.assertEquals("Concurrent misses should share a single load!", 1, loads.get());
+        for (CachedFileContent result : results) {
+            Assert.assertSame("All readers should get the loaded contents!", results[0], result);
+        }
+    }
+}
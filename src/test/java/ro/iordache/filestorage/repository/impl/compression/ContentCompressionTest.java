@@ -0,0 +1,100 @@
+package ro.iordache.filestorage.repository.impl.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Tests the {@link ContentCompression} class
+ */
+public class ContentCompressionTest {
+    
+    private Path file;
+    
+    private ContentCompression compression;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("compression", ".tmp");
+        compression = new ContentCompression(1024);
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(file);
+    }
+    
+    @Test
+    public void testCompressText() throws IOException {
+        StringBuilder logLines = new StringBuilder();
+        for (int i = 0 ; i < 2000 ; i++) {
+            logLines.append("2024-06-01 12:00:").append(i % 60).append(" INFO request ").append(i).append(" served\n");
+        }
+        byte[] contents = logLines.toString().getBytes(StandardCharsets.UTF_8);
+        
+        long contentSize = compression.copy(new ByteArrayInputStream(contents), file);
+        Assert.assertEquals("Text contents should be compressed!", contents.length, contentSize);
+        Assert.assertTrue("Compressed file should be smaller!", Files.size(file) < contents.length / 4);
+        
+        InputStream decodedContents = ContentCompression.decode(Files.newInputStream(file), ContentCompression.GZIP_ENCODING);
+        try {
+            Assert.assertArrayEquals("Invalid decoded contents!", contents, StreamUtils.copyToByteArray(decodedContents));
+        } finally {
+            decodedContents.close();
+        }
+    }
+    
+    @Test
+    public void testCompressStagedFile() throws IOException {
+        StringBuilder jsonLines = new StringBuilder();
+        for (int i = 0 ; i < 1000 ; i++) {
+            jsonLines.append("{\"id\":").append(i).append(",\"status\":\"ok\"}\n");
+        }
+        byte[] contents = jsonLines.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(file, contents);
+        
+        Assert.assertEquals("Staged text should be compressed!", contents.length, compression.compress(file));
+        Assert.assertTrue("Compressed file should be smaller!", Files.size(file) < contents.length / 4);
+        Assert.assertFalse("Compressed copy should replace the staged file!", Files.exists(file.resolveSibling(file.getFileName() + ".gz")));
+        
+        InputStream decodedContents = ContentCompression.decode(Files.newInputStream(file), ContentCompression.GZIP_ENCODING);
+        try {
+            Assert.assertArrayEquals("Invalid decoded contents!", contents, StreamUtils.copyToByteArray(decodedContents));
+        } finally {
+            decodedContents.close();
+        }
+        
+        byte[] binary = new byte[8 * 1024];
+        new Random(17).nextBytes(binary);
+        Files.write(file, binary);
+        Assert.assertEquals("Staged binary contents should not be compressed!", -1, compression.compress(file));
+        Assert.assertArrayEquals("Invalid staged contents!", binary, Files.readAllBytes(file));
+    }
+    
+    @Test
+    public void testStoreBinaryAsIs() throws IOException {
+        byte[] contents = new byte[64 * 1024];
+        new Random(17).nextBytes(contents);
+        
+        Assert.assertEquals("Binary contents should not be compressed!", -1, compression.copy(new ByteArrayInputStream(contents), file));
+        Assert.assertArrayEquals("Invalid stored contents!", contents, Files.readAllBytes(file));
+    }
+    
+    @Test
+    public void testStoreSmallAsIs() throws IOException {
+        byte[] contents = "small text file".getBytes(StandardCharsets.UTF_8);
+        
+        Assert.assertEquals("Small contents should not be compressed!", -1, compression.copy(new ByteArrayInputStream(contents), file));
+        Assert.assertArrayEquals("Invalid stored contents!", contents, Files.readAllBytes(file));
+    }
+}
@@ -0,0 +1,124 @@
+package ro.iordache.filestorage.repository.impl.dedup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Tests the {@link ContentBlobStore} class
+ */
+public class ContentBlobStoreTest {
+    
+    private static final String DIGEST = "3fa2c0ffee";
+    
+    private Path rootFolder;
+    
+    private ContentBlobStore blobStore;
+    
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue("File link counts not supported", ContentBlobStore.isSupported());
+        
+        rootFolder = Files.createTempDirectory("blobs");
+        blobStore = new ContentBlobStore(rootFolder.resolve("blobs"));
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        if (blobStore != null) {
+            blobStore.close();
+        }
+        if (rootFolder != null) {
+            FileSystemUtils.deleteRecursively(rootFolder);
+        }
+    }
+    
+    @Test
+    public void testLinkSameContents() throws IOException {
+        Path firstFile = rootFolder.resolve("first.txt");
+        Path secondFile = rootFolder.resolve("second.txt");
+        
+        blobStore.link(createContentsFile("contents"), DIGEST, firstFile);
+        blobStore.link(createContentsFile("contents"), DIGEST, secondFile);
+        
+        Path blob = blobStore.getBlobPath(DIGEST);
+        Assert.assertTrue("Both files should link to the same blob!", Files.isSameFile(firstFile, blob) && Files.isSameFile(secondFile, blob));
+        Assert.assertEquals("Invalid blob reference count!", 2, blobStore.getReferenceCount(blob));
+        Assert.assertEquals("Invalid linked file contents!", "contents", new String(Files.readAllBytes(secondFile), StandardCharsets.UTF_8));
+        Assert.assertEquals("Duplicate contents file should be consumed!", 3, countFiles(rootFolder));
+    }
+    
+    @Test
+    public void testCollectGarbage() throws IOException {
+        Path firstFile = rootFolder.resolve("first.txt");
+        Path secondFile = rootFolder.resolve("second.txt");
+        blobStore.link(createContentsFile("contents"), DIGEST, firstFile);
+        blobStore.link(createContentsFile("contents"), DIGEST, secondFile);
+        
+        Files.delete(firstFile);
+        Assert.assertEquals("Referenced blob should not be collected!", 0, blobStore.collectGarbage());
+        Assert.assertEquals("Invalid remaining file contents!", "contents", new String(Files.readAllBytes(secondFile), StandardCharsets.UTF_8));
+        
+        Files.delete(secondFile);
+        Assert.assertEquals("Unreferenced blob should be collected!", 1, blobStore.collectGarbage());
+        Assert.assertFalse("Unreferenced blob should be deleted!", Files.exists(blobStore.getBlobPath(DIGEST)));
+    }
+    
+    @Test
+    public void testLastModifiedPerFile() throws IOException {
+        Path firstFile = rootFolder.resolve("first.txt");
+        Path secondFile = rootFolder.resolve("second.txt");
+        blobStore.link(createContentsFile("contents"), DIGEST, firstFile);
+        blobStore.setLastModified("first.txt", readAttributes(firstFile), 1000000L);
+        blobStore.link(createContentsFile("contents"), DIGEST, secondFile);
+        blobStore.setLastModified("second.txt", readAttributes(secondFile), 2000000L);
+        
+        Assert.assertEquals("Linking the same contents should not change the first file's date!", 1000000L,
+                blobStore.getLastModified("first.txt", readAttributes(firstFile)));
+        Assert.assertEquals("Invalid second file date!", 2000000L, blobStore.getLastModified("second.txt", readAttributes(secondFile)));
+        
+        // the dates are logged and replayed
+        blobStore.removeLastModified("second.txt");
+        blobStore.close();
+        blobStore = new ContentBlobStore(rootFolder.resolve("blobs"));
+        Assert.assertEquals("First file date should be replayed!", 1000000L, blobStore.getLastModified("first.txt", readAttributes(firstFile)));
+        Assert.assertEquals("Removed date should fall back to the blob's date!", Files.getLastModifiedTime(secondFile).toMillis(),
+                blobStore.getLastModified("second.txt", readAttributes(secondFile)));
+        
+        // a file replaced without linking it uses its own date
+        Files.delete(firstFile);
+        Files.write(firstFile, "other contents".getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals("Replaced file should use its own date!", Files.getLastModifiedTime(firstFile).toMillis(),
+                blobStore.getLastModified("first.txt", readAttributes(firstFile)));
+        
+        // the dates log is not a blob
+        Assert.assertEquals("No blob should be collected!", 0, blobStore.collectGarbage());
+        Assert.assertTrue("Dates log should be kept!", Files.exists(rootFolder.resolve("blobs").resolve(ContentBlobStore.LINK_TIMES_FILE_NAME)));
+    }
+    
+    private BasicFileAttributes readAttributes(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+    
+    private Path createContentsFile(String contents) throws IOException {
+        return Files.write(Files.createTempFile(rootFolder, null, ".tmp"), contents.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private long countFiles(Path folder) throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            // the blobs and the linked files, not the dates log
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().equals(ContentBlobStore.LINK_TIMES_FILE_NAME)).count();
+        }
+    }
+}
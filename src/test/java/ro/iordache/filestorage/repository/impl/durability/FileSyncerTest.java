@@ -0,0 +1,175 @@
+package ro.iordache.filestorage.repository.impl.durability;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link FileSyncer} class
+ */
+public class FileSyncerTest {
+    
+    private Path rootFolder;
+    
+    @Before
+    public void setUp() throws IOException {
+        rootFolder = Files.createTempDirectory("durability");
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        Files.walkFileTree(rootFolder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    @Test
+    public void testParseMode() {
+        Assert.assertEquals("Invalid mode!", DurabilityMode.GROUP, DurabilityMode.parse(" group "));
+        Assert.assertEquals("Invalid mode!", DurabilityMode.FSYNC, DurabilityMode.parse("FSYNC"));
+    }
+    
+    @Test
+    public void testNoneModeSyncsNothing() throws IOException {
+        FileSyncer fileSyncer = new FileSyncer(DurabilityMode.NONE, 2, 64);
+        
+        // missing files would fail any fsync
+        Path missing = rootFolder.resolve("missing");
+        fileSyncer.syncFile(missing);
+        fileSyncer.syncFolders(Collections.singleton(missing));
+    }
+    
+    @Test
+    public void testFsyncMode() throws IOException {
+        FileSyncer fileSyncer = new FileSyncer(DurabilityMode.FSYNC, 2, 64);
+        
+        Path file = Files.write(rootFolder.resolve("file.txt"), "contents".getBytes());
+        fileSyncer.syncFile(file);
+        fileSyncer.syncFolders(Collections.singleton(rootFolder));
+        
+        try {
+            fileSyncer.syncFolders(Collections.singleton(rootFolder.resolve("missing")));
+            Assert.fail("Missing folders can't be fsynced!");
+        } catch (IOException e) {}
+    }
+    
+    @Test
+    public void testGroupCommit() throws Exception {
+        final FileSyncer fileSyncer = new FileSyncer(DurabilityMode.GROUP, 20, 4);
+        ExecutorService requestsExecutor = Executors.newFixedThreadPool(10);
+        try {
+            final Path otherFolder = Files.createDirectory(rootFolder.resolve("other"));
+            
+            List<Future<Void>> requests = new ArrayList<Future<Void>>();
+            for (int i = 0 ; i < 10 ; i++) {
+                final Path folder = i % 2 == 0 ? rootFolder : otherFolder;
+                requests.add(requestsExecutor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        fileSyncer.syncFolders(Arrays.asList(folder));
+                        return null;
+                    }
+                }));
+            }
+            
+            // every request is released once its batch is committed
+            for (Future<Void> request : requests) {
+                request.get();
+            }
+            
+            // a failed batch fails its requests, later batches still being committed
+            try {
+                fileSyncer.syncFolders(Arrays.asList(rootFolder.resolve("missing")));
+                Assert.fail("Missing folders can't be fsynced!");
+            } catch (IOException e) {}
+            fileSyncer.syncFolders(Arrays.asList(rootFolder));
+        } finally {
+            requestsExecutor.shutdownNow();
+            fileSyncer.close();
+        }
+    }
+    
+    @Test(timeout = 30000)
+    public void testInterruptCommitsCollectedBatch() throws Exception {
+        LinkedBlockingQueue<GroupCommitThread.SyncRequest> queue = new LinkedBlockingQueue<GroupCommitThread.SyncRequest>();
+        GroupCommitThread groupCommitThread = new GroupCommitThread(queue, 60000, 64);
+        try {
+            // a batch of concurrent requests makes the next batch wait for joining requests
+            GroupCommitThread.SyncRequest first = new GroupCommitThread.SyncRequest(Collections.singleton(rootFolder));
+            GroupCommitThread.SyncRequest second = new GroupCommitThread.SyncRequest(Collections.singleton(rootFolder));
+            queue.add(first);
+            queue.add(second);
+            groupCommitThread.start();
+            first.await();
+            second.await();
+            
+            GroupCommitThread.SyncRequest collected = new GroupCommitThread.SyncRequest(Collections.singleton(rootFolder));
+            queue.add(collected);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!queue.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            
+            // the request taken from the queue is committed, not left waiting
+            groupCommitThread.interrupt();
+            groupCommitThread.join(10000);
+            Assert.assertFalse("Group commit thread should stop once interrupted!", groupCommitThread.isAlive());
+            collected.await();
+        } finally {
+            groupCommitThread.interrupt();
+        }
+    }
+    
+    @Test
+    public void testClosedSyncerRejectsRequests() throws Exception {
+        final FileSyncer fileSyncer = new FileSyncer(DurabilityMode.GROUP, 2, 64);
+        fileSyncer.close();
+        
+        ExecutorService requestsExecutor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Void> request = requestsExecutor.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    fileSyncer.syncFolders(Arrays.asList(rootFolder));
+                    return null;
+                }
+            });
+            
+            try {
+                request.get(10, TimeUnit.SECONDS);
+                Assert.fail("Requests after close should be rejected!");
+            } catch (ExecutionException e) {
+                Assert.assertTrue("Invalid rejection error!", e.getCause() instanceof IOException);
+            }
+        } finally {
+            requestsExecutor.shutdownNow();
+        }
+    }
+}
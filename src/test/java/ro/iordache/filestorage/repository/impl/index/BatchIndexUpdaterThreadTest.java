@@ -0,0 +1,98 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link BatchIndexUpdaterThread} class
+ */
+public class BatchIndexUpdaterThreadTest {
+    
+    @Test
+    public void testRemoveAppliedAfterAdd() throws Exception {
+        Path indexFile = Files.createTempFile("storage", ".index");
+        BlockingQueue<BatchIndexUpdaterThread.IndexUpdate> queue = new LinkedBlockingQueue<BatchIndexUpdaterThread.IndexUpdate>();
+        AtomicLong pendingUpdates = new AtomicLong();
+        BatchIndexUpdaterThread updaterThread = new BatchIndexUpdaterThread(queue, indexFile.toString(),
+                new IndexSlotAllocator(), new IndexSlotTable(), pendingUpdates, new AtomicBoolean());
+        try {
+            // the remove is queued before the updater thread applied the add of the same file
+            queue.add(new BatchIndexUpdaterThread.IndexUpdate(IndexJournal.OP_ADD, "deleted.txt"));
+            queue.add(new BatchIndexUpdaterThread.IndexUpdate(IndexJournal.OP_REMOVE, "deleted.txt"));
+            queue.add(new BatchIndexUpdaterThread.IndexUpdate(IndexJournal.OP_ADD, "kept.txt"));
+            queue.add(new BatchIndexUpdaterThread.IndexUpdate(IndexJournal.OP_ADD, "kept.txt"));
+            pendingUpdates.addAndGet(queue.size());
+            updaterThread.start();
+            
+            long deadline = System.currentTimeMillis() + 10000;
+            while (pendingUpdates.get() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals("Updates should all be applied!", 0, pendingUpdates.get());
+            
+            List<String> indexedFiles = readIndexedFiles(indexFile);
+            Assert.assertFalse("Removed file should not be left in the index!", indexedFiles.contains("deleted.txt"));
+            Assert.assertEquals("Added file should be indexed once!", 1, indexedFiles.size());
+            Assert.assertEquals("Invalid indexed file!", "kept.txt", indexedFiles.get(0));
+        } finally {
+            updaterThread.interrupt();
+            updaterThread.join();
+            Files.delete(indexFile);
+        }
+    }
+    
+    @Test
+    public void testFailedUpdatesNotPending() throws Exception {
+        Path indexFolder = Files.createTempDirectory("storage");
+        BlockingQueue<BatchIndexUpdaterThread.IndexUpdate> queue = new LinkedBlockingQueue<BatchIndexUpdaterThread.IndexUpdate>();
+        AtomicLong pendingUpdates = new AtomicLong();
+        AtomicBoolean indexOutOfSync = new AtomicBoolean();
+        IndexSlotAllocator slotAllocator = new IndexSlotAllocator();
+        
+        // the index file can't be opened, every batch fails
+        BatchIndexUpdaterThread updaterThread = new BatchIndexUpdaterThread(queue, indexFolder.resolve("missing").resolve("storage.index").toString(),
+                slotAllocator, new IndexSlotTable(), pendingUpdates, indexOutOfSync);
+        try {
+            updaterThread.start();
+            for (int i = 0 ; i < 2 ; i++) {
+                pendingUpdates.incrementAndGet();
+                queue.add(new BatchIndexUpdaterThread.IndexUpdate(IndexJournal.OP_ADD, "file" + i + ".txt"));
+                
+                long deadline = System.currentTimeMillis() + 10000;
+                while (pendingUpdates.get() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals("Failed updates should not stay pending!", 0, pendingUpdates.get());
+            }
+            
+            Assert.assertTrue("Index should be flagged as out of sync!", indexOutOfSync.get());
+            Assert.assertTrue("Updater thread should survive failed updates!", updaterThread.isAlive());
+            Assert.assertEquals("No slot should be used by failed updates!", 0, slotAllocator.allocate(1)[0]);
+        } finally {
+            updaterThread.interrupt();
+            updaterThread.join();
+            Files.delete(indexFolder);
+        }
+    }
+    
+    private List<String> readIndexedFiles(Path indexFile) throws IOException {
+        List<String> fileNames = new ArrayList<String>();
+        for (FileInfoIndexEntry entry : FileInfoIndexEntry.fromByteArray(ByteBuffer.wrap(Files.readAllBytes(indexFile)))) {
+            if (!entry.getFileName().isEmpty()) {
+                fileNames.add(entry.getFileName());
+            }
+        }
+        return fileNames;
+    }
+}
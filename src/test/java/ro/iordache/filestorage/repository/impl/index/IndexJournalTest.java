@@ -0,0 +1,88 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link IndexJournal} class
+ */
+public class IndexJournalTest {
+    
+    private Path journalFile;
+    
+    private IndexJournal journal;
+    
+    private List<String> replayed;
+    
+    private IndexJournal.JournalVisitor recordingVisitor = new IndexJournal.JournalVisitor() {
+        public void visit(byte operation, String fileName) {
+            replayed.add((char) operation + fileName);
+        }
+    };
+    
+    @Before
+    public void setUp() throws IOException {
+        journalFile = Files.createTempFile("index", ".journal");
+        journal = new IndexJournal(journalFile.toString());
+        replayed = new ArrayList<String>();
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        journal.close();
+        Files.deleteIfExists(journalFile);
+    }
+    
+    @Test
+    public void testAppendReplay() throws IOException {
+        journal.append(IndexJournal.OP_ADD, "file1.txt");
+        journal.append(IndexJournal.OP_ADD, "file2.txt");
+        journal.append(IndexJournal.OP_REMOVE, "file1.txt");
+        
+        Assert.assertEquals("Invalid number of replayed operations!", 3, journal.replay(recordingVisitor));
+        Assert.assertEquals("Invalid replayed operations!", "[Afile1.txt, Afile2.txt, Rfile1.txt]", replayed.toString());
+        
+        journal.truncate();
+        replayed.clear();
+        Assert.assertEquals("Truncated journal should be empty!", 0, journal.replay(recordingVisitor));
+    }
+    
+    @Test
+    public void testTornRecordIgnored() throws IOException {
+        journal.append(IndexJournal.OP_ADD, "file1.txt");
+        journal.append(IndexJournal.OP_ADD, "file2.txt");
+        journal.close();
+        
+        // simulate a crash in the middle of the last append
+        FileChannel journalChannel = FileChannel.open(journalFile, StandardOpenOption.WRITE);
+        journalChannel.truncate(journalChannel.size() - 3);
+        journalChannel.close();
+        
+        Assert.assertEquals("Torn record should not be replayed!", 1, journal.replay(recordingVisitor));
+        Assert.assertEquals("Invalid replayed operations!", "[Afile1.txt]", replayed.toString());
+    }
+    
+    @Test
+    public void testCorruptRecordStopsReplay() throws IOException {
+        journal.append(IndexJournal.OP_ADD, "file1.txt");
+        journal.append(IndexJournal.OP_ADD, "file2.txt");
+        journal.close();
+        
+        // flip a byte in the first record's file name
+        byte[] journalBytes = Files.readAllBytes(journalFile);
+        journalBytes[3] ^= 0x01;
+        Files.write(journalFile, journalBytes);
+        
+        Assert.assertEquals("No operation should be replayed after a corrupt record!", 0, journal.replay(recordingVisitor));
+    }
+}
@@ -0,0 +1,39 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link IndexPatternHelper} class
+ */
+public class IndexPatternHelperTest {
+    
+    @Test
+    public void testLiteralPrefixes() {
+        assertPrefix("file", "file.*");
+        assertPrefix("file.txt", "file\\.txt");
+        assertPrefix("file", "^file[0-9]+");
+        assertPrefix("fil", "file?");
+        assertPrefix("file", "file+");
+        assertPrefix("a.b", Pattern.compile("a.b", Pattern.LITERAL));
+    }
+    
+    @Test
+    public void testNoLiteralPrefix() {
+        assertPrefix("", ".*");
+        assertPrefix("", "file|other");
+        assertPrefix("", "\\d+");
+        assertPrefix("", "(?i)file");
+        assertPrefix("", Pattern.compile("file", Pattern.CASE_INSENSITIVE));
+    }
+    
+    private void assertPrefix(String expected, String regex) {
+        assertPrefix(expected, Pattern.compile(regex));
+    }
+    
+    private void assertPrefix(String expected, Pattern pattern) {
+        Assert.assertEquals("Invalid literal prefix for " + pattern.pattern(), expected, IndexPatternHelper.getLiteralPrefix(pattern));
+    }
+}
@@ -0,0 +1,26 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link IndexSlotAllocator} class
+ */
+public class IndexSlotAllocatorTest {
+    
+    @Test
+    public void testAppendAndReuse() {
+        IndexSlotAllocator allocator = new IndexSlotAllocator();
+        allocator.reset(5);
+        
+        // no free slots, new entries are appended
+        Assert.assertArrayEquals("Slots should be appended!", new int[] {5, 6}, allocator.allocate(2));
+        Assert.assertEquals("Invalid slot count!", 7, allocator.getSlotCount());
+        
+        // freed slots are reused first, in ascending order
+        allocator.release(3);
+        allocator.release(1);
+        Assert.assertArrayEquals("Freed slots should be reused!", new int[] {1, 3, 7}, allocator.allocate(3));
+        Assert.assertEquals("Invalid slot count!", 8, allocator.getSlotCount());
+    }
+}
@@ -0,0 +1,45 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link IndexSlotTable} class
+ */
+public class IndexSlotTableTest {
+    
+    private final int FILES_COUNT = 10000;
+    
+    @Test
+    public void testPutRemove() throws IOException {
+        IndexSlotTable slotTable = new IndexSlotTable();
+        
+        // simulated index file contents
+        final Map<Integer, String> records = new HashMap<Integer, String>();
+        IndexSlotTable.RecordMatcher recordMatcher = new IndexSlotTable.RecordMatcher() {
+            public boolean matches(int slot, String fileName) {
+                return fileName.equals(records.get(slot));
+            }
+        };
+        
+        for (int i = 0 ; i < FILES_COUNT ; i++) {
+            records.put(i, "file" + i + ".txt");
+            slotTable.put("file" + i + ".txt", i);
+        }
+        Assert.assertEquals("Invalid table size!", FILES_COUNT, slotTable.size());
+        
+        Assert.assertEquals("Invalid slot for removed file!", 42, slotTable.remove("file42.txt", recordMatcher));
+        Assert.assertEquals("File should not be found twice!", -1, slotTable.remove("file42.txt", recordMatcher));
+        Assert.assertEquals("Unknown file should not be found!", -1, slotTable.remove("missing.txt", recordMatcher));
+        
+        // a slot not confirmed by the index record is never returned
+        records.put(7, "changed.txt");
+        Assert.assertEquals("Unconfirmed slot should not be returned!", -1, slotTable.remove("file7.txt", recordMatcher));
+        
+        Assert.assertEquals("Invalid table size after removals!", FILES_COUNT - 1, slotTable.size());
+    }
+}
@@ -0,0 +1,126 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import ro.iordache.filestorage.repository.FileSystemStorageService;
+
+/**
+ * Tests the {@link MappedIndexScanner} class
+ */
+public class MappedIndexScannerTest {
+    
+    private Path indexFile;
+    
+    @Before
+    public void setUp() throws IOException {
+        indexFile = Files.createTempFile("scanner", ".index");
+        
+        String[] records = new String[] {"file1.txt", "", "file2.txt", "other.bin", "", "file3.txt"};
+        byte[] indexBytes = new byte[records.length * FileInfoIndexEntry.MAX_RECORD_LENGTH];
+        for (int i = 0 ; i < records.length ; i++) {
+            byte[] recordBytes = new FileInfoIndexEntry(records[i]).getBytes();
+            System.arraycopy(recordBytes, 0, indexBytes, i * FileInfoIndexEntry.MAX_RECORD_LENGTH, recordBytes.length);
+        }
+        Files.write(indexFile, indexBytes);
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(indexFile);
+    }
+    
+    @Test
+    public void testScanMatches() throws IOException {
+        MappedIndexScanner scanner = new MappedIndexScanner(indexFile.toString());
+        
+        List<String> hits = scanner.scan(Pattern.compile("file\\d\\.txt"), 0, 1000);
+        Assert.assertEquals("Invalid number of matches!", 3, hits.size());
+        Assert.assertEquals("Invalid match!", "file1.txt", hits.get(0));
+        Assert.assertEquals("Invalid match!", "file3.txt", hits.get(2));
+    }
+    
+    @Test
+    public void testScanPaging() throws IOException {
+        MappedIndexScanner scanner = new MappedIndexScanner(indexFile.toString());
+        
+        List<String> hits = scanner.scan(Pattern.compile(".*"), 1, 2);
+        Assert.assertEquals("Invalid page size!", 2, hits.size());
+        Assert.assertEquals("Invalid first match in page!", "file2.txt", hits.get(0));
+        Assert.assertEquals("Invalid last match in page!", "other.bin", hits.get(1));
+    }
+    
+    @Test
+    public void testScanFromSlot() throws IOException {
+        MappedIndexScanner scanner = new MappedIndexScanner(indexFile.toString());
+        
+        List<String> hits = new ArrayList<String>();
+        long nextSlot = scanner.scan(Pattern.compile("file\\d\\.txt"), 0, 0, 2, hits);
+        Assert.assertEquals("Invalid first page!", 2, hits.size());
+        Assert.assertEquals("Invalid next slot!", 3, nextSlot);
+        
+        hits.clear();
+        nextSlot = scanner.scan(Pattern.compile("file\\d\\.txt"), nextSlot, 0, 2, hits);
+        Assert.assertEquals("Invalid second page!", 1, hits.size());
+        Assert.assertEquals("Invalid match in second page!", "file3.txt", hits.get(0));
+        Assert.assertEquals("Last page should have no next slot!", -1, nextSlot);
+    }
+    
+    @Test
+    public void testScanVisitor() throws IOException {
+        MappedIndexScanner scanner = new MappedIndexScanner(indexFile.toString());
+        
+        final List<String> hits = new ArrayList<String>();
+        long matches = scanner.scan(Pattern.compile("file\\d\\.txt"), new FileSystemStorageService.EnumerationVisitor() {
+            public void visit(CharSequence fileName) {
+                hits.add(fileName.toString());
+            }
+        });
+        
+        Assert.assertEquals("Invalid number of matches!", 3, matches);
+        Assert.assertEquals("Invalid visited matches!", Arrays.asList("file1.txt", "file2.txt", "file3.txt"), hits);
+    }
+    
+    @Test
+    public void testParallelScan() throws IOException {
+        // enough records for several segments, every 7th record being empty
+        int records = MappedIndexScanner.MIN_SEGMENT_RECORDS * 5 + 11;
+        byte[] indexBytes = new byte[records * FileInfoIndexEntry.MAX_RECORD_LENGTH];
+        for (int i = 0 ; i < records ; i++) {
+            if (i % 7 != 0) {
+                byte[] recordBytes = new FileInfoIndexEntry("file" + i + ".txt").getBytes();
+                System.arraycopy(recordBytes, 0, indexBytes, i * FileInfoIndexEntry.MAX_RECORD_LENGTH, recordBytes.length);
+            }
+        }
+        Files.write(indexFile, indexBytes);
+        
+        MappedIndexScanner sequentialScanner = new MappedIndexScanner(indexFile.toString());
+        MappedIndexScanner parallelScanner = new MappedIndexScanner(indexFile.toString(), 4);
+        try {
+            Pattern pattern = Pattern.compile("file\\d*[13579]\\.txt");
+            long[][] pages = new long[][] {{0, 0, 1000}, {0, 30000, 100}, {1234, 0, 1000000}, {50000, 2, 10}};
+            
+            for (long[] page : pages) {
+                List<String> sequentialHits = new ArrayList<String>();
+                List<String> parallelHits = new ArrayList<String>();
+                long sequentialNext = sequentialScanner.scan(pattern, page[0], page[1], page[2], sequentialHits);
+                long parallelNext = parallelScanner.scan(pattern, page[0], page[1], page[2], parallelHits);
+                
+                Assert.assertEquals("Parallel scan matches differ!", sequentialHits, parallelHits);
+                Assert.assertEquals("Parallel scan next slot differs!", sequentialNext, parallelNext);
+            }
+        } finally {
+            parallelScanner.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package ro.iordache.filestorage.repository.impl.index;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ro.iordache.filestorage.repository.EnumerationPage;
+
+/**
+ * Tests for the {@link StorageIndex} in-memory mode
+ */
+@RunWith(SpringRunner.class)
+@TestPropertySource(properties = {"filestorage.index.inmemory=true", "filestorage.enum.cache.size=16"})
+public class StorageIndexTest {
+    
+    @SpyBean
+    private StorageIndex storageIndex;
+    
+    @Test
+    public void testInMemoryPrefixScan() {
+        String prefix = "mem" + System.nanoTime();
+        for (int i = 0 ; i < 5 ; i++) {
+            storageIndex.addToIndex(prefix + "-" + i + ".txt");
+        }
+        storageIndex.addToIndex("other" + prefix + ".txt");
+        
+        List<String> hits = storageIndex.scanRepoIndex(Pattern.compile(prefix + "-.*"), 0, 1000);
+        Assert.assertEquals("Invalid number of matches!", 5, hits.size());
+        Assert.assertEquals("Matches should be sorted!", prefix + "-0.txt", hits.get(0));
+        
+        // paging
+        hits = storageIndex.scanRepoIndex(Pattern.compile(prefix + "-.*"), 3, 1000);
+        Assert.assertEquals("Invalid number of paged matches!", 2, hits.size());
+        Assert.assertEquals("Invalid first paged match!", prefix + "-3.txt", hits.get(0));
+        
+        storageIndex.removeFromIndex(prefix + "-0.txt");
+        hits = storageIndex.scanRepoIndex(Pattern.compile(prefix + "-.*"), 0, 1000);
+        Assert.assertFalse("Removed file should not be enumerated!", hits.contains(prefix + "-0.txt"));
+    }
+    
+    @Test
+    public void testInMemoryContinuationToken() {
+        String prefix = "token" + System.nanoTime();
+        for (int i = 0 ; i < 5 ; i++) {
+            storageIndex.addToIndex(prefix + "-" + i + ".txt");
+        }
+        
+        Pattern pattern = Pattern.compile(prefix + "-.*");
+        EnumerationPage page = storageIndex.scanRepoIndex(pattern, 0, null, 2);
+        Assert.assertEquals("Invalid first page!", 2, page.getMatchingItems().size());
+        Assert.assertNotNull("First page should have a continuation token!", page.getContinuationToken());
+        
+        // names removed or added before the cursor don't shift the next page
+        storageIndex.removeFromIndex(prefix + "-0.txt");
+        storageIndex.addToIndex(prefix + "-00.txt");
+        
+        page = storageIndex.scanRepoIndex(pattern, 0, page.getContinuationToken(), 2);
+        Assert.assertEquals("Invalid second page!", 2, page.getMatchingItems().size());
+        Assert.assertEquals("Invalid first match in second page!", prefix + "-2.txt", page.getMatchingItems().get(0));
+        
+        page = storageIndex.scanRepoIndex(pattern, 0, page.getContinuationToken(), 2);
+        Assert.assertEquals("Invalid last page!", 1, page.getMatchingItems().size());
+        Assert.assertNull("Last page should have no continuation token!", page.getContinuationToken());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidContinuationToken() {
+        storageIndex.scanRepoIndex(Pattern.compile(".*"), 0, "not a token!", 10);
+    }
+    
+    @Test
+    public void testEnumerationCache() {
+        String prefix = "cache" + System.nanoTime();
+        storageIndex.addToIndex(prefix + "-1.txt");
+        
+        Pattern pattern = Pattern.compile(prefix + "-.*");
+        EnumerationPage page = storageIndex.scanRepoIndex(pattern, 0, null, 10);
+        Assert.assertSame("Unchanged index should serve the cached page!", page, storageIndex.scanRepoIndex(Pattern.compile(prefix + "-.*"), 0, null, 10));
+        Assert.assertNotSame("Different page size should not use the cached page!", page, storageIndex.scanRepoIndex(pattern, 0, null, 5));
+        
+        storageIndex.addToIndex(prefix + "-2.txt");
+        page = storageIndex.scanRepoIndex(pattern, 0, null, 10);
+        Assert.assertEquals("Index change should invalidate the cached page!", 2, page.getMatchingItems().size());
+        
+        storageIndex.removeFromIndex(prefix + "-1.txt");
+        page = storageIndex.scanRepoIndex(pattern, 0, null, 10);
+        Assert.assertEquals("Index change should invalidate the cached page!", 1, page.getMatchingItems().size());
+    }
+}
@@ -0,0 +1,93 @@
+package ro.iordache.filestorage.repository.impl.tombstone;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+import ro.iordache.filestorage.repository.DeleteJob;
+
+/**
+ * Tests the {@link TombstoneTable} class
+ */
+public class TombstoneTableTest {
+    
+    private Path folder;
+    
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("tombstones");
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        FileSystemUtils.deleteRecursively(folder);
+    }
+    
+    @Test
+    public void testTombstones() {
+        TombstoneTable tombstones = new TombstoneTable(folder, 10);
+        DeleteJob job = tombstones.createJob();
+        DeleteJob otherJob = tombstones.createJob();
+        
+        Assert.assertTrue("File should be tombstoned!", tombstones.tombstone("file1.txt", job));
+        Assert.assertFalse("File is already tombstoned!", tombstones.tombstone("file1.txt", otherJob));
+        Assert.assertTrue("File should be tombstoned!", tombstones.isTombstoned("file1.txt"));
+        Assert.assertSame("Job should be found by its id!", job, tombstones.getJob(job.getId()));
+        
+        // a file stored again is not unlinked by its job
+        Assert.assertTrue("Tombstoned file should be revived!", tombstones.revive("file1.txt"));
+        Assert.assertFalse("Revived file should not be unlinked!", tombstones.isTombstoned("file1.txt", job));
+        Assert.assertFalse("Revived file should not be released!", tombstones.release("file1.txt", job));
+        
+        tombstones.tombstone("file2.txt", job);
+        Assert.assertTrue("File should be unlinked by its job!", tombstones.isTombstoned("file2.txt", job));
+        Assert.assertFalse("File should not be unlinked by another job!", tombstones.isTombstoned("file2.txt", otherJob));
+        Assert.assertTrue("File should be released by its job!", tombstones.release("file2.txt", job));
+        Assert.assertFalse("Released file should not be tombstoned!", tombstones.isTombstoned("file2.txt"));
+    }
+    
+    @Test
+    public void testPendingTombstones() throws IOException {
+        Path deletedFile = Files.createFile(folder.resolve("deleted.txt"));
+        Path replacedFile = Files.createFile(folder.resolve("replaced.txt"));
+        BasicFileAttributes deletedAttr = Files.readAttributes(deletedFile, BasicFileAttributes.class);
+        
+        TombstoneTable tombstones = new TombstoneTable(folder, 10);
+        DeleteJob job = tombstones.createJob();
+        Map<String, Object> fileKeys = new LinkedHashMap<String, Object>();
+        fileKeys.put("deleted.txt", deletedAttr.fileKey());
+        fileKeys.put("replaced.txt", Files.readAttributes(replacedFile, BasicFileAttributes.class).fileKey());
+        tombstones.writeTombstones(job, fileKeys);
+        
+        // a new file replacing a tombstoned one has another file key
+        Path newFile = Files.createFile(folder.resolve("new.tmp"));
+        Files.move(newFile, replacedFile, StandardCopyOption.REPLACE_EXISTING);
+        
+        // torn by a crash, no end marker
+        Files.write(folder.resolve("torn" + TombstoneTable.TOMBSTONES_FILE_SUFFIX), "1000\nfile1.txt\nfil".getBytes(StandardCharsets.UTF_8));
+        
+        List<TombstoneTable.PendingTombstones> pendingTombstones = new TombstoneTable(folder, 10).readPendingTombstones();
+        Assert.assertEquals("Only the complete tombstones file should be read!", 1, pendingTombstones.size());
+        Assert.assertFalse("Torn tombstones file should be dropped!", 
+                Files.exists(folder.resolve("torn" + TombstoneTable.TOMBSTONES_FILE_SUFFIX)));
+        
+        TombstoneTable.PendingTombstones jobTombstones = pendingTombstones.get(0);
+        Assert.assertEquals("Invalid tombstoned files!", Arrays.asList("deleted.txt", "replaced.txt"), jobTombstones.getFileNames());
+        Assert.assertTrue("Tombstoned file should be unlinked!", jobTombstones.isTombstoned("deleted.txt", deletedAttr));
+        Assert.assertFalse("Replaced file should not be unlinked!", 
+                jobTombstones.isTombstoned("replaced.txt", Files.readAttributes(replacedFile, BasicFileAttributes.class)));
+    }
+}
@@ -0,0 +1,89 @@
+package ro.iordache.filestorage.repository.impl.upload;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ChannelUploadWriter} class
+ */
+public class ChannelUploadWriterTest {
+    
+    private Path file;
+    
+    private DirectBufferPool bufferPool;
+    
+    private ChannelUploadWriter uploadWriter;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("upload", ".tmp");
+        bufferPool = new DirectBufferPool(4096, 2, 2);
+        uploadWriter = new ChannelUploadWriter(bufferPool);
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(file);
+    }
+    
+    @Test
+    public void testWrite() throws IOException {
+        // several buffers worth, not a multiple of the buffer size
+        byte[] contents = randomContents(4096 * 5 + 123);
+        
+        long written = uploadWriter.write(new ByteArrayInputStream(contents), file);
+        
+        Assert.assertEquals("Invalid number of bytes written!", contents.length, written);
+        Assert.assertArrayEquals("Invalid file contents!", contents, Files.readAllBytes(file));
+        Assert.assertEquals("The buffer should be back in the pool!", 1, bufferPool.getPooledBuffers());
+    }
+    
+    @Test
+    public void testWriteOverPreviousContents() throws IOException {
+        byte[] contents = randomContents(1000);
+        Files.write(file, randomContents(50000));
+        
+        // the previous contents are not kept
+        long written = uploadWriter.write(new ByteArrayInputStream(contents), file);
+        
+        Assert.assertEquals("Invalid number of bytes written!", contents.length, written);
+        Assert.assertArrayEquals("Invalid file contents!", contents, Files.readAllBytes(file));
+    }
+    
+    @Test
+    public void testWriteWithoutDirectBuffers() throws IOException {
+        // all direct buffers are taken by other uploads
+        bufferPool.acquire();
+        bufferPool.acquire();
+        byte[] contents = randomContents(4096 * 3 + 7);
+        
+        long written = uploadWriter.write(new ByteArrayInputStream(contents), file);
+        
+        Assert.assertEquals("Invalid number of bytes written!", contents.length, written);
+        Assert.assertArrayEquals("Invalid file contents!", contents, Files.readAllBytes(file));
+        Assert.assertEquals("No direct buffer should be pooled!", 0, bufferPool.getPooledBuffers());
+    }
+    
+    @Test
+    public void testWriteEmpty() throws IOException {
+        long written = uploadWriter.write(new ByteArrayInputStream(new byte[0]), file);
+        
+        Assert.assertEquals("Nothing should be written!", 0, written);
+        Assert.assertTrue("File should be empty!", Arrays.equals(new byte[0], Files.readAllBytes(file)));
+    }
+    
+    private byte[] randomContents(int length) {
+        byte[] contents = new byte[length];
+        new Random(length).nextBytes(contents);
+        return contents;
+    }
+}
@@ -0,0 +1,51 @@
+package ro.iordache.filestorage.repository.impl.upload;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link DirectBufferPool} class
+ */
+public class DirectBufferPoolTest {
+    
+    @Test
+    public void testReuse() {
+        DirectBufferPool bufferPool = new DirectBufferPool(1024, 1, 4);
+        ByteBuffer buffer = bufferPool.acquire();
+        Assert.assertTrue("Buffer should be direct!", buffer.isDirect());
+        Assert.assertEquals("Invalid buffer size!", 1024, buffer.capacity());
+        
+        buffer.put((byte) 1);
+        bufferPool.release(buffer);
+        ByteBuffer reused = bufferPool.acquire();
+        Assert.assertSame("Buffer should be reused!", buffer, reused);
+        Assert.assertEquals("Reused buffer should be cleared!", 1024, reused.remaining());
+    }
+    
+    @Test
+    public void testMaxBuffers() {
+        DirectBufferPool bufferPool = new DirectBufferPool(1024, 1, 2);
+        ByteBuffer first = bufferPool.acquire();
+        ByteBuffer second = bufferPool.acquire();
+        Assert.assertTrue("Buffers should be direct up to the max!", first.isDirect() && second.isDirect());
+        
+        // heap buffers are handed out past the max, and never pooled
+        ByteBuffer third = bufferPool.acquire();
+        Assert.assertFalse("Buffer past the max should be a heap buffer!", third.isDirect());
+        Assert.assertEquals("Invalid buffer size!", 1024, third.capacity());
+        Assert.assertEquals("Invalid number of direct buffers!", 2, bufferPool.getAllocatedBuffers());
+        bufferPool.release(third);
+        Assert.assertEquals("Heap buffer should not be pooled!", 0, bufferPool.getPooledBuffers());
+        
+        // a direct buffer dropped by a full pool makes room for a new one
+        bufferPool.release(first);
+        bufferPool.release(second);
+        Assert.assertEquals("Invalid number of pooled buffers!", 1, bufferPool.getPooledBuffers());
+        Assert.assertEquals("Invalid number of direct buffers!", 1, bufferPool.getAllocatedBuffers());
+        Assert.assertTrue("Pooled buffer should be reused!", bufferPool.acquire().isDirect());
+        Assert.assertTrue("Buffer should be direct again!", bufferPool.acquire().isDirect());
+        Assert.assertFalse("Buffer past the max should be a heap buffer!", bufferPool.acquire().isDirect());
+    }
+}
@@ -0,0 +1,106 @@
+package ro.iordache.filestorage.repository.util;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link FileSystemStorageHelperImpl} storage layouts
+ */
+public class FileSystemStorageHelperImplTest {
+    
+    private final int FILES_COUNT = 50;
+    
+    private Path rootFolder;
+    
+    @Before
+    public void setUp() throws IOException {
+        rootFolder = Files.createTempDirectory("layout");
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        Files.walkFileTree(rootFolder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    @Test
+    public void testShardedLayoutMigration() throws IOException {
+        String storageFolder = rootFolder.resolve("storage").toString();
+        String tempFolder = ".temp";
+        
+        // start with a flat layout
+        FileSystemStorageHelperImpl flatHelper = new FileSystemStorageHelperImpl(storageFolder, tempFolder, 0);
+        for (int i = 0 ; i < FILES_COUNT ; i++) {
+            Files.createFile(flatHelper.prepareStorageFile("file" + i + ".txt"));
+        }
+        
+        // switching to a sharded layout moves the existing files
+        FileSystemStorageHelperImpl shardedHelper = new FileSystemStorageHelperImpl(storageFolder, tempFolder, 2);
+        for (int i = 0 ; i < FILES_COUNT ; i++) {
+            Path storageFile = shardedHelper.findFile("file" + i + ".txt");
+            Assert.assertNotNull("File should be found after migration!", storageFile);
+            Assert.assertEquals("File should be stored 2 folders deep!", 
+                    shardedHelper.getStoragePath().getNameCount() + 3, storageFile.getNameCount());
+        }
+        Assert.assertEquals("All files should be listed!", FILES_COUNT, listStoredFiles(shardedHelper).size());
+        
+        // and back to the flat layout
+        FileSystemStorageHelperImpl migratedBackHelper = new FileSystemStorageHelperImpl(storageFolder, tempFolder, 0);
+        List<String> storedFiles = listStoredFiles(migratedBackHelper);
+        Assert.assertEquals("All files should be listed!", FILES_COUNT, storedFiles.size());
+        Assert.assertTrue("Files should be stored flat!", Files.exists(migratedBackHelper.getStoragePath().resolve("file0.txt")));
+    }
+    
+    @Test
+    public void testStagingFolder() throws IOException {
+        String storageFolder = rootFolder.resolve("storage").toString();
+        
+        FileSystemStorageHelperImpl flatHelper = new FileSystemStorageHelperImpl(storageFolder, "temp", 0);
+        Path stagingFolder = flatHelper.getTempStoragePath();
+        Assert.assertTrue("Staging folder should be created!", Files.isDirectory(stagingFolder));
+        Assert.assertEquals("Staging folder should be in the storage folder!", flatHelper.getStoragePath(), stagingFolder.getParent());
+        Assert.assertEquals("Staging folder should be a dot folder!", ".temp", stagingFolder.getFileName().toString());
+        
+        Files.createFile(flatHelper.prepareStorageFile("file.txt"));
+        Files.createFile(stagingFolder.resolve("upload.tmp"));
+        Assert.assertEquals("Staged files should not be listed!", Arrays.asList("file.txt"), listStoredFiles(flatHelper));
+        
+        // staged files are left alone by layout migrations
+        FileSystemStorageHelperImpl shardedHelper = new FileSystemStorageHelperImpl(storageFolder, "temp", 1);
+        Assert.assertTrue("Staged file should not be migrated!", Files.exists(stagingFolder.resolve("upload.tmp")));
+        Assert.assertEquals("Stored files should be listed!", Arrays.asList("file.txt"), listStoredFiles(shardedHelper));
+    }
+    
+    private List<String> listStoredFiles(FileSystemStorageHelperImpl storageHelper) throws IOException {
+        final List<String> storedFiles = new ArrayList<String>();
+        storageHelper.scanStoredFiles(new FileSystemStorageHelperImpl.StoredFileVisitor() {
+            public void visit(String fileName) {
+                storedFiles.add(fileName);
+            }
+        });
+        return storedFiles;
+    }
+}
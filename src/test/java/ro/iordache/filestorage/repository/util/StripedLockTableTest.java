@@ -0,0 +1,59 @@
+package ro.iordache.filestorage.repository.util;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StripedLockTable} class
+ */
+public class StripedLockTableTest {
+    
+    @Test
+    public void testSameKeySameLock() {
+        StripedLockTable lockTable = new StripedLockTable(16);
+        
+        Lock lock = lockTable.getLock("file1.txt");
+        Assert.assertNotNull("No lock returned!", lock);
+        Assert.assertSame("Equal keys should share the lock!", lock, lockTable.getLock(new String("file1.txt")));
+    }
+    
+    @Test
+    public void testBoundedStripes() {
+        StripedLockTable lockTable = new StripedLockTable(1000);
+        Assert.assertEquals("Stripes should be rounded up to a power of two!", 1024, lockTable.getStripes());
+        
+        Map<Object, Object> distinctLocks = new IdentityHashMap<Object, Object>();
+        for (int i = 0 ; i < 100000 ; i++) {
+            distinctLocks.put(lockTable.getLock("file" + i + ".txt"), Boolean.TRUE);
+        }
+        
+        Assert.assertEquals("Keys should be spread over all the stripes!", 1024, distinctLocks.size());
+    }
+    
+    @Test
+    public void testLockExcludesOtherThreads() throws InterruptedException {
+        StripedLockTable lockTable = new StripedLockTable(16);
+        final Lock lock = lockTable.getLock("file1.txt");
+        final AtomicBoolean acquired = new AtomicBoolean(true);
+        
+        lock.lock();
+        try {
+            Thread otherThread = new Thread(new Runnable() {
+                public void run() {
+                    acquired.set(lock.tryLock());
+                }
+            });
+            otherThread.start();
+            otherThread.join();
+        } finally {
+            lock.unlock();
+        }
+        
+        Assert.assertFalse("A held lock should not be acquired by another thread!", acquired.get());
+    }
+}
@@ -1,11 +1,16 @@
 package ro.iordache.filestorage.rest;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpHeaders;
 
 import jakarta.servlet.http.HttpServletRequest;
 import ro.iordache.filestorage.rest.FileRequestValidationHelper.FileNameFormatException;
@@ -31,6 +36,41 @@ public class ValidationHelperTest {
         testInvalidFilenameFormat("0123456789012345678901234567890123456789012345678901234567890.123");
     }
     
+    @Test
+    public void testNoneMatch() throws Exception {
+        Mockito.when(mockRequest.getHeaders(HttpHeaders.IF_NONE_MATCH))
+                .thenReturn(Collections.enumeration(Arrays.asList("\"abc\", W/\"def\"", "\"ghi\"")));
+        
+        FileAccessRequest result = FileRequestValidationHelper.validateRequest("file.txt", mockRequest);
+        Assert.assertTrue("If-None-Match should be requested!", result.isNoneMatchRequested());
+        Assert.assertTrue("Listed entity tag should match!", result.checkNoneMatch("\"abc\""));
+        Assert.assertTrue("Weak entity tag should match!", result.checkNoneMatch("\"def\""));
+        Assert.assertTrue("Entity tag from second header should match!", result.checkNoneMatch("\"ghi\""));
+        Assert.assertFalse("Other entity tag should not match!", result.checkNoneMatch("\"xyz\""));
+        Assert.assertFalse("Missing entity tag should not match!", result.checkNoneMatch(null));
+        
+        Mockito.when(mockRequest.getHeaders(HttpHeaders.IF_NONE_MATCH)).thenReturn(Collections.enumeration(Arrays.asList("*")));
+        result = FileRequestValidationHelper.validateRequest("file.txt", mockRequest);
+        Assert.assertTrue("Any entity tag should match *!", result.checkNoneMatch(null));
+    }
+    
+    @Test
+    public void testAcceptEncoding() throws Exception {
+        Mockito.when(mockRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("deflate, gzip;q=0.8");
+        FileAccessRequest result = FileRequestValidationHelper.validateRequest("file.txt", mockRequest);
+        Assert.assertTrue("gzip should be accepted!", result.acceptsEncoding("gzip"));
+        Assert.assertFalse("br should not be accepted!", result.acceptsEncoding("br"));
+        
+        Mockito.when(mockRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn("*, gzip;q=0");
+        result = FileRequestValidationHelper.validateRequest("file.txt", mockRequest);
+        Assert.assertFalse("gzip with zero quality should not be accepted!", result.acceptsEncoding("gzip"));
+        Assert.assertTrue("br should be accepted through *!", result.acceptsEncoding("br"));
+        
+        Mockito.when(mockRequest.getHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(null);
+        result = FileRequestValidationHelper.validateRequest("file.txt", mockRequest);
+        Assert.assertFalse("Nothing should be accepted without Accept-Encoding!", result.acceptsEncoding("gzip"));
+    }
+    
     private void testValidFilenameFormat(String fileName) {
         try {
             FileAccessRequest result = FileRequestValidationHelper.validateRequest(fileName, mockRequest);
@@ -0,0 +1,137 @@
+package ro.iordache.filestorage.rest.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Tests the {@link TarArchiveReader} class
+ */
+public class TarArchiveReaderTest {
+    
+    @Test
+    public void testReadEntries() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TestArchives.writeEntry(archive, "file1.txt", '0', "first file".getBytes(StandardCharsets.UTF_8));
+        TestArchives.writeEntry(archive, "folder", '5', new byte[0]);
+        TestArchives.writeEntry(archive, "file2.bin", '0', new byte[1500]);
+        TestArchives.writeEntry(archive, "empty.txt", '0', new byte[0]);
+        archive.write(new byte[2 * TarArchiveReader.BLOCK_SIZE]);
+        
+        TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray()));
+        
+        TarArchiveReader.Entry entry = reader.nextEntry();
+        Assert.assertEquals("Invalid entry name!", "file1.txt", entry.getName());
+        Assert.assertEquals("Invalid entry contents!", "first file",
+                StreamUtils.copyToString(reader.getEntryStream(), StandardCharsets.UTF_8));
+        
+        // folders are skipped, as are the unread contents
+        entry = reader.nextEntry();
+        Assert.assertEquals("Invalid entry name!", "file2.bin", entry.getName());
+        Assert.assertEquals("Invalid entry size!", 1500, entry.getSize());
+        
+        entry = reader.nextEntry();
+        Assert.assertEquals("Invalid entry name!", "empty.txt", entry.getName());
+        Assert.assertEquals("Invalid entry contents!", 0, StreamUtils.copyToByteArray(reader.getEntryStream()).length);
+        
+        Assert.assertNull("Archive should end!", reader.nextEntry());
+    }
+    
+    @Test
+    public void testPaxName() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        String longName = "a_pax_name.txt";
+        String paxRecord = " path=" + longName + "\n";
+        paxRecord = (paxRecord.length() + 2) + paxRecord;
+        TestArchives.writeEntry(archive, "PaxHeaders/x", 'x', paxRecord.getBytes(StandardCharsets.UTF_8));
+        TestArchives.writeEntry(archive, "truncated_nam", '0', "pax".getBytes(StandardCharsets.UTF_8));
+        
+        // no end of archive blocks
+        TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray()));
+        Assert.assertEquals("Pax path should be applied!", longName, reader.nextEntry().getName());
+        Assert.assertNull("Archive should end!", reader.nextEntry());
+    }
+    
+    @Test
+    public void testInvalidPaxSize() throws IOException {
+        for (String size : new String[] {"12ab", "-1"}) {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            String paxRecord = " size=" + size + "\n";
+            paxRecord = (paxRecord.length() + 2) + paxRecord;
+            TestArchives.writeEntry(archive, "PaxHeaders/x", 'x', paxRecord.getBytes(StandardCharsets.UTF_8));
+            TestArchives.writeEntry(archive, "file.txt", '0', "pax".getBytes(StandardCharsets.UTF_8));
+            
+            try {
+                new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray())).nextEntry();
+                Assert.fail("Invalid pax size " + size + " should be rejected!");
+            } catch (IOException e) {}
+        }
+    }
+    
+    @Test
+    public void testBase256Size() throws IOException {
+        byte[] sizeField = new byte[12];
+        sizeField[0] = (byte) 0x80;
+        sizeField[11] = 5;
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TestArchives.writeHeader(archive, "file.txt", '0', sizeField);
+        archive.write("large".getBytes(StandardCharsets.UTF_8));
+        archive.write(new byte[TarArchiveReader.BLOCK_SIZE - 5]);
+        
+        TarArchiveReader.Entry entry = new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray())).nextEntry();
+        Assert.assertEquals("Invalid base-256 size!", 5, entry.getSize());
+    }
+    
+    @Test
+    public void testInvalidSize() throws IOException {
+        // negative base-256, base-256 overflowing a long, negative octal
+        byte[] negative = new byte[12];
+        Arrays.fill(negative, (byte) 0xFF);
+        byte[] overflow = new byte[12];
+        overflow[0] = (byte) 0x80;
+        overflow[4] = (byte) 0x80;
+        byte[] negativeOctal = "-0000000001".getBytes(StandardCharsets.US_ASCII);
+        
+        for (byte[] sizeField : new byte[][] {negative, overflow, negativeOctal}) {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            TestArchives.writeHeader(archive, "file.txt", '0', sizeField);
+            
+            try {
+                new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray())).nextEntry();
+                Assert.fail("Invalid size " + Arrays.toString(sizeField) + " should be rejected!");
+            } catch (IOException e) {}
+        }
+    }
+    
+    @Test
+    public void testInvalidArchive() {
+        byte[] notAnArchive = new byte[TarArchiveReader.BLOCK_SIZE];
+        notAnArchive[0] = 'x';
+        
+        try {
+            new TarArchiveReader(new ByteArrayInputStream(notAnArchive)).nextEntry();
+            Assert.fail("Invalid header should be rejected!");
+        } catch (IOException e) {}
+    }
+    
+    @Test
+    public void testTruncatedArchive() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TestArchives.writeEntry(archive, "file1.txt", '0', new byte[2000]);
+        byte[] truncated = new byte[TarArchiveReader.BLOCK_SIZE + 1000];
+        System.arraycopy(archive.toByteArray(), 0, truncated, 0, truncated.length);
+        
+        TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(truncated));
+        reader.nextEntry();
+        try {
+            StreamUtils.copyToByteArray(reader.getEntryStream());
+            Assert.fail("Truncated contents should fail!");
+        } catch (IOException e) {}
+    }
+}
@@ -0,0 +1,76 @@
+package ro.iordache.filestorage.rest.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link TarArchiveWriter} class
+ */
+public class TarArchiveWriterTest {
+    
+    @Test
+    public void testWriteEntries() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TarArchiveWriter writer = new TarArchiveWriter(archive);
+        
+        byte[] contents = new byte[1500];
+        for (int i = 0 ; i < contents.length ; i++) {
+            contents[i] = (byte) i;
+        }
+        writer.putEntry("file1.bin", contents.length, 1700000000000L).write(contents);
+        writer.closeEntry();
+        writer.putEntry("file2.txt", 3, 0).write("abc".getBytes(StandardCharsets.UTF_8));
+        writer.finish();
+        
+        Assert.assertEquals("Archive should be made of whole blocks!", 0, archive.size() % TarArchiveReader.BLOCK_SIZE);
+        
+        TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray()));
+        TarArchiveReader.Entry entry = reader.nextEntry();
+        Assert.assertEquals("Invalid entry name!", "file1.bin", entry.getName());
+        Assert.assertArrayEquals("Invalid entry contents!", contents, readAll(reader.getEntryStream()));
+        
+        entry = reader.nextEntry();
+        Assert.assertEquals("Invalid entry name!", "file2.txt", entry.getName());
+        Assert.assertEquals("Invalid entry contents!", "abc", new String(readAll(reader.getEntryStream()), StandardCharsets.UTF_8));
+        Assert.assertNull("Archive should have ended!", reader.nextEntry());
+    }
+    
+    @Test
+    public void testShortEntryPadded() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TarArchiveWriter writer = new TarArchiveWriter(archive);
+        
+        // a file truncated while written still leaves the next entries readable
+        writer.putEntry("truncated.txt", 10, 0).write("abc".getBytes(StandardCharsets.UTF_8));
+        writer.putEntry("next.txt", 1, 0).write('x');
+        writer.finish();
+        
+        TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray()));
+        Assert.assertEquals("Invalid entry size!", 10, reader.nextEntry().getSize());
+        Assert.assertEquals("Invalid next entry!", "next.txt", reader.nextEntry().getName());
+    }
+    
+    @Test(expected = IOException.class)
+    public void testEntryOverflow() throws IOException {
+        TarArchiveWriter writer = new TarArchiveWriter(new ByteArrayOutputStream());
+        OutputStream entryStream = writer.putEntry("file.txt", 2, 0);
+        entryStream.write("abc".getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            contents.write(buffer, 0, read);
+        }
+        return contents.toByteArray();
+    }
+}
@@ -0,0 +1,49 @@
+package ro.iordache.filestorage.rest.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds tar archives for the tests
+ */
+public class TestArchives {
+    
+    /**
+     * Writes a ustar entry
+     */
+    public static void writeEntry(ByteArrayOutputStream archive, String name, char typeFlag, byte[] contents) throws IOException {
+        writeHeader(archive, name, typeFlag, String.format("%011o", contents.length).getBytes(StandardCharsets.US_ASCII));
+        archive.write(contents);
+        archive.write(new byte[(TarArchiveReader.BLOCK_SIZE - contents.length % TarArchiveReader.BLOCK_SIZE) % TarArchiveReader.BLOCK_SIZE]);
+    }
+    
+    /**
+     * Writes a ustar header with a raw size field, i.e. base-256 encoded
+     */
+    public static void writeHeader(ByteArrayOutputStream archive, String name, char typeFlag, byte[] sizeField) throws IOException {
+        byte[] header = new byte[TarArchiveReader.BLOCK_SIZE];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        putString(header, 100, "0000644");
+        System.arraycopy(sizeField, 0, header, 124, sizeField.length);
+        putString(header, 136, String.format("%011o", 0));
+        header[156] = (byte) typeFlag;
+        putString(header, 257, "ustar");
+        putString(header, 263, "00");
+        
+        long checksum = 0;
+        for (int i = 0 ; i < header.length ; i++) {
+            checksum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xFF);
+        }
+        putString(header, 148, String.format("%06o", checksum));
+        header[155] = ' ';
+        
+        archive.write(header);
+    }
+    
+    private static void putString(byte[] header, int offset, String value) {
+        byte[] valueBytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(valueBytes, 0, header, offset, valueBytes.length);
+    }
+}
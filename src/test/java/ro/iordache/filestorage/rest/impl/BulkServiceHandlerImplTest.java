@@ -0,0 +1,192 @@
+package ro.iordache.filestorage.rest.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ro.iordache.filestorage.repository.DeleteJob;
+import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StoredFile;
+import ro.iordache.filestorage.rest.BulkOperationResult;
+import ro.iordache.filestorage.rest.BulkOperationResult.FileStatus;
+import ro.iordache.filestorage.rest.DeleteJobResult;
+import ro.iordache.filestorage.rest.RESTApiResult;
+import ro.iordache.filestorage.rest.archive.ArchiveFormat;
+import ro.iordache.filestorage.rest.archive.TarArchiveReader;
+import ro.iordache.filestorage.rest.archive.TestArchives;
+
+/**
+ * Tests for the {@link BulkServiceHandlerImpl} handler
+ */
+@RunWith(SpringRunner.class)
+public class BulkServiceHandlerImplTest {
+    
+    @MockBean
+    private FileSystemStorageService storageService;
+    
+    @SpyBean
+    private BulkServiceHandlerImpl bulkService;
+    
+    @Test
+    public void testStoreArchive() throws Exception {
+        FileSystemStorageService.BulkStore bulkStore = Mockito.mock(FileSystemStorageService.BulkStore.class);
+        Mockito.when(storageService.startBulkStore()).thenReturn(bulkStore);
+        Mockito.when(bulkStore.storeFile(ArgumentMatchers.eq("new.txt"), ArgumentMatchers.any(InputStream.class), ArgumentMatchers.eq(3L)))
+            .thenReturn(true);
+        Mockito.when(bulkStore.storeFile(ArgumentMatchers.eq("existing.txt"), ArgumentMatchers.any(InputStream.class), ArgumentMatchers.eq(3L)))
+            .thenReturn(false);
+        Mockito.when(bulkStore.storeFile(ArgumentMatchers.eq("failing.txt"), ArgumentMatchers.any(InputStream.class), ArgumentMatchers.eq(3L)))
+            .thenThrow(RuntimeException.class);
+        
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        for (String fileName : new String[] {"new.txt", "existing.txt", "../invalid.txt", "failing.txt"}) {
+            TestArchives.writeEntry(archive, fileName, '0', "abc".getBytes(StandardCharsets.UTF_8));
+        }
+        archive.write(new byte[2 * TarArchiveReader.BLOCK_SIZE]);
+        
+        BulkOperationResult result = bulkService.storeArchive(new ByteArrayInputStream(archive.toByteArray()));
+        
+        Assert.assertEquals("Result should be success!", RESTApiResult.OK, result.getType());
+        Assert.assertEquals("Invalid created count!", 1, result.getCreated());
+        Assert.assertEquals("Invalid updated count!", 1, result.getUpdated());
+        Assert.assertEquals("Invalid failed count!", 2, result.getFailed());
+        Assert.assertEquals("Invalid file status!", FileStatus.INVALID_NAME, result.getResults().get(2).getStatus());
+        Assert.assertEquals("Invalid file status!", FileStatus.ERROR, result.getResults().get(3).getStatus());
+        
+        // invalid names are never stored, the new files reach the index once the store is closed
+        Mockito.verify(bulkStore, Mockito.never()).storeFile(ArgumentMatchers.eq("../invalid.txt"), 
+                ArgumentMatchers.any(InputStream.class), ArgumentMatchers.anyLong());
+        Mockito.verify(bulkStore).close();
+    }
+    
+    @Test
+    public void testStoreInvalidArchive() {
+        FileSystemStorageService.BulkStore bulkStore = Mockito.mock(FileSystemStorageService.BulkStore.class);
+        Mockito.when(storageService.startBulkStore()).thenReturn(bulkStore);
+        
+        byte[] notAnArchive = "not a tar archive".getBytes(StandardCharsets.UTF_8);
+        BulkOperationResult result = bulkService.storeArchive(new ByteArrayInputStream(notAnArchive));
+        
+        Assert.assertEquals("Invalid archives are bad requests!", RESTApiResult.BAD_REQUEST, result.getType());
+        Assert.assertNotNull("Error should be reported!", result.getError());
+        Mockito.verify(bulkStore).close();
+    }
+    
+    @Test
+    public void testWriteTarBundle() throws Exception {
+        byte[] largeContents = new byte[3 * BulkServiceHandlerImpl.READ_AHEAD_SIZE + 17];
+        Arrays.fill(largeContents, (byte) 'x');
+        Mockito.when(storageService.openStoredFile("large.bin")).thenReturn(new StoredFile(ByteBuffer.wrap(largeContents), 1000L, null, largeContents.length));
+        
+        // compressed files are bundled decoded
+        byte[] text = "compressed text".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzipStream = new GZIPOutputStream(gzipped);
+        gzipStream.write(text);
+        gzipStream.close();
+        Mockito.when(storageService.openStoredFile("text.txt"))
+            .thenReturn(new StoredFile(ByteBuffer.wrap(gzipped.toByteArray()), 1000L, "gzip", text.length));
+        
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        long written = bulkService.writeBundle(Arrays.asList("large.bin", "missing.txt", "../invalid.txt", "text.txt", "large.bin"),
+                ArchiveFormat.TAR, archive);
+        
+        Assert.assertEquals("Invalid number of bundled files!", 2, written);
+        Mockito.verify(storageService, Mockito.never()).openStoredFile("../invalid.txt");
+        
+        TarArchiveReader reader = new TarArchiveReader(new ByteArrayInputStream(archive.toByteArray()));
+        TarArchiveReader.Entry entry = reader.nextEntry();
+        Assert.assertEquals("Invalid entry name!", "large.bin", entry.getName());
+        Assert.assertArrayEquals("Invalid entry contents!", largeContents, readAll(reader.getEntryStream()));
+        entry = reader.nextEntry();
+        Assert.assertEquals("Invalid entry name!", "text.txt", entry.getName());
+        Assert.assertArrayEquals("Entry should be decoded!", text, readAll(reader.getEntryStream()));
+        Assert.assertNull("Duplicate names should be bundled once!", reader.nextEntry());
+    }
+    
+    @Test
+    public void testWriteZipBundle() throws Exception {
+        final Pattern pattern = Pattern.compile("file\\d\\.txt");
+        Mockito.when(storageService.enumerate(ArgumentMatchers.eq(pattern), ArgumentMatchers.any(FileSystemStorageService.EnumerationVisitor.class)))
+            .thenAnswer(new Answer<Long>() {
+                public Long answer(InvocationOnMock invocation) throws Throwable {
+                    FileSystemStorageService.EnumerationVisitor visitor = invocation.getArgument(1);
+                    for (int i = 1 ; i <= 3 ; i++) {
+                        visitor.visit("file" + i + ".txt");
+                    }
+                    return 3L;
+                }
+            });
+        for (int i = 1 ; i <= 3 ; i++) {
+            byte[] contents = ("contents " + i).getBytes(StandardCharsets.UTF_8);
+            Mockito.when(storageService.openStoredFile("file" + i + ".txt"))
+                .thenReturn(new StoredFile(ByteBuffer.wrap(contents), 1000L, null, contents.length));
+        }
+        
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        long written = bulkService.writeBundle(pattern, ArchiveFormat.ZIP, archive);
+        Assert.assertEquals("Invalid number of bundled files!", 3, written);
+        
+        List<String> entryNames = new ArrayList<String>();
+        ZipInputStream zipStream = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()));
+        ZipEntry zipEntry;
+        while ((zipEntry = zipStream.getNextEntry()) != null) {
+            entryNames.add(zipEntry.getName());
+            Assert.assertEquals("Invalid entry contents!", "contents " + entryNames.size(),
+                    new String(readAll(zipStream), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals("Invalid zip entries!", Arrays.asList("file1.txt", "file2.txt", "file3.txt"), entryNames);
+    }
+    
+    @Test
+    public void testDeleteFiles() throws Exception {
+        DeleteJob job = new DeleteJob("job1", 1000L);
+        job.startUnlinking(2, 1);
+        Mockito.when(storageService.deleteFiles(Arrays.asList("file1.txt", "file2.txt"))).thenReturn(job);
+        
+        // invalid names never reach the storage
+        DeleteJobResult result = bulkService.deleteFiles(Arrays.asList("file1.txt", "../invalid.txt", "file2.txt"));
+        Assert.assertEquals("Job should be created!", RESTApiResult.CREATED, result.getType());
+        Assert.assertEquals("Invalid job id!", "job1", result.getJobId());
+        Assert.assertEquals("Invalid job status!", DeleteJob.Status.RUNNING, result.getStatus());
+        Assert.assertEquals("Invalid number of deleted files!", Long.valueOf(2), result.getDeletedFiles());
+        
+        Mockito.when(storageService.getDeleteJob("job1")).thenReturn(job);
+        job.chunkUnlinked(2, 0);
+        result = bulkService.getDeleteJob("job1");
+        Assert.assertEquals("Invalid job status!", DeleteJob.Status.COMPLETED, result.getStatus());
+        Assert.assertEquals("Invalid number of unlinked files!", Long.valueOf(2), result.getUnlinkedFiles());
+        
+        Assert.assertEquals("Unknown jobs should not be found!", RESTApiResult.NOT_FOUND, bulkService.getDeleteJob("job2").getType());
+    }
+    
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            contents.write(buffer, 0, read);
+        }
+        return contents.toByteArray();
+    }
+}
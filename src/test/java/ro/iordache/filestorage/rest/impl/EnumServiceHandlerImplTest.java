@@ -1,5 +1,7 @@
 package ro.iordache.filestorage.rest.impl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -8,6 +10,8 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -56,4 +60,28 @@ public class EnumServiceHandlerImplTest {
         Assert.assertTrue("Invalid result contents!", mockResults.containsAll(result.getMatchingItems())
                 && result.getMatchingItems().containsAll(mockResults));
     }
+    
+    @Test
+    public void testStreamEnumeration() throws IOException {
+        final String[] mockResults = new String[] {"file1.txt", "file2.txt"};
+        
+        Pattern mockPattern = Mockito.mock(Pattern.class);
+        
+        Mockito.when(storageService.enumerate(Mockito.eq(mockPattern), Mockito.any(FileSystemStorageService.EnumerationVisitor.class)))
+            .thenAnswer(new Answer<Long>() {
+                public Long answer(InvocationOnMock invocation) throws IOException {
+                    FileSystemStorageService.EnumerationVisitor visitor = invocation.getArgument(1);
+                    for (String fileName : mockResults) {
+                        visitor.visit(fileName);
+                    }
+                    return (long) mockResults.length;
+                }
+            });
+        
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long matches = enumService.streamEnumeration(mockPattern, outputStream);
+        
+        Assert.assertEquals("Invalid number of streamed matches!", 2, matches);
+        Assert.assertEquals("Invalid NDJSON output!", "\"file1.txt\"\n\"file2.txt\"\n", outputStream.toString("UTF-8"));
+    }
 }
@@ -42,8 +42,9 @@ public class PutFileServiceHandlerTest {
             
             Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
             Mockito.when(accessRequest.getInputStream()).thenReturn(mockFileInputStream);
+            Mockito.when(accessRequest.getContentLength()).thenReturn(1024L);
             
-            Mockito.when(storageService.storeFile(mockFileName, mockFileInputStream)).thenReturn(true).thenReturn(false);
+            Mockito.when(storageService.storeFile(mockFileName, mockFileInputStream, 1024L)).thenReturn(true).thenReturn(false);
             
             // first test the newly created case
             FileAccessResult result = putHandler.doAction(accessRequest);
@@ -66,8 +67,9 @@ public class PutFileServiceHandlerTest {
             
             Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
             Mockito.when(accessRequest.getInputStream()).thenReturn(mockFileInputStream);
+            Mockito.when(accessRequest.getContentLength()).thenReturn(1024L);
             
-            Mockito.when(storageService.storeFile(mockFileName, mockFileInputStream)).thenThrow(RuntimeException.class);
+            Mockito.when(storageService.storeFile(mockFileName, mockFileInputStream, 1024L)).thenThrow(RuntimeException.class);
             
             FileAccessResult result = putHandler.doAction(accessRequest);
             
@@ -0,0 +1,66 @@
+package ro.iordache.filestorage.rest.impl;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StoredFileInfo;
+import ro.iordache.filestorage.rest.FileAccessOperation;
+import ro.iordache.filestorage.rest.FileAccessRequest;
+import ro.iordache.filestorage.rest.FileAccessResult;
+
+/**
+ * Tests for the {@link ReadFileMetadataServiceHandler}
+ */
+@RunWith(SpringRunner.class)
+public class ReadFileMetadataServiceHandlerTest {
+    
+    @MockBean
+    private FileSystemStorageService storageService;
+    
+    @SpyBean
+    private ReadFileMetadataServiceHandler metadataHandler;
+    
+    @Test
+    public void testGetOperationType() {
+        Assert.assertEquals("Invalid operation type for metadata handler", FileAccessOperation.READ_METADATA, metadataHandler.getOperationType());
+    }
+    
+    @Test
+    public void testHandlerResultNotFound() {
+        FileAccessRequest accessRequest = Mockito.mock(FileAccessRequest.class);
+        FileAccessResult result = metadataHandler.doAction(accessRequest);
+        
+        Assert.assertEquals("Result should be not found for missing file!", FileAccessResult.NOT_FOUND, result.getType());
+    }
+    
+    @Test
+    public void testHandlerResultOk() throws IOException {
+        String mockFileName = "mockfile.txt";
+        FileAccessRequest accessRequest = Mockito.mock(FileAccessRequest.class);
+        StoredFileInfo fileInfo = new StoredFileInfo(1024, System.currentTimeMillis(), null, null, 1024);
+        
+        Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
+        Mockito.when(storageService.getFileInfo(mockFileName)).thenReturn(fileInfo);
+        
+        FileAccessResult result = metadataHandler.doAction(accessRequest);
+        
+        Assert.assertEquals("Result should be success", FileAccessResult.OK, result.getType());
+        Assert.assertEquals("Action result should contain the file metadata", fileInfo, result.getFileInfo());
+        Assert.assertNull("Action result should have no file contents", result.getInputStream());
+        
+        Mockito.when(accessRequest.checkNotModified(Mockito.anyLong())).thenReturn(true);
+        result = metadataHandler.doAction(accessRequest);
+        
+        Assert.assertEquals("Result should be not modified", FileAccessResult.NOT_MODIFIED, result.getType());
+        Mockito.verify(storageService, Mockito.never()).getFileContent(mockFileName);
+        Mockito.verify(storageService, Mockito.never()).openStoredFile(mockFileName);
+    }
+}
@@ -10,8 +10,11 @@ import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import ro.iordache.filestorage.repository.FileSystemStorageService;
+import ro.iordache.filestorage.repository.StoredFile;
+import ro.iordache.filestorage.repository.StoredFileInfo;
 import ro.iordache.filestorage.repository.util.FileSystemStorageHelperImpl;
 import ro.iordache.filestorage.rest.FileAccessOperation;
 import ro.iordache.filestorage.rest.FileAccessRequest;
@@ -53,6 +56,7 @@ public class ReadFileServiceHandlerTest {
             InputStream mockFileInputStream = Mockito.mock(InputStream.class);
             
             Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
+            Mockito.when(storageService.getFileInfo(mockFileName)).thenReturn(new StoredFileInfo(10, System.currentTimeMillis(), null, null, 10));
             Mockito.when(storageService.getFileContent(mockFileName)).thenReturn(mockFileInputStream);
             
             FileAccessResult result = readHandler.doAction(accessRequest);
@@ -75,11 +79,12 @@ public class ReadFileServiceHandlerTest {
             Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
             Mockito.when(accessRequest.checkNotModified(Mockito.anyLong())).thenReturn(true);
             Mockito.when(storageService.getFileContent(mockFileName)).thenReturn(mockFileInputStream);
-            Mockito.when(storageService.getFileLastModified(mockFileName)).thenReturn(System.currentTimeMillis());
+            Mockito.when(storageService.getFileInfo(mockFileName)).thenReturn(new StoredFileInfo(10, System.currentTimeMillis(), null, null, 10));
             
             FileAccessResult result = readHandler.doAction(accessRequest);
             
             Assert.assertEquals("Result should be success",FileAccessResult.NOT_MODIFIED, result.getType());
+            Mockito.verify(storageService, Mockito.never()).getFileContent(mockFileName);
         } catch (Exception e) {
             e.printStackTrace();
             Assert.fail("Exception thrown, test failed!");
@@ -93,6 +98,7 @@ public class ReadFileServiceHandlerTest {
             FileAccessRequest accessRequest = Mockito.mock(FileAccessRequest.class);
             
             Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
+            Mockito.when(storageService.getFileInfo(mockFileName)).thenReturn(new StoredFileInfo(10, System.currentTimeMillis(), null, null, 10));
             Mockito.when(storageService.getFileContent(mockFileName)).thenThrow(new IOException("mock exception"));
             
             FileAccessResult result = readHandler.doAction(accessRequest);
@@ -102,4 +108,90 @@ public class ReadFileServiceHandlerTest {
             Assert.fail("Exception thrown, test failed!");
         }
     }
+    
+    @Test
+    public void testHandlerZeroCopyResultOk() throws IOException {
+        String mockFileName = "mockfile.txt";
+        FileAccessRequest accessRequest = Mockito.mock(FileAccessRequest.class);
+        StoredFile mockStoredFile = Mockito.mock(StoredFile.class);
+        
+        Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
+        Mockito.when(storageService.getFileInfo(mockFileName)).thenReturn(new StoredFileInfo(10, System.currentTimeMillis(), null, null, 10));
+        Mockito.when(storageService.openStoredFile(mockFileName)).thenReturn(mockStoredFile);
+        
+        ReflectionTestUtils.setField(readHandler, "zeroCopyReads", true);
+        try {
+            FileAccessResult result = readHandler.doAction(accessRequest);
+            
+            Assert.assertEquals("Result should be success", FileAccessResult.OK, result.getType());
+            Assert.assertEquals("Action result should contain the opened file", mockStoredFile, result.getStoredFile());
+            
+            Mockito.when(accessRequest.checkNotModified(Mockito.anyLong())).thenReturn(true);
+            result = readHandler.doAction(accessRequest);
+            
+            Assert.assertEquals("Result should be not modified", FileAccessResult.NOT_MODIFIED, result.getType());
+            Mockito.verify(storageService, Mockito.times(1)).openStoredFile(mockFileName);
+        } finally {
+            ReflectionTestUtils.setField(readHandler, "zeroCopyReads", false);
+        }
+    }
+    
+    @Test
+    public void testHandlerResultNoneMatch() throws IOException {
+        String mockFileName = "mockfile.txt";
+        String eTag = "\"0123abcd\"";
+        FileAccessRequest accessRequest = Mockito.mock(FileAccessRequest.class);
+        
+        Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
+        Mockito.when(accessRequest.isNoneMatchRequested()).thenReturn(true);
+        Mockito.when(accessRequest.checkNoneMatch(eTag)).thenReturn(true);
+        // entity tags take precedence over the modified since date
+        Mockito.when(accessRequest.checkNotModified(Mockito.anyLong())).thenReturn(false);
+        Mockito.when(storageService.getFileInfo(mockFileName)).thenReturn(new StoredFileInfo(10, System.currentTimeMillis(), eTag, null, 10));
+        
+        FileAccessResult result = readHandler.doAction(accessRequest);
+        
+        Assert.assertEquals("Result should be not modified", FileAccessResult.NOT_MODIFIED, result.getType());
+        Assert.assertEquals("Not modified result should carry the entity tag", eTag, result.getETag());
+        Mockito.verify(storageService, Mockito.never()).getFileContent(mockFileName);
+        Mockito.verify(storageService, Mockito.never()).openStoredFile(mockFileName);
+    }
+    
+    @Test
+    public void testHandlerCompressedFile() throws IOException {
+        String mockFileName = "mockfile.txt";
+        FileAccessRequest accessRequest = Mockito.mock(FileAccessRequest.class);
+        StoredFile mockStoredFile = Mockito.mock(StoredFile.class);
+        InputStream mockFileInputStream = Mockito.mock(InputStream.class);
+        
+        Mockito.when(accessRequest.getFileName()).thenReturn(mockFileName);
+        Mockito.when(storageService.getFileInfo(mockFileName))
+                .thenReturn(new StoredFileInfo(1000, System.currentTimeMillis(), "\"0123abcd\"", "gzip", 100));
+        Mockito.when(mockStoredFile.getContentEncoding()).thenReturn("gzip");
+        Mockito.when(mockStoredFile.getContentSize()).thenReturn(1000L);
+        Mockito.when(storageService.openStoredFile(mockFileName)).thenReturn(mockStoredFile);
+        Mockito.when(storageService.getDecodedContent(mockStoredFile)).thenReturn(mockFileInputStream);
+        
+        // clients accepting gzip get the compressed file as stored
+        Mockito.when(accessRequest.acceptsEncoding("gzip")).thenReturn(true);
+        FileAccessResult result = readHandler.doAction(accessRequest);
+        Assert.assertEquals("Result should be success", FileAccessResult.OK, result.getType());
+        Assert.assertEquals("Action result should contain the stored file", mockStoredFile, result.getStoredFile());
+        Assert.assertEquals("Invalid content coding", "gzip", result.getContentEncoding());
+        Assert.assertEquals("Invalid entity tag of the compressed contents", "\"0123abcd-gzip\"", result.getETag());
+        Assert.assertTrue("Result should vary by content coding", result.isVaryEncoding());
+        
+        // the others get the decoded contents, whole and with their decoded length
+        Mockito.when(accessRequest.acceptsEncoding("gzip")).thenReturn(false);
+        Mockito.when(accessRequest.isRangeRequested()).thenReturn(true);
+        result = readHandler.doAction(accessRequest);
+        Assert.assertEquals("Result should be success", FileAccessResult.OK, result.getType());
+        Assert.assertEquals("Action result should contain the decoded contents", mockFileInputStream, result.getInputStream().getInputStream());
+        Assert.assertEquals("Invalid decoded contents length", 1000, result.getContentLength());
+        Assert.assertNull("Decoded contents should have no content coding", result.getContentEncoding());
+        Assert.assertEquals("Invalid entity tag of the decoded contents", "\"0123abcd\"", result.getETag());
+        Assert.assertTrue("Result should vary by content coding", result.isVaryEncoding());
+        Mockito.verify(storageService, Mockito.times(2)).openStoredFile(mockFileName);
+        Mockito.verify(storageService, Mockito.never()).getFileContent(mockFileName);
+    }
 }
@@ -0,0 +1,121 @@
+package ro.iordache.filestorage.web.async;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import ro.iordache.filestorage.repository.StoredFile;
+
+/**
+ * Tests the {@link AsyncDownloadListener} class
+ */
+public class AsyncDownloadListenerTest {
+    
+    private AsyncContext asyncContext;
+    
+    private ServletOutputStream outputStream;
+    
+    private AsynchronousFileChannel channel;
+    
+    private StoredFile storedFile;
+    
+    @Before
+    public void setUp() throws IOException {
+        asyncContext = Mockito.mock(AsyncContext.class);
+        outputStream = Mockito.mock(ServletOutputStream.class);
+        HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+        Mockito.when(response.getOutputStream()).thenReturn(outputStream);
+        Mockito.when(asyncContext.getResponse()).thenReturn(response);
+        
+        channel = Mockito.mock(AsynchronousFileChannel.class);
+        storedFile = Mockito.mock(StoredFile.class);
+        Mockito.when(storedFile.getAsyncChannel()).thenReturn(channel);
+    }
+    
+    @Test
+    public void testWriteReadHandOff() throws IOException {
+        Mockito.when(storedFile.getSize()).thenReturn(100 * 1024L);
+        AsyncDownloadListener listener = new AsyncDownloadListener(asyncContext, storedFile);
+        
+        // a single read is pending at a time, started once the previous contents are written
+        Mockito.when(outputStream.isReady()).thenReturn(true);
+        listener.onWritePossible();
+        completeRead(0, 64 * 1024);
+        Mockito.verify(outputStream).write(ArgumentMatchers.any(byte[].class), ArgumentMatchers.eq(0), ArgumentMatchers.eq(64 * 1024));
+        
+        // the socket is full, the next contents waiting for the container to call the listener
+        Mockito.when(outputStream.isReady()).thenReturn(false);
+        completeRead(64 * 1024, 36 * 1024);
+        Mockito.verify(outputStream, Mockito.times(1)).write(ArgumentMatchers.any(byte[].class), ArgumentMatchers.anyInt(),
+                ArgumentMatchers.anyInt());
+        
+        Mockito.when(outputStream.isReady()).thenReturn(true);
+        listener.onWritePossible();
+        Mockito.verify(outputStream).write(ArgumentMatchers.any(byte[].class), ArgumentMatchers.eq(0), ArgumentMatchers.eq(36 * 1024));
+        Mockito.verify(channel, Mockito.times(2)).read(ArgumentMatchers.any(ByteBuffer.class), ArgumentMatchers.anyLong(),
+                ArgumentMatchers.any(), ArgumentMatchers.any());
+        Mockito.verify(storedFile).close();
+        Mockito.verify(asyncContext).complete();
+    }
+    
+    @Test
+    public void testTruncatedFile() throws IOException {
+        Mockito.when(storedFile.getSize()).thenReturn(1000L);
+        AsyncDownloadListener listener = new AsyncDownloadListener(asyncContext, storedFile);
+        Mockito.when(outputStream.isReady()).thenReturn(true);
+        
+        // the file was truncated since it was opened
+        listener.onWritePossible();
+        readHandler(0).completed(-1, null);
+        
+        Mockito.verify(outputStream, Mockito.never()).write(ArgumentMatchers.any(byte[].class), ArgumentMatchers.anyInt(),
+                ArgumentMatchers.anyInt());
+        Mockito.verify(storedFile).close();
+        Mockito.verify(asyncContext).complete();
+    }
+    
+    @Test
+    public void testClientGone() throws IOException {
+        Mockito.when(storedFile.getSize()).thenReturn(1000L);
+        AsyncDownloadListener listener = new AsyncDownloadListener(asyncContext, storedFile);
+        Mockito.when(outputStream.isReady()).thenReturn(true);
+        
+        listener.onWritePossible();
+        listener.onError(new IOException("Broken pipe"));
+        
+        // the container completes the request itself
+        Mockito.verify(storedFile).close();
+        Mockito.verify(asyncContext, Mockito.never()).complete();
+    }
+    
+    /**
+     * Completes the pending read of the stored file channel at the given position
+     */
+    private void completeRead(long position, int length) {
+        ArgumentCaptor<ByteBuffer> contents = ArgumentCaptor.forClass(ByteBuffer.class);
+        CompletionHandler<Integer, Object> handler = readHandler(contents, position);
+        contents.getValue().position(contents.getValue().position() + length);
+        handler.completed(length, null);
+    }
+    
+    private CompletionHandler<Integer, Object> readHandler(long position) {
+        return readHandler(ArgumentCaptor.forClass(ByteBuffer.class), position);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private CompletionHandler<Integer, Object> readHandler(ArgumentCaptor<ByteBuffer> contents, long position) {
+        ArgumentCaptor<CompletionHandler> handler = ArgumentCaptor.forClass(CompletionHandler.class);
+        Mockito.verify(channel).read(contents.capture(), ArgumentMatchers.eq(position), ArgumentMatchers.any(), handler.capture());
+        return handler.getValue();
+    }
+}
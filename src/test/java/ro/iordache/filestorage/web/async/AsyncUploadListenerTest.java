@@ -0,0 +1,199 @@
+package ro.iordache.filestorage.web.async;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.http.HttpHeaders;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import ro.iordache.filestorage.repository.StagedUpload;
+import ro.iordache.filestorage.rest.AsyncUploadServiceHandler;
+import ro.iordache.filestorage.rest.FileAccessResult;
+
+/**
+ * Tests the {@link AsyncUploadListener} class
+ */
+public class AsyncUploadListenerTest {
+    
+    private AsyncContext asyncContext;
+    
+    private ServletInputStream inputStream;
+    
+    private HttpServletResponse response;
+    
+    private AsynchronousFileChannel channel;
+    
+    private AsyncUploadServiceHandler uploadHandler;
+    
+    private StagedUpload stagedUpload;
+    
+    /**
+     * Tasks dispatched to container threads
+     */
+    private ArgumentCaptor<Runnable> dispatchedTasks;
+    
+    @Before
+    public void setUp() throws Exception {
+        asyncContext = Mockito.mock(AsyncContext.class);
+        inputStream = Mockito.mock(ServletInputStream.class);
+        response = Mockito.mock(HttpServletResponse.class);
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getInputStream()).thenReturn(inputStream);
+        Mockito.when(request.getContentLengthLong()).thenReturn(10L);
+        Mockito.when(asyncContext.getRequest()).thenReturn(request);
+        Mockito.when(asyncContext.getResponse()).thenReturn(response);
+        dispatchedTasks = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.doNothing().when(asyncContext).start(dispatchedTasks.capture());
+        
+        channel = Mockito.mock(AsynchronousFileChannel.class);
+        uploadHandler = Mockito.mock(AsyncUploadServiceHandler.class);
+        stagedUpload = new StagedUpload("file.txt", Paths.get("file.txt.tmp"), channel, MessageDigest.getInstance("SHA-256"));
+    }
+    
+    @Test
+    public void testReadWriteHandOff() throws Exception {
+        AsyncUploadListener listener = createListener();
+        Mockito.when(inputStream.isReady()).thenReturn(true, true, false);
+        mockReads(5, 5);
+        
+        // a single read is written at a time, the next read waiting for the write to complete
+        listener.onDataAvailable();
+        Mockito.verify(inputStream, Mockito.times(1)).read(ArgumentMatchers.any(byte[].class));
+        completeWrite(0, 5);
+        Mockito.verify(inputStream, Mockito.times(2)).read(ArgumentMatchers.any(byte[].class));
+        completeWrite(5, 5);
+        Assert.assertEquals("Invalid staged size!", 10, stagedUpload.getPosition());
+        
+        // no more data until the container calls the listener again
+        Mockito.verify(inputStream, Mockito.times(3)).isReady();
+        Mockito.verify(uploadHandler, Mockito.never()).completeUpload(stagedUpload);
+        
+        Mockito.when(uploadHandler.completeUpload(stagedUpload)).thenReturn(FileAccessResult.build(FileAccessResult.CREATED));
+        listener.onAllDataRead();
+        
+        // committed on a container thread
+        Mockito.verify(uploadHandler, Mockito.never()).completeUpload(stagedUpload);
+        dispatchedTasks.getValue().run();
+        Mockito.verify(uploadHandler).completeUpload(stagedUpload);
+        Mockito.verify(response).setStatus(201);
+        Mockito.verify(response).setHeader(HttpHeaders.LOCATION, "/api/v1/files/file.txt");
+        Mockito.verify(asyncContext).complete();
+    }
+    
+    @Test
+    public void testAllDataReadWhileWriting() throws Exception {
+        AsyncUploadListener listener = createListener();
+        Mockito.when(inputStream.isReady()).thenReturn(true, false);
+        mockReads(10);
+        Mockito.when(uploadHandler.completeUpload(stagedUpload)).thenReturn(FileAccessResult.build(FileAccessResult.OK));
+        
+        // the end of the body is signaled before the last read is written
+        listener.onDataAvailable();
+        listener.onAllDataRead();
+        Mockito.verify(asyncContext, Mockito.never()).start(ArgumentMatchers.any(Runnable.class));
+        
+        // committed once, by the last write completion
+        completeWrite(0, 10);
+        Mockito.verify(asyncContext, Mockito.times(1)).start(ArgumentMatchers.any(Runnable.class));
+        dispatchedTasks.getValue().run();
+        
+        listener.onAllDataRead();
+        Mockito.verify(asyncContext, Mockito.times(1)).start(ArgumentMatchers.any(Runnable.class));
+        Mockito.verify(uploadHandler, Mockito.times(1)).completeUpload(stagedUpload);
+        Mockito.verify(response).setStatus(200);
+        Mockito.verify(asyncContext, Mockito.times(1)).complete();
+    }
+    
+    @Test
+    public void testTruncatedUpload() throws Exception {
+        AsyncUploadListener listener = createListener();
+        Mockito.when(inputStream.isReady()).thenReturn(true, false);
+        mockReads(5);
+        
+        // the client went away before sending the whole body
+        listener.onDataAvailable();
+        completeWrite(0, 5);
+        listener.onError(new IOException("Connection reset"));
+        
+        Mockito.verify(uploadHandler).abortUpload(stagedUpload);
+        Mockito.verify(uploadHandler, Mockito.never()).completeUpload(stagedUpload);
+        Mockito.verify(response).setStatus(500);
+        Mockito.verify(asyncContext).complete();
+        
+        // a late end of the body doesn't commit the aborted upload
+        listener.onAllDataRead();
+        Mockito.verify(asyncContext, Mockito.never()).start(ArgumentMatchers.any(Runnable.class));
+    }
+    
+    @Test
+    public void testFailedWrite() throws Exception {
+        AsyncUploadListener listener = createListener();
+        Mockito.when(inputStream.isReady()).thenReturn(true, false);
+        mockReads(5);
+        
+        listener.onDataAvailable();
+        listener.onAllDataRead();
+        writeHandler().failed(new IOException("No space left on device"), null);
+        
+        Mockito.verify(uploadHandler).abortUpload(stagedUpload);
+        Mockito.verify(uploadHandler, Mockito.never()).completeUpload(stagedUpload);
+        Mockito.verify(asyncContext, Mockito.never()).start(ArgumentMatchers.any(Runnable.class));
+        Mockito.verify(response).setStatus(500);
+    }
+    
+    private AsyncUploadListener createListener() throws IOException {
+        return new AsyncUploadListener(asyncContext, uploadHandler, stagedUpload, URI.create("/api/v1/files/file.txt"));
+    }
+    
+    /**
+     * Makes the consecutive reads of the request body return the given numbers of bytes
+     */
+    private void mockReads(final int... lengths) throws IOException {
+        Mockito.when(inputStream.read(ArgumentMatchers.any(byte[].class))).thenAnswer(new Answer<Integer>() {
+            private int reads;
+            
+            public Integer answer(InvocationOnMock invocation) {
+                return reads < lengths.length ? lengths[reads++] : -1;
+            }
+        });
+    }
+    
+    /**
+     * Completes the pending write of the staged file channel at the given position
+     */
+    private void completeWrite(long position, int length) {
+        ArgumentCaptor<ByteBuffer> contents = ArgumentCaptor.forClass(ByteBuffer.class);
+        CompletionHandler<Integer, Object> handler = writeHandler(contents, position);
+        Assert.assertEquals("Invalid written length!", length, contents.getValue().remaining());
+        contents.getValue().position(contents.getValue().limit());
+        handler.completed(length, null);
+    }
+    
+    private CompletionHandler<Integer, Object> writeHandler() {
+        return writeHandler(ArgumentCaptor.forClass(ByteBuffer.class), 0);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private CompletionHandler<Integer, Object> writeHandler(ArgumentCaptor<ByteBuffer> contents, long position) {
+        ArgumentCaptor<CompletionHandler> handler = ArgumentCaptor.forClass(CompletionHandler.class);
+        Mockito.verify(channel, Mockito.atLeastOnce()).write(contents.capture(), ArgumentMatchers.eq(position), ArgumentMatchers.any(),
+                handler.capture());
+        return handler.getValue();
+    }
+}
@@ -0,0 +1,70 @@
+package ro.iordache.filestorage.web.converter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import ro.iordache.filestorage.repository.StoredFile;
+
+/**
+ * Tests for the {@link StoredFileHttpMessageConverter}
+ */
+public class StoredFileHttpMessageConverterTest {
+    
+    private Path file;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("converter", ".bin");
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(file);
+    }
+    
+    @Test
+    public void testWriteStoredFile() throws IOException {
+        byte[] contents = new byte[200 * 1024];
+        Arrays.fill(contents, (byte) 'x');
+        Files.write(file, contents);
+        
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        StoredFile storedFile = new StoredFile(file, channel, contents.length, 0, null, contents.length);
+        
+        StoredFileHttpMessageConverter converter = new StoredFileHttpMessageConverter();
+        Assert.assertTrue("Converter should write stored files!", converter.canWrite(StoredFile.class, MediaType.APPLICATION_OCTET_STREAM));
+        
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(storedFile, null, outputMessage);
+        
+        Assert.assertArrayEquals("Invalid written contents!", contents, outputMessage.getBodyAsBytes());
+        Assert.assertEquals("Invalid content length!", contents.length, outputMessage.getHeaders().getContentLength());
+        Assert.assertFalse("Stored file should be closed once written!", channel.isOpen());
+    }
+    
+    @Test
+    public void testWriteDeletedStoredFile() throws IOException {
+        byte[] contents = "deleted while open".getBytes("UTF-8");
+        Files.write(file, contents);
+        
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        StoredFile storedFile = new StoredFile(file, channel, contents.length, 0, null, contents.length);
+        Files.delete(file);
+        
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        new StoredFileHttpMessageConverter().write(storedFile, null, outputMessage);
+        
+        Assert.assertArrayEquals("Deleted file should still be readable through the open channel!", contents, outputMessage.getBodyAsBytes());
+    }
+}
@@ -0,0 +1,67 @@
+package ro.iordache.filestorage.web.converter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import ro.iordache.filestorage.repository.StoredFile;
+
+/**
+ * Tests for the {@link StoredFileRangesHttpMessageConverter}
+ */
+public class StoredFileRangesHttpMessageConverterTest {
+    
+    private static final String CONTENTS = "0123456789abcdefghij";
+    
+    private Path file;
+    
+    private StoredFile storedFile;
+    
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("ranges", ".bin");
+        Files.write(file, CONTENTS.getBytes("US-ASCII"));
+        storedFile = new StoredFile(file, FileChannel.open(file, StandardOpenOption.READ), CONTENTS.length(), 0, null, CONTENTS.length());
+    }
+    
+    @After
+    public void cleanUp() throws IOException {
+        storedFile.close();
+        Files.deleteIfExists(file);
+    }
+    
+    @Test
+    public void testWriteSingleRange() throws IOException {
+        StoredFileRanges ranges = new StoredFileRanges(storedFile, new long[] {5}, new long[] {9}, null);
+        Assert.assertEquals("Invalid content range!", "bytes 5-9/20", ranges.getContentRange(0));
+        
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        new StoredFileRangesHttpMessageConverter().write(ranges, null, outputMessage);
+        
+        Assert.assertEquals("Invalid range contents!", "56789", outputMessage.getBodyAsString());
+        Assert.assertEquals("Invalid content length!", 5, outputMessage.getHeaders().getContentLength());
+    }
+    
+    @Test
+    public void testWriteMultipleRanges() throws IOException {
+        StoredFileRanges ranges = new StoredFileRanges(storedFile, new long[] {0, 18}, new long[] {1, 19}, "BOUNDARY");
+        
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        new StoredFileRangesHttpMessageConverter().write(ranges, null, outputMessage);
+        
+        String expectedBody = "\r\n--BOUNDARY\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes 0-1/20\r\n\r\n01"
+                + "\r\n--BOUNDARY\r\nContent-Type: application/octet-stream\r\nContent-Range: bytes 18-19/20\r\n\r\nij"
+                + "\r\n--BOUNDARY--\r\n";
+        Assert.assertEquals("Invalid multipart body!", expectedBody, outputMessage.getBodyAsString());
+        Assert.assertEquals("Content length should match the multipart body!", expectedBody.length(), outputMessage.getHeaders().getContentLength());
+        Assert.assertEquals("Invalid multipart content type!", "multipart/byteranges;boundary=BOUNDARY", outputMessage.getHeaders().getContentType().toString());
+    }
+}